@@ -2,6 +2,7 @@ package io.github.pieter12345.woeshbackup;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -71,6 +72,31 @@ public interface Backup {
 	public void restore(long beforeDate, BackupRestoreWriterFactory restoreWriterFactory)
 			throws BackupException, InterruptedException;
 	
+	/**
+	 * Rolls the to-backup directory back to its state at the given timestamp, rounding down to the closest older
+	 * backup. Only files that differ from their version in that state are written, files that did not exist in that
+	 * state are removed and ignored files are left alone. The to-backup directory must not be in use while it is
+	 * being rolled back. When the rollback fails, it can be performed again to finish it.
+	 * @param beforeDate - The timestamp threshold for rolling back.
+	 * The state that is rolled back to will always be older or equal to this date.
+	 * @throws BackupException When the to-backup directory was not rolled back successfully.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	public void rollback(long beforeDate) throws BackupException, InterruptedException;
+	
+	/**
+	 * Reads a single file as it was at the given timestamp, rounding down to the closest older backup.
+	 * Unlike {@link #restore(long, BackupRestoreWriterFactory)}, only the backup parts that are needed to obtain the
+	 * file are read.
+	 * @param beforeDate - The timestamp threshold for restoring.
+	 * The restored file will always be older or equal to this date.
+	 * @param relPath - The path of the file, relative to the to-backup directory.
+	 * @return A stream containing the file contents or {@code null} if the file did not exist at the given date,
+	 * is a directory or is ignored. The stream has to be closed by the caller.
+	 * @throws BackupException When no backup exists before the given date or the file could not be read.
+	 */
+	public InputStream readFile(long beforeDate, String relPath) throws BackupException;
+	
 	/**
 	 * Gets the directory that is being backupped by this {@link Backup}.
 	 * @return The directory that is being backupped by this {@link Backup}
@@ -2,6 +2,7 @@ package io.github.pieter12345.woeshbackup;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 
@@ -33,6 +34,22 @@ public interface BackupPart {
 	 */
 	public void addModification(String relPath, File file) throws IOException;
 	
+	/**
+	 * Add a file modification to the backup. Implementations may store the modification relative to the given
+	 * previous version of the file, in which case the change type of the modification is
+	 * {@link ChangeType#MODIFICATION}. The default implementation ignores the previous version.
+	 * @param relPath - The relative path to the file that was modified.
+	 * The full path would be toBackupDir + File.separator + relPath.
+	 * Paths to directories should end with a file separator and paths to normal files should not.
+	 * @param file - The file that was modified. Ignored when the relPath points to a directory.
+	 * @param previousVersion - The supplier of the previous version of the file or {@code null} if not available.
+	 * @throws IOException When an I/O error occurs while reading the file or writing to the backup part.
+	 */
+	public default void addModification(
+			String relPath, File file, FileVersionSupplier previousVersion) throws IOException {
+		this.addModification(relPath, file);
+	}
+	
 	/**
 	 * Add a file removal to the backup.
 	 * @param relPath - The relative path to the file that was removed.
@@ -45,6 +62,8 @@ public interface BackupPart {
 	/**
 	 * Loops over the given backup part and adds its changes to this backup part without overwriting changes in this
 	 * backup, effectively merging the backup treatening this backup as the most recent (dominant) backup.
+	 * Changes of type {@link ChangeType#MODIFICATION} are copied as they are, so they remain relative to the
+	 * version of the file before the given backup part.
 	 * @param backup - The backup part who's changes to add to this backup part.
 	 * @throws IOException When an I/O error occurs while reading from or writing to the backup parts.
 	 * @throws CorruptedBackupException If the given backup part is corrupted.
@@ -74,6 +93,33 @@ public interface BackupPart {
 	 */
 	public boolean contains(String relPath, File file, boolean compareContent) throws IOException;
 	
+	/**
+	 * Gets a digest of the contents of the file at the given path in this backup part. The digest can be stored
+	 * outside of this backup part and later be compared with a file using {@link #matchesDigest(String, File)},
+	 * which does not require the changes of this backup part to be read.
+	 * The default implementation returns {@code null}.
+	 * @param relPath - The relative path to the file.
+	 * @return The digest or {@code null} if this backup part does not contain an addition or modification of the file,
+	 * if the path denotes a directory or if no digest is available.
+	 */
+	public default String getDigest(String relPath) {
+		return null;
+	}
+	
+	/**
+	 * Checks whether the given file has the contents described by the given digest. This is equivalent to
+	 * {@link #contains(String, File, boolean)} with content comparison in the backup part that created the digest.
+	 * @param digest - The digest, obtained from {@link #getDigest(String)} of a backup part of the same type.
+	 * @param file - The file to compare the contents of.
+	 * @return True if the file contents match the digest, false otherwise.
+	 * @throws IOException When an I/O error occurs while reading the file.
+	 * @throws UnsupportedOperationException If this backup part does not provide digests.
+	 */
+	public default boolean matchesDigest(String digest, File file) throws IOException {
+		throw new UnsupportedOperationException(
+				"Backup parts of type " + this.getClass().getName() + " do not provide digests.");
+	}
+	
 	/**
 	 * Reads the changes from this backup from the storage. Changes can be obtained using {@link #getChanges()}.
 	 * @throws IOException When an I/O error occurs while reading the changes.
@@ -86,6 +132,7 @@ public interface BackupPart {
 	 * Directory paths are suffixed with a file separator ('/' or '\').
 	 * Changes can be initialized from storage using {@link #readChanges()} or by adding changes directly.
 	 * Example return: {"my/directory/": ADDITION, "someFile.db": REMOVAL, "some/other/file.txt": ADDITION}.
+	 * The returned map can be a read-only view of the changes, so callers that modify the changes should copy it.
 	 * @return The changes.
 	 * @throws IOException When an I/O error occurs while reading the paths.
 	 * @throws IllegalStateException When the changes are not yet initialized.
@@ -111,10 +158,26 @@ public interface BackupPart {
 	 */
 	public void delete() throws IOException;
 	
+	/**
+	 * Reads the file at the given path from this backup part.
+	 * @param relPath - The relative path to the file.
+	 * @param previousVersion - The supplier of the version of the file before this backup part. This is only used
+	 * when the change of the file is a {@link ChangeType#MODIFICATION}.
+	 * @return A stream containing the file contents or {@code null} if this backup part does not contain an addition
+	 * or modification of the file or if the path denotes a directory.
+	 * @throws IOException If an I/O error has occurred.
+	 * @throws CorruptedBackupException If the file could not be read from this backup part or if the previous
+	 * version of a modified file is not available.
+	 */
+	public InputStream readFile(String relPath,
+			FileVersionSupplier previousVersion) throws IOException, CorruptedBackupException;
+	
 	/**
 	 * Reads all file entries in this backup part and passes them to the given handler.
 	 * These should be the added and/or modified files returned by {@link #getChanges()},
 	 * but this might not be the case for corrupted backups.
+	 * The entries of changes of type {@link ChangeType#MODIFICATION} contain implementation-specific data
+	 * rather than the file contents.
 	 * Note that the given handler is not allowed to call this method.
 	 * @param handler - The handler for the zip file entry.
 	 * @throws InvocationTargetException If invoking the handler results in a throwable being thrown.
@@ -122,12 +185,42 @@ public interface BackupPart {
 	 */
 	public void readAll(FileEntryHandler handler) throws InvocationTargetException, IOException;
 	
+	/**
+	 * Gets a human readable summary of the storage statistics of the changes that were added to this backup part
+	 * through this instance.
+	 * @return The summary or {@code null} if this backup part has no summary.
+	 */
+	public default String getSummary() {
+		return null;
+	}
+	
 	/**
 	 * The change type of a backup change entry.
 	 * @author P.J.S. Kools
 	 */
 	public enum ChangeType {
 		ADDITION,
-		REMOVAL;
+		REMOVAL,
+		
+		/**
+		 * A modification that is stored relative to the previous version of the file.
+		 */
+		MODIFICATION;
+	}
+	
+	/**
+	 * Supplies a version of a file from the backup.
+	 * @author P.J.S. Kools
+	 */
+	@FunctionalInterface
+	public interface FileVersionSupplier {
+		
+		/**
+		 * Opens the file version.
+		 * @return A stream containing the file contents or {@code null} if the file does not exist in this version.
+		 * @throws IOException If an I/O error has occurred.
+		 * @throws CorruptedBackupException If the file version could not be read from the backup.
+		 */
+		public InputStream open() throws IOException, CorruptedBackupException;
 	}
 }
@@ -0,0 +1,224 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Used to write backup restores directly to a directory, so that they can be used without extracting them.
+ * Files can be added from multiple threads at the same time.
+ * @author P.J.S. Kools
+ */
+public class BackupRestoreDirectoryWriter implements BackupRestoreWriter {
+	
+	private final File restoreDir;
+	private final int syncBatchSize;
+	private final boolean overwrite;
+	private final List<Path> unsyncedFiles = new ArrayList<Path>();
+	private volatile boolean isOpen = false;
+	
+	private static final DateFormat BACKUP_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
+	
+	/**
+	 * Files of at least this size are given their final length before they are written.
+	 */
+	public static final long PREALLOCATION_THRESHOLD = 1024 * 1024;
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Creates a new {@link BackupRestoreDirectoryWriter} that will write to the restoreToDir/restoreFileDate directory
+	 * where restoreFileDate is formatted as yyyy-MM-dd HH-mm-ss.
+	 * @param restoreToDir - The directory to put the restore directory in.
+	 * @param restoreFileDate - The timestamp used to generate the restore directory name.
+	 * @param syncBatchSize - The amount of written files after which these files are flushed to the storage device
+	 * together. Flushing files in batches rather than after every file allows the operating system to write them in
+	 * larger chunks. Remaining files are flushed when the writer is closed. Use 0 to not flush files and leave
+	 * writing them to the operating system.
+	 * @throws IllegalArgumentException When the given sync batch size is negative.
+	 */
+	public BackupRestoreDirectoryWriter(File restoreToDir, long restoreFileDate, int syncBatchSize)
+			throws IllegalArgumentException {
+		this(new File(restoreToDir, formatDate(restoreFileDate)), syncBatchSize, false);
+	}
+	
+	/**
+	 * Creates a new {@link BackupRestoreDirectoryWriter} that will write directly to the given directory.
+	 * @param restoreDir - The directory to write the restored files to.
+	 * @param syncBatchSize - The amount of written files after which these files are flushed to the storage device
+	 * together. Use 0 to not flush files and leave writing them to the operating system.
+	 * @param overwrite - When {@code true}, the directory is allowed to exist and existing files are overwritten.
+	 * Otherwise, the directory must not exist when the writer is opened.
+	 * @throws IllegalArgumentException When the given sync batch size is negative.
+	 */
+	public BackupRestoreDirectoryWriter(File restoreDir, int syncBatchSize, boolean overwrite)
+			throws IllegalArgumentException {
+		if(syncBatchSize < 0) {
+			throw new IllegalArgumentException("The sync batch size must be at least 0. Found: " + syncBatchSize);
+		}
+		this.restoreDir = restoreDir;
+		this.syncBatchSize = syncBatchSize;
+		this.overwrite = overwrite;
+	}
+	
+	@Override
+	public void open() throws IOException {
+		if(!this.overwrite && this.restoreDir.exists()) {
+			throw new IOException("Target directory already exists: " + this.restoreDir.getAbsolutePath());
+		}
+		Files.createDirectories(this.restoreDir.toPath());
+		this.isOpen = true;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(!this.isOpen) {
+			return;
+		}
+		this.isOpen = false;
+		List<Path> files;
+		synchronized(this.unsyncedFiles) {
+			files = new ArrayList<Path>(this.unsyncedFiles);
+			this.unsyncedFiles.clear();
+		}
+		syncFiles(files);
+	}
+	
+	@Override
+	public void add(String relPath, InputStream inStream) throws IOException, IllegalStateException {
+		this.add(relPath, inStream, -1);
+	}
+	
+	@Override
+	public void add(String relPath, InputStream inStream, long size) throws IOException, IllegalStateException {
+		if(!this.isOpen) {
+			throw new IllegalStateException("Cannot add files to a closed writer.");
+		}
+		
+		// Create directories.
+		Path path = this.restoreDir.toPath().resolve(relPath);
+		if(relPath.endsWith(File.separator)) {
+			Files.createDirectories(path);
+			return;
+		}
+		
+		// Write the file. Large files are given their final length first, so that the file system does not have to
+		// extend them for every write.
+		Files.createDirectories(path.getParent());
+		RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+		try {
+			if(size >= PREALLOCATION_THRESHOLD) {
+				file.setLength(size);
+			}
+			long written = 0;
+			if(inStream != null) {
+				FileChannel channel = file.getChannel();
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int count;
+				while((count = inStream.read(buffer)) != -1) {
+					ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+					while(byteBuffer.hasRemaining()) {
+						channel.write(byteBuffer);
+					}
+					written += count;
+				}
+			}
+			if(file.length() != written) {
+				file.setLength(written);
+			}
+		} finally {
+			file.close();
+		}
+		
+		// Flush the file in a batch with other written files.
+		if(this.syncBatchSize > 0) {
+			List<Path> files;
+			synchronized(this.unsyncedFiles) {
+				this.unsyncedFiles.add(path);
+				if(this.unsyncedFiles.size() < this.syncBatchSize) {
+					return;
+				}
+				files = new ArrayList<Path>(this.unsyncedFiles);
+				this.unsyncedFiles.clear();
+			}
+			syncFiles(files);
+		}
+	}
+	
+	@Override
+	public void delete() throws IOException {
+		if(!this.restoreDir.exists()) {
+			return;
+		}
+		Files.walkFileTree(this.restoreDir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if(e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+	
+	/**
+	 * Gets the directory that this writer writes the restored files to.
+	 * @return The restore directory.
+	 */
+	public File getRestoreDir() {
+		return this.restoreDir;
+	}
+	
+	/**
+	 * Formats the given date as yyyy-MM-dd HH-mm-ss.
+	 * @param date - The date.
+	 * @return The formatted date.
+	 */
+	private static String formatDate(long date) {
+		synchronized(BACKUP_DATE_FORMAT) {
+			return BACKUP_DATE_FORMAT.format(new Date(date));
+		}
+	}
+	
+	/**
+	 * Flushes the contents of the given files to the storage device.
+	 * @param files - The files.
+	 * @throws IOException If an I/O error has occurred.
+	 */
+	private static void syncFiles(List<Path> files) throws IOException {
+		for(Path file : files) {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
@@ -37,6 +37,32 @@ public interface BackupRestoreWriter {
 	 */
 	public void add(String relPath, InputStream inStream) throws IOException, IllegalStateException;
 	
+	/**
+	 * Adds a file entry at the given relPath containing the given input stream contents, of which the size is known.
+	 * Writers can use the size to preallocate storage. By default, the size is ignored.
+	 * The input stream will be fully read, but not closed.
+	 * @param relPath - The relative path to store the file contents at. This includes the file name.
+	 * Paths to directories should end with a file separator and paths to normal files should not.
+	 * @param inStream - The stream to add the contents of.
+	 * If the relative path ends with a file separator, this argument is ignored.
+	 * If this argument is null and used, an empty file entry will be added.
+	 * @param size - The amount of bytes in the stream or -1 if unknown.
+	 * @throws IOException If an I/O error has occurred.
+	 * @throws IllegalStateException If the {@link BackupRestoreWriter} was not open for writing.
+	 */
+	public default void add(String relPath, InputStream inStream, long size) throws IOException, IllegalStateException {
+		this.add(relPath, inStream);
+	}
+	
+	/**
+	 * Checks whether files can be added to this writer from multiple threads at the same time.
+	 * @return {@code true} if this writer is thread-safe, {@code false} otherwise. By default, writers are not
+	 * thread-safe.
+	 */
+	public default boolean isThreadSafe() {
+		return false;
+	}
+	
 	/**
 	 * Deletes the underlying storage containing the restored data.
 	 * @throws IOException - If an I/O error has occurred.
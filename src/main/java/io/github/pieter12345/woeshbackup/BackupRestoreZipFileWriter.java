@@ -46,6 +46,31 @@ public class BackupRestoreZipFileWriter implements BackupRestoreWriter {
 		this.writer.add(relPath, inStream);
 	}
 	
+	/**
+	 * Adds a file entry at the given relPath containing the contents of the given raw zip entry. Deflated and stored
+	 * entries are copied without decompressing them. Entries compressed by other codecs are decompressed, so that the
+	 * restore zip file can be extracted by any zip tool.
+	 * @param relPath - The relative path to store the file contents at. This includes the file name.
+	 * Paths to directories should end with a file separator and paths to normal files should not.
+	 * Examples: "path/to/file.txt" or "path/to/dir/".
+	 * @param rawEntry - The raw entry containing the file contents.
+	 * If the relative path ends with a file separator, this argument is ignored.
+	 * @throws IOException If an I/O error has occurred.
+	 * @throws IllegalStateException If the {@link BackupRestoreZipFileWriter} was not open for writing.
+	 */
+	public void addRaw(String relPath, ZipFileReader.RawEntry rawEntry) throws IOException, IllegalStateException {
+		if(!rawEntry.hasCodecExtraField() || relPath.endsWith(File.separator)) {
+			this.writer.addRaw(relPath, rawEntry);
+			return;
+		}
+		InputStream inStream = rawEntry.openStream();
+		try {
+			this.writer.add(relPath, inStream);
+		} finally {
+			inStream.close();
+		}
+	}
+	
 	@Override
 	public void delete() throws IOException {
 		if(!this.writer.getFile().delete()) {
@@ -0,0 +1,252 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+/**
+ * A persisted index of the backup state: all files and directories that exist according to the backup parts, the
+ * backup parts that have to be read to obtain their contents and a digest to compare them with.
+ * Loading this index replaces reading and replaying the changes of all backup parts before a backup.
+ * The index is only valid for the backup parts that it was created for, which are stored in the index and compared
+ * with the current backup parts when it is read.
+ * @author P.J.S. Kools
+ */
+public class BackupStateIndex {
+	
+	private final File indexFile;
+	
+	private static final String HEADER = "#stateindex 1";
+	private static final String FOOTER = "#end";
+	
+	/**
+	 * Creates a new {@link BackupStateIndex} that is persisted in the given file.
+	 * @param indexFile - The file to store the index in.
+	 */
+	public BackupStateIndex(File indexFile) {
+		Objects.requireNonNull(indexFile);
+		this.indexFile = indexFile;
+	}
+	
+	/**
+	 * Reads the backup state from the index file.
+	 * @param sortedBackups - The current backup parts, sorted from oldest to most recent.
+	 * @return The backup state, mapping relative paths to their state entries, or {@code null} if the index file does
+	 * not exist, is corrupted or was not created for the given backup parts.
+	 * @throws IOException When an I/O error occurs while reading the index file.
+	 */
+	public Map<String, StateEntry> read(List<BackupPart> sortedBackups) throws IOException {
+		
+		/* Index file format:
+		 * #stateindex 1
+		 * @<backupPartCount>
+		 * <creationTime>\t<backupPartName> (for each backup part, from oldest to most recent)
+		 * <backupPartIndex>[,<backupPartIndex>...]\t<digest (empty if not available)>\t<relPath>
+		 * #end
+		 *
+		 */
+		
+		// Return if the index file does not exist.
+		if(!this.indexFile.isFile()) {
+			return null;
+		}
+		
+		// Read the index file. Corrupted index files are ignored, since the state is also in the backup parts.
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(this.indexFile), StandardCharsets.UTF_8));
+		try {
+			if(!HEADER.equals(reader.readLine())) {
+				return null;
+			}
+			
+			// Validate the backup parts.
+			String line = reader.readLine();
+			if(line == null || !line.startsWith("@") || Integer.parseInt(line.substring(1)) != sortedBackups.size()) {
+				return null;
+			}
+			for(BackupPart backup : sortedBackups) {
+				line = reader.readLine();
+				if(line == null || !line.equals(backup.getCreationTime() + "\t" + backup.getName())) {
+					return null;
+				}
+			}
+			
+			// Read the state entries.
+			Map<String, StateEntry> state = new HashMap<String, StateEntry>();
+			while((line = reader.readLine()) != null) {
+				if(line.equals(FOOTER)) {
+					return state;
+				}
+				String[] split = line.split("\t", 3);
+				String[] chainSplit = split[0].split(",");
+				int[] chain = new int[chainSplit.length];
+				for(int i = 0; i < chain.length; i++) {
+					chain[i] = Integer.parseInt(chainSplit[i]);
+					if(chain[i] < 0 || chain[i] >= sortedBackups.size()) {
+						return null;
+					}
+				}
+				state.put(split[2].replace('/', File.separatorChar),
+						new StateEntry(chain, (split[1].isEmpty() ? null : split[1])));
+			}
+			return null;
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			return null;
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Writes the given backup state to the index file. The index file is replaced atomically if the file system
+	 * supports it, so that a failed write never leaves a partially written index.
+	 * @param sortedBackups - The backup parts of the backup state, sorted from oldest to most recent.
+	 * @param state - The backup state, mapping relative paths to their state entries.
+	 * @throws IOException When an I/O error occurs while writing the index file.
+	 */
+	public void write(List<BackupPart> sortedBackups, Map<String, StateEntry> state) throws IOException {
+		
+		// Write the index to a temporary file.
+		File tempFile = new File(this.indexFile.getParentFile(), this.indexFile.getName() + ".tmp");
+		if(!this.indexFile.getParentFile().exists()) {
+			this.indexFile.getParentFile().mkdirs();
+		}
+		BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+		try {
+			writer.write(HEADER);
+			writer.write('\n');
+			writer.write("@" + sortedBackups.size() + "\n");
+			for(BackupPart backup : sortedBackups) {
+				writer.write(backup.getCreationTime() + "\t" + backup.getName() + "\n");
+			}
+			StringBuilder chainStr = new StringBuilder();
+			for(Entry<String, StateEntry> entry : state.entrySet()) {
+				StateEntry stateEntry = entry.getValue();
+				chainStr.setLength(0);
+				for(int i = 0; i < stateEntry.chain.length; i++) {
+					chainStr.append(i == 0 ? "" : ",").append(stateEntry.chain[i]);
+				}
+				writer.write(chainStr.toString() + "\t" + (stateEntry.digest == null ? "" : stateEntry.digest) + "\t"
+						+ entry.getKey().replace(File.separatorChar, '/') + "\n");
+			}
+			writer.write(FOOTER);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+		
+		// Replace the index file by the temporary file.
+		try {
+			Files.move(tempFile.toPath(), this.indexFile.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Invalidates the index, causing the backup state to be obtained from the backup parts during the next backup.
+	 * @throws IOException When the index file could not be deleted.
+	 */
+	public void invalidate() throws IOException {
+		Files.deleteIfExists(this.indexFile.toPath());
+	}
+	
+	/**
+	 * Gets the file in which this index is stored.
+	 * @return The index file.
+	 */
+	public File getIndexFile() {
+		return this.indexFile;
+	}
+	
+	/**
+	 * Represents a file or directory in the backup state.
+	 * @author P.J.S. Kools
+	 */
+	public static class StateEntry {
+		private final int[] chain;
+		private final String digest;
+		
+		/**
+		 * Creates a new {@link StateEntry}.
+		 * @param chain - The indices of the backup parts that have to be read to obtain the file contents, from the
+		 * backup part containing the most recent change to the backup part containing the full version of the file.
+		 * @param digest - The digest of the file contents from {@link BackupPart#getDigest(String)} or {@code null} if
+		 * not available.
+		 */
+		public StateEntry(int[] chain, String digest) {
+			this.chain = chain;
+			this.digest = digest;
+		}
+		
+		/**
+		 * Gets the indices of the backup parts that have to be read to obtain the file contents, from the backup part
+		 * containing the most recent change to the backup part containing the full version of the file.
+		 * @return The backup part indices.
+		 */
+		public int[] getChain() {
+			return this.chain;
+		}
+		
+		/**
+		 * Gets the amount of modifications that have to be applied to read the file.
+		 * @return The modification chain length.
+		 */
+		public int getChainLength() {
+			return this.chain.length - 1;
+		}
+		
+		/**
+		 * Gets the index of the backup part containing the most recent change of the file.
+		 * @return The backup part index.
+		 */
+		public int getBackupPartIndex() {
+			return this.chain[0];
+		}
+		
+		/**
+		 * Gets the digest of the file contents.
+		 * @return The digest or {@code null} if not available.
+		 */
+		public String getDigest() {
+			return this.digest;
+		}
+		
+		/**
+		 * Creates the state entry of a file after a new change in the backup part at the given index.
+		 * @param backupPartIndex - The index of the backup part containing the change.
+		 * @param changeType - The change type, being {@link BackupPart.ChangeType#ADDITION} or
+		 * {@link BackupPart.ChangeType#MODIFICATION}.
+		 * @param previousEntry - The state entry of the file before the change or {@code null} if the file was not in
+		 * the backup state.
+		 * @param digest - The digest of the file contents after the change or {@code null} if not available.
+		 * @return The new state entry.
+		 */
+		public static StateEntry of(int backupPartIndex,
+				BackupPart.ChangeType changeType, StateEntry previousEntry, String digest) {
+			if(changeType != BackupPart.ChangeType.MODIFICATION || previousEntry == null) {
+				return new StateEntry(new int[] {backupPartIndex}, digest);
+			}
+			int[] chain = new int[previousEntry.chain.length + 1];
+			chain[0] = backupPartIndex;
+			System.arraycopy(previousEntry.chain, 0, chain, 1, previousEntry.chain.length);
+			return new StateEntry(chain, digest);
+		}
+	}
+}
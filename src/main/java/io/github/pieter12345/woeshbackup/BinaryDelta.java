@@ -0,0 +1,457 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates and applies rsync-style binary differences between two versions of a file.
+ * The previous version is split into fixed-size blocks, and the new version is stored as a sequence of operations
+ * that either copy a range of the previous version or insert literal bytes. Blocks are found at any offset in the new
+ * version using a rolling checksum, so insertions and removals only affect the blocks around them.
+ * Both creating and applying a difference stream their input, only keeping block checksums and a bounded buffer
+ * in memory. Applying a difference requires random access to the previous version.
+ * @author P.J.S. Kools
+ */
+public final class BinaryDelta {
+	
+	// Binary difference format identification.
+	private static final int MAGIC = 0x57424244; // "WBBD".
+	private static final int VERSION = 1;
+	
+	// Operation codes.
+	private static final int OP_END = 0;
+	private static final int OP_COPY = 1;
+	private static final int OP_INSERT = 2;
+	
+	// The maximum length of a single insert operation.
+	private static final int MAX_INSERT_LENGTH = 64 * 1024;
+	
+	// The bounds of the block size.
+	private static final int MIN_BLOCK_SIZE = 512;
+	private static final int MAX_BLOCK_SIZE = 64 * 1024;
+	
+	private BinaryDelta() {
+	}
+	
+	/**
+	 * Checks whether the given bytes start with the binary difference format identifier.
+	 * @param bytes - The first bytes of a stored change. At least 4 bytes are required for this to return true.
+	 * @param length - The amount of bytes available in the given array.
+	 * @return {@code true} if the bytes are the start of a binary difference, {@code false} otherwise.
+	 */
+	public static boolean isBinaryDelta(byte[] bytes, int length) {
+		return length >= 4 && readInt(bytes, 0) == MAGIC;
+	}
+	
+	/**
+	 * Gets the block size that is used for files of the given size. This is roughly the square root of the file
+	 * size, balancing the amount of block checksums against the amount of bytes around a change that are stored.
+	 * @param fileSize - The file size in bytes.
+	 * @return The block size in bytes.
+	 */
+	public static int getBlockSize(long fileSize) {
+		int blockSize = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, (long) Math.sqrt(fileSize)));
+		return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+	}
+	
+	/**
+	 * Creates the difference between the given previous version and new version, and writes it to the given stream.
+	 * Both input streams are read until their end, but not closed. The output stream is flushed, but not closed.
+	 * @param previousVersion - The previous version.
+	 * @param newVersion - The new version.
+	 * @param blockSize - The block size, as obtained from {@link #getBlockSize(long)}.
+	 * @param deltaOutStream - The stream to write the difference to.
+	 * @throws IOException When an I/O error occurs.
+	 */
+	public static void create(InputStream previousVersion, InputStream newVersion,
+			int blockSize, OutputStream deltaOutStream) throws IOException {
+		if(blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		}
+		
+		// Compute the block checksums of the previous version.
+		Signature signature = new Signature(previousVersion, blockSize);
+		
+		// Write the header.
+		DeltaWriter writer = new DeltaWriter(deltaOutStream);
+		writer.outStream.writeInt(MAGIC);
+		writer.outStream.writeByte(VERSION);
+		writer.outStream.writeInt(blockSize);
+		
+		/* Slide a block-sized window over the new version. The buffer contains the pending literal bytes from
+		 * literalStart to start, the window from start to start + blockSize and read-ahead bytes up to end.
+		 * Pending literal bytes are written once they reach the maximum insert length, which bounds the buffer size.
+		 */
+		MessageDigest messageDigest = getMessageDigest();
+		byte[] buffer = new byte[MAX_INSERT_LENGTH + 2 * blockSize];
+		int literalStart = 0;
+		int start = 0;
+		int end = 0;
+		boolean endOfStream = false;
+		boolean checksumValid = false;
+		int a = 0;
+		int b = 0;
+		while(true) {
+			
+			// Read more bytes if the window and the byte after it are not available.
+			if(end - start <= blockSize && !endOfStream) {
+				if(buffer.length - end < blockSize) {
+					System.arraycopy(buffer, literalStart, buffer, 0, end - literalStart);
+					start -= literalStart;
+					end -= literalStart;
+					literalStart = 0;
+				}
+				int count = newVersion.read(buffer, end, buffer.length - end);
+				if(count == -1) {
+					endOfStream = true;
+				} else {
+					end += count;
+				}
+				continue;
+			}
+			if(end - start < blockSize) {
+				break;
+			}
+			
+			// Compute the checksum of the window if it was not rolled from the previous window.
+			if(!checksumValid) {
+				a = 0;
+				b = 0;
+				for(int i = 0; i < blockSize; i++) {
+					int value = buffer[start + i] & 0xFF;
+					a += value;
+					b += (blockSize - i) * value;
+				}
+				a &= 0xFFFF;
+				b &= 0xFFFF;
+				checksumValid = true;
+			}
+			
+			// Copy the matching block of the previous version if it exists.
+			int block = signature.find((b << 16) | a, buffer, start, messageDigest);
+			if(block != -1) {
+				writer.insert(buffer, literalStart, start - literalStart);
+				writer.copy((long) block * blockSize, blockSize);
+				start += blockSize;
+				literalStart = start;
+				checksumValid = false;
+				continue;
+			}
+			
+			// Roll the window one byte, writing the pending literal bytes if they reached the maximum insert length.
+			if(end - start == blockSize) {
+				break; // End of stream reached, so there is no next window.
+			}
+			int outValue = buffer[start] & 0xFF;
+			int inValue = buffer[start + blockSize] & 0xFF;
+			a = (a - outValue + inValue) & 0xFFFF;
+			b = (b - blockSize * outValue + a) & 0xFFFF;
+			start++;
+			if(start - literalStart >= MAX_INSERT_LENGTH) {
+				writer.insert(buffer, literalStart, start - literalStart);
+				literalStart = start;
+			}
+		}
+		
+		// Write the remaining bytes and the end operation.
+		writer.insert(buffer, literalStart, end - literalStart);
+		writer.end();
+	}
+	
+	/**
+	 * Applies the given difference to the given previous version. The returned stream reads the difference and the
+	 * previous version while it is being read.
+	 * @param deltaInStream - The stream containing the difference. This stream is closed when the returned stream is
+	 * closed.
+	 * @param previousVersion - The file containing the previous version. This file is opened until the returned
+	 * stream is closed.
+	 * @return A stream containing the new version.
+	 * @throws IOException When an I/O error occurs or when the given stream does not contain a valid difference.
+	 */
+	public static InputStream apply(InputStream deltaInStream, File previousVersion) throws IOException {
+		DataInputStream inStream = new DataInputStream(new BufferedInputStream(deltaInStream));
+		try {
+			if(inStream.readInt() != MAGIC) {
+				throw new IOException("Binary difference has an invalid format identifier.");
+			}
+			int version = inStream.readUnsignedByte();
+			if(version != VERSION) {
+				throw new IOException("Unsupported binary difference version: " + version);
+			}
+			inStream.readInt(); // Block size, which is not needed to apply the difference.
+			return new DeltaInputStream(inStream, new RandomAccessFile(previousVersion, "r"));
+		} catch (IOException e) {
+			inStream.close();
+			throw (e instanceof EOFException ? new IOException("Binary difference is truncated.", e) : e);
+		}
+	}
+	
+	private static MessageDigest getMessageDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e); // Never happens, and if it does, then there is no fallback anyways.
+		}
+	}
+	
+	private static int readInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+				| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+	
+	/**
+	 * The rolling and strong checksums of the blocks of a previous version.
+	 * @author P.J.S. Kools
+	 */
+	private static class Signature {
+		private final int blockSize;
+		private final Map<Integer, Integer> firstBlocks = new HashMap<Integer, Integer>();
+		private int[] nextBlocks = new int[64];
+		private byte[] strongChecksums = new byte[64 * 16];
+		private int blockCount = 0;
+		
+		/**
+		 * Creates a new {@link Signature} by reading the given previous version.
+		 * A trailing partial block is not included.
+		 * @param inStream - The previous version.
+		 * @param blockSize - The block size.
+		 * @throws IOException When an I/O error occurs.
+		 */
+		private Signature(InputStream inStream, int blockSize) throws IOException {
+			this.blockSize = blockSize;
+			MessageDigest messageDigest = getMessageDigest();
+			byte[] block = new byte[blockSize];
+			while(true) {
+				
+				// Read the next full block.
+				int length = 0;
+				int count;
+				while(length < blockSize && (count = inStream.read(block, length, blockSize - length)) != -1) {
+					length += count;
+				}
+				if(length < blockSize) {
+					return;
+				}
+				
+				// Compute the checksums of the block.
+				int a = 0;
+				int b = 0;
+				for(int i = 0; i < blockSize; i++) {
+					int value = block[i] & 0xFF;
+					a += value;
+					b += (blockSize - i) * value;
+				}
+				int checksum = ((b & 0xFFFF) << 16) | (a & 0xFFFF);
+				if(this.blockCount == this.nextBlocks.length) {
+					this.nextBlocks = Arrays.copyOf(this.nextBlocks, 2 * this.blockCount);
+					this.strongChecksums = Arrays.copyOf(this.strongChecksums, 2 * this.strongChecksums.length);
+				}
+				messageDigest.update(block);
+				System.arraycopy(messageDigest.digest(), 0, this.strongChecksums, 16 * this.blockCount, 16);
+				
+				// Add the block to the front of the chain of blocks with this checksum.
+				Integer firstBlock = this.firstBlocks.put(checksum, this.blockCount);
+				this.nextBlocks[this.blockCount] = (firstBlock == null ? -1 : firstBlock);
+				this.blockCount++;
+			}
+		}
+		
+		/**
+		 * Finds a block that equals the given window.
+		 * @param checksum - The rolling checksum of the window.
+		 * @param buffer - The buffer containing the window.
+		 * @param offset - The offset of the window in the buffer.
+		 * @param messageDigest - The message digest to use for strong checksums.
+		 * @return The index of the matching block or -1 if no block matches.
+		 */
+		private int find(int checksum, byte[] buffer, int offset, MessageDigest messageDigest) {
+			Integer block = this.firstBlocks.get(checksum);
+			if(block == null) {
+				return -1;
+			}
+			messageDigest.update(buffer, offset, this.blockSize);
+			byte[] strongChecksum = messageDigest.digest();
+			for(int i = block; i != -1; i = this.nextBlocks[i]) {
+				boolean equal = true;
+				for(int j = 0; j < 16; j++) {
+					if(this.strongChecksums[16 * i + j] != strongChecksum[j]) {
+						equal = false;
+						break;
+					}
+				}
+				if(equal) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+	
+	/**
+	 * Writes difference operations, combining copy operations of adjacent ranges.
+	 * @author P.J.S. Kools
+	 */
+	private static class DeltaWriter {
+		private final DataOutputStream outStream;
+		private long copyOffset = 0;
+		private long copyLength = 0;
+		private long newLength = 0;
+		
+		/**
+		 * Creates a new {@link DeltaWriter}.
+		 * @param outStream - The stream to write to.
+		 */
+		private DeltaWriter(OutputStream outStream) {
+			this.outStream = new DataOutputStream(new BufferedOutputStream(outStream));
+		}
+		
+		private void copy(long offset, int length) throws IOException {
+			if(this.copyLength > 0 && this.copyOffset + this.copyLength == offset
+					&& this.copyLength + length <= Integer.MAX_VALUE) {
+				this.copyLength += length;
+			} else {
+				this.writeCopy();
+				this.copyOffset = offset;
+				this.copyLength = length;
+			}
+		}
+		
+		private void insert(byte[] buffer, int offset, int length) throws IOException {
+			if(length > 0) {
+				this.writeCopy();
+				this.outStream.writeByte(OP_INSERT);
+				this.outStream.writeInt(length);
+				this.outStream.write(buffer, offset, length);
+				this.newLength += length;
+			}
+		}
+		
+		private void end() throws IOException {
+			this.writeCopy();
+			this.outStream.writeByte(OP_END);
+			this.outStream.writeLong(this.newLength);
+			this.outStream.flush();
+		}
+		
+		private void writeCopy() throws IOException {
+			if(this.copyLength > 0) {
+				this.outStream.writeByte(OP_COPY);
+				this.outStream.writeLong(this.copyOffset);
+				this.outStream.writeInt((int) this.copyLength);
+				this.newLength += this.copyLength;
+				this.copyLength = 0;
+			}
+		}
+	}
+	
+	/**
+	 * A stream that applies a difference while it is being read.
+	 * @author P.J.S. Kools
+	 */
+	private static class DeltaInputStream extends InputStream {
+		private final DataInputStream deltaInStream;
+		private final RandomAccessFile previousVersion;
+		private int operation = -1;
+		private long copyOffset = 0;
+		private long remaining = 0;
+		private long length = 0;
+		private boolean ended = false;
+		
+		/**
+		 * Creates a new {@link DeltaInputStream}.
+		 * @param deltaInStream - The difference, positioned at the first operation.
+		 * @param previousVersion - The previous version.
+		 */
+		private DeltaInputStream(DataInputStream deltaInStream, RandomAccessFile previousVersion) {
+			this.deltaInStream = deltaInStream;
+			this.previousVersion = previousVersion;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			return (this.read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF);
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(length == 0) {
+				return 0;
+			}
+			try {
+				
+				// Read the next operation if the current operation is done.
+				while(this.remaining == 0) {
+					if(this.ended) {
+						return -1;
+					}
+					this.readOperation();
+				}
+				
+				// Read bytes from the current operation.
+				int count = (int) Math.min(length, this.remaining);
+				if(this.operation == OP_COPY) {
+					this.previousVersion.seek(this.copyOffset);
+					this.previousVersion.readFully(buffer, offset, count);
+					this.copyOffset += count;
+				} else {
+					this.deltaInStream.readFully(buffer, offset, count);
+				}
+				this.remaining -= count;
+				this.length += count;
+				return count;
+			} catch (EOFException e) {
+				throw new IOException("Binary difference or previous version is truncated.", e);
+			}
+		}
+		
+		private void readOperation() throws IOException {
+			this.operation = this.deltaInStream.readUnsignedByte();
+			switch(this.operation) {
+				case OP_COPY:
+					this.copyOffset = this.deltaInStream.readLong();
+					this.remaining = this.deltaInStream.readInt();
+					if(this.copyOffset < 0 || this.remaining <= 0) {
+						throw new IOException("Binary difference contains an invalid copy operation.");
+					}
+					break;
+				case OP_INSERT:
+					this.remaining = this.deltaInStream.readInt();
+					if(this.remaining <= 0) {
+						throw new IOException("Binary difference contains an invalid insert operation.");
+					}
+					break;
+				case OP_END:
+					if(this.deltaInStream.readLong() != this.length) {
+						throw new IOException("Binary difference length does not match the applied length.");
+					}
+					this.ended = true;
+					break;
+				default:
+					throw new IOException("Binary difference contains an unknown operation: " + this.operation);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				this.deltaInStream.close();
+			} finally {
+				this.previousVersion.close();
+			}
+		}
+	}
+}
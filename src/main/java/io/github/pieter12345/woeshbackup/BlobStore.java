@@ -0,0 +1,594 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A content-addressed store that stores every distinct file content once as a compressed blob, keyed by the SHA-256
+ * hash of the content. Blobs are reference counted and removed when their last reference is removed.
+ * The reference counts are persisted in a single file that is replaced atomically. Backup parts should persist added
+ * references using {@link #flush()} before they persist their own metadata, so that a crash can only leave blobs
+ * with a too high reference count, never with a too low one.
+ * Since reference counts that are too high are never corrected by removing references, a sweep can be requested to
+ * recompute all reference counts from the registered {@link ReferenceSource}s and to remove unreferenced blobs. This
+ * sweep is performed once no references are being added or removed. The directories of all sources that were ever
+ * registered are persisted, and the sweep is postponed while an existing directory has no registered source, so that
+ * blobs which are only referenced from such a directory are never removed.
+ * This class is thread-safe and a single instance can be shared by multiple backups.
+ * @author P.J.S. Kools
+ */
+public class BlobStore {
+	
+	private final File storeDir;
+	private final File blobsDir;
+	private final File tempDir;
+	private final File referenceCountFile;
+	private final File sweepRequestFile;
+	private final File sourceDirsFile;
+	private final Map<File, ReferenceSource> referenceSources = new HashMap<File, ReferenceSource>();
+	
+	private Map<String, Integer> referenceCounts = null;
+	private boolean referenceCountsChanged = false;
+	private boolean sweepRequested = false;
+	private Set<File> sourceDirs = null;
+	private boolean sourceDirsChanged = false;
+	private int updateCount = 0;
+	
+	private static final String HEADER = "#blobstore 1";
+	private static final String SOURCES_HEADER = "#blobstore sources 1";
+	private static final String FOOTER = "#end";
+	
+	/**
+	 * Creates a new {@link BlobStore} in the given directory.
+	 * @param storeDir - The directory to store the blobs and reference counts in.
+	 */
+	public BlobStore(File storeDir) {
+		Objects.requireNonNull(storeDir);
+		this.storeDir = storeDir;
+		this.blobsDir = new File(storeDir, "blobs");
+		this.tempDir = new File(storeDir, "tmp");
+		this.referenceCountFile = new File(storeDir, "refcounts");
+		this.sweepRequestFile = new File(storeDir, "sweep");
+		this.sourceDirsFile = new File(storeDir, "sources");
+	}
+	
+	/**
+	 * Stores the contents of the given stream as a blob and adds a reference to it.
+	 * If a blob with equal contents already exists, only the reference is added.
+	 * The given stream is fully read, but not closed.
+	 * @param inStream - The stream to store the contents of.
+	 * @return The key of the blob.
+	 * @throws IOException When an I/O error occurs while reading the stream or writing the blob.
+	 */
+	public String put(InputStream inStream) throws IOException {
+		this.load();
+		
+		// Compress the contents into a temporary file, getting the SHA-256 hash in the process.
+		MessageDigest messageDigest = getMessageDigest();
+		File tempFile = Files.createTempFile(this.tempDir.toPath(), "blob", ".tmp").toFile();
+		try {
+			Deflater deflater = new Deflater();
+			try {
+				OutputStream outStream = new DeflaterOutputStream(new FileOutputStream(tempFile), deflater, 8192);
+				try {
+					byte[] buffer = new byte[8192];
+					int count;
+					while((count = inStream.read(buffer)) != -1) {
+						messageDigest.update(buffer, 0, count);
+						outStream.write(buffer, 0, count);
+					}
+				} finally {
+					outStream.close();
+				}
+			} finally {
+				deflater.end();
+			}
+			String key = toHex(messageDigest.digest());
+			this.storeBlob(key, tempFile);
+			return key;
+		} finally {
+			if(tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Stores the given bytes as a blob and adds a reference to it.
+	 * If a blob with equal contents already exists, only the reference is added without compressing the bytes.
+	 * @param bytes - The buffer containing the bytes to store.
+	 * @param offset - The offset of the bytes in the buffer.
+	 * @param length - The amount of bytes to store.
+	 * @return The key of the blob.
+	 * @throws IOException When an I/O error occurs while writing the blob.
+	 */
+	public String put(byte[] bytes, int offset, int length) throws IOException {
+		this.load();
+		
+		// Only add a reference if the blob already exists.
+		MessageDigest messageDigest = getMessageDigest();
+		messageDigest.update(bytes, offset, length);
+		String key = toHex(messageDigest.digest());
+		if(this.addReference(key)) {
+			return key;
+		}
+		
+		// Compress the bytes into a temporary file and store it as the blob.
+		File tempFile = Files.createTempFile(this.tempDir.toPath(), "blob", ".tmp").toFile();
+		try {
+			Deflater deflater = new Deflater();
+			try {
+				OutputStream outStream = new DeflaterOutputStream(new FileOutputStream(tempFile), deflater, 8192);
+				try {
+					outStream.write(bytes, offset, length);
+				} finally {
+					outStream.close();
+				}
+			} finally {
+				deflater.end();
+			}
+			this.storeBlob(key, tempFile);
+			return key;
+		} finally {
+			if(tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Moves the given temporary file to the blob location of the given key if no blob with this key exists yet, and
+	 * adds a reference to the blob.
+	 * @param key - The blob key.
+	 * @param tempFile - The temporary file containing the compressed blob contents.
+	 * @throws IOException When an I/O error occurs while moving the temporary file.
+	 */
+	private synchronized void storeBlob(String key, File tempFile) throws IOException {
+		File blobFile = this.getBlobFile(key);
+		if(!blobFile.isFile()) {
+			blobFile.getParentFile().mkdirs();
+			try {
+				Files.move(tempFile.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), blobFile.toPath());
+			}
+		}
+		this.referenceCounts.merge(key, 1, Integer::sum);
+		this.referenceCountsChanged = true;
+	}
+	
+	/**
+	 * Adds a reference to the blob with the given key.
+	 * @param key - The blob key.
+	 * @return {@code true} if the reference was added, {@code false} if no blob with the given key exists.
+	 * @throws IOException When an I/O error occurs while loading the reference counts.
+	 */
+	public synchronized boolean addReference(String key) throws IOException {
+		this.load();
+		if(!this.getBlobFile(key).isFile()) {
+			return false;
+		}
+		this.referenceCounts.merge(key, 1, Integer::sum);
+		this.referenceCountsChanged = true;
+		return true;
+	}
+	
+	/**
+	 * Removes a reference to each of the given blobs, removing blobs that are no longer referenced.
+	 * The reference counts are persisted before any blob is removed.
+	 * @param keys - The blob keys. Keys may occur multiple times to remove multiple references.
+	 * @throws IOException When an I/O error occurs while persisting the reference counts or removing a blob.
+	 */
+	public synchronized void removeReferences(Collection<String> keys) throws IOException {
+		this.load();
+		
+		// Update the reference counts.
+		Set<String> unreferencedKeys = new HashSet<String>();
+		for(String key : keys) {
+			Integer count = this.referenceCounts.get(key);
+			if(count == null) {
+				continue;
+			}
+			if(count <= 1) {
+				this.referenceCounts.remove(key);
+				unreferencedKeys.add(key);
+			} else {
+				this.referenceCounts.put(key, count - 1);
+			}
+			this.referenceCountsChanged = true;
+		}
+		this.flush();
+		
+		// Remove the unreferenced blobs.
+		for(String key : unreferencedKeys) {
+			File blobFile = this.getBlobFile(key);
+			if(blobFile.exists()) {
+				Files.delete(blobFile.toPath());
+			}
+			blobFile.getParentFile().delete(); // Only succeeds if the directory is empty.
+		}
+	}
+	
+	/**
+	 * Registers the given source of blob references for the given directory, replacing the source that was
+	 * registered for this directory before. The references of all registered sources are used when a sweep is
+	 * performed. The directory is persisted on the next {@link #flush()}, which happens before the source can store
+	 * references to blobs in this store.
+	 * @param dir - The directory in which the source stores its references.
+	 * @param source - The reference source.
+	 */
+	public synchronized void addReferenceSource(File dir, ReferenceSource source) {
+		Objects.requireNonNull(source);
+		this.referenceSources.put(dir.getAbsoluteFile(), source);
+		this.sourceDirsChanged = true;
+	}
+	
+	/**
+	 * Marks the start of an update that adds or removes references which are not yet (or no longer) stored by a
+	 * {@link ReferenceSource}. No sweep is performed until {@link #endUpdate()} has been called for every update.
+	 */
+	public synchronized void beginUpdate() {
+		this.updateCount++;
+	}
+	
+	/**
+	 * Marks the end of an update that was started using {@link #beginUpdate()}. A requested sweep is performed when
+	 * this was the last running update. When the sweep fails, it is performed after the next update instead.
+	 */
+	public synchronized void endUpdate() {
+		if(this.updateCount <= 0) {
+			throw new IllegalStateException("No update was started.");
+		}
+		this.updateCount--;
+		try {
+			this.load();
+			if(this.sweepRequested && this.updateCount == 0) {
+				this.sweep();
+			}
+		} catch (IOException e) {
+			// Ignore, the sweep request remains stored.
+		}
+	}
+	
+	/**
+	 * Requests a sweep that recomputes the reference counts from the registered reference sources and removes all
+	 * blobs that are not referenced. This should be called when references were lost, for example when a corrupted
+	 * manifest was removed. The request is stored, so that it is also performed after a restart. The sweep is
+	 * performed immediately if no update is running, and after the last running update otherwise.
+	 * @throws IOException When an I/O error occurs while storing the request or performing the sweep.
+	 */
+	public synchronized void requestSweep() throws IOException {
+		this.load();
+		if(!this.sweepRequested) {
+			this.sweepRequestFile.createNewFile();
+			this.sweepRequested = true;
+		}
+		if(this.updateCount == 0) {
+			this.sweep();
+		}
+	}
+	
+	/**
+	 * Recomputes the reference counts from the registered reference sources and removes all blobs that are not
+	 * referenced. Nothing is done when no reference source is registered, or when a persisted source directory still
+	 * exists but has no registered source, since the blobs that are referenced from it would appear unreferenced.
+	 * @throws IOException When an I/O error occurs while reading the references, persisting the reference counts or
+	 * removing a blob.
+	 */
+	private synchronized void sweep() throws IOException {
+		if(this.referenceSources.isEmpty()) {
+			return;
+		}
+		
+		// Postpone the sweep if an existing source directory has no registered source. Source directories that no
+		// longer exist are forgotten.
+		for(Iterator<File> it = this.sourceDirs.iterator(); it.hasNext();) {
+			File dir = it.next();
+			if(!this.referenceSources.containsKey(dir)) {
+				if(dir.exists()) {
+					return;
+				}
+				it.remove();
+				this.sourceDirsChanged = true;
+			}
+		}
+		
+		// Mark all blobs that are referenced by a reference source.
+		List<String> keys = new ArrayList<String>();
+		for(ReferenceSource source : this.referenceSources.values()) {
+			source.addReferences(keys);
+		}
+		Map<String, Integer> referenceCounts = new HashMap<String, Integer>();
+		for(String key : keys) {
+			if(this.getBlobFile(key).isFile()) {
+				referenceCounts.merge(key, 1, Integer::sum);
+			}
+		}
+		
+		// Persist the new reference counts before removing any blob.
+		this.referenceCounts = referenceCounts;
+		this.referenceCountsChanged = true;
+		this.flush();
+		
+		// Remove the unreferenced blobs.
+		File[] blobDirs = this.blobsDir.listFiles();
+		if(blobDirs != null) {
+			for(File blobDir : blobDirs) {
+				File[] blobFiles = blobDir.listFiles();
+				if(blobFiles != null) {
+					for(File blobFile : blobFiles) {
+						if(!referenceCounts.containsKey(blobFile.getName())) {
+							Files.delete(blobFile.toPath());
+						}
+					}
+				}
+				blobDir.delete(); // Only succeeds if the directory is empty.
+			}
+		}
+		
+		// Remove the sweep request.
+		Files.deleteIfExists(this.sweepRequestFile.toPath());
+		this.sweepRequested = false;
+	}
+	
+	/**
+	 * Opens the blob with the given key.
+	 * @param key - The blob key.
+	 * @return A stream containing the blob contents.
+	 * @throws IOException When the blob does not exist or could not be opened.
+	 */
+	public InputStream open(String key) throws IOException {
+		return new InflaterInputStream(new FileInputStream(this.getBlobFile(key)), new Inflater(), 8192) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					this.inf.end();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Gets the reference count of the blob with the given key.
+	 * @param key - The blob key.
+	 * @return The reference count.
+	 * @throws IOException When an I/O error occurs while loading the reference counts.
+	 */
+	public synchronized int getReferenceCount(String key) throws IOException {
+		this.load();
+		Integer count = this.referenceCounts.get(key);
+		return (count == null ? 0 : count);
+	}
+	
+	/**
+	 * Persists the reference source directories and the reference counts if they have changed.
+	 * @throws IOException When an I/O error occurs while writing the source directories or reference counts.
+	 */
+	public synchronized void flush() throws IOException {
+		
+		// Persist the source directories, adding the directories of the registered sources.
+		if(this.sourceDirsChanged) {
+			this.load();
+			this.sourceDirs.addAll(this.referenceSources.keySet());
+			File tempFile = new File(this.storeDir, this.sourceDirsFile.getName() + ".tmp");
+			BufferedWriter writer = new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+			try {
+				writer.write(SOURCES_HEADER);
+				writer.write('\n');
+				for(File dir : this.sourceDirs) {
+					writer.write(dir.getPath() + "\n");
+				}
+				writer.write(FOOTER);
+				writer.write('\n');
+			} finally {
+				writer.close();
+			}
+			replaceFile(tempFile, this.sourceDirsFile);
+			this.sourceDirsChanged = false;
+		}
+		if(!this.referenceCountsChanged) {
+			return;
+		}
+		
+		// Write the reference counts to a temporary file.
+		File tempFile = new File(this.storeDir, this.referenceCountFile.getName() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+		try {
+			writer.write(HEADER);
+			writer.write('\n');
+			for(Entry<String, Integer> entry : this.referenceCounts.entrySet()) {
+				writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+			}
+			writer.write(FOOTER);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+		
+		// Replace the reference count file by the temporary file.
+		replaceFile(tempFile, this.referenceCountFile);
+		this.referenceCountsChanged = false;
+	}
+	
+	/**
+	 * Replaces the given file by the given temporary file, atomically if the file system supports this.
+	 * @param tempFile - The temporary file.
+	 * @param file - The file to replace.
+	 * @throws IOException When an I/O error occurs while moving the temporary file.
+	 */
+	private static void replaceFile(File tempFile, File file) throws IOException {
+		try {
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Gets the directory in which this store stores its blobs and reference counts.
+	 * @return The store directory.
+	 */
+	public File getStoreDir() {
+		return this.storeDir;
+	}
+	
+	/**
+	 * Loads the reference counts, the source directories and a stored sweep request from the storage if they were not
+	 * loaded yet, and removes temporary files that were left behind by an interrupted {@link #put(InputStream)}.
+	 * @throws IOException When the reference count file or source directory file could not be read or is corrupted.
+	 */
+	private synchronized void load() throws IOException {
+		
+		/* Reference count file format:
+		 * #blobstore 1
+		 * <key>\t<referenceCount>
+		 * #end
+		 *
+		 * Source directory file format:
+		 * #blobstore sources 1
+		 * <sourceDirPath>
+		 * #end
+		 *
+		 */
+		
+		// Return if the reference counts were already loaded.
+		if(this.referenceCounts != null) {
+			return;
+		}
+		
+		// Create the store directories and remove left behind temporary files.
+		this.blobsDir.mkdirs();
+		this.tempDir.mkdirs();
+		File[] tempFiles = this.tempDir.listFiles();
+		if(tempFiles != null) {
+			for(File tempFile : tempFiles) {
+				tempFile.delete();
+			}
+		}
+		
+		// Read the reference counts. Unlike other caches, a corrupted file cannot be ignored, since that would
+		// cause referenced blobs to be removed.
+		Map<String, Integer> referenceCounts = new HashMap<String, Integer>();
+		if(this.referenceCountFile.isFile()) {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(this.referenceCountFile), StandardCharsets.UTF_8));
+			try {
+				if(!HEADER.equals(reader.readLine())) {
+					throw new IOException("Blob store reference count file has an invalid header: "
+							+ this.referenceCountFile.getAbsolutePath());
+				}
+				String line;
+				while((line = reader.readLine()) != null && !line.equals(FOOTER)) {
+					int index = line.indexOf('\t');
+					if(index == -1) {
+						throw new IOException("Blob store reference count file contains an invalid line: " + line);
+					}
+					referenceCounts.put(line.substring(0, index), Integer.parseInt(line.substring(index + 1)));
+				}
+				if(line == null) {
+					throw new IOException("Blob store reference count file does not end with the expected footer: "
+							+ this.referenceCountFile.getAbsolutePath());
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Blob store reference count file contains an invalid reference count.", e);
+			} finally {
+				reader.close();
+			}
+		}
+		
+		// Read the source directories. A corrupted file cannot be ignored either, since that could cause blobs that
+		// are referenced from an unregistered source directory to be removed by a sweep.
+		Set<File> sourceDirs = new HashSet<File>();
+		if(this.sourceDirsFile.isFile()) {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(this.sourceDirsFile), StandardCharsets.UTF_8));
+			try {
+				if(!SOURCES_HEADER.equals(reader.readLine())) {
+					throw new IOException("Blob store source directory file has an invalid header: "
+							+ this.sourceDirsFile.getAbsolutePath());
+				}
+				String line;
+				while((line = reader.readLine()) != null && !line.equals(FOOTER)) {
+					sourceDirs.add(new File(line));
+				}
+				if(line == null) {
+					throw new IOException("Blob store source directory file does not end with the expected footer: "
+							+ this.sourceDirsFile.getAbsolutePath());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		this.referenceCounts = referenceCounts;
+		this.sourceDirs = sourceDirs;
+		this.sweepRequested = this.sweepRequestFile.isFile();
+	}
+	
+	private File getBlobFile(String key) {
+		return new File(new File(this.blobsDir, key.substring(0, 2)), key);
+	}
+	
+	private static MessageDigest getMessageDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e); // Never happens, and if it does, then there is no fallback anyways.
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder str = new StringBuilder(2 * bytes.length);
+		for(byte b : bytes) {
+			str.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+		}
+		return str.toString();
+	}
+	
+	/**
+	 * A source of blob references, such as a directory containing backup part manifests.
+	 * @author P.J.S. Kools
+	 */
+	public static interface ReferenceSource {
+		
+		/**
+		 * Adds the keys of all blobs that are referenced by this source to the given list, once per reference.
+		 * References that cannot be determined, such as the references of a corrupted manifest, are not added.
+		 * @param keys - The list to add the blob keys to.
+		 * @throws IOException When an I/O error occurs while reading the references.
+		 */
+		void addReferences(List<String> keys) throws IOException;
+	}
+}
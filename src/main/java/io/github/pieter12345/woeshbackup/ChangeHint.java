@@ -0,0 +1,61 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A hint about which files in a set of directories changed since the previous backup, provided by a source that
+ * observes changes, such as the server saving chunks. Files directly in these directories that are not marked as
+ * changed are assumed to be equal to their version in the backup state, so that they do not have to be compared.
+ * @author P.J.S. Kools
+ */
+public class ChangeHint {
+	
+	private final Set<String> relDirPaths;
+	private final Set<String> changedRelPaths;
+	
+	/**
+	 * Creates a new {@link ChangeHint}.
+	 * @param relDirPaths - The paths of the directories that this hint covers, relative to the backed up directory
+	 * and ending with a file separator.
+	 * @param changedRelPaths - The relative paths of the files in these directories that might have changed since the
+	 * previous backup.
+	 */
+	public ChangeHint(Collection<String> relDirPaths, Collection<String> changedRelPaths) {
+		this.relDirPaths = new HashSet<String>(relDirPaths);
+		this.changedRelPaths = new HashSet<String>(changedRelPaths);
+	}
+	
+	/**
+	 * Checks whether the file at the given relative path is known to be unchanged since the previous backup.
+	 * @param relPath - The relative path of the file.
+	 * @return {@code true} if the file is directly in a covered directory and not marked as changed,
+	 * {@code false} otherwise.
+	 */
+	public boolean isUnchanged(String relPath) {
+		if(relPath.endsWith(File.separator)) {
+			return false;
+		}
+		String relDirPath = relPath.substring(0, relPath.lastIndexOf(File.separatorChar) + 1);
+		return this.relDirPaths.contains(relDirPath) && !this.changedRelPaths.contains(relPath);
+	}
+	
+	/**
+	 * Gets the paths of the directories that this hint covers.
+	 * @return The relative directory paths, ending with a file separator.
+	 */
+	public Set<String> getDirPaths() {
+		return Collections.unmodifiableSet(this.relDirPaths);
+	}
+	
+	/**
+	 * Gets the paths of the files in the covered directories that might have changed since the previous backup.
+	 * @return The relative file paths.
+	 */
+	public Set<String> getChangedPaths() {
+		return Collections.unmodifiableSet(this.changedRelPaths);
+	}
+}
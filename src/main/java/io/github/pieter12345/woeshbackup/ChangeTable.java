@@ -0,0 +1,451 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import io.github.pieter12345.woeshbackup.BackupPart.ChangeType;
+
+/**
+ * An immutable table of backup part changes, mapping relative paths to their change type and optionally a hash and
+ * region file fingerprint. Rather than using objects per change, the changes are stored in a few primitive arrays,
+ * sorted by path. Paths are stored UTF-8 encoded in a single byte array and hashes and fingerprints are stored as the
+ * bytes that they encode where possible. Lookups use binary search.
+ * @author P.J.S. Kools
+ */
+public class ChangeTable {
+	
+	// Hash and fingerprint encodings. These are stored in binary meta files and should therefore never change.
+	static final int TOKEN_ABSENT = 0;
+	static final int TOKEN_HEX = 1;
+	static final int TOKEN_BASE64 = 2;
+	static final int TOKEN_TEXT = 3;
+	
+	private static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+	
+	private final int size;
+	private final byte[] pathBytes;
+	private final int[] pathOffsets;
+	private final byte[] changeTypes;
+	private final byte[] tokenBytes;
+	private final int[] tokenOffsets;
+	private final byte[] tokenEncodings;
+	private Map<String, ChangeType> changesView = null;
+	
+	/**
+	 * Creates a new {@link ChangeTable} from the given arrays, which have to be sorted by path.
+	 * @param size - The amount of changes.
+	 * @param pathBytes - The concatenated UTF-8 encoded paths.
+	 * @param pathOffsets - The start of every path in pathBytes, followed by the end of the last path.
+	 * @param changeTypes - The change type ordinals.
+	 * @param tokenBytes - The concatenated encoded hashes and fingerprints.
+	 * @param tokenOffsets - The start of the hash and the fingerprint of every change in tokenBytes,
+	 * followed by the end of the last fingerprint.
+	 * @param tokenEncodings - The encodings of the hash and the fingerprint of every change.
+	 */
+	private ChangeTable(int size, byte[] pathBytes, int[] pathOffsets,
+			byte[] changeTypes, byte[] tokenBytes, int[] tokenOffsets, byte[] tokenEncodings) {
+		this.size = size;
+		this.pathBytes = pathBytes;
+		this.pathOffsets = pathOffsets;
+		this.changeTypes = changeTypes;
+		this.tokenBytes = tokenBytes;
+		this.tokenOffsets = tokenOffsets;
+		this.tokenEncodings = tokenEncodings;
+	}
+	
+	/**
+	 * Gets the amount of changes in this table.
+	 * @return The amount of changes.
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * Gets the index of the change of the given path.
+	 * @param relPath - The relative path.
+	 * @return The index or a negative value if this table does not contain a change of the given path.
+	 */
+	public int indexOf(String relPath) {
+		byte[] key = relPath.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = this.size - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(this.pathBytes, this.pathOffsets[mid], this.pathOffsets[mid + 1], key, 0, key.length);
+			if(cmp < 0) {
+				low = mid + 1;
+			} else if(cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Gets the relative path of the change at the given index.
+	 * @param index - The index of the change.
+	 * @return The relative path.
+	 */
+	public String getPath(int index) {
+		return new String(this.pathBytes, this.pathOffsets[index],
+				this.pathOffsets[index + 1] - this.pathOffsets[index], StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Gets the change type of the change at the given index.
+	 * @param index - The index of the change.
+	 * @return The change type.
+	 */
+	public ChangeType getChangeType(int index) {
+		return CHANGE_TYPES[this.changeTypes[index]];
+	}
+	
+	/**
+	 * Gets the change type of the given path.
+	 * @param relPath - The relative path.
+	 * @return The change type or {@code null} if this table does not contain a change of the given path.
+	 */
+	public ChangeType getChangeType(String relPath) {
+		int index = this.indexOf(relPath);
+		return (index < 0 ? null : this.getChangeType(index));
+	}
+	
+	/**
+	 * Gets the hash of the change at the given index.
+	 * @param index - The index of the change.
+	 * @return The hash or {@code null} if the change has no hash.
+	 */
+	public String getHash(int index) {
+		return this.getToken(2 * index);
+	}
+	
+	/**
+	 * Gets the region file fingerprint of the change at the given index.
+	 * @param index - The index of the change.
+	 * @return The fingerprint or {@code null} if the change has no fingerprint.
+	 */
+	public String getFingerprint(int index) {
+		return this.getToken(2 * index + 1);
+	}
+	
+	private String getToken(int tokenIndex) {
+		int start = this.tokenOffsets[tokenIndex];
+		return decodeToken(this.tokenBytes, start,
+				this.tokenOffsets[tokenIndex + 1] - start, this.tokenEncodings[tokenIndex]);
+	}
+	
+	/**
+	 * Gets a read-only map view of the change types in this table. The view does not copy the changes.
+	 * @return The view, mapping relative paths to their change type.
+	 */
+	public Map<String, ChangeType> asMap() {
+		if(this.changesView == null) {
+			this.changesView = new ChangesView();
+		}
+		return this.changesView;
+	}
+	
+	/**
+	 * Gets the encoding in which the given hash or fingerprint is stored.
+	 * @param token - The hash or fingerprint.
+	 * @return {@link #TOKEN_ABSENT} if the token is {@code null}, {@link #TOKEN_HEX} if the token is a lowercase
+	 * hexadecimal string, {@link #TOKEN_BASE64} if the token is a Base64 string and {@link #TOKEN_TEXT} otherwise.
+	 */
+	static int getTokenEncoding(String token) {
+		if(token == null) {
+			return TOKEN_ABSENT;
+		}
+		if(token.length() % 2 == 0) {
+			boolean isHex = true;
+			for(int i = 0; i < token.length() && isHex; i++) {
+				char c = token.charAt(i);
+				isHex = ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+			}
+			if(isHex) {
+				return TOKEN_HEX;
+			}
+		}
+		try {
+			if(Base64.getEncoder().encodeToString(Base64.getDecoder().decode(token)).equals(token)) {
+				return TOKEN_BASE64;
+			}
+		} catch (IllegalArgumentException e) {
+			// Not a Base64 string.
+		}
+		return TOKEN_TEXT;
+	}
+	
+	/**
+	 * Encodes the given hash or fingerprint in the given encoding.
+	 * @param token - The hash or fingerprint.
+	 * @param encoding - The encoding from {@link #getTokenEncoding(String)}.
+	 * @return The encoded bytes or {@code null} if the encoding is {@link #TOKEN_ABSENT}.
+	 */
+	static byte[] encodeToken(String token, int encoding) {
+		switch(encoding) {
+			case TOKEN_ABSENT:
+				return null;
+			case TOKEN_HEX:
+				byte[] bytes = new byte[token.length() / 2];
+				for(int i = 0; i < bytes.length; i++) {
+					bytes[i] = (byte) ((Character.digit(token.charAt(2 * i), 16) << 4)
+							| Character.digit(token.charAt(2 * i + 1), 16));
+				}
+				return bytes;
+			case TOKEN_BASE64:
+				return Base64.getDecoder().decode(token);
+			case TOKEN_TEXT:
+				return token.getBytes(StandardCharsets.UTF_8);
+			default:
+				throw new IllegalArgumentException("Unknown token encoding: " + encoding);
+		}
+	}
+	
+	/**
+	 * Decodes the given encoded hash or fingerprint.
+	 * @param bytes - The byte array containing the encoded bytes.
+	 * @param offset - The start of the encoded bytes.
+	 * @param length - The amount of encoded bytes.
+	 * @param encoding - The encoding.
+	 * @return The hash or fingerprint or {@code null} if the encoding is {@link #TOKEN_ABSENT}.
+	 */
+	static String decodeToken(byte[] bytes, int offset, int length, int encoding) {
+		switch(encoding) {
+			case TOKEN_ABSENT:
+				return null;
+			case TOKEN_HEX:
+				StringBuilder str = new StringBuilder(2 * length);
+				for(int i = offset; i < offset + length; i++) {
+					str.append(Character.forDigit((bytes[i] >> 4) & 0x0F, 16))
+							.append(Character.forDigit(bytes[i] & 0x0F, 16));
+				}
+				return str.toString();
+			case TOKEN_BASE64:
+				return Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes, offset, offset + length));
+			case TOKEN_TEXT:
+				return new String(bytes, offset, length, StandardCharsets.UTF_8);
+			default:
+				throw new IllegalArgumentException("Unknown token encoding: " + encoding);
+		}
+	}
+	
+	/**
+	 * Compares two byte ranges as unsigned bytes.
+	 */
+	private static int compare(byte[] bytes1, int start1, int end1, byte[] bytes2, int start2, int end2) {
+		int length1 = end1 - start1;
+		int length2 = end2 - start2;
+		int minLength = Math.min(length1, length2);
+		for(int i = 0; i < minLength; i++) {
+			int cmp = (bytes1[start1 + i] & 0xFF) - (bytes2[start2 + i] & 0xFF);
+			if(cmp != 0) {
+				return cmp;
+			}
+		}
+		return length1 - length2;
+	}
+	
+	/**
+	 * A read-only map view of the change types in the table.
+	 * @author P.J.S. Kools
+	 */
+	private class ChangesView extends AbstractMap<String, ChangeType> {
+		
+		/**
+		 * Creates a new {@link ChangesView}.
+		 */
+		private ChangesView() {
+		}
+		
+		@Override
+		public ChangeType get(Object key) {
+			return (key instanceof String ? ChangeTable.this.getChangeType((String) key) : null);
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return (key instanceof String && ChangeTable.this.indexOf((String) key) >= 0);
+		}
+		
+		@Override
+		public int size() {
+			return ChangeTable.this.size;
+		}
+		
+		@Override
+		public Set<Entry<String, ChangeType>> entrySet() {
+			return new AbstractSet<Entry<String, ChangeType>>() {
+				
+				@Override
+				public Iterator<Entry<String, ChangeType>> iterator() {
+					return new Iterator<Entry<String, ChangeType>>() {
+						private int index = 0;
+						
+						@Override
+						public boolean hasNext() {
+							return this.index < ChangeTable.this.size;
+						}
+						
+						@Override
+						public Entry<String, ChangeType> next() {
+							if(this.index >= ChangeTable.this.size) {
+								throw new NoSuchElementException();
+							}
+							int index = this.index++;
+							return new SimpleImmutableEntry<String, ChangeType>(
+									ChangeTable.this.getPath(index), ChangeTable.this.getChangeType(index));
+						}
+					};
+				}
+				
+				@Override
+				public int size() {
+					return ChangeTable.this.size;
+				}
+			};
+		}
+	}
+	
+	/**
+	 * A builder for {@link ChangeTable}. Changes can be added in any order.
+	 * @author P.J.S. Kools
+	 */
+	public static class Builder {
+		private int size = 0;
+		private byte[] pathBytes = new byte[1024];
+		private int[] pathOffsets = new int[33];
+		private byte[] changeTypes = new byte[32];
+		private byte[] tokenBytes = new byte[512];
+		private int[] tokenOffsets = new int[65];
+		private byte[] tokenEncodings = new byte[64];
+		private boolean isSorted = true;
+		
+		/**
+		 * Creates a new {@link Builder}.
+		 */
+		public Builder() {
+		}
+		
+		/**
+		 * Adds a change.
+		 * @param relPath - The relative path.
+		 * @param changeType - The change type.
+		 * @param hash - The hash or {@code null} if not available.
+		 * @param fingerprint - The region file fingerprint or {@code null} if not available.
+		 * @return This builder.
+		 */
+		public Builder add(String relPath, ChangeType changeType, String hash, String fingerprint) {
+			
+			// Grow the arrays if necessary.
+			if(this.size == this.changeTypes.length) {
+				int newCapacity = 2 * this.size;
+				this.pathOffsets = Arrays.copyOf(this.pathOffsets, newCapacity + 1);
+				this.changeTypes = Arrays.copyOf(this.changeTypes, newCapacity);
+				this.tokenOffsets = Arrays.copyOf(this.tokenOffsets, 2 * newCapacity + 1);
+				this.tokenEncodings = Arrays.copyOf(this.tokenEncodings, 2 * newCapacity);
+			}
+			
+			// Add the path and change type.
+			byte[] path = relPath.getBytes(StandardCharsets.UTF_8);
+			int pathStart = this.pathOffsets[this.size];
+			this.pathBytes = ensureCapacity(this.pathBytes, pathStart + path.length);
+			System.arraycopy(path, 0, this.pathBytes, pathStart, path.length);
+			this.pathOffsets[this.size + 1] = pathStart + path.length;
+			this.changeTypes[this.size] = (byte) changeType.ordinal();
+			if(this.isSorted && this.size > 0) {
+				this.isSorted = compare(this.pathBytes, this.pathOffsets[this.size - 1], pathStart,
+						this.pathBytes, pathStart, pathStart + path.length) < 0;
+			}
+			
+			// Add the hash and fingerprint.
+			this.addToken(2 * this.size, hash);
+			this.addToken(2 * this.size + 1, fingerprint);
+			this.size++;
+			return this;
+		}
+		
+		private void addToken(int tokenIndex, String token) {
+			int encoding = getTokenEncoding(token);
+			byte[] bytes = encodeToken(token, encoding);
+			int start = this.tokenOffsets[tokenIndex];
+			int length = (bytes == null ? 0 : bytes.length);
+			this.tokenBytes = ensureCapacity(this.tokenBytes, start + length);
+			if(bytes != null) {
+				System.arraycopy(bytes, 0, this.tokenBytes, start, length);
+			}
+			this.tokenOffsets[tokenIndex + 1] = start + length;
+			this.tokenEncodings[tokenIndex] = (byte) encoding;
+		}
+		
+		/**
+		 * Builds the {@link ChangeTable}, sorting the changes by path if they were not added in sorted order.
+		 * @return The change table.
+		 * @throws IllegalArgumentException If a path was added more than once.
+		 */
+		public ChangeTable build() throws IllegalArgumentException {
+			
+			// Return a table containing the trimmed arrays if the changes are already sorted.
+			// The paths are strictly increasing in that case, so they cannot contain duplicates.
+			if(this.isSorted) {
+				return new ChangeTable(this.size,
+						Arrays.copyOf(this.pathBytes, this.pathOffsets[this.size]),
+						Arrays.copyOf(this.pathOffsets, this.size + 1), Arrays.copyOf(this.changeTypes, this.size),
+						Arrays.copyOf(this.tokenBytes, this.tokenOffsets[2 * this.size]),
+						Arrays.copyOf(this.tokenOffsets, 2 * this.size + 1),
+						Arrays.copyOf(this.tokenEncodings, 2 * this.size));
+			}
+			
+			// Sort the change indices by path.
+			Integer[] order = new Integer[this.size];
+			for(int i = 0; i < this.size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (i1, i2) -> compare(this.pathBytes, this.pathOffsets[i1], this.pathOffsets[i1 + 1],
+					this.pathBytes, this.pathOffsets[i2], this.pathOffsets[i2 + 1]));
+			
+			// Copy the changes in sorted order.
+			byte[] pathBytes = new byte[this.pathOffsets[this.size]];
+			int[] pathOffsets = new int[this.size + 1];
+			byte[] changeTypes = new byte[this.size];
+			byte[] tokenBytes = new byte[this.tokenOffsets[2 * this.size]];
+			int[] tokenOffsets = new int[2 * this.size + 1];
+			byte[] tokenEncodings = new byte[2 * this.size];
+			for(int i = 0; i < this.size; i++) {
+				int index = order[i];
+				int pathStart = this.pathOffsets[index];
+				int pathLength = this.pathOffsets[index + 1] - pathStart;
+				if(i > 0 && compare(pathBytes, pathOffsets[i - 1], pathOffsets[i],
+						this.pathBytes, pathStart, pathStart + pathLength) == 0) {
+					throw new IllegalArgumentException("Path was added more than once: "
+							+ new String(this.pathBytes, pathStart, pathLength, StandardCharsets.UTF_8));
+				}
+				System.arraycopy(this.pathBytes, pathStart, pathBytes, pathOffsets[i], pathLength);
+				pathOffsets[i + 1] = pathOffsets[i] + pathLength;
+				changeTypes[i] = this.changeTypes[index];
+				for(int j = 0; j < 2; j++) {
+					int tokenStart = this.tokenOffsets[2 * index + j];
+					int tokenLength = this.tokenOffsets[2 * index + j + 1] - tokenStart;
+					System.arraycopy(this.tokenBytes, tokenStart, tokenBytes, tokenOffsets[2 * i + j], tokenLength);
+					tokenOffsets[2 * i + j + 1] = tokenOffsets[2 * i + j] + tokenLength;
+					tokenEncodings[2 * i + j] = this.tokenEncodings[2 * index + j];
+				}
+			}
+			return new ChangeTable(this.size,
+					pathBytes, pathOffsets, changeTypes, tokenBytes, tokenOffsets, tokenEncodings);
+		}
+		
+		private static byte[] ensureCapacity(byte[] bytes, int capacity) {
+			return (capacity <= bytes.length ? bytes : Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length)));
+		}
+	}
+}
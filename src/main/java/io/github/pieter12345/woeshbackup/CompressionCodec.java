@@ -0,0 +1,76 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ServiceLoader;
+
+/**
+ * Represents a compression codec used to compress zip entries. Deflate is the native zip codec. Entries compressed
+ * using other codecs are stored in the zip file with the name of their codec, so that zip files containing entries
+ * of different codecs can be read. Additional codecs can be provided as a {@link ServiceLoader} service.
+ * @author P.J.S. Kools
+ */
+public interface CompressionCodec {
+	
+	/**
+	 * The deflate codec, which is natively supported by the zip file format.
+	 */
+	public static final CompressionCodec DEFLATE = new DeflateCodec();
+	
+	/**
+	 * Gets the name of this codec. This name is stored with entries compressed by this codec.
+	 * @return The name.
+	 */
+	public String getName();
+	
+	/**
+	 * Checks whether this codec can be used. Codecs that depend on an external library are not available when that
+	 * library is not present.
+	 * @return {@code true} if this codec is available, {@code false} otherwise.
+	 */
+	public boolean isAvailable();
+	
+	/**
+	 * Creates a stream that compresses the bytes written to it and writes them to the given output stream.
+	 * Closing the returned stream finishes the compressed data and closes the given output stream.
+	 * @param outStream - The output stream to write the compressed bytes to.
+	 * @return The compressing output stream.
+	 * @throws IOException If an I/O error has occurred or if this codec is not available.
+	 */
+	public OutputStream encode(OutputStream outStream) throws IOException;
+	
+	/**
+	 * Creates a stream that decompresses the bytes read from the given input stream.
+	 * Closing the returned stream closes the given input stream.
+	 * @param inStream - The input stream containing the compressed bytes.
+	 * @return The decompressing input stream.
+	 * @throws IOException If an I/O error has occurred or if this codec is not available.
+	 */
+	public InputStream decode(InputStream inStream) throws IOException;
+	
+	/**
+	 * Gets the codec with the given name. Compression settings, such as the level, are not part of the name, so the
+	 * returned codec can decode entries compressed using any settings.
+	 * @param name - The name of the codec.
+	 * @return The codec, or {@code null} if no codec with the given name exists.
+	 */
+	public static CompressionCodec forName(String name) {
+		switch(name) {
+			case DeflateCodec.NAME:
+				return DEFLATE;
+			case ZstdCodec.NAME:
+				return new ZstdCodec();
+			case Lz4Codec.NAME:
+				return new Lz4Codec();
+			default:
+				for(CompressionCodec codec : ServiceLoader.load(
+						CompressionCodec.class, CompressionCodec.class.getClassLoader())) {
+					if(codec.getName().equals(name)) {
+						return codec;
+					}
+				}
+				return null;
+		}
+	}
+}
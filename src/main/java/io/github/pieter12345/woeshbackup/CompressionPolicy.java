@@ -0,0 +1,262 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * Decides per zip entry whether its contents are deflated or stored without compression.
+ * Entries are matched in the following order:
+ * <ol>
+ * <li>Paths matching a deflate glob are deflated.</li>
+ * <li>Paths matching a store glob or ending with a store extension are stored.</li>
+ * <li>Entries smaller than the minimum deflate size are stored.</li>
+ * <li>Other entries are deflated, or in {@link Mode#AUTO} mode, a sample of the entry is deflated to estimate
+ * whether deflating the entry would save enough space.</li>
+ * </ol>
+ * Globs are matched against the relative path of the entry, using '/' as separator.
+ * @author P.J.S. Kools
+ */
+public class CompressionPolicy {
+	
+	private final Mode mode;
+	private final List<String> storeExtensions = new ArrayList<String>();
+	private final List<PathMatcher> storeGlobs = new ArrayList<PathMatcher>();
+	private final List<PathMatcher> deflateGlobs = new ArrayList<PathMatcher>();
+	private long minDeflateSize = 0;
+	private double maxCompressionRatio = DEFAULT_MAX_COMPRESSION_RATIO;
+	
+	/**
+	 * The default maximum ratio of compressed to uncompressed sample size for an entry to be deflated.
+	 */
+	public static final double DEFAULT_MAX_COMPRESSION_RATIO = 0.95d;
+	
+	// The size and amount of the windows that are sampled from the start of an entry to estimate its compressibility.
+	private static final int SAMPLE_WINDOW_SIZE = 4096;
+	private static final int SAMPLE_WINDOW_COUNT = 3;
+	
+	/**
+	 * The policy that deflates all entries.
+	 */
+	public static final CompressionPolicy DEFLATE_ALL = new CompressionPolicy(Mode.DEFLATE);
+	
+	/**
+	 * Creates a new {@link CompressionPolicy} without rules.
+	 * @param mode - The mode, deciding what happens with entries that are not matched by any rule.
+	 */
+	public CompressionPolicy(Mode mode) {
+		this.mode = Objects.requireNonNull(mode);
+	}
+	
+	/**
+	 * Adds a file extension of which files are stored without compression.
+	 * @param extension - The extension, excluding the dot. For example: "png". This is case-insensitive.
+	 * @return This {@link CompressionPolicy}.
+	 */
+	public CompressionPolicy addStoreExtension(String extension) {
+		this.storeExtensions.add("." + extension.toLowerCase(Locale.ROOT));
+		return this;
+	}
+	
+	/**
+	 * Adds a glob pattern matching paths of files that are stored without compression.
+	 * @param glob - The glob pattern. For example: "world/datapacks/*.zip".
+	 * @return This {@link CompressionPolicy}.
+	 * @throws IllegalArgumentException If the glob pattern is invalid.
+	 */
+	public CompressionPolicy addStoreGlob(String glob) throws IllegalArgumentException {
+		this.storeGlobs.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		return this;
+	}
+	
+	/**
+	 * Adds a glob pattern matching paths of files that are always deflated. This takes precedence over other rules.
+	 * @param glob - The glob pattern. For example: "logs/latest.log".
+	 * @return This {@link CompressionPolicy}.
+	 * @throws IllegalArgumentException If the glob pattern is invalid.
+	 */
+	public CompressionPolicy addDeflateGlob(String glob) throws IllegalArgumentException {
+		this.deflateGlobs.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		return this;
+	}
+	
+	/**
+	 * Sets the minimum size of entries that are deflated. Smaller entries are stored, since deflating them would
+	 * barely save space.
+	 * @param minDeflateSize - The minimum size in bytes.
+	 * @return This {@link CompressionPolicy}.
+	 * @throws IllegalArgumentException If the given size is negative.
+	 */
+	public CompressionPolicy setMinDeflateSize(long minDeflateSize) throws IllegalArgumentException {
+		if(minDeflateSize < 0) {
+			throw new IllegalArgumentException("The minimum deflate size must be at least 0. Found: " + minDeflateSize);
+		}
+		this.minDeflateSize = minDeflateSize;
+		return this;
+	}
+	
+	/**
+	 * Sets the maximum ratio of compressed to uncompressed sample size for an entry to be deflated in
+	 * {@link Mode#AUTO} mode.
+	 * @param maxCompressionRatio - The ratio. For example: 0.95 to only deflate entries that are estimated to
+	 * compress to at most 95% of their size.
+	 * @return This {@link CompressionPolicy}.
+	 * @throws IllegalArgumentException If the given ratio is not positive.
+	 */
+	public CompressionPolicy setMaxCompressionRatio(double maxCompressionRatio) throws IllegalArgumentException {
+		if(!(maxCompressionRatio > 0d)) {
+			throw new IllegalArgumentException(
+					"The maximum compression ratio must be positive. Found: " + maxCompressionRatio);
+		}
+		this.maxCompressionRatio = maxCompressionRatio;
+		return this;
+	}
+	
+	/**
+	 * Gets the mode of this policy.
+	 * @return The mode.
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+	
+	/**
+	 * Gets the maximum ratio of compressed to uncompressed sample size for an entry to be deflated.
+	 * @return The ratio.
+	 */
+	public double getMaxCompressionRatio() {
+		return this.maxCompressionRatio;
+	}
+	
+	/**
+	 * Decides how the entry at the given relative path is stored.
+	 * @param relPath - The relative path of the entry.
+	 * @param size - The size of the entry contents, or -1 if unknown.
+	 * @return {@link Decision#STORE} or {@link Decision#DEFLATE} if the entry is matched by a rule, or
+	 * {@link Decision#SAMPLE} if the entry compressibility has to be estimated using
+	 * {@link #estimateCompressionRatio(byte[], int)}.
+	 */
+	public Decision decide(String relPath, long size) {
+		
+		// Match the path rules.
+		if(!this.deflateGlobs.isEmpty() || !this.storeGlobs.isEmpty()) {
+			Path path = Paths.get(relPath.replace(File.separatorChar, '/'));
+			for(PathMatcher glob : this.deflateGlobs) {
+				if(glob.matches(path)) {
+					return Decision.DEFLATE;
+				}
+			}
+			for(PathMatcher glob : this.storeGlobs) {
+				if(glob.matches(path)) {
+					return Decision.STORE;
+				}
+			}
+		}
+		String lowerCaseRelPath = relPath.toLowerCase(Locale.ROOT);
+		for(String extension : this.storeExtensions) {
+			if(lowerCaseRelPath.endsWith(extension)) {
+				return Decision.STORE;
+			}
+		}
+		
+		// Match the size rule.
+		if(size >= 0 && size < this.minDeflateSize) {
+			return Decision.STORE;
+		}
+		
+		// Handle the mode.
+		switch(this.mode) {
+			case AUTO:
+				return Decision.SAMPLE;
+			case DEFLATE:
+				return Decision.DEFLATE;
+			case STORE:
+				return Decision.STORE;
+			default:
+				throw new Error("Unimplemented compression mode: " + this.mode);
+		}
+	}
+	
+	/**
+	 * Estimates the compression ratio of the given bytes by deflating a few windows at the start, middle and end
+	 * of the given bytes using the fastest compression level.
+	 * @param bytes - The start of the entry contents.
+	 * @param length - The amount of bytes.
+	 * @return The ratio of compressed to uncompressed sample size. This is 0 if the length is 0.
+	 */
+	public static double estimateCompressionRatio(byte[] bytes, int length) {
+		if(length == 0) {
+			return 0d;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			byte[] buffer = new byte[SAMPLE_WINDOW_SIZE * 2];
+			long sampledSize = 0;
+			long compressedSize = 0;
+			int windowSize = Math.min(SAMPLE_WINDOW_SIZE, length);
+			int windowCount = Math.min(SAMPLE_WINDOW_COUNT, length / windowSize);
+			for(int i = 0; i < windowCount; i++) {
+				int offset = (windowCount == 1 ? 0 : (int) ((long) (length - windowSize) * i / (windowCount - 1)));
+				deflater.reset();
+				deflater.setInput(bytes, offset, windowSize);
+				deflater.finish();
+				while(!deflater.finished()) {
+					compressedSize += deflater.deflate(buffer);
+				}
+				sampledSize += windowSize;
+			}
+			return (double) compressedSize / sampledSize;
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Represents the behavior for entries that are not matched by any rule.
+	 */
+	public static enum Mode {
+		
+		/**
+		 * Entries are deflated if a sample of the entry compresses well enough.
+		 */
+		AUTO,
+		
+		/**
+		 * Entries are deflated.
+		 */
+		DEFLATE,
+		
+		/**
+		 * Entries are stored without compression.
+		 */
+		STORE;
+	}
+	
+	/**
+	 * Represents how an entry is stored.
+	 */
+	public static enum Decision {
+		
+		/**
+		 * The entry is stored without compression.
+		 */
+		STORE,
+		
+		/**
+		 * The entry is deflated.
+		 */
+		DEFLATE,
+		
+		/**
+		 * The entry is deflated if a sample of the entry compresses well enough.
+		 */
+		SAMPLE;
+	}
+}
@@ -0,0 +1,151 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Represents a hash algorithm used to detect whether file contents have changed. The name of the algorithm is
+ * stored with the hashes, so that hashes from different algorithms are never compared.
+ * @author P.J.S. Kools
+ */
+public interface ContentHasher {
+	
+	/**
+	 * The MD5 content hasher, producing Base64 encoded hashes. This is the algorithm used by legacy backup parts.
+	 */
+	public static final ContentHasher MD5 = new Md5ContentHasher();
+	
+	/**
+	 * The xxHash64 tree content hasher, which hashes large files in parallel.
+	 */
+	public static final ContentHasher XXH64_TREE = new XxHash64TreeContentHasher();
+	
+	/**
+	 * Gets the name of this content hasher.
+	 * @return The name.
+	 */
+	public String getName();
+	
+	/**
+	 * Creates a new digest to hash content with.
+	 * @return The digest.
+	 */
+	public Digest newDigest();
+	
+	/**
+	 * Hashes the contents of the given file.
+	 * @param file - The file.
+	 * @return The encoded hash.
+	 * @throws IOException When an I/O error occurs while reading the file.
+	 */
+	public default String hash(File file) throws IOException {
+		Digest digest = this.newDigest();
+		FileInputStream inStream = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = inStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, count);
+			}
+		} finally {
+			inStream.close();
+		}
+		return digest.digest();
+	}
+	
+	/**
+	 * Hashes the given bytes.
+	 * @param bytes - The bytes.
+	 * @return The encoded hash.
+	 */
+	public default String hash(byte[] bytes) {
+		Digest digest = this.newDigest();
+		digest.update(bytes, 0, bytes.length);
+		return digest.digest();
+	}
+	
+	/**
+	 * Gets the content hasher with the given name.
+	 * @param name - The name of the content hasher.
+	 * @return The content hasher, or {@code null} if no content hasher with the given name exists.
+	 */
+	public static ContentHasher forName(String name) {
+		if(MD5.getName().equals(name)) {
+			return MD5;
+		} else if(XXH64_TREE.getName().equals(name)) {
+			return XXH64_TREE;
+		}
+		return null;
+	}
+	
+	/**
+	 * Represents a hash computation in progress.
+	 */
+	public static interface Digest {
+		
+		/**
+		 * Updates this digest with the given bytes.
+		 * @param bytes - The buffer containing the bytes.
+		 * @param offset - The offset of the bytes in the buffer.
+		 * @param length - The amount of bytes.
+		 */
+		public void update(byte[] bytes, int offset, int length);
+		
+		/**
+		 * Completes the hash computation. This digest should not be used afterwards.
+		 * @return The encoded hash.
+		 */
+		public String digest();
+	}
+	
+	/**
+	 * An input stream that updates a {@link Digest} with all bytes read through it.
+	 */
+	public static class DigestInputStream extends FilterInputStream {
+		
+		private final Digest digest;
+		
+		/**
+		 * Creates a new {@link DigestInputStream}.
+		 * @param inStream - The input stream to read from.
+		 * @param digest - The digest to update.
+		 */
+		public DigestInputStream(InputStream inStream, Digest digest) {
+			super(inStream);
+			this.digest = digest;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = this.in.read();
+			if(b != -1) {
+				this.digest.update(new byte[] {(byte) b}, 0, 1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int count = this.in.read(bytes, offset, length);
+			if(count > 0) {
+				this.digest.update(bytes, offset, count);
+			}
+			return count;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			int count = this.read(buffer, 0, buffer.length);
+			return Math.max(count, 0);
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
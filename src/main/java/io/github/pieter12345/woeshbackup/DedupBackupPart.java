@@ -0,0 +1,878 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import io.github.pieter12345.woeshbackup.exceptions.CorruptedBackupException;
+
+/**
+ * Represents a backup part that stores file contents in a shared {@link BlobStore} and only stores a manifest of its
+ * changes itself. Files with equal contents are stored once, also across backup parts and backups sharing the blob
+ * store. Merging backup parts that share a blob store only merges their manifests.
+ * Large files can be split into content-defined chunks that are stored as separate blobs, so that only the chunks
+ * that were not seen before are stored when a large file changes in small places.
+ * @author P.J.S. Kools
+ */
+public class DedupBackupPart implements BackupPart {
+	
+	private final long creationTime;
+	private final String name;
+	private final File parentDir;
+	private final File manifestFile;
+	private final BlobStore blobStore;
+	private final FastCdcChunker chunker;
+	private final long minChunkedFileSize;
+	private final DedupStatistics statistics = new DedupStatistics();
+	
+	private Map<String, ManifestEntry> changesMap = null;
+	private boolean writing = false;
+	private boolean referencesRemoved = false;
+	
+	/**
+	 * Creates a new {@link DedupBackupPart}.
+	 * The given name will be used to create a name.manifest file in the given parent directory.
+	 * @param parentDir - The directory to put the manifest file for this backup part in.
+	 * @param name - The name of this backup.
+	 * @param creationTime - The creation time of this backup.
+	 * @param blobStore - The blob store to store the file contents in.
+	 */
+	public DedupBackupPart(File parentDir, String name, long creationTime, BlobStore blobStore) {
+		this(parentDir, name, creationTime, blobStore, null, 0);
+	}
+	
+	/**
+	 * Creates a new {@link DedupBackupPart} that splits added files of at least the given size into content-defined
+	 * chunks. The given name will be used to create a name.manifest file in the given parent directory.
+	 * @param parentDir - The directory to put the manifest file for this backup part in.
+	 * @param name - The name of this backup.
+	 * @param creationTime - The creation time of this backup.
+	 * @param blobStore - The blob store to store the file contents in.
+	 * @param chunker - The chunker to split files with, or {@code null} to store every file as a single blob.
+	 * @param minChunkedFileSize - The minimum size of files to split into chunks in bytes.
+	 */
+	public DedupBackupPart(File parentDir, String name, long creationTime,
+			BlobStore blobStore, FastCdcChunker chunker, long minChunkedFileSize) {
+		Objects.requireNonNull(blobStore);
+		this.creationTime = creationTime;
+		this.name = name;
+		this.parentDir = parentDir;
+		this.manifestFile = new File(parentDir, name + ".manifest");
+		this.blobStore = blobStore;
+		this.chunker = chunker;
+		this.minChunkedFileSize = minChunkedFileSize;
+	}
+	
+	@Override
+	public void addAddition(String relPath, File file) throws IOException {
+		if(relPath.endsWith(File.separator)) {
+			this.addAddition(relPath, null, false);
+		} else {
+			boolean chunk = (this.chunker != null && file.length() >= this.minChunkedFileSize);
+			FileInputStream inStream = new FileInputStream(file);
+			try {
+				this.addAddition(relPath, inStream, chunk);
+			} finally {
+				inStream.close();
+			}
+		}
+	}
+	
+	private void addAddition(String relPath, InputStream inStream, boolean chunk) throws IOException {
+		this.prepareChange(relPath);
+		
+		// Add directories.
+		if(relPath.endsWith(File.separator)) {
+			this.changesMap.put(relPath, new ManifestEntry(relPath, ChangeType.ADDITION, null, 0, null));
+			return;
+		}
+		
+		// Store the file contents in the blob store, counting the file size and hashing the file in the process.
+		String hash;
+		String[] blobKeys;
+		CountingInputStream countingInStream = new CountingInputStream(inStream);
+		if(chunk) {
+			MessageDigest messageDigest = getMessageDigest();
+			List<String> chunkKeys = new ArrayList<String>();
+			this.chunker.chunk(new DigestInputStream(countingInStream, messageDigest), (buffer, offset, length) -> {
+				String key = this.blobStore.put(buffer, offset, length);
+				this.statistics.addChunk(length, this.blobStore.getReferenceCount(key) == 1);
+				chunkKeys.add(key);
+			});
+			hash = toHex(messageDigest.digest());
+			blobKeys = chunkKeys.toArray(new String[chunkKeys.size()]);
+		} else {
+			hash = this.blobStore.put(countingInStream);
+			blobKeys = new String[] {hash};
+			this.statistics.addChunk(countingInStream.count, this.blobStore.getReferenceCount(hash) == 1);
+		}
+		this.statistics.fileCount++;
+		
+		// Store the change.
+		this.changesMap.put(relPath,
+				new ManifestEntry(relPath, ChangeType.ADDITION, hash, countingInStream.count, blobKeys));
+	}
+	
+	@Override
+	public void addModification(String relPath, File file) throws IOException {
+		this.addAddition(relPath, file);
+	}
+	
+	@Override
+	public void addRemoval(String relPath) throws IOException {
+		this.prepareChange(relPath);
+		this.changesMap.put(relPath, new ManifestEntry(relPath, ChangeType.REMOVAL, null, 0, null));
+	}
+	
+	@Override
+	public void merge(BackupPart backup) throws IOException, CorruptedBackupException {
+		
+		// Merge the manifests if the given backup part shares the blob store of this backup part.
+		if(backup instanceof DedupBackupPart && ((DedupBackupPart) backup).blobStore == this.blobStore) {
+			DedupBackupPart dedupBackup = (DedupBackupPart) backup;
+			dedupBackup.readChanges();
+			for(ManifestEntry entry : dedupBackup.changesMap.values()) {
+				
+				// Skip entries that are already in this backup.
+				if(this.changesMap != null && this.changesMap.containsKey(entry.relPath)) {
+					continue;
+				}
+				
+				// Reference the blobs of the entry from this backup part.
+				this.prepareChange(entry.relPath);
+				if(entry.blobKeys != null) {
+					for(String key : entry.blobKeys) {
+						if(!this.blobStore.addReference(key)) {
+							throw new CorruptedBackupException(backup,
+									"Backup part references a blob that does not exist: " + entry.relPath);
+						}
+					}
+				}
+				this.changesMap.put(entry.relPath, entry);
+			}
+			return;
+		}
+		
+		// Get changes map. This is a copy, since changes are removed from it when they are handled.
+		final Map<String, ChangeType> changesMap = new HashMap<String, ChangeType>(backup.getChanges());
+		
+		// Handle additions based on backup part files.
+		try {
+			backup.readAll((fileEntry) -> {
+				String relPath = fileEntry.getRelativePath();
+				
+				// Remove change from changes map to mark it as handled and validate change type.
+				ChangeType changeType = changesMap.remove(relPath);
+				if(changeType == null) {
+					throw new CorruptedBackupException(backup,
+							"Backup part contains file that does not occur in its changes: " + relPath);
+				} else if(changeType == ChangeType.REMOVAL) {
+					throw new CorruptedBackupException(backup,
+							"Backup part contains file that occurs as a removal in its changes: " + relPath);
+				} else if(changeType != ChangeType.ADDITION) {
+					throw new UnsupportedOperationException("Merging changes of type " + changeType
+							+ " from backup parts of type " + backup.getClass().getName() + " is not supported.");
+				}
+				
+				// Skip entries that are already in this backup.
+				if(this.changesMap != null && this.changesMap.containsKey(relPath)) {
+					return;
+				}
+				
+				// Add addition entry to this backup part.
+				DedupBackupPart.this.addAddition(relPath, fileEntry.getFileStream(), this.chunker != null);
+			});
+		} catch (InvocationTargetException e) {
+			if(e.getTargetException() instanceof CorruptedBackupException) {
+				throw (CorruptedBackupException) e.getTargetException();
+			} else if(e.getTargetException() instanceof IOException) {
+				throw (IOException) e.getTargetException();
+			} else if(e.getTargetException() instanceof RuntimeException) {
+				throw (RuntimeException) e.getTargetException();
+			} else {
+				// Should be impossible.
+				throw new RuntimeException(e);
+			}
+		}
+		
+		// Handle removals based on backup part changes.
+		for(Entry<String, ChangeType> changeEntry : changesMap.entrySet()) {
+			String relPath = changeEntry.getKey();
+			if(changeEntry.getValue() != ChangeType.REMOVAL) {
+				throw new CorruptedBackupException(backup,
+						"Backup part is missing a file that occurs in its changes: " + relPath);
+			}
+			
+			// Add removal entry to this backup part if it is not already in this backup.
+			if(this.changesMap == null || !this.changesMap.containsKey(relPath)) {
+				this.addRemoval(relPath);
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(!this.writing) {
+			return;
+		}
+		
+		// Persist the blob references before the manifest that contains them.
+		this.blobStore.flush();
+		
+		// Write the manifest to a temporary file.
+		File tempFile = new File(this.parentDir, this.manifestFile.getName() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+		try {
+			for(ManifestEntry entry : this.changesMap.values()) {
+				String relPath = entry.relPath.replace(File.separatorChar, '/');
+				switch(entry.changeType) {
+					case ADDITION:
+						writer.write('+' + relPath + '\n');
+						if(entry.hash != null) {
+							writer.write('\t' + entry.hash + '\t' + entry.size);
+							if(entry.blobKeys.length != 1 || !entry.blobKeys[0].equals(entry.hash)) {
+								writer.write('\t' + String.join(",", entry.blobKeys));
+							}
+							writer.write('\n');
+						}
+						break;
+					case REMOVAL:
+						writer.write('-' + relPath + '\n');
+						break;
+					default:
+						throw new Error("Unimplemented change type found: " + entry.changeType);
+				}
+			}
+			writer.write('#' + this.name + '\n');
+		} finally {
+			writer.close();
+		}
+		
+		// Replace the manifest file by the temporary file.
+		try {
+			Files.move(tempFile.toPath(), this.manifestFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), this.manifestFile.toPath());
+		}
+		this.writing = false;
+		this.blobStore.endUpdate();
+	}
+	
+	@Override
+	public boolean contains(String relPath, File file, boolean compareContent) throws IOException {
+		
+		// Get the change for the given relPath.
+		ManifestEntry entry = this.changesMap.get(relPath);
+		if(entry == null || entry.changeType == ChangeType.REMOVAL) {
+			return false; // No change or a removal for relPath found.
+		}
+		if(!compareContent || relPath.endsWith(File.separator)) {
+			return true; // A non-removal change was found and content does not matter or it's a directory.
+		}
+		if(file.isDirectory()) {
+			throw new IllegalArgumentException(
+					"Relative path does not denote a directory, but a directory is given. Relative path: "
+					+ relPath + ", directory path: " + file.getAbsolutePath());
+		}
+		
+		return matches(file, entry.size, entry.hash);
+	}
+	
+	@Override
+	public String getDigest(String relPath) {
+		ManifestEntry entry = (this.changesMap == null ? null : this.changesMap.get(relPath));
+		if(entry == null || entry.hash == null || relPath.endsWith(File.separator)) {
+			return null;
+		}
+		return entry.size + ":" + entry.hash;
+	}
+	
+	@Override
+	public boolean matchesDigest(String digest, File file) throws IOException {
+		int index = digest.indexOf(':');
+		try {
+			return index != -1
+					&& matches(file, Long.parseLong(digest.substring(0, index)), digest.substring(index + 1));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks whether the given file has the given size and SHA-256 hash.
+	 * @param file - The file.
+	 * @param size - The size in bytes.
+	 * @param hash - The SHA-256 hash in hexadecimal format.
+	 * @return {@code true} if the file has the given size and hash, {@code false} otherwise.
+	 * @throws IOException When an I/O error occurs while reading the file.
+	 */
+	private static boolean matches(File file, long size, String hash) throws IOException {
+		
+		// Files with a different size are not equal.
+		if(file.length() != size) {
+			return false;
+		}
+		
+		// Compare the file to the blob using their SHA-256 hashes.
+		MessageDigest messageDigest = getMessageDigest();
+		FileInputStream inStream = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = inStream.read(buffer)) > 0) {
+				messageDigest.update(buffer, 0, count);
+			}
+		} finally {
+			inStream.close();
+		}
+		return toHex(messageDigest.digest()).equals(hash);
+	}
+	
+	@Override
+	public void readChanges() throws IOException, CorruptedBackupException {
+		
+		/* Manifest file format:
+		 * +some/path/to/file
+		 * \t<SHA-256 hash of the file contents>\t<fileSize>[\t<chunkBlobKey>,<chunkBlobKey>,...]
+		 * +some/path/to/dir/
+		 * -some/other/file/path
+		 * -some/other/dir/path/
+		 * #<name>
+		 *
+		 */
+		
+		// Return if the changes were already read.
+		if(this.changesMap != null) {
+			return;
+		}
+		
+		// Check if the manifest file exists.
+		if(!this.manifestFile.exists()) {
+			throw new CorruptedBackupException(this, "Manifest file does not exist.");
+		}
+		
+		// Read the changes.
+		String changes = new String(Files.readAllBytes(this.manifestFile.toPath()), StandardCharsets.UTF_8);
+		String[] lines = changes.split("\n");
+		
+		// Create the new changes map.
+		Map<String, ManifestEntry> changesMap = new HashMap<String, ManifestEntry>();
+		
+		// Detect write corruption.
+		if(!lines[lines.length - 1].equals('#' + this.name)) {
+			throw new CorruptedBackupException(this, "Manifest file does not end with expected suffix.");
+		}
+		
+		// Parse and store the changes.
+		for(int i = 0; i < lines.length - 1; i++) {
+			String line = lines[i];
+			if(line.isEmpty()) {
+				throw new CorruptedBackupException(this, "Manifest file contains an empty line.");
+			}
+			char typeChar = line.charAt(0);
+			String relPath = line.substring(1).replace('/', File.separatorChar);
+			switch(typeChar) {
+				case '+': {
+					String hash = null;
+					long size = 0;
+					String[] blobKeys = null;
+					if(!relPath.endsWith(File.separator)) {
+						
+						// Parse the blob line. Files that are stored as a single blob only have their hash as key.
+						String[] blobLineParts = (i + 1 < lines.length - 1 && lines[i + 1].startsWith("\t")
+								? lines[++i].substring(1).split("\t", -1) : new String[0]);
+						if(blobLineParts.length != 2 && blobLineParts.length != 3) {
+							throw new CorruptedBackupException(this,
+									"Manifest file does not contain a valid blob for file addition: " + relPath);
+						}
+						hash = blobLineParts[0];
+						blobKeys = (blobLineParts.length == 2 ? new String[] {hash}
+								: (blobLineParts[2].isEmpty() ? new String[0] : blobLineParts[2].split(",")));
+						if(!isBlobKey(hash) || !Arrays.stream(blobKeys).allMatch(DedupBackupPart::isBlobKey)) {
+							throw new CorruptedBackupException(this,
+									"Manifest file does not contain a valid blob for file addition: " + relPath);
+						}
+						try {
+							size = Long.parseLong(blobLineParts[1]);
+						} catch (NumberFormatException e) {
+							throw new CorruptedBackupException(this,
+									"Manifest file contains an invalid file size for file addition: " + relPath);
+						}
+					}
+					changesMap.put(relPath, new ManifestEntry(relPath, ChangeType.ADDITION, hash, size, blobKeys));
+					break;
+				}
+				case '-':
+					changesMap.put(relPath, new ManifestEntry(relPath, ChangeType.REMOVAL, null, 0, null));
+					break;
+				default:
+					throw new CorruptedBackupException(this, "Manifest file contains"
+							+ " unexpected first character on line " + (i + 1) + ": '" + typeChar + "'");
+			}
+		}
+		this.changesMap = changesMap;
+	}
+	
+	@Override
+	public Map<String, ChangeType> getChanges() {
+		if(this.changesMap == null) {
+			return null;
+		}
+		
+		// Return a read-only view of the manifest entries, so that the changes are not copied.
+		final Map<String, ManifestEntry> changesMap = this.changesMap;
+		return new AbstractMap<String, ChangeType>() {
+			
+			@Override
+			public ChangeType get(Object key) {
+				ManifestEntry entry = changesMap.get(key);
+				return (entry == null ? null : entry.changeType);
+			}
+			
+			@Override
+			public boolean containsKey(Object key) {
+				return changesMap.containsKey(key);
+			}
+			
+			@Override
+			public int size() {
+				return changesMap.size();
+			}
+			
+			@Override
+			public Set<Entry<String, ChangeType>> entrySet() {
+				return new AbstractSet<Entry<String, ChangeType>>() {
+					
+					@Override
+					public Iterator<Entry<String, ChangeType>> iterator() {
+						final Iterator<ManifestEntry> it = changesMap.values().iterator();
+						return new Iterator<Entry<String, ChangeType>>() {
+							
+							@Override
+							public boolean hasNext() {
+								return it.hasNext();
+							}
+							
+							@Override
+							public Entry<String, ChangeType> next() {
+								ManifestEntry entry = it.next();
+								return new SimpleImmutableEntry<String, ChangeType>(entry.relPath, entry.changeType);
+							}
+						};
+					}
+					
+					@Override
+					public int size() {
+						return changesMap.size();
+					}
+				};
+			}
+		};
+	}
+	
+	@Override
+	public String getName() {
+		return this.name;
+	}
+	
+	@Override
+	public long getCreationTime() {
+		return this.creationTime;
+	}
+	
+	/**
+	 * Deletes this backup part and removes its references to blobs in the blob store.
+	 * Blobs that are no longer referenced are removed from the blob store.
+	 * If the manifest of this backup part is corrupted, the blobs that it referenced cannot be determined. A sweep of
+	 * the blob store is then requested, which recomputes the reference counts from the remaining manifests.
+	 * @throws IOException When an I/O error occurs during deletion.
+	 */
+	@Override
+	public void delete() throws IOException {
+		this.blobStore.beginUpdate();
+		try {
+			
+			// Read the manifest to determine the referenced blobs if it was not read yet.
+			boolean referencesLost = false;
+			if(this.changesMap == null && this.manifestFile.exists()) {
+				try {
+					this.readChanges();
+				} catch (CorruptedBackupException e) {
+					referencesLost = true; // The referenced blobs cannot be determined.
+				}
+			}
+			
+			// Delete the manifest before removing the references, so that it can never reference removed blobs.
+			if(this.manifestFile.exists()) {
+				Files.delete(this.manifestFile.toPath());
+			}
+			
+			// Remove the blob references, or request a sweep if they cannot be determined.
+			if(this.changesMap != null && !this.referencesRemoved) {
+				List<String> keys = new ArrayList<String>();
+				for(ManifestEntry entry : this.changesMap.values()) {
+					if(entry.blobKeys != null) {
+						keys.addAll(Arrays.asList(entry.blobKeys));
+					}
+				}
+				this.referencesRemoved = true;
+				this.blobStore.removeReferences(keys);
+			} else if(referencesLost) {
+				this.blobStore.requestSweep();
+			}
+		} finally {
+			
+			// End the update of this backup part if it was still being written.
+			if(this.writing) {
+				this.writing = false;
+				this.blobStore.endUpdate();
+			}
+			this.blobStore.endUpdate();
+		}
+	}
+	
+	/**
+	 * Adds the keys of all blobs that are referenced by this backup part to the given list, once per reference.
+	 * Nothing is added if the manifest of this backup part is corrupted.
+	 * @param keys - The list to add the blob keys to.
+	 * @throws IOException When an I/O error occurs while reading the manifest.
+	 */
+	void addBlobReferences(List<String> keys) throws IOException {
+		try {
+			this.readChanges();
+		} catch (CorruptedBackupException e) {
+			return;
+		}
+		for(ManifestEntry entry : this.changesMap.values()) {
+			if(entry.blobKeys != null) {
+				keys.addAll(Arrays.asList(entry.blobKeys));
+			}
+		}
+	}
+	
+	@Override
+	public InputStream readFile(String relPath, FileVersionSupplier previousVersion) throws IOException {
+		ManifestEntry entry = this.changesMap.get(relPath);
+		if(entry == null || entry.blobKeys == null) {
+			return null;
+		}
+		return this.openBlobs(entry.blobKeys);
+	}
+	
+	@Override
+	public void readAll(FileEntryHandler handler) throws InvocationTargetException, IOException {
+		for(ManifestEntry entry : new TreeMap<String, ManifestEntry>(this.changesMap).values()) {
+			if(entry.changeType == ChangeType.REMOVAL) {
+				continue;
+			}
+			InputStream inStream = (entry.blobKeys == null ? null : this.openBlobs(entry.blobKeys));
+			try {
+				handler.handle(new FileEntry(entry.relPath, inStream));
+			} catch (Throwable t) {
+				throw new InvocationTargetException(t);
+			} finally {
+				if(inStream != null) {
+					inStream.close();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public String getSummary() {
+		return (this.statistics.fileCount == 0 ? null : this.statistics.toString());
+	}
+	
+	/**
+	 * Gets the deduplication statistics of the files that were added to this backup part by this instance.
+	 * Changes that were added by merging other backup parts that share the blob store are not included.
+	 * @return The deduplication statistics.
+	 */
+	public DedupStatistics getStatistics() {
+		return this.statistics;
+	}
+	
+	/**
+	 * Opens a stream that reads the given blobs in order.
+	 * @param blobKeys - The blob keys.
+	 * @return The stream.
+	 * @throws IOException When the first blob could not be opened.
+	 */
+	private InputStream openBlobs(String[] blobKeys) throws IOException {
+		return (blobKeys.length == 1 ? this.blobStore.open(blobKeys[0]) : new BlobSequenceInputStream(blobKeys));
+	}
+	
+	/**
+	 * Initializes this backup part for writing if it was not yet initialized and validates that no change was added
+	 * for the given relative path. Writing is an update of the blob store that ends when this backup part is closed
+	 * or deleted.
+	 * @param relPath - The relative path of the change that is about to be added.
+	 * @throws IOException When the manifest file already exists.
+	 */
+	private void prepareChange(String relPath) throws IOException {
+		if(this.changesMap == null) {
+			if(this.manifestFile.exists()) {
+				throw new IOException("Target file already exists: " + this.manifestFile.getAbsolutePath());
+			}
+			if(!this.parentDir.exists()) {
+				this.parentDir.mkdirs();
+			}
+			this.changesMap = new HashMap<String, ManifestEntry>();
+			this.writing = true;
+			this.blobStore.beginUpdate();
+		}
+		
+		// Throw an exception if the relPath was already added.
+		if(this.changesMap.containsKey(relPath)) {
+			throw new IllegalArgumentException("Relative path was already added: " + relPath);
+		}
+	}
+	
+	private static MessageDigest getMessageDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e); // Never happens, and if it does, then there is no fallback anyways.
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder str = new StringBuilder(2 * bytes.length);
+		for(byte b : bytes) {
+			str.append(Character.forDigit((b >> 4) & 0x0F, 16)).append(Character.forDigit(b & 0x0F, 16));
+		}
+		return str.toString();
+	}
+	
+	private static boolean isBlobKey(String key) {
+		if(key.length() != 64) {
+			return false;
+		}
+		for(int i = 0; i < key.length(); i++) {
+			if(Character.digit(key.charAt(i), 16) == -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Deduplication statistics of the files added to a backup part.
+	 * @author P.J.S. Kools
+	 */
+	public static class DedupStatistics {
+		private int fileCount = 0;
+		private long byteCount = 0;
+		private int chunkCount = 0;
+		private int newChunkCount = 0;
+		private long newByteCount = 0;
+		
+		/**
+		 * Creates new empty {@link DedupStatistics}.
+		 */
+		private DedupStatistics() {
+		}
+		
+		private void addChunk(long length, boolean isNew) {
+			this.chunkCount++;
+			this.byteCount += length;
+			if(isNew) {
+				this.newChunkCount++;
+				this.newByteCount += length;
+			}
+		}
+		
+		/**
+		 * Gets the amount of added files.
+		 * @return The amount of added files.
+		 */
+		public int getFileCount() {
+			return this.fileCount;
+		}
+		
+		/**
+		 * Gets the total size of the added files.
+		 * @return The total size of the added files in bytes.
+		 */
+		public long getByteCount() {
+			return this.byteCount;
+		}
+		
+		/**
+		 * Gets the amount of chunks that the added files were split into. Files that were not split count as one
+		 * chunk.
+		 * @return The amount of chunks.
+		 */
+		public int getChunkCount() {
+			return this.chunkCount;
+		}
+		
+		/**
+		 * Gets the amount of chunks that did not exist in the blob store yet.
+		 * @return The amount of new chunks.
+		 */
+		public int getNewChunkCount() {
+			return this.newChunkCount;
+		}
+		
+		/**
+		 * Gets the total uncompressed size of the chunks that did not exist in the blob store yet.
+		 * @return The total size of the new chunks in bytes.
+		 */
+		public long getNewByteCount() {
+			return this.newByteCount;
+		}
+		
+		@Override
+		public String toString() {
+			double dedupRatio = (this.newByteCount == 0 ? 1d : (double) this.byteCount / this.newByteCount);
+			return this.fileCount + " files (" + (this.byteCount / 1000) + "KB) in " + this.chunkCount
+					+ " chunks, of which " + this.newChunkCount + " new chunks (" + (this.newByteCount / 1000)
+					+ "KB) were stored. Dedup ratio: " + String.format(Locale.ROOT, "%.2f", dedupRatio) + ".";
+		}
+	}
+	
+	/**
+	 * A manifest entry, representing a change and the blobs containing the file contents.
+	 * @author P.J.S. Kools
+	 */
+	private static class ManifestEntry {
+		private final String relPath;
+		private final ChangeType changeType;
+		private final String hash;
+		private final long size;
+		private final String[] blobKeys;
+		
+		/**
+		 * Creates a new {@link ManifestEntry}.
+		 * @param relPath - The relative path of the changed file or directory.
+		 * @param changeType - The change type.
+		 * @param hash - The SHA-256 hash of the file contents or {@code null} for directories and removals.
+		 * @param size - The file size in bytes.
+		 * @param blobKeys - The keys of the blobs containing the file contents in order, or {@code null} for
+		 * directories and removals. This only contains the file hash if the file is stored as a single blob.
+		 */
+		private ManifestEntry(String relPath, ChangeType changeType, String hash, long size, String[] blobKeys) {
+			this.relPath = relPath;
+			this.changeType = changeType;
+			this.hash = hash;
+			this.size = size;
+			this.blobKeys = blobKeys;
+		}
+	}
+	
+	/**
+	 * An input stream that reads blobs in order, only opening a blob when the previous blob has been read.
+	 * @author P.J.S. Kools
+	 */
+	private class BlobSequenceInputStream extends InputStream {
+		private final String[] blobKeys;
+		private int index = 0;
+		private InputStream blobInStream = null;
+		
+		/**
+		 * Creates a new {@link BlobSequenceInputStream}.
+		 * @param blobKeys - The keys of the blobs to read.
+		 */
+		private BlobSequenceInputStream(String[] blobKeys) {
+			this.blobKeys = blobKeys;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			return (this.read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF);
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(length == 0) {
+				return 0;
+			}
+			while(true) {
+				if(this.blobInStream == null) {
+					if(this.index >= this.blobKeys.length) {
+						return -1;
+					}
+					this.blobInStream = DedupBackupPart.this.blobStore.open(this.blobKeys[this.index++]);
+				}
+				int count = this.blobInStream.read(buffer, offset, length);
+				if(count != -1) {
+					return count;
+				}
+				this.blobInStream.close();
+				this.blobInStream = null;
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.index = this.blobKeys.length;
+			if(this.blobInStream != null) {
+				this.blobInStream.close();
+				this.blobInStream = null;
+			}
+		}
+	}
+	
+	/**
+	 * An input stream that counts the amount of bytes read from the wrapped stream.
+	 * @author P.J.S. Kools
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+		
+		/**
+		 * Creates a new {@link CountingInputStream}.
+		 * @param inStream - The stream to wrap.
+		 */
+		private CountingInputStream(InputStream inStream) {
+			super(inStream);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1) {
+				this.count++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int count = super.read(buffer, offset, length);
+			if(count > 0) {
+				this.count += count;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A {@link BackupPartFactory} implementation that stores file contents in a deduplicating {@link BlobStore} and
+ * stores a manifest file per backup part in a single directory.
+ * Multiple factories can share the same blob store to deduplicate files across backups. Every factory registers its
+ * storage directory as a reference source of the blob store, so that a sweep of the blob store reads the manifests of
+ * all backups that share it.
+ * @author P.J.S. Kools
+ */
+public class DedupBackupPartFactory implements BackupPartFactory {
+	
+	private File storageDir;
+	private BlobStore blobStore;
+	private FastCdcChunker chunker = null;
+	private long minChunkedFileSize = 0;
+	
+	private static final DateFormat BACKUP_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
+	
+	/**
+	 * Creates a new deduplicating backup part factory using the given storage directory and blob store.
+	 * @param storageDir - The directory in which the backup part manifests will be stored.
+	 * @param blobStore - The blob store in which the file contents will be stored.
+	 */
+	public DedupBackupPartFactory(File storageDir, BlobStore blobStore) {
+		Objects.requireNonNull(blobStore);
+		this.storageDir = storageDir;
+		this.blobStore = blobStore;
+		this.addReferenceSource();
+	}
+	
+	@Override
+	public BackupPart createNew(long time) {
+		String backupName = BACKUP_DATE_FORMAT.format(new Date(time));
+		return this.createNew(this.storageDir, time, backupName);
+	}
+	
+	private BackupPart createNew(File storageDir, long time, String backupName) {
+		return new DedupBackupPart(
+				storageDir, backupName, time, this.blobStore, this.chunker, this.minChunkedFileSize);
+	}
+	
+	@Override
+	public List<BackupPart> readAllBefore(long beforeDate) throws IOException {
+		return this.readAllBefore(this.storageDir, beforeDate);
+	}
+	
+	private List<BackupPart> readAllBefore(File storageDir, long beforeDate) {
+		
+		// Create list to return.
+		List<BackupPart> ret = new ArrayList<BackupPart>();
+		
+		// Get all .manifest files.
+		File[] files = storageDir.listFiles((dir, name) -> name.endsWith(".manifest"));
+		if(files == null) {
+			return ret; // Storage directory is not a directory, so there are no backups.
+		}
+		
+		// Get all backup parts.
+		for(File file : files) {
+			
+			// Validate the file name and skip if the file is not a backup.
+			String fileName = file.getName().substring(0, file.getName().length() - ".manifest".length());
+			long time;
+			try {
+				time = BACKUP_DATE_FORMAT.parse(fileName).getTime();
+			} catch (ParseException e) {
+				continue;
+			}
+			
+			// Create the backup part and add it to the return list if the backup dates before the given beforeDate.
+			if(beforeDate < 0 || time < beforeDate) {
+				ret.add(this.createNew(storageDir, time, fileName));
+			}
+		}
+		
+		// Sort the backups from oldest (index 0) to newest.
+		ret.sort((b1, b2) -> Long.compare(b1.getCreationTime(), b2.getCreationTime()));
+		
+		// Return the result.
+		return ret;
+	}
+	
+	@Override
+	public long getFreeUsableSpace() {
+		return (this.storageDir.exists() ? this.storageDir.getUsableSpace() : -1);
+	}
+	
+	/**
+	 * Gets the storage directory.
+	 * @return The directory in which the backup part manifests will be stored.
+	 */
+	public File getStorageDir() {
+		return this.storageDir;
+	}
+	
+	/**
+	 * Sets the storage directory.
+	 * @param storageDir - The directory in which the backup part manifests will be stored.
+	 */
+	public void setStorageDir(File storageDir) {
+		this.storageDir = storageDir;
+		this.addReferenceSource();
+	}
+	
+	/**
+	 * Gets the blob store.
+	 * @return The blob store in which the file contents will be stored.
+	 */
+	public BlobStore getBlobStore() {
+		return this.blobStore;
+	}
+	
+	/**
+	 * Sets the blob store. Existing backup parts of this factory must only be read using the blob store that they
+	 * were created with.
+	 * @param blobStore - The blob store in which the file contents will be stored.
+	 */
+	public void setBlobStore(BlobStore blobStore) {
+		Objects.requireNonNull(blobStore);
+		this.blobStore = blobStore;
+		this.addReferenceSource();
+	}
+	
+	/**
+	 * Registers the storage directory as a reference source of the blob store. A previously used storage directory
+	 * remains registered, since its manifests still reference blobs in the blob store.
+	 */
+	private void addReferenceSource() {
+		final File storageDir = this.storageDir;
+		this.blobStore.addReferenceSource(storageDir, (keys) -> {
+			if(storageDir.exists() && storageDir.list() == null) {
+				throw new IOException("Failed to list storage directory: " + storageDir.getAbsolutePath());
+			}
+			for(BackupPart backupPart : this.readAllBefore(storageDir, -1)) {
+				((DedupBackupPart) backupPart).addBlobReferences(keys);
+			}
+		});
+	}
+	
+	/**
+	 * Sets the chunker that new backup parts use to split large files into content-defined chunks.
+	 * Changing the chunker does not affect existing backup parts, but chunks are only deduplicated with chunks that
+	 * were created using equal chunk sizes.
+	 * @param chunker - The chunker or {@code null} to store every file as a single blob.
+	 * @param minChunkedFileSize - The minimum size of files to split into chunks in bytes.
+	 */
+	public void setChunker(FastCdcChunker chunker, long minChunkedFileSize) {
+		this.chunker = chunker;
+		this.minChunkedFileSize = minChunkedFileSize;
+	}
+}
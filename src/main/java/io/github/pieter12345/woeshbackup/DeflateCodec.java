@@ -0,0 +1,79 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A {@link CompressionCodec} producing raw DEFLATE data. {@link ZipFileWriter} deflates entries natively instead of
+ * using this codec, so that the entries can be read by any zip tool.
+ * @author P.J.S. Kools
+ */
+public class DeflateCodec implements CompressionCodec {
+	
+	/**
+	 * The name of this codec.
+	 */
+	public static final String NAME = "deflate";
+	
+	private final int level;
+	
+	/**
+	 * Creates a new {@link DeflateCodec} using the default compression level.
+	 */
+	public DeflateCodec() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	/**
+	 * Creates a new {@link DeflateCodec}.
+	 * @param level - The compression level from 0 to 9, or -1 for the default compression level.
+	 */
+	public DeflateCodec(int level) {
+		this.level = level;
+	}
+	
+	@Override
+	public String getName() {
+		return NAME;
+	}
+	
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+	
+	@Override
+	public OutputStream encode(OutputStream outStream) throws IOException {
+		Deflater deflater = new Deflater(this.level, true);
+		return new DeflaterOutputStream(outStream, deflater, 8192) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					deflater.end();
+				}
+			}
+		};
+	}
+	
+	@Override
+	public InputStream decode(InputStream inStream) throws IOException {
+		Inflater inflater = new Inflater(true);
+		return new InflaterInputStream(inStream, inflater, 8192) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inflater.end();
+				}
+			}
+		};
+	}
+}
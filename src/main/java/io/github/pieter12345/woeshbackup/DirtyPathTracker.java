@@ -0,0 +1,347 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Tracks the paths in a directory that changed between backups using a {@link WatchService}, so that a backup only
+ * has to examine those paths instead of all files.
+ * The tracked changes are only valid for the backup state that they were tracked for, which is identified by the
+ * creation time of the most recent backup part at that time. A full scan is required when the tracker was just
+ * started, when change events were lost, when the backup state changed outside of a backup run and every
+ * fullScanInterval runs.
+ * @author P.J.S. Kools
+ */
+public class DirtyPathTracker implements Closeable {
+	
+	private final File dir;
+	private final IgnorePaths ignorePaths;
+	private final int fullScanInterval;
+	
+	private WatchService watchService = null;
+	private Thread watchThread = null;
+	private final Map<WatchKey, String> watchedDirs = new HashMap<WatchKey, String>();
+	
+	private Set<String> dirtyPaths = new HashSet<String>();
+	private Set<String> dirtySubtrees = new HashSet<String>();
+	private DirtyPaths pendingRun = null;
+	private boolean pendingRunIsFullScan = false;
+	private boolean watching = false;
+	private boolean fullScanRequired = true;
+	private long anchorTime = -1;
+	private int runsSinceFullScan = 0;
+	
+	/**
+	 * Creates a new {@link DirtyPathTracker} for the given directory. The tracker does not track changes until it
+	 * is started.
+	 * @param dir - The directory to track.
+	 * @param relIgnorePaths - The ignore paths relative to the directory. Changes in these paths are not tracked.
+	 * Directories should be suffixed with a file separator.
+	 * @param fullScanInterval - Every this amount of backup runs, a full scan is required. Use 0 or less to only
+	 * require full scans when changes might have been missed.
+	 */
+	public DirtyPathTracker(File dir, Collection<String> relIgnorePaths, int fullScanInterval) {
+		Objects.requireNonNull(dir);
+		this.dir = dir;
+		this.ignorePaths = new IgnorePaths(new HashSet<String>(relIgnorePaths));
+		this.fullScanInterval = fullScanInterval;
+	}
+	
+	/**
+	 * Starts tracking changes. The directories are registered on a daemon thread, and changes are only complete after
+	 * this registration and a full scan have been performed.
+	 * @throws IOException When the watch service could not be created.
+	 * @throws IllegalStateException When this tracker was already started.
+	 */
+	public synchronized void start() throws IOException, IllegalStateException {
+		if(this.watchService != null) {
+			throw new IllegalStateException("The dirty path tracker was already started.");
+		}
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.watchThread = new Thread(() -> this.watch(), "WoeshBackup Watch Thread - " + this.dir.getName());
+		this.watchThread.setDaemon(true);
+		this.watchThread.start();
+	}
+	
+	/**
+	 * Stops tracking changes. A stopped tracker always requires a full scan.
+	 */
+	@Override
+	public synchronized void close() {
+		this.watching = false;
+		this.fullScanRequired = true;
+		if(this.watchService != null) {
+			try {
+				this.watchService.close();
+			} catch (IOException e) {
+				// Ignore. The watch thread stops when the watch service is closed.
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether this tracker is tracking changes.
+	 * @return {@code true} if all directories are registered and changes are being tracked, {@code false} otherwise.
+	 */
+	public synchronized boolean isWatching() {
+		return this.watching;
+	}
+	
+	/**
+	 * Starts a new backup run, taking the paths that changed since the previous run. Changes that happen during the
+	 * run are tracked for the next run. If the previous run was not finished, its paths are included in this run.
+	 * @param latestBackupPartTime - The creation time of the most recent backup part in the backup state or -1 if
+	 * there are no backup parts.
+	 * @return The changed paths, or {@code null} if all files have to be examined during this run.
+	 */
+	public synchronized DirtyPaths beginRun(long latestBackupPartTime) {
+		
+		// Take the tracked changes, including those of an unfinished previous run.
+		boolean fullScan = (this.pendingRun != null && this.pendingRunIsFullScan);
+		if(this.pendingRun != null) {
+			this.dirtyPaths.addAll(this.pendingRun.paths);
+			this.dirtySubtrees.addAll(this.pendingRun.subtrees);
+		}
+		this.pendingRun = new DirtyPaths(this.dirtyPaths, this.dirtySubtrees);
+		this.dirtyPaths = new HashSet<String>();
+		this.dirtySubtrees = new HashSet<String>();
+		
+		// Require a full scan if changes might have been missed or if the changes do not belong to the backup state.
+		fullScan |= this.fullScanRequired || !this.watching
+				|| this.anchorTime != latestBackupPartTime || latestBackupPartTime < 0;
+		if(this.watching) {
+			this.fullScanRequired = false;
+		}
+		
+		// Force a full scan every fullScanInterval runs.
+		if(!fullScan && this.fullScanInterval > 0 && ++this.runsSinceFullScan >= this.fullScanInterval) {
+			fullScan = true;
+		}
+		if(fullScan) {
+			this.runsSinceFullScan = 0;
+		}
+		this.pendingRunIsFullScan = fullScan;
+		return (fullScan ? null : this.pendingRun);
+	}
+	
+	/**
+	 * Finishes the current run, discarding the paths that were taken by it.
+	 * @param latestBackupPartTime - The creation time of the most recent backup part in the backup state after the
+	 * run or -1 if there are no backup parts.
+	 */
+	public synchronized void finishRun(long latestBackupPartTime) {
+		if(this.pendingRun == null) {
+			return;
+		}
+		this.pendingRun = null;
+		this.pendingRunIsFullScan = false;
+		this.anchorTime = latestBackupPartTime;
+	}
+	
+	/**
+	 * Moves the tracked changes to a new backup state when the most recent backup part was replaced without changing
+	 * the backup state, which happens when it is merged with older backup parts.
+	 * Does nothing if the tracked changes do not belong to the given old state.
+	 * @param oldLatestBackupPartTime - The creation time of the most recent backup part before the change.
+	 * @param newLatestBackupPartTime - The creation time of the most recent backup part after the change.
+	 */
+	public synchronized void rebase(long oldLatestBackupPartTime, long newLatestBackupPartTime) {
+		if(this.anchorTime == oldLatestBackupPartTime) {
+			this.anchorTime = newLatestBackupPartTime;
+		}
+	}
+	
+	/**
+	 * Invalidates the tracked changes, causing all files to be examined during the next run.
+	 * This should be called when the backup state changes outside of a backup run, for example when a corrupted
+	 * backup part is removed.
+	 */
+	public synchronized void invalidate() {
+		this.fullScanRequired = true;
+	}
+	
+	/**
+	 * Gets the tracked directory.
+	 * @return The directory.
+	 */
+	public File getDir() {
+		return this.dir;
+	}
+	
+	/**
+	 * Gets the full scan interval.
+	 * @return The amount of runs after which all files will be examined, or 0 or less for never.
+	 */
+	public int getFullScanInterval() {
+		return this.fullScanInterval;
+	}
+	
+	/**
+	 * Registers all directories and handles change events until the watch service is closed.
+	 */
+	private void watch() {
+		try {
+			
+			// Register all directories.
+			try {
+				this.registerAll(this.dir.toPath(), "");
+			} catch (IOException e) {
+				this.close(); // Changes can not be tracked, for example because the watch limit has been reached.
+				return;
+			}
+			synchronized(this) {
+				this.watching = true;
+			}
+			
+			// Handle change events.
+			while(true) {
+				WatchKey key = this.watchService.take();
+				String relDirPath = this.watchedDirs.get(key);
+				for(WatchEvent<?> event : key.pollEvents()) {
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW || relDirPath == null) {
+						this.requireFullScan(); // Change events were lost.
+						continue;
+					}
+					String relPath = relDirPath + event.context().toString();
+					if(this.ignorePaths.isIgnored(relPath) || this.ignorePaths.isIgnored(relPath + File.separator)) {
+						continue;
+					}
+					
+					// Register created directories. Their contents might have been created before they were registered.
+					Path path = this.dir.toPath().resolve(relPath);
+					if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+							&& Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+						try {
+							this.registerAll(path, relPath + File.separator);
+						} catch (IOException e) {
+							this.requireFullScan();
+						}
+						this.markDirty(relPath, true);
+					} else {
+						this.markDirty(relPath, false);
+					}
+				}
+				
+				// Stop watching directories that no longer exist. The tracked directory itself can not be removed.
+				if(!key.reset()) {
+					this.watchedDirs.remove(key);
+					if(relDirPath != null && relDirPath.isEmpty()) {
+						this.close();
+						return;
+					}
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			this.close();
+		}
+	}
+	
+	/**
+	 * Registers the given directory and all of its subdirectories that are not ignored.
+	 * @param dir - The directory.
+	 * @param relDirPath - The path of the directory relative to the tracked directory, ending with a separator,
+	 * or an empty string for the tracked directory.
+	 * @throws IOException When a directory could not be registered.
+	 */
+	private void registerAll(Path dir, final String relDirPath) throws IOException {
+		final Path basePath = this.dir.toPath();
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+				String relPath = basePath.relativize(subDir).toString();
+				relPath = (relPath.isEmpty() ? "" : relPath + File.separator);
+				if(!relPath.isEmpty() && DirtyPathTracker.this.ignorePaths.isIgnored(relPath)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				WatchKey key = subDir.register(DirtyPathTracker.this.watchService,
+						StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				DirtyPathTracker.this.watchedDirs.put(key, relPath);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if(Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+					throw e;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Marks the given path as changed.
+	 * @param relPath - The path relative to the tracked directory, without trailing separator.
+	 * @param subtree - {@code true} if all (nested) contents of the path have to be examined as well.
+	 */
+	private synchronized void markDirty(String relPath, boolean subtree) {
+		this.dirtyPaths.add(relPath);
+		if(subtree) {
+			this.dirtySubtrees.add(relPath);
+		}
+	}
+	
+	/**
+	 * Requires the next run to examine all files, since changes might have been missed.
+	 */
+	private synchronized void requireFullScan() {
+		this.fullScanRequired = true;
+	}
+	
+	/**
+	 * Represents the paths that changed since the previous backup run.
+	 * @author P.J.S. Kools
+	 */
+	public static class DirtyPaths {
+		private final Set<String> paths;
+		private final Set<String> subtrees;
+		
+		/**
+		 * Creates a new {@link DirtyPaths}.
+		 * @param paths - The changed paths relative to the tracked directory, without trailing separator.
+		 * @param subtrees - The changed paths of which all (nested) contents have to be examined as well.
+		 * These paths should also be in the changed paths.
+		 */
+		public DirtyPaths(Set<String> paths, Set<String> subtrees) {
+			this.paths = paths;
+			this.subtrees = subtrees;
+		}
+		
+		/**
+		 * Gets the changed paths. These are files and directories that were created, modified or removed.
+		 * @return The changed paths relative to the tracked directory, without trailing separator.
+		 */
+		public Set<String> getPaths() {
+			return Collections.unmodifiableSet(this.paths);
+		}
+		
+		/**
+		 * Gets the changed paths of which all (nested) contents have to be examined as well.
+		 * @return The paths relative to the tracked directory, without trailing separator.
+		 */
+		public Set<String> getSubtrees() {
+			return Collections.unmodifiableSet(this.subtrees);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits streams into content-defined chunks using the FastCDC algorithm. Chunk boundaries are determined by a
+ * rolling gear hash over the content, so an insertion or removal in a stream only changes the chunks around it.
+ * Chunks are at least the minimum size (except for the last chunk) and at most the maximum size. Normalized chunking
+ * is used to keep the chunk sizes close to the average size.
+ * Only a single buffer of the maximum chunk size is used, regardless of the stream length.
+ * @author P.J.S. Kools
+ */
+public class FastCdcChunker {
+	
+	private final int minSize;
+	private final int averageSize;
+	private final int maxSize;
+	private final long smallMask;
+	private final long largeMask;
+	
+	private static final long[] GEAR = createGearTable();
+	
+	/**
+	 * Creates a new {@link FastCdcChunker}.
+	 * @param minSize - The minimum chunk size in bytes.
+	 * @param averageSize - The average chunk size in bytes. This has to be a power of two.
+	 * @param maxSize - The maximum chunk size in bytes.
+	 * @throws IllegalArgumentException When the sizes are not positive and ascending, or when the average size is not
+	 * a power of two.
+	 */
+	public FastCdcChunker(int minSize, int averageSize, int maxSize) throws IllegalArgumentException {
+		if(minSize <= 0 || minSize > averageSize || averageSize > maxSize) {
+			throw new IllegalArgumentException("Chunk sizes have to be positive and ascending. Found: "
+					+ minSize + ", " + averageSize + ", " + maxSize + ".");
+		}
+		if(Integer.bitCount(averageSize) != 1 || averageSize < 64) {
+			throw new IllegalArgumentException(
+					"Average chunk size has to be a power of two of at least 64. Found: " + averageSize);
+		}
+		this.minSize = minSize;
+		this.averageSize = averageSize;
+		this.maxSize = maxSize;
+		
+		// Use more mask bits before the average size and less mask bits after it (normalization level 2).
+		// The gear hash shifts left, so the highest bits depend on the most bytes.
+		int bits = Integer.numberOfTrailingZeros(averageSize);
+		this.smallMask = -1L << (64 - (bits + 2));
+		this.largeMask = -1L << (64 - (bits - 2));
+	}
+	
+	/**
+	 * Reads the given stream until its end and passes all chunks to the given handler in order.
+	 * The given stream is not closed. The buffer passed to the handler is reused after the handler returns.
+	 * @param inStream - The stream to split into chunks.
+	 * @param handler - The chunk handler.
+	 * @throws IOException When an I/O error occurs while reading the stream or when the handler throws one.
+	 */
+	public void chunk(InputStream inStream, ChunkHandler handler) throws IOException {
+		byte[] buffer = new byte[this.maxSize];
+		int length = 0;
+		boolean endOfStream = false;
+		while(true) {
+			
+			// Fill the buffer.
+			while(!endOfStream && length < buffer.length) {
+				int count = inStream.read(buffer, length, buffer.length - length);
+				if(count == -1) {
+					endOfStream = true;
+				} else {
+					length += count;
+				}
+			}
+			if(length == 0) {
+				return;
+			}
+			
+			// Pass the next chunk to the handler and move the remaining bytes to the start of the buffer.
+			int chunkLength = this.getChunkLength(buffer, length);
+			handler.handle(buffer, 0, chunkLength);
+			length -= chunkLength;
+			System.arraycopy(buffer, chunkLength, buffer, 0, length);
+		}
+	}
+	
+	/**
+	 * Gets the length of the chunk at the start of the given buffer.
+	 * @param buffer - The buffer.
+	 * @param length - The amount of bytes in the buffer. This is only less than the maximum chunk size at the end of
+	 * the stream.
+	 * @return The chunk length.
+	 */
+	private int getChunkLength(byte[] buffer, int length) {
+		if(length <= this.minSize) {
+			return length;
+		}
+		int normalSize = Math.min(this.averageSize, length);
+		long hash = 0;
+		int i = this.minSize;
+		for(; i < normalSize; i++) {
+			hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+			if((hash & this.smallMask) == 0) {
+				return i + 1;
+			}
+		}
+		for(; i < length; i++) {
+			hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+			if((hash & this.largeMask) == 0) {
+				return i + 1;
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * Gets the maximum chunk size.
+	 * @return The maximum chunk size in bytes.
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+	
+	/**
+	 * Creates the gear table containing a random value for every byte value. The values are generated using a fixed
+	 * seed, since chunk boundaries have to be equal between runs for chunks to be deduplicated.
+	 * @return The gear table.
+	 */
+	private static long[] createGearTable() {
+		long[] table = new long[256];
+		long state = 0x5745534842414B55L;
+		for(int i = 0; i < table.length; i++) {
+			
+			// SplitMix64.
+			state += 0x9E3779B97F4A7C15L;
+			long value = state;
+			value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+			value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+			table[i] = value ^ (value >>> 31);
+		}
+		return table;
+	}
+	
+	/**
+	 * Represents a handler for chunks.
+	 * @author P.J.S. Kools
+	 */
+	@FunctionalInterface
+	public interface ChunkHandler {
+		
+		/**
+		 * Handles a chunk.
+		 * @param buffer - The buffer containing the chunk.
+		 * @param offset - The offset of the chunk in the buffer.
+		 * @param length - The length of the chunk.
+		 * @throws IOException When an I/O error occurs while handling the chunk.
+		 */
+		void handle(byte[] buffer, int offset, int length) throws IOException;
+	}
+}
@@ -0,0 +1,208 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An iterator used to iterate over (nested) files and directories, providing their path relative to the base
+ * directory and their attributes. Every directory is listed once and the attributes of every file are read once while
+ * listing its parent directory, so that they can be used without accessing the file system again.
+ * @author P.J.S. Kools
+ */
+public class FileWalker implements Iterator<FileWalker.WalkedFile> {
+	
+	private final Set<String> relativeIgnorePaths;
+	private final Deque<WalkedFile> dirStack = new ArrayDeque<WalkedFile>();
+	private List<WalkedFile> files;
+	private int filesIndex;
+	private WalkedFile next;
+	
+	/**
+	 * Creates a new FileWalker starting at the given base directory, ignoring the given relative paths. The base
+	 * directory itself will not be returned by the iterator, but its (nested) contents including directories will.
+	 * @param baseDir - The directory containing the files that will be iterated over.
+	 * @param relativeIgnorePaths - Ignore paths relative to the base directory. These will be interpreted as
+	 * "baseDir.getAbsolutePath() + separator + relativeIgnorePath.get(x)".
+	 * Ignore paths that end with a path separator char will be interpreted as directories.
+	 * Ignored directories are not walked.
+	 */
+	public FileWalker(File baseDir, Collection<String> relativeIgnorePaths) {
+		this(baseDir, "", relativeIgnorePaths);
+	}
+	
+	/**
+	 * Creates a new FileWalker that walks the given directory within the given base directory, ignoring the given
+	 * relative paths. The walked directory itself will not be returned by the iterator, but its (nested) contents
+	 * including directories will. Relative paths are relative to the base directory.
+	 * @param baseDir - The base directory.
+	 * @param relDirPath - The path of the directory to walk relative to the base directory, ending with a separator,
+	 * or an empty string to walk the base directory.
+	 * @param relativeIgnorePaths - Ignore paths relative to the base directory. These will be interpreted as
+	 * "baseDir.getAbsolutePath() + separator + relativeIgnorePath.get(x)".
+	 * Ignore paths that end with a path separator char will be interpreted as directories.
+	 * Ignored directories are not walked.
+	 */
+	public FileWalker(File baseDir, String relDirPath, Collection<String> relativeIgnorePaths) {
+		this.relativeIgnorePaths = new HashSet<String>(relativeIgnorePaths);
+		
+		// Initialize the files, file index and next element.
+		this.files = listFiles(baseDir.toPath().resolve(relDirPath), relDirPath, this.relativeIgnorePaths);
+		this.filesIndex = 0;
+		this.next = (this.files.isEmpty() ? null : this.files.get(this.filesIndex++));
+	}
+	
+	@Override
+	public boolean hasNext() {
+		return this.next != null;
+	}
+	
+	@Override
+	public WalkedFile next() {
+		
+		// Throw an exception when there are no more elements.
+		if(!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		
+		// Get the next element.
+		final WalkedFile next = this.next;
+		
+		// Schedule the file for walking if it is a directory.
+		if(next.isDirectory()) {
+			this.dirStack.push(next);
+		}
+		
+		// Get a new files list if the current one has been iterated over.
+		if(this.filesIndex == this.files.size()) {
+			this.files = null;
+			this.filesIndex = 0;
+			while((this.files == null || this.files.isEmpty()) && !this.dirStack.isEmpty()) {
+				WalkedFile dir = this.dirStack.pop();
+				this.files = listFiles(dir.getPath(), dir.getRelativePath(), this.relativeIgnorePaths);
+			}
+			this.next = (this.files == null || this.files.isEmpty() ? null : this.files.get(this.filesIndex++));
+		} else {
+			this.next = this.files.get(this.filesIndex++);
+		}
+		
+		// Return the next element.
+		return next;
+	}
+	
+	/**
+	 * Lists the files in the given directory that are not ignored, reading their attributes.
+	 * Directories that cannot be listed are treated as empty directories.
+	 * @param dir - The directory.
+	 * @param relDirPath - The path of the directory relative to the base directory, ending with a separator,
+	 * or an empty string for the base directory.
+	 * @param relativeIgnorePaths - The ignore paths relative to the base directory.
+	 * @return The files in the directory.
+	 */
+	static List<WalkedFile> listFiles(Path dir, String relDirPath, Set<String> relativeIgnorePaths) {
+		List<WalkedFile> files = new ArrayList<WalkedFile>();
+		try {
+			DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir);
+			try {
+				for(Path path : dirStream) {
+					
+					// Read the file attributes. Files of which the attributes cannot be read are handled as files.
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					} catch (IOException e) {
+						attributes = null;
+					}
+					
+					// Add the file if it is not ignored.
+					String relPath = relDirPath + path.getFileName().toString()
+							+ (attributes != null && attributes.isDirectory() ? File.separator : "");
+					if(!relativeIgnorePaths.contains(relPath)) {
+						files.add(new WalkedFile(path, relPath, attributes));
+					}
+				}
+			} finally {
+				dirStream.close();
+			}
+		} catch (IOException | DirectoryIteratorException e) {
+			return new ArrayList<WalkedFile>();
+		}
+		return files;
+	}
+	
+	/**
+	 * Represents a file or directory returned by a {@link FileWalker}.
+	 * @author P.J.S. Kools
+	 */
+	public static class WalkedFile {
+		private final Path path;
+		private final String relPath;
+		private final BasicFileAttributes attributes;
+		
+		/**
+		 * Creates a new {@link WalkedFile}.
+		 * @param path - The path of the file.
+		 * @param relPath - The path of the file relative to the base directory, ending with a separator for
+		 * directories.
+		 * @param attributes - The file attributes or {@code null} if they could not be read.
+		 */
+		public WalkedFile(Path path, String relPath, BasicFileAttributes attributes) {
+			this.path = path;
+			this.relPath = relPath;
+			this.attributes = attributes;
+		}
+		
+		/**
+		 * Gets the path of the file.
+		 * @return The path.
+		 */
+		public Path getPath() {
+			return this.path;
+		}
+		
+		/**
+		 * Gets the file.
+		 * @return The file.
+		 */
+		public File getFile() {
+			return this.path.toFile();
+		}
+		
+		/**
+		 * Gets the path of the file relative to the base directory. Paths of directories end with a separator.
+		 * @return The relative path.
+		 */
+		public String getRelativePath() {
+			return this.relPath;
+		}
+		
+		/**
+		 * Gets the attributes of the file, read while listing its parent directory.
+		 * @return The file attributes or {@code null} if they could not be read.
+		 */
+		public BasicFileAttributes getAttributes() {
+			return this.attributes;
+		}
+		
+		/**
+		 * Checks whether the file is a directory.
+		 * @return {@code true} if the file is a directory, {@code false} otherwise.
+		 */
+		public boolean isDirectory() {
+			return this.attributes != null && this.attributes.isDirectory();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import io.github.pieter12345.woeshbackup.utils.Utils;
+
+/**
+ * A {@link CompressionCodec} producing LZ4 frames. LZ4 compresses worse than deflate, but is many times faster.
+ * This requires the lz4-java library.
+ * @author P.J.S. Kools
+ */
+public class Lz4Codec implements CompressionCodec {
+	
+	/**
+	 * The name of this codec.
+	 */
+	public static final String NAME = "lz4";
+	
+	/**
+	 * Creates a new {@link Lz4Codec}.
+	 */
+	public Lz4Codec() {
+	}
+	
+	@Override
+	public String getName() {
+		return NAME;
+	}
+	
+	@Override
+	public boolean isAvailable() {
+		return Utils.isClassPresent("net.jpountz.lz4.LZ4FrameOutputStream");
+	}
+	
+	@Override
+	public OutputStream encode(OutputStream outStream) throws IOException {
+		this.checkAvailable();
+		return Lz4Streams.encode(outStream);
+	}
+	
+	@Override
+	public InputStream decode(InputStream inStream) throws IOException {
+		this.checkAvailable();
+		return Lz4Streams.decode(inStream);
+	}
+	
+	private void checkAvailable() throws IOException {
+		if(!this.isAvailable()) {
+			throw new IOException("The " + NAME + " codec requires the lz4-java library, which is not available.");
+		}
+	}
+	
+	/**
+	 * Contains the references to the lz4-java library, so that they are only resolved when the library is available.
+	 */
+	private static final class Lz4Streams {
+		
+		/**
+		 * Private constructor, preventing instantiation.
+		 */
+		private Lz4Streams() {
+		}
+		
+		private static OutputStream encode(OutputStream outStream) throws IOException {
+			return new LZ4FrameOutputStream(outStream);
+		}
+		
+		private static InputStream decode(InputStream inStream) throws IOException {
+			return new LZ4FrameInputStream(inStream);
+		}
+	}
+}
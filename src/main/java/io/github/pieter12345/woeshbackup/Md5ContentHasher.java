@@ -0,0 +1,44 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * A {@link ContentHasher} that produces Base64 encoded MD5 hashes.
+ * @author P.J.S. Kools
+ */
+public class Md5ContentHasher implements ContentHasher {
+	
+	/**
+	 * Creates a new {@link Md5ContentHasher}.
+	 */
+	public Md5ContentHasher() {
+	}
+	
+	@Override
+	public String getName() {
+		return "md5";
+	}
+	
+	@Override
+	public Digest newDigest() {
+		final MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e); // Never happens, and if it does, then there is no fallback anyways.
+		}
+		return new Digest() {
+			@Override
+			public void update(byte[] bytes, int offset, int length) {
+				messageDigest.update(bytes, offset, length);
+			}
+			
+			@Override
+			public String digest() {
+				return Base64.getEncoder().encodeToString(messageDigest.digest());
+			}
+		};
+	}
+}
@@ -0,0 +1,206 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.pieter12345.woeshbackup.FileWalker.WalkedFile;
+
+/**
+ * Walks (nested) files and directories like a {@link FileWalker}, but lists directories concurrently in a
+ * work-stealing thread pool. Walked files are passed to the consumer through a bounded queue, so scanning blocks
+ * when the consumer falls behind. Ignored directories are not walked.
+ * Files are returned in the same order as a {@link FileWalker} returns them, regardless of the parallelism. The
+ * subdirectories of a directory are listed concurrently once the directory has been listed, and their listings are
+ * passed to the consumer in the depth-first order of the {@link FileWalker}.
+ * @author P.J.S. Kools
+ */
+public class ParallelFileWalker implements Closeable {
+	
+	// The element that marks the end of the walk in the queue.
+	private static final WalkedFile END = new WalkedFile(null, null, null);
+	
+	// The time in milliseconds that scanning threads wait for queue space before checking whether they should stop.
+	private static final long QUEUE_OFFER_TIMEOUT = 100;
+	
+	private final Set<String> relativeIgnorePaths;
+	private final BlockingQueue<WalkedFile> queue;
+	private final ForkJoinPool pool;
+	private volatile boolean closed = false;
+	private boolean ended = false;
+	
+	/**
+	 * Creates a new ParallelFileWalker and starts walking the given base directory, ignoring the given relative paths.
+	 * The base directory itself will not be returned by the walker, but its (nested) contents including directories
+	 * will. The walker has to be closed when it is no longer used, to stop the scanning threads.
+	 * @param baseDir - The directory containing the files that will be walked.
+	 * @param relativeIgnorePaths - Ignore paths relative to the base directory. These will be interpreted as
+	 * "baseDir.getAbsolutePath() + separator + relativeIgnorePath.get(x)".
+	 * Ignore paths that end with a path separator char will be interpreted as directories.
+	 * Ignored directories are not walked.
+	 * @param parallelism - The amount of threads that list directories concurrently.
+	 * @param queueCapacity - The maximum amount of walked files that wait to be taken from the walker.
+	 * @throws IllegalArgumentException When the given parallelism or queue capacity is less than 1.
+	 */
+	public ParallelFileWalker(File baseDir, Collection<String> relativeIgnorePaths, int parallelism, int queueCapacity)
+			throws IllegalArgumentException {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1. Found: " + parallelism);
+		}
+		if(queueCapacity < 1) {
+			throw new IllegalArgumentException("The queue capacity must be at least 1. Found: " + queueCapacity);
+		}
+		this.relativeIgnorePaths = new HashSet<String>(relativeIgnorePaths);
+		this.queue = new ArrayBlockingQueue<WalkedFile>(queueCapacity);
+		this.pool = new ForkJoinPool(parallelism, new ScannerThreadFactory(), null, false);
+		
+		// Start walking the base directory. The end of the walk is marked once all directories have been listed.
+		final Path basePath = baseDir.toPath();
+		this.pool.execute(() -> {
+			try {
+				this.walk(basePath);
+			} finally {
+				this.enqueue(END);
+			}
+		});
+	}
+	
+	/**
+	 * Walks the given base directory, adding the walked files to the queue in the order of a {@link FileWalker}.
+	 * This has to be called from a thread of the pool, so that the directory listings are forked into the pool.
+	 * @param basePath - The base directory.
+	 */
+	private void walk(Path basePath) {
+		Deque<ListDirectoryTask> dirStack = new ArrayDeque<ListDirectoryTask>();
+		dirStack.push(new ListDirectoryTask(basePath, ""));
+		dirStack.peek().fork();
+		while(!dirStack.isEmpty()) {
+			List<WalkedFile> files = dirStack.pop().join();
+			
+			// Start listing the subdirectories, so that they are listed while the files are being consumed.
+			// Like in a FileWalker, the last listed subdirectory is walked first.
+			for(WalkedFile file : files) {
+				if(file.isDirectory()) {
+					ListDirectoryTask subTask = new ListDirectoryTask(file.getPath(), file.getRelativePath());
+					subTask.fork();
+					dirStack.push(subTask);
+				}
+			}
+			
+			// Pass the files to the consumer.
+			for(WalkedFile file : files) {
+				if(!this.enqueue(file)) {
+					return; // The walker was closed.
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Takes the next walked file, waiting for it to be listed if necessary.
+	 * @return The next walked file, or {@code null} if all files have been walked or the walker has been closed.
+	 * @throws InterruptedException When the current thread is interrupted while waiting.
+	 */
+	public WalkedFile take() throws InterruptedException {
+		if(this.ended || this.closed) {
+			return null;
+		}
+		WalkedFile next = this.queue.take();
+		if(next == END) {
+			this.ended = true;
+			return null;
+		}
+		return next;
+	}
+	
+	/**
+	 * Stops walking and shuts down the scanning threads. Files that have not been taken yet are discarded.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.pool.shutdownNow();
+		this.queue.clear();
+	}
+	
+	/**
+	 * Adds the given walked file to the queue, waiting for space if necessary.
+	 * @param walkedFile - The walked file.
+	 * @return {@code true} if the walked file was added, {@code false} if the walker was closed while waiting.
+	 */
+	private boolean enqueue(WalkedFile walkedFile) {
+		try {
+			while(!this.closed) {
+				if(this.queue.offer(walkedFile, QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+	
+	/**
+	 * A task that lists a directory.
+	 * @author P.J.S. Kools
+	 */
+	private class ListDirectoryTask extends RecursiveTask<List<WalkedFile>> {
+		private static final long serialVersionUID = 1L;
+		
+		private final Path dir;
+		private final String relDirPath;
+		
+		/**
+		 * Creates a new {@link ListDirectoryTask}.
+		 * @param dir - The directory.
+		 * @param relDirPath - The path of the directory relative to the base directory, ending with a separator,
+		 * or an empty string for the base directory.
+		 */
+		ListDirectoryTask(Path dir, String relDirPath) {
+			this.dir = dir;
+			this.relDirPath = relDirPath;
+		}
+		
+		@Override
+		protected List<WalkedFile> compute() {
+			return FileWalker.listFiles(this.dir, this.relDirPath, ParallelFileWalker.this.relativeIgnorePaths);
+		}
+	}
+	
+	/**
+	 * A {@link ForkJoinWorkerThreadFactory} that creates numbered daemon threads for scanning directories.
+	 * @author P.J.S. Kools
+	 */
+	private static class ScannerThreadFactory implements ForkJoinWorkerThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+		
+		/**
+		 * Creates a new {@link ScannerThreadFactory}.
+		 */
+		ScannerThreadFactory() {
+		}
+		
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("WoeshBackup Scanner Thread #" + this.threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,414 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Creates and applies chunk-granular differences between two versions of a Minecraft region (.mca) file.
+ * A region file starts with a header of two 4 KiB sectors: a location table containing the sector offset and
+ * sector count of up to 1024 chunks and a table containing their last modified timestamps.
+ * Every chunk is stored separately as a 4 byte length, a compression type byte and the compressed chunk data.
+ * A difference contains the full header of the new version and only the chunks that were changed compared to
+ * the previous version. Bytes that are not part of a chunk, such as the padding after chunks and unused sectors, are
+ * stored as the ranges that differ from the bytes at the same position in the previous version, where ranges of zeros
+ * only store their length. Applying a difference therefore results in exactly the new version.
+ * A fingerprint of the header can be used to detect that a region file has not changed without reading its chunks.
+ * @author P.J.S. Kools
+ */
+public final class RegionFileDelta {
+	
+	private static final int SECTOR_SIZE = 4096;
+	private static final int CHUNK_COUNT = 1024;
+	private static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+	private static final int MAGIC = 0x57425244; // "WBRD".
+	private static final int FORMAT_VERSION = 2;
+	private static final int DELTA_HEADER_SIZE = 4 + 4 + 4 + HEADER_SIZE + 4;
+	
+	// Version 1 differences do not contain the bytes outside of chunks, which are zero when they are applied.
+	private static final int ZERO_FILLED_FORMAT_VERSION = 1;
+	
+	// The size of a range of bytes outside of chunks in a difference, excluding its contents. Differing ranges that
+	// are separated by less than this amount of equal bytes are stored as a single range.
+	private static final int RANGE_HEADER_SIZE = 4 + 4;
+	
+	// The amount of seconds that chunk timestamps must be older than the time at which a header is known to belong
+	// to the file contents, for the header to be a valid fingerprint. This covers chunks that are written again
+	// within the same second and small differences in clock resolution.
+	private static final long STABLE_TIMESTAMP_MARGIN_SECONDS = 2;
+	
+	private RegionFileDelta() {
+	}
+	
+	/**
+	 * Checks whether the file at the given relative path is a region file by its extension.
+	 * @param relPath - The relative path of the file.
+	 * @return {@code true} if the file is a region file, {@code false} otherwise.
+	 */
+	public static boolean isRegionFile(String relPath) {
+		return relPath.endsWith(".mca");
+	}
+	
+	/**
+	 * Creates the difference between the given versions of a region file.
+	 * @param previousVersion - The previous version of the region file.
+	 * @param newVersion - The new version of the region file.
+	 * @return The difference or {@code null} if one of the given versions is not a valid region file.
+	 */
+	public static byte[] create(byte[] previousVersion, byte[] newVersion) {
+		
+		// Get the chunk positions in both versions.
+		int[] previousChunks = getChunkPositions(previousVersion);
+		int[] newChunks = getChunkPositions(newVersion);
+		if(previousChunks == null || newChunks == null) {
+			return null;
+		}
+		
+		// Get the chunks that are not equal to the chunk at the same index in the previous version.
+		boolean[] isChunkChanged = new boolean[CHUNK_COUNT];
+		int changedChunkCount = 0;
+		for(int i = 0; i < CHUNK_COUNT; i++) {
+			if(newChunks[2 * i + 1] != 0 && !isChunkEqual(previousVersion, previousChunks, newVersion, newChunks, i)) {
+				isChunkChanged[i] = true;
+				changedChunkCount++;
+			}
+		}
+		
+		// Write the new header and the changed chunks.
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		DataOutputStream dataOutStream = new DataOutputStream(outStream);
+		try {
+			dataOutStream.writeInt(MAGIC);
+			dataOutStream.writeInt(FORMAT_VERSION);
+			dataOutStream.writeInt(newVersion.length);
+			dataOutStream.write(newVersion, 0, HEADER_SIZE);
+			dataOutStream.writeInt(changedChunkCount);
+			for(int i = 0; i < CHUNK_COUNT; i++) {
+				if(isChunkChanged[i]) {
+					dataOutStream.writeShort(i);
+					dataOutStream.writeInt(newChunks[2 * i + 1]);
+					dataOutStream.write(newVersion, newChunks[2 * i], newChunks[2 * i + 1]);
+				}
+			}
+			
+			// Write the ranges outside of chunks that differ from the previous version. Ranges of zeros are written
+			// as a negative length without contents.
+			List<int[]> ranges = getChangedRanges(previousVersion, newVersion, newChunks);
+			dataOutStream.writeInt(ranges.size());
+			for(int[] range : ranges) {
+				dataOutStream.writeInt(range[0]);
+				if(isZero(newVersion, range[0], range[1])) {
+					dataOutStream.writeInt(-range[1]);
+				} else {
+					dataOutStream.writeInt(range[1]);
+					dataOutStream.write(newVersion, range[0], range[1]);
+				}
+			}
+			dataOutStream.close();
+		} catch (IOException e) {
+			throw new Error(e); // Never happens for a ByteArrayOutputStream.
+		}
+		return outStream.toByteArray();
+	}
+	
+	/**
+	 * Applies the given difference to the given previous version of a region file.
+	 * @param delta - The difference, as created by {@link #create(byte[], byte[])}.
+	 * @param previousVersion - The previous version of the region file.
+	 * @return The new version of the region file.
+	 * @throws IOException When the difference is invalid or when the previous version does not contain an unchanged
+	 * chunk.
+	 */
+	public static byte[] apply(byte[] delta, byte[] previousVersion) throws IOException {
+		try {
+			
+			// Read the delta header.
+			ByteBuffer deltaBuffer = ByteBuffer.wrap(delta);
+			int version = (deltaBuffer.getInt() == MAGIC ? deltaBuffer.getInt() : -1);
+			if(version != FORMAT_VERSION && version != ZERO_FILLED_FORMAT_VERSION) {
+				throw new IOException("Region file delta has an invalid magic value or an unsupported version.");
+			}
+			int length = deltaBuffer.getInt();
+			if(length < HEADER_SIZE || delta.length < DELTA_HEADER_SIZE) {
+				throw new IOException("Region file delta contains an invalid file length: " + length);
+			}
+			
+			// Start from the bytes at the same positions in the previous version, so that bytes outside of chunks
+			// that did not change are kept.
+			byte[] newVersion = new byte[length];
+			if(version != ZERO_FILLED_FORMAT_VERSION) {
+				System.arraycopy(previousVersion, 0, newVersion, 0, Math.min(previousVersion.length, length));
+			}
+			deltaBuffer.get(newVersion, 0, HEADER_SIZE);
+			int[] newChunks = getChunkLocations(newVersion);
+			if(newChunks == null) {
+				throw new IOException("Region file delta contains an invalid region file header.");
+			}
+			
+			// Read the changed chunks.
+			int changedChunkCount = deltaBuffer.getInt();
+			boolean[] isChunkWritten = new boolean[CHUNK_COUNT];
+			for(int i = 0; i < changedChunkCount; i++) {
+				int index = deltaBuffer.getShort();
+				int chunkLength = deltaBuffer.getInt();
+				if(index < 0 || index >= CHUNK_COUNT || chunkLength > newChunks[2 * index + 1]) {
+					throw new IOException("Region file delta contains an invalid chunk at index: " + index);
+				}
+				deltaBuffer.get(newVersion, newChunks[2 * index], chunkLength);
+				isChunkWritten[index] = true;
+			}
+			
+			// Read the changed ranges outside of chunks.
+			if(version != ZERO_FILLED_FORMAT_VERSION) {
+				int rangeCount = deltaBuffer.getInt();
+				for(int i = 0; i < rangeCount; i++) {
+					int offset = deltaBuffer.getInt();
+					int rangeLength = deltaBuffer.getInt();
+					if(offset < HEADER_SIZE || Math.abs((long) rangeLength) > length - offset) {
+						throw new IOException("Region file delta contains an invalid range at offset: " + offset);
+					}
+					if(rangeLength < 0) {
+						Arrays.fill(newVersion, offset, offset - rangeLength, (byte) 0);
+					} else {
+						deltaBuffer.get(newVersion, offset, rangeLength);
+					}
+				}
+			}
+			
+			// Copy the unchanged chunks from the previous version.
+			int[] previousChunks = null;
+			for(int i = 0; i < CHUNK_COUNT; i++) {
+				if(newChunks[2 * i + 1] != 0 && !isChunkWritten[i]) {
+					if(previousChunks == null) {
+						previousChunks = getChunkPositions(previousVersion);
+						if(previousChunks == null) {
+							throw new IOException("Previous version of region file is not a valid region file.");
+						}
+					}
+					int chunkLength = previousChunks[2 * i + 1];
+					if(chunkLength == 0 || chunkLength > newChunks[2 * i + 1]) {
+						throw new IOException("Previous version of region file does not contain chunk: " + i);
+					}
+					System.arraycopy(
+							previousVersion, previousChunks[2 * i], newVersion, newChunks[2 * i], chunkLength);
+				}
+			}
+			return newVersion;
+		} catch (RuntimeException e) {
+			throw new IOException("Region file delta is invalid.", e);
+		}
+	}
+	
+	/**
+	 * Reads the header of the given region file.
+	 * @param file - The region file.
+	 * @return The header or {@code null} if the file is too small to be a region file.
+	 * @throws IOException When an I/O error occurs while reading the file.
+	 */
+	public static byte[] readHeader(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if(raf.length() < HEADER_SIZE) {
+				return null;
+			}
+			byte[] header = new byte[HEADER_SIZE];
+			raf.readFully(header);
+			return header;
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Gets the fingerprint of the region file with the given header and length.
+	 * Minecraft updates the timestamp of a chunk in the header whenever it writes the chunk, so an equal fingerprint
+	 * means that no chunk was written since the fingerprint was created, provided that the fingerprint was stable
+	 * according to {@link #getStableFingerprint(byte[], long, long)}.
+	 * @param header - The region file header, or a region file starting with the header.
+	 * @param fileLength - The length of the region file.
+	 * @return The fingerprint or {@code null} if the given header is too small.
+	 */
+	public static String getFingerprint(byte[] header, long fileLength) {
+		if(header == null || header.length < HEADER_SIZE) {
+			return null;
+		}
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e); // Never happens, and if it does, then there is no fallback anyways.
+		}
+		messageDigest.update(header, 0, HEADER_SIZE);
+		messageDigest.update(ByteBuffer.allocate(8).putLong(fileLength).array());
+		return Base64.getEncoder().encodeToString(messageDigest.digest());
+	}
+	
+	/**
+	 * Gets the fingerprint of the region file with the given header and length if it can be used to detect future
+	 * changes. This is the case when all chunk timestamps are older than the given time, at which the header was
+	 * known to belong to the file contents. Any chunk that is written after that time then gets a new timestamp.
+	 * @param header - The region file header, or a region file starting with the header.
+	 * @param fileLength - The length of the region file.
+	 * @param time - The time in milliseconds at or after which the header was read together with the file contents.
+	 * @return The fingerprint or {@code null} if the given header is too small, contains a chunk without timestamp
+	 * or contains a chunk that was written too recently.
+	 */
+	public static String getStableFingerprint(byte[] header, long fileLength, long time) {
+		if(header == null || header.length < HEADER_SIZE) {
+			return null;
+		}
+		long maxTimestamp = time / 1000 - STABLE_TIMESTAMP_MARGIN_SECONDS;
+		for(int i = 0; i < CHUNK_COUNT; i++) {
+			if(readInt(header, 4 * i) != 0) {
+				long timestamp = readInt(header, SECTOR_SIZE + 4 * i) & 0xFFFFFFFFL;
+				if(timestamp == 0 || timestamp >= maxTimestamp) {
+					return null;
+				}
+			}
+		}
+		return getFingerprint(header, fileLength);
+	}
+	
+	/**
+	 * Gets the start and length of all chunk payloads in the given region file. The payload of a chunk consists of
+	 * the chunk length, compression type and compressed data.
+	 * @param region - The region file.
+	 * @return An array containing the start and the length of the payload for each chunk index or {@code null} if the
+	 * given file is not a valid region file. The length is 0 for chunks that do not exist.
+	 */
+	private static int[] getChunkPositions(byte[] region) {
+		int[] chunks = getChunkLocations(region);
+		if(chunks == null) {
+			return null;
+		}
+		for(int i = 0; i < CHUNK_COUNT; i++) {
+			int start = chunks[2 * i];
+			int maxLength = chunks[2 * i + 1];
+			if(maxLength == 0) {
+				continue;
+			}
+			if(start + maxLength > region.length) {
+				return null;
+			}
+			int length = 4 + readInt(region, start);
+			if(length <= 4 || length > maxLength) {
+				return null;
+			}
+			chunks[2 * i + 1] = length;
+		}
+		return chunks;
+	}
+	
+	/**
+	 * Gets the start and the reserved length of all chunks in the given region file according to its header.
+	 * @param region - The region file.
+	 * @return An array containing the start and the reserved length for each chunk index or {@code null} if the
+	 * given file does not contain a valid header. The length is 0 for chunks that do not exist.
+	 */
+	private static int[] getChunkLocations(byte[] region) {
+		if(region.length < HEADER_SIZE) {
+			return null;
+		}
+		int[] chunks = new int[2 * CHUNK_COUNT];
+		for(int i = 0; i < CHUNK_COUNT; i++) {
+			int location = readInt(region, 4 * i);
+			if(location == 0) {
+				continue;
+			}
+			long start = (long) (location >>> 8) * SECTOR_SIZE;
+			long length = (long) (location & 0xFF) * SECTOR_SIZE;
+			if(start < HEADER_SIZE || length == 0 || start + length > Integer.MAX_VALUE) {
+				return null;
+			}
+			chunks[2 * i] = (int) start;
+			chunks[2 * i + 1] = (int) length;
+		}
+		return chunks;
+	}
+	
+	/**
+	 * Gets the ranges of bytes in the new version of a region file that are not part of its header or chunks and that
+	 * differ from the bytes at the same positions in the previous version. Bytes beyond the end of the previous
+	 * version are compared with zero.
+	 * @param previousVersion - The previous version of the region file.
+	 * @param newVersion - The new version of the region file.
+	 * @param newChunks - The chunk positions in the new version, as returned by {@link #getChunkPositions(byte[])}.
+	 * @return The changed ranges as {offset, length}, ordered by offset.
+	 */
+	private static List<int[]> getChangedRanges(byte[] previousVersion, byte[] newVersion, int[] newChunks) {
+		
+		// Get the chunks ordered by position.
+		List<int[]> chunks = new ArrayList<int[]>();
+		for(int i = 0; i < CHUNK_COUNT; i++) {
+			if(newChunks[2 * i + 1] != 0) {
+				chunks.add(new int[] {newChunks[2 * i], newChunks[2 * i] + newChunks[2 * i + 1]});
+			}
+		}
+		chunks.sort((chunk1, chunk2) -> Integer.compare(chunk1[0], chunk2[0]));
+		chunks.add(new int[] {newVersion.length, newVersion.length});
+		
+		// Compare the bytes between the chunks, combining changed ranges that are close together.
+		List<int[]> ranges = new ArrayList<int[]>();
+		int position = HEADER_SIZE;
+		for(int[] chunk : chunks) {
+			int rangeStart = -1;
+			int rangeEnd = -1;
+			for(int i = position; i < chunk[0]; i++) {
+				if(newVersion[i] != (i < previousVersion.length ? previousVersion[i] : 0)) {
+					if(rangeStart >= 0 && i - rangeEnd >= RANGE_HEADER_SIZE) {
+						ranges.add(new int[] {rangeStart, rangeEnd - rangeStart});
+						rangeStart = -1;
+					}
+					if(rangeStart < 0) {
+						rangeStart = i;
+					}
+					rangeEnd = i + 1;
+				}
+			}
+			if(rangeStart >= 0) {
+				ranges.add(new int[] {rangeStart, rangeEnd - rangeStart});
+			}
+			position = Math.max(position, chunk[1]);
+		}
+		return ranges;
+	}
+	
+	private static boolean isZero(byte[] bytes, int offset, int length) {
+		for(int i = offset; i < offset + length; i++) {
+			if(bytes[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isChunkEqual(
+			byte[] previousVersion, int[] previousChunks, byte[] newVersion, int[] newChunks, int index) {
+		int previousStart = previousChunks[2 * index];
+		int newStart = newChunks[2 * index];
+		int length = newChunks[2 * index + 1];
+		if(previousChunks[2 * index + 1] != length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(previousVersion[previousStart + i] != newVersion[newStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int readInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+				| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+}
@@ -1,14 +1,24 @@
 package io.github.pieter12345.woeshbackup;
 
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -17,11 +27,23 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
 import java.util.logging.Logger;
 
 import io.github.pieter12345.woeshbackup.BackupPart.ChangeType;
+import io.github.pieter12345.woeshbackup.BackupPart.FileVersionSupplier;
+import io.github.pieter12345.woeshbackup.BackupStateIndex.StateEntry;
+import io.github.pieter12345.woeshbackup.DirtyPathTracker.DirtyPaths;
+import io.github.pieter12345.woeshbackup.StatCache.FileStat;
 import io.github.pieter12345.woeshbackup.exceptions.BackupException;
 import io.github.pieter12345.woeshbackup.exceptions.CorruptedBackupException;
+import io.github.pieter12345.woeshbackup.utils.DaemonThreadFactory;
 import io.github.pieter12345.woeshbackup.utils.Utils;
 
 /**
@@ -31,12 +53,44 @@ import io.github.pieter12345.woeshbackup.utils.Utils;
 public class SimpleBackup implements Backup {
 	
 	private final File toBackupDir;
-	private final BackupPartFactory backupPartFactory;
+	private BackupPartFactory backupPartFactory;
 	private final Logger logger;
 	private Set<String> ignorePaths;
+	private StatCache statCache = null;
+	private BackupStateIndex stateIndex = null;
+	private DirtyPathTracker dirtyPathTracker = null;
+	private StagingDirectory stagingDir = null;
+	private boolean isStaged = false;
+	private DirtyPathTracker stagedDirtyPathTracker = null;
+	private DirtyPaths stagedDirtyPaths = null;
+	private long stagedLatestBackupPartTime = -1;
+	private long changeHintAnchorTime = -1;
+	private int threadCount = 1;
+	private int maxDeltaChainLength = DEFAULT_MAX_DELTA_CHAIN_LENGTH;
+	
+	// Guards the backup parts. Merges replace and remove backup parts, so they hold this lock exclusively. Backups,
+	// restores and rollbacks only add or read backup parts, so they share it.
+	private final StampedLock backupPartLock = new StampedLock();
 	
 	private static final DateFormat BACKUP_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
 	
+	/**
+	 * The default maximum amount of modifications that have to be applied to read a file version.
+	 */
+	public static final int DEFAULT_MAX_DELTA_CHAIN_LENGTH = 10;
+	
+	// The maximum amount of compared files per thread that wait to be added to the new backup part.
+	private static final int MAX_PENDING_COMPARISONS_PER_THREAD = 4;
+	
+	// The maximum amount of walked files that wait to be compared when directories are listed concurrently.
+	private static final int MAX_QUEUED_WALKED_FILES = 1024;
+	
+	// The maximum amount of added files that are restored from a zipped backup part in a single restore task.
+	private static final int RESTORE_BATCH_SIZE = 64;
+	
+	// The time in milliseconds to wait for restore tasks to stop after a restore task has failed.
+	private static final long RESTORE_TERMINATION_TIMEOUT = 60000;
+	
 	/**
 	 * Creates a new {@link SimpleBackup} that stores backups of toBackupDir in backup parts generated by the
 	 * given backup part factory.
@@ -70,60 +124,188 @@ public class SimpleBackup implements Backup {
 	
 	@Override
 	public void backup(long currentTime) throws BackupException, InterruptedException {
+		this.backup(currentTime, null);
+	}
+	
+	/**
+	 * Creates a new backup part containing the differences between the current to-backup directory state and
+	 * the state of the backup, using the given hint to skip comparing files that are known to be unchanged.
+	 * The hint is only used when the previous backup in this session succeeded and the backup state did not change
+	 * since, so it should cover all changes since the start of the previous backup.
+	 * @param currentTime - The time at which the backup has started. This can be used to maintain a constant backup
+	 * time for multiple backups.
+	 * @param changeHint - The change hint or {@code null} to compare all files.
+	 * @throws BackupException When the backup part was not created successfully.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	public void backup(long currentTime, ChangeHint changeHint) throws BackupException, InterruptedException {
+		long stamp = this.backupPartLock.readLockInterruptibly();
+		try {
+			this.createBackupPart(currentTime, changeHint);
+		} finally {
+			this.backupPartLock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Performs {@link #backup(long, ChangeHint)}. The caller has to hold the backup part lock.
+	 * @param currentTime - The time at which the backup has started.
+	 * @param changeHint - The change hint or {@code null} to compare all files.
+	 * @throws BackupException When the backup part was not created successfully.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	private void createBackupPart(long currentTime, ChangeHint changeHint)
+			throws BackupException, InterruptedException {
 		
 		// Throw an Exception if the directory to backup doesn't exist.
 		if(!this.toBackupDir.isDirectory()) {
 			throw new BackupException("The directory to backup does not exist: " + this.toBackupDir.getAbsolutePath());
 		}
 		
-		// Read the backup parts.
-		List<BackupPart> sortedBackups = this.readBackupParts();
+		// Read the files from the staging copy if it was brought up to date for this backup.
+		boolean isStaged = this.isStaged;
+		File sourceDir = (isStaged ? this.stagingDir.getDir() : this.toBackupDir);
+		this.isStaged = false;
+		
+		// Get the current backup state (all files that exist according to the backup parts). The backup state is read
+		// from the state index if it is valid for the backup parts, in which case the changes of a backup part are only
+		// read when they are needed to compare or read a file. Otherwise, the changes of all backup parts are replayed.
+		List<BackupPart> sortedBackups = this.listBackupParts(-1);
+		Map<String, StateEntry> state = this.readStateIndex(sortedBackups);
+		boolean usesStateIndex = (state != null);
+		if(!usesStateIndex) {
+			this.readChanges(sortedBackups);
+		}
+		BackupHistory history = new BackupHistory(sortedBackups, (usesStateIndex ? 0 : sortedBackups.size()));
+		if(!usesStateIndex) {
+			try {
+				state = history.getState();
+			} catch (IOException | CorruptedBackupException e) {
+				throw new Error(e); // Never happens, since the changes of all backup parts have been read.
+			}
+		}
+		
+		long latestBackupPartTime = (sortedBackups.isEmpty()
+				? -1 : sortedBackups.get(sortedBackups.size() - 1).getCreationTime());
+		
+		// Only use the change hint if the previous backup of this backup state was performed in this session.
+		// The change hint becomes valid again after this backup succeeds.
+		ChangeHint hint = (this.changeHintAnchorTime == latestBackupPartTime && latestBackupPartTime >= 0
+				? changeHint : null);
+		this.changeHintAnchorTime = -1;
+		
+		// Get the files that have to be examined when the dirty path tracker knows which paths changed since the
+		// previous backup. Otherwise, all files are examined. The dirty paths of a staged backup were taken before the
+		// staging copy was made, and are only used if the dirty path tracker and the backup state did not change since.
+		IgnorePaths ignorePaths = new IgnorePaths(this.ignorePaths);
+		DirtyPathTracker dirtyPathTracker = this.dirtyPathTracker;
+		DirtyScope dirtyScope = null;
+		if(dirtyPathTracker != null) {
+			DirtyPaths dirtyPaths;
+			if(!isStaged) {
+				dirtyPaths = dirtyPathTracker.beginRun(latestBackupPartTime);
+			} else if(this.stagedDirtyPathTracker == dirtyPathTracker
+					&& this.stagedLatestBackupPartTime == latestBackupPartTime) {
+				dirtyPaths = this.stagedDirtyPaths;
+			} else {
+				dirtyPaths = null;
+			}
+			if(dirtyPaths != null) {
+				dirtyScope = this.listDirtyFiles(sourceDir, dirtyPaths, state, ignorePaths);
+			}
+		}
+		
+		// Get the files in the backup state that are not ignored and that are examined. Files that are not found
+		// during this backup have been removed.
+		Set<String> remainingFiles = new HashSet<String>();
+		for(String relPath : state.keySet()) {
+			if(!ignorePaths.isIgnored(relPath) && (dirtyScope == null || dirtyScope.isExamined(relPath))) {
+				remainingFiles.add(relPath);
+			}
+		}
 		
-		// Get the current backup state (all files that exist according to the backup parts).
-		Map<String, BackupPart> stateMap = this.getBackupState(sortedBackups);
+		// Start a stat cache run. Cached file metadata can only be used if it belongs to the current backup state.
+		StatCache statCache = this.statCache;
+		if(statCache != null) {
+			try {
+				statCache.beginRun(latestBackupPartTime);
+			} catch (IOException e) {
+				this.logger.warning("Failed to read stat cache for backup: " + this.toBackupDir.getName()
+						+ ". All files will be compared by content. Exception message: " + e.getMessage());
+			}
+		}
 		
 		// Create the new backup part.
 		BackupPart backup = this.backupPartFactory.createNew(currentTime);
 		try {
 			
-			// Loop over all existing files and add them to the backup if they are not in the current backup state.
-			int toBackupDirPathLength = this.toBackupDir.getAbsolutePath().length() + 1; // Includes ending separator.
-			FileIterator it = new FileIterator(this.toBackupDir, this.ignorePaths);
-			while(it.hasNext()) {
-				File file = it.next();
-				String relPath = file.getAbsolutePath().substring(toBackupDirPathLength)
-						+ (file.isDirectory() ? File.separator : "");
-				if(!stateMap.containsKey(relPath)) {
-					try {
-						backup.addAddition(relPath, file);
-					} catch (IOException e) {
-						throw new BackupException("Failed to add file to backup: " + file.getAbsolutePath(), e);
-					}
-				} else {
-					// Compare the file and store a modification if it is different.
-					boolean backupContainsEqualFile;
-					try {
-						backupContainsEqualFile = stateMap.get(relPath).contains(relPath, file, true);
-					} catch (IOException e) {
-						throw new BackupException(
-								"Failed to compare file with file in backup state: " + file.getAbsolutePath(), e);
-					}
-					if(!backupContainsEqualFile) {
-						try {
-							backup.addModification(relPath, file);
-						} catch (IOException e) {
-							throw new BackupException(
-									"Failed to add modified file to backup: " + file.getAbsolutePath(), e);
+			// Create the worker pool that compares files with the backup state, or run inline for a single thread.
+			// Compared files are added to the new backup part in iteration order by this thread, making the
+			// new backup part independent of the amount of threads.
+			ExecutorService workerPool = (this.threadCount <= 1 ? null : Executors.newFixedThreadPool(
+					this.threadCount, new DaemonThreadFactory("WoeshBackup Worker Thread")));
+			Deque<Future<FileComparison>> pendingComparisons = new ArrayDeque<Future<FileComparison>>();
+			int maxPendingComparisons = this.threadCount * MAX_PENDING_COMPARISONS_PER_THREAD;
+			try {
+				
+				// Loop over all existing files and add them to the backup if they are not in the current backup state.
+				// The file attributes are read while walking, so that files are not accessed again to obtain them.
+				// When using multiple threads, directories are listed concurrently, but files are still iterated in
+				// the order of a single threaded FileWalker.
+				Iterator<FileWalker.WalkedFile> it = (dirtyScope != null ? dirtyScope.files.iterator()
+						: workerPool != null ? null : new FileWalker(sourceDir, this.ignorePaths));
+				ParallelFileWalker parallelIt = (it != null ? null : new ParallelFileWalker(
+						sourceDir, this.ignorePaths, this.threadCount, MAX_QUEUED_WALKED_FILES));
+				try {
+					while(true) {
+						FileWalker.WalkedFile walkedFile;
+						if(parallelIt != null) {
+							walkedFile = parallelIt.take();
+							if(walkedFile == null) {
+								break;
+							}
+						} else if(it.hasNext()) {
+							walkedFile = it.next();
+						} else {
+							break;
+						}
+						String relPath = walkedFile.getRelativePath();
+						File file = walkedFile.getFile();
+						BasicFileAttributes attributes = walkedFile.getAttributes();
+						StateEntry stateEntry = state.get(relPath);
+						boolean isUnchanged = (hint != null && hint.isUnchanged(relPath));
+						if(workerPool == null) {
+							this.handleFileComparison(compareFile(
+									relPath, file, attributes, stateEntry, isUnchanged, history, statCache),
+									backup, remainingFiles, history, statCache);
+						} else {
+							pendingComparisons.add(workerPool.submit(() -> compareFile(
+									relPath, file, attributes, stateEntry, isUnchanged, history, statCache)));
+							if(pendingComparisons.size() >= maxPendingComparisons) {
+								this.handleFileComparison(getFileComparison(pendingComparisons.poll()),
+										backup, remainingFiles, history, statCache);
+							}
 						}
 					}
-					
-					// Remove the handled file or directory from the state map so that only deleted files will remain.
-					stateMap.remove(relPath);
+				} finally {
+					if(parallelIt != null) {
+						parallelIt.close();
+					}
+				}
+				
+				// Handle the remaining pending file comparisons.
+				while(!pendingComparisons.isEmpty()) {
+					this.handleFileComparison(getFileComparison(pendingComparisons.poll()),
+							backup, remainingFiles, history, statCache);
+				}
+			} finally {
+				if(workerPool != null) {
+					workerPool.shutdownNow();
 				}
 			}
 			
-			// Add all remaining files in the state map as deletions. These did not appear in the current files.
-			for(String relPath : stateMap.keySet()) {
+			// Add all remaining files in the backup state as deletions. These did not appear in the current files.
+			for(String relPath : remainingFiles) {
 				try {
 					backup.addRemoval(relPath);
 				} catch (IOException e) {
@@ -137,8 +319,25 @@ public class SimpleBackup implements Backup {
 			} catch (IOException e) {
 				throw new BackupException("Failed to close the new backup.", e);
 			}
+			
+			// Log the storage statistics of the new backup.
+			String summary = backup.getSummary();
+			if(summary != null) {
+				this.logger.info("Stored backup part for backup " + this.toBackupDir.getName() + ": " + summary);
+			}
 		} catch (BackupException e) {
 			
+			// Discard the file metadata recorded during this backup.
+			if(statCache != null) {
+				statCache.abortRun();
+			}
+			
+			// Invalidate the state index, so that the next backup reads the backup state from the backup parts.
+			// This removes corrupted backup parts that might have caused this failure.
+			if(usesStateIndex) {
+				this.invalidateStateIndex();
+			}
+			
 			// Delete backup part.
 			try {
 				backup.delete();
@@ -150,64 +349,175 @@ public class SimpleBackup implements Backup {
 			// Rethrow exception.
 			throw e;
 		}
-	}
-	
-	@Override
-	public void merge(long beforeDate) throws BackupException, InterruptedException {
 		
-		// Disallow a beforeDate in the future.
-		if(beforeDate > System.currentTimeMillis()) {
-			throw new BackupException("The given beforeDate is in the future.");
+		// Store the stat cache for the new backup state. Files that were not examined keep their cached metadata.
+		if(statCache != null) {
+			if(dirtyScope != null) {
+				statCache.carryOver(dirtyScope::isExamined);
+			}
+			try {
+				statCache.finishRun(this.getLatestBackupPartTime());
+			} catch (IOException e) {
+				this.logger.warning("Failed to store stat cache for backup: " + this.toBackupDir.getName()
+						+ ". Exception message: " + e.getMessage());
+			}
 		}
 		
-		// Read the backup parts.
-		List<BackupPart> sortedBackups = this.readBackupParts(beforeDate);
-		if(sortedBackups.isEmpty()) {
-			return; // Nothing to merge.
+		// Finish the dirty path tracker run and allow a change hint for the next backup. When this fails, the next
+		// backup examines and compares all files.
+		try {
+			long newLatestBackupPartTime = this.getLatestBackupPartTime();
+			if(dirtyPathTracker != null) {
+				dirtyPathTracker.finishRun(newLatestBackupPartTime);
+			}
+			this.changeHintAnchorTime = newLatestBackupPartTime;
+		} catch (IOException e) {
+			this.logger.warning("Failed to read the latest backup part for backup: " + this.toBackupDir.getName()
+					+ ". All files will be examined during the next backup. Exception message: " + e.getMessage());
 		}
 		
-		// Create the new backup part.
-		long backupTime = sortedBackups.get(sortedBackups.size() - 1).getCreationTime();
-		// TODO - Backup with this time/name already exists. Overwrite or is subtracting a second acceptable?
-		BackupPart newBackup = this.backupPartFactory.createNew(backupTime - 1000);
+		// Store the new backup state in the state index. A backup part without changes is not stored, in which case the
+		// backup state and backup parts are unchanged.
+		if(this.stateIndex != null) {
+			Map<String, ChangeType> changes = backup.getChanges();
+			if(changes == null) {
+				this.writeStateIndex(sortedBackups, state);
+			} else {
+				List<BackupPart> newSortedBackups = new ArrayList<BackupPart>(sortedBackups);
+				newSortedBackups.add(backup);
+				applyChanges(state, newSortedBackups.size() - 1, backup, changes);
+				this.writeStateIndex(newSortedBackups, state);
+			}
+		}
+	}
+	
+	/**
+	 * Brings the staging directory up to date with the to-backup directory, so that the to-backup directory can be
+	 * used again while the next backup reads from the staging copy. Only files of which the size or last modified time
+	 * changed since the previous call are copied. Does nothing if no staging directory is set.
+	 * The paths that changed according to the dirty path tracker are taken before the staging copy is made, so that
+	 * changes made afterwards are examined by the backup after the next backup.
+	 * @throws BackupException When the staging directory could not be brought up to date. The next backup will read
+	 * from the to-backup directory in that case.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	public void stage() throws BackupException, InterruptedException {
+		long stamp = this.backupPartLock.readLockInterruptibly();
+		try {
+			this.stageToBackupDir();
+		} finally {
+			this.backupPartLock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Performs {@link #stage()}. The caller has to hold the backup part lock.
+	 * @throws BackupException When the staging directory could not be brought up to date.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	private void stageToBackupDir() throws BackupException, InterruptedException {
+		StagingDirectory stagingDir = this.stagingDir;
+		this.isStaged = false;
+		if(stagingDir == null) {
+			return;
+		}
+		
+		// Throw an Exception if the directory to backup doesn't exist.
+		if(!this.toBackupDir.isDirectory()) {
+			throw new BackupException("The directory to backup does not exist: " + this.toBackupDir.getAbsolutePath());
+		}
 		
-		// Merge the backups.
-		for(int i = sortedBackups.size() - 1; i >= 0; i--) {
+		// Take the dirty paths before bringing the staging copy up to date. A failed staging attempt leaves them in
+		// the dirty path tracker, since it includes the paths of an unfinished run in the next run.
+		DirtyPathTracker dirtyPathTracker = this.dirtyPathTracker;
+		DirtyPaths dirtyPaths = null;
+		long latestBackupPartTime = -1;
+		if(dirtyPathTracker != null) {
 			try {
-				newBackup.merge(sortedBackups.get(i));
+				latestBackupPartTime = this.getLatestBackupPartTime();
 			} catch (IOException e) {
-				throw new BackupException("Failed to merge backup parts.", e);
-			} catch (CorruptedBackupException e) {
-				throw new BackupException("Failed to merge backup part with corrupted backup part: "
-						+ this.toBackupDir.getName() + "/" + e.getBackup().getName(), e);
+				throw new BackupException("Failed to read the latest backup part.", e);
 			}
+			dirtyPaths = dirtyPathTracker.beginRun(latestBackupPartTime);
 		}
+		
+		// Bring the staging copy up to date.
+		long startTime = System.currentTimeMillis();
+		StagingDirectory.SyncResult result;
 		try {
-			newBackup.close();
+			result = stagingDir.sync(this.toBackupDir, this.ignorePaths);
 		} catch (IOException e) {
-			try {
-				newBackup.delete();
-			} catch (IOException e1) {
-				this.logger.severe(
-						"Failed to remove a failed merge backup. Here's the stacktrace:\n" + Utils.getStacktrace(e1));
-				throw new BackupException("Failed to close the merged backup. It could also not be removed.", e);
-			}
-			throw new BackupException("Failed to close the merged backup.", e);
+			throw new BackupException(
+					"Failed to update staging directory: " + stagingDir.getDir().getAbsolutePath(), e);
+		}
+		this.isStaged = true;
+		this.stagedDirtyPathTracker = dirtyPathTracker;
+		this.stagedDirtyPaths = dirtyPaths;
+		this.stagedLatestBackupPartTime = latestBackupPartTime;
+		this.logger.info("Staged backup " + this.toBackupDir.getName() + ": " + result.getCopiedFileCount()
+				+ (result.usedReflinks() ? " cloned, " : " copied, ") + result.getRemovedFileCount() + " removed ("
+				+ (System.currentTimeMillis() - startTime) + " ms).");
+	}
+	
+	@Override
+	public void merge(long beforeDate) throws BackupException, InterruptedException {
+		long stamp = this.backupPartLock.writeLockInterruptibly();
+		try {
+			this.mergeBackupParts(beforeDate);
+		} finally {
+			this.backupPartLock.unlockWrite(stamp);
 		}
+	}
+	
+	/**
+	 * Performs {@link #merge(long)}. The caller has to hold the backup part lock exclusively.
+	 * @param beforeDate - The timestamp threshold for merging.
+	 * @throws BackupException When the backup parts were not merged successfully.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	private void mergeBackupParts(long beforeDate) throws BackupException, InterruptedException {
 		
-		// Remove the merged backups.
-		for(BackupPart backup : sortedBackups) {
-			try {
-				backup.delete();
-			} catch (IOException e) {
-				this.logger.severe(
-						"Failed to remove a merged backup. Here's the stacktrace:\n" + Utils.getStacktrace(e));
-			}
+		// Disallow a beforeDate in the future.
+		if(beforeDate > System.currentTimeMillis()) {
+			throw new BackupException("The given beforeDate is in the future.");
+		}
+		
+		// Read the backup parts and the backup state. Only the changes of the backup parts to merge are read.
+		BackupHistory history = this.readBackupHistory(beforeDate);
+		int mergeCount = 0;
+		while(mergeCount < history.size() && history.getBackupPart(mergeCount).getCreationTime() < beforeDate) {
+			mergeCount++;
+		}
+		if(mergeCount == 0) {
+			return; // Nothing to merge.
 		}
+		Map<String, StateEntry> state = this.readStateIndex(history.getBackupParts());
+		
+		// Merge the backups and store the new backup state in the state index.
+		state = this.mergeRange(history, 0, mergeCount - 1, state);
+		state = remapState(state, history.compact());
+		this.writeStateIndex(history.getBackupParts(), state);
 	}
 	
 	@Override
 	public void merge(List<BoundedInterval> intervals, long currentTime) throws BackupException, InterruptedException {
+		long stamp = this.backupPartLock.writeLockInterruptibly();
+		try {
+			this.mergeBackupParts(intervals, currentTime);
+		} finally {
+			this.backupPartLock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Performs {@link #merge(List, long)}. The caller has to hold the backup part lock exclusively.
+	 * @param intervals - The intervals in which backup parts are merged, from latest to oldest.
+	 * @param currentTime - The time to which the intervals are relative.
+	 * @throws BackupException When the backup parts were not merged successfully.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	private void mergeBackupParts(List<BoundedInterval> intervals, long currentTime)
+			throws BackupException, InterruptedException {
 		
 		// Return if no intervals were given.
 		if(intervals.size() == 0) {
@@ -230,13 +540,25 @@ public class SimpleBackup implements Backup {
 			}
 		}
 		
+		// Read the backup parts and the backup state. Only the changes of backup parts that are merged are read.
+		BackupHistory history = this.readBackupHistory(intervalEndTime);
+		Map<String, StateEntry> state = this.readStateIndex(history.getBackupParts());
+		boolean merged = false;
+		
 		// Merge backups older than the last interval.
 		if(intervalEndTime > 0) {
-			this.merge(intervalEndTime);
+			int mergeCount = 0;
+			while(mergeCount < history.size()
+					&& history.getBackupPart(mergeCount).getCreationTime() < intervalEndTime) {
+				mergeCount++;
+			}
+			if(mergeCount > 0) {
+				state = this.mergeRange(history, 0, mergeCount - 1, state);
+				state = remapState(state, history.compact());
+				merged = true;
+			}
 		}
-		
-		// Read the backup parts.
-		List<BackupPart> sortedBackups = this.readBackupParts();
+		List<BackupPart> sortedBackups = history.getBackupParts();
 		if(sortedBackups.isEmpty()) {
 			return; // Nothing to merge.
 		}
@@ -277,57 +599,42 @@ public class SimpleBackup implements Backup {
 			
 			// Backup is accepted. Merge unaccepted backups if they are available.
 			if(lastAcceptedBackupIndex != i - 1) {
-				
-				// Create the new backup part.
-				long backupTime = backup.getCreationTime();
-				// TODO - Backup with this time/name already exists. Overwrite or is subtracting a second acceptable?
-				BackupPart newBackup = this.backupPartFactory.createNew(backupTime - 1000);
-				
-				// Merge the backups.
-				for(int j = i; j > lastAcceptedBackupIndex; j--) {
-					try {
-						newBackup.merge(sortedBackups.get(j));
-					} catch (IOException e) {
-						throw new BackupException("Failed to merge backup parts.", e);
-					} catch (CorruptedBackupException e) {
-						throw new BackupException("Failed to merge backup part with corrupted backup part: "
-								+ this.toBackupDir.getName() + "/" + e.getBackup().getName(), e);
-					}
-				}
-				try {
-					newBackup.close();
-				} catch (IOException e) {
-					try {
-						newBackup.delete();
-					} catch (IOException e1) {
-						this.logger.severe("Failed to remove a failed merge backup. Here's the stacktrace:\n"
-								+ Utils.getStacktrace(e1));
-						throw new BackupException(
-								"Failed to close the merged backup. It could also not be removed.", e);
-					}
-					throw new BackupException("Failed to close the merged backup.", e);
-				}
-				
-				// Remove the merged backups.
-				for(int j = i; j > lastAcceptedBackupIndex; j--) {
-					try {
-						sortedBackups.get(j).delete();
-					} catch (IOException e) {
-						this.logger.severe(
-								"Failed to remove a merged backup. Here's the stacktrace:\n" + Utils.getStacktrace(e));
-					}
-				}
+				state = this.mergeRange(history, lastAcceptedBackupIndex + 1, i, state);
+				merged = true;
 			}
 			
 			// Update last accepted backup data.
 			lastAcceptedBackupIndex = i;
 			lastAcceptedBackupTime = sortedBackups.get(lastAcceptedBackupIndex).getCreationTime();
 		}
+		
+		// Store the new backup state in the state index.
+		if(merged) {
+			state = remapState(state, history.compact());
+			this.writeStateIndex(history.getBackupParts(), state);
+		}
 	}
 	
 	@Override
 	public void restore(long beforeDate, BackupRestoreWriterFactory restoreWriterFactory)
 			throws BackupException, InterruptedException {
+		long stamp = this.backupPartLock.readLockInterruptibly();
+		try {
+			this.restoreBackup(beforeDate, restoreWriterFactory);
+		} finally {
+			this.backupPartLock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Performs {@link #restore(long, BackupRestoreWriterFactory)}. The caller has to hold the backup part lock.
+	 * @param beforeDate - The timestamp threshold for restoring.
+	 * @param restoreWriterFactory - The factory used to create the writer to write the restored files to.
+	 * @throws BackupException When the backup was not restored successfully.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	private void restoreBackup(long beforeDate, BackupRestoreWriterFactory restoreWriterFactory)
+			throws BackupException, InterruptedException {
 		
 		// Disallow a beforeDate in the future.
 		if(beforeDate > System.currentTimeMillis()) {
@@ -351,12 +658,15 @@ public class SimpleBackup implements Backup {
 				throw new BackupException("Failed to open backup restore writer.", e);
 			}
 			
-			// Fill the backup restore writer with content from the backup parts.
+			// Determine the files to restore from each backup part. Files are restored from the most recent backup
+			// part that contains them, so the files restored from different backup parts do not overlap.
 			Set<String> handledFiles = new HashSet<String>();
 			IgnorePaths ignorePaths = new IgnorePaths(this.ignorePaths);
+			BackupHistory history = new BackupHistory(sortedBackups, sortedBackups.size());
+			List<Map<String, ChangeType>> restoreChanges = new ArrayList<Map<String, ChangeType>>(
+					Collections.nCopies(sortedBackups.size(), (Map<String, ChangeType>) null));
 			for(int i = sortedBackups.size() - 1; i >= 0; i--) {
-				BackupPart backup = sortedBackups.get(i);
-				Map<String, ChangeType> changes = backup.getChanges();
+				Map<String, ChangeType> changes = new HashMap<String, ChangeType>(sortedBackups.get(i).getChanges());
 				for(Iterator<Entry<String, ChangeType>> it = changes.entrySet().iterator(); it.hasNext();) {
 					Entry<String, ChangeType> change = it.next();
 					String changePath = change.getKey();
@@ -366,25 +676,16 @@ public class SimpleBackup implements Backup {
 						it.remove();
 					}
 				}
-				if(!changes.isEmpty()) {
-					try {
-						backup.readAll((fileEntry) -> {
-							if(changes.containsKey(fileEntry.getRelativePath())) {
-								changes.remove(fileEntry.getRelativePath());
-								restoreWriter.add(this.toBackupDir.getName() + File.separator
-										+ fileEntry.getRelativePath(), fileEntry.getFileStream());
-							}
-						});
-					} catch (IOException e) {
-						throw new BackupException("Failed to read backup part to restore from.", e);
-					} catch (InvocationTargetException e) {
-						throw new BackupException("Failed to write to backup restore writer.", e.getTargetException());
-					}
-					if(!changes.isEmpty()) {
-						throw new BackupException("Backup part " + this.toBackupDir.getName() + "/" + backup.getName()
-								+ " does not contain files that should be there according to its meta file: "
-								+ Utils.glueIterable(changes.keySet(), (change) -> change, ", ") + ".");
-					}
+				restoreChanges.set(i, changes);
+			}
+			
+			// Fill the backup restore writer with content from the backup parts. When the writer allows it, files
+			// are restored from multiple backup parts at the same time.
+			if(this.threadCount > 1 && restoreWriter.isThreadSafe()) {
+				this.restoreConcurrently(history, restoreChanges, restoreWriter);
+			} else {
+				for(int i = sortedBackups.size() - 1; i >= 0; i--) {
+					this.restoreFiles(history, i, restoreChanges.get(i), restoreWriter);
 				}
 			}
 			
@@ -409,58 +710,581 @@ public class SimpleBackup implements Backup {
 		}
 	}
 	
-	@Override
-	public File getToBackupDir() {
-		return this.toBackupDir;
-	}
-	
-	@Override
-	public List<Long> getRestoreDateThresholds() throws IOException {
-		List<Long> ret = new ArrayList<Long>();
-		for(BackupPart part : this.backupPartFactory.readAllBefore(-1)) {
-			ret.add(part.getCreationTime());
+	/**
+	 * Restores the given changes using {@link #getThreadCount()} threads. The files are split into tasks of at most
+	 * {@link #RESTORE_BATCH_SIZE} added files or a single modified file, so that the threads can restore files from
+	 * the same backup part as well as from different backup parts at the same time.
+	 * @param history - The backup history.
+	 * @param restoreChanges - The changes to restore per backup part index. Every file occurs in at most one of them.
+	 * @param restoreWriter - The thread-safe writer to write the restored files to.
+	 * @throws BackupException When a file could not be restored.
+	 * @throws InterruptedException When the current thread is interrupted while waiting for the restore tasks.
+	 */
+	private void restoreConcurrently(BackupHistory history, List<Map<String, ChangeType>> restoreChanges,
+			BackupRestoreWriter restoreWriter) throws BackupException, InterruptedException {
+		ExecutorService workerPool = Executors.newFixedThreadPool(
+				this.threadCount, new DaemonThreadFactory("WoeshBackup Restore Thread"));
+		try {
+			
+			// Submit the restore tasks. Added files of backup parts that are not zipped are restored in a single task,
+			// since reading them requires reading the whole backup part.
+			List<Future<Void>> restoreTasks = new ArrayList<Future<Void>>();
+			for(int i = restoreChanges.size() - 1; i >= 0; i--) {
+				final int index = i;
+				boolean splitAdditions = (history.getBackupPart(index) instanceof ZippedBackupPart);
+				Map<String, ChangeType> additions = new HashMap<String, ChangeType>();
+				for(Entry<String, ChangeType> change : restoreChanges.get(index).entrySet()) {
+					Map<String, ChangeType> batch;
+					if(change.getValue() == ChangeType.MODIFICATION) {
+						batch = new HashMap<String, ChangeType>();
+						batch.put(change.getKey(), change.getValue());
+					} else {
+						additions.put(change.getKey(), change.getValue());
+						if(!splitAdditions || additions.size() < RESTORE_BATCH_SIZE) {
+							continue;
+						}
+						batch = additions;
+						additions = new HashMap<String, ChangeType>();
+					}
+					restoreTasks.add(workerPool.submit(() -> {
+						this.restoreFiles(history, index, batch, restoreWriter);
+						return null;
+					}));
+				}
+				if(!additions.isEmpty()) {
+					final Map<String, ChangeType> batch = additions;
+					restoreTasks.add(workerPool.submit(() -> {
+						this.restoreFiles(history, index, batch, restoreWriter);
+						return null;
+					}));
+				}
+			}
+			
+			// Wait for the restore tasks to complete.
+			for(Future<Void> restoreTask : restoreTasks) {
+				try {
+					restoreTask.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof BackupException) {
+						throw (BackupException) cause;
+					}
+					if(cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if(cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new BackupException("Failed to restore files.", cause);
+				}
+			}
+		} finally {
+			
+			// Stop the remaining restore tasks when a task has failed, and wait for them to stop, so that the restored
+			// data is not written to while it is being deleted.
+			workerPool.shutdownNow();
+			workerPool.awaitTermination(RESTORE_TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS);
 		}
-		return ret;
-	}
-	
-	@Override
-	public long getFreeUsableSpace() {
-		return this.backupPartFactory.getFreeUsableSpace();
 	}
 	
-	@Override
-	public void setIgnorePaths(Collection<String> ignorePaths) {
-		if(ignorePaths == null) {
-			this.ignorePaths = Collections.emptySet();
-		} else {
-			// Copy set and set OS-specific file separator char.
-			this.ignorePaths = new HashSet<String>();
-			for(String ignorePath : ignorePaths) {
-				this.ignorePaths.add(ignorePath.replace('/', File.separatorChar).replace('\\', File.separatorChar));
+	/**
+	 * Restores the given files from the backup part at the given index. This may be called from any thread if the
+	 * given writer is thread-safe.
+	 * @param history - The backup history.
+	 * @param index - The index of the backup part to restore the files from.
+	 * @param changes - The added and modified files to restore. Restored files are removed from this map.
+	 * @param restoreWriter - The writer to write the restored files to.
+	 * @throws BackupException When a file could not be restored.
+	 */
+	private void restoreFiles(BackupHistory history, int index, Map<String, ChangeType> changes,
+			BackupRestoreWriter restoreWriter) throws BackupException {
+		BackupPart backup = history.getBackupPart(index);
+		
+		// Restore modifications from their previous versions.
+		for(Iterator<Entry<String, ChangeType>> it = changes.entrySet().iterator(); it.hasNext();) {
+			Entry<String, ChangeType> change = it.next();
+			String changePath = change.getKey();
+			if(change.getValue() == ChangeType.MODIFICATION) {
+				it.remove();
+				try {
+					InputStream inStream = history.readFile(index, changePath);
+					try {
+						restoreWriter.add(this.toBackupDir.getName() + File.separator + changePath, inStream);
+					} finally {
+						inStream.close();
+					}
+				} catch (IOException e) {
+					throw new BackupException("Failed to restore modified file: " + changePath, e);
+				} catch (CorruptedBackupException e) {
+					throw new BackupException("Failed to restore modified file from corrupted backup part: "
+							+ this.toBackupDir.getName() + "/" + e.getBackup().getName(), e);
+				}
+			}
+		}
+		if(changes.isEmpty()) {
+			return;
+		}
+		
+		// Restore additions.
+		try {
+			if(backup instanceof ZippedBackupPart) {
+				
+				// Read only the added files that are restored from this backup part. The compressed entries are
+				// copied when restoring to a zip file.
+				((ZippedBackupPart) backup).readRaw(changes.keySet(), (rawEntry) -> {
+					if(changes.remove(rawEntry.getRelativePath()) != null) {
+						String restorePath = this.toBackupDir.getName() + File.separator + rawEntry.getRelativePath();
+						if(restoreWriter instanceof BackupRestoreZipFileWriter) {
+							((BackupRestoreZipFileWriter) restoreWriter).addRaw(restorePath, rawEntry);
+						} else {
+							InputStream inStream = (rawEntry.isDirectory() ? null : rawEntry.openStream());
+							try {
+								restoreWriter.add(restorePath, inStream, rawEntry.getSize());
+							} finally {
+								if(inStream != null) {
+									inStream.close();
+								}
+							}
+						}
+					}
+				});
+			} else {
+				backup.readAll((fileEntry) -> {
+					if(changes.containsKey(fileEntry.getRelativePath())) {
+						changes.remove(fileEntry.getRelativePath());
+						restoreWriter.add(this.toBackupDir.getName() + File.separator
+								+ fileEntry.getRelativePath(), fileEntry.getFileStream());
+					}
+				});
 			}
+		} catch (IOException e) {
+			throw new BackupException("Failed to read backup part to restore from.", e);
+		} catch (InvocationTargetException e) {
+			throw new BackupException("Failed to write to backup restore writer.", e.getTargetException());
+		}
+		if(!changes.isEmpty()) {
+			throw new BackupException("Backup part " + this.toBackupDir.getName() + "/" + backup.getName()
+					+ " does not contain files that should be there according to its meta file: "
+					+ Utils.glueIterable(changes.keySet(), (change) -> change, ", ") + ".");
 		}
 	}
 	
 	@Override
-	public Set<String> getIgnorePaths() {
-		return Collections.unmodifiableSet(this.ignorePaths);
+	public void rollback(long beforeDate) throws BackupException, InterruptedException {
+		long stamp = this.backupPartLock.readLockInterruptibly();
+		try {
+			this.rollbackDirectory(beforeDate);
+		} finally {
+			this.backupPartLock.unlockRead(stamp);
+		}
 	}
 	
 	/**
-	 * Gets the backup part factory of this {@link SimpleBackup}.
-	 * @return The backup part factory.
+	 * Performs {@link #rollback(long)}. The caller has to hold the backup part lock.
+	 * @param beforeDate - The timestamp threshold for rolling back.
+	 * @throws BackupException When the to-backup directory was not rolled back successfully.
+	 * @throws InterruptedException When the current Thread is interrupted.
 	 */
-	public BackupPartFactory getBackupPartFactory() {
-		return this.backupPartFactory;
-	}
-	
+	private void rollbackDirectory(long beforeDate) throws BackupException, InterruptedException {
+		
+		// Disallow a beforeDate in the future.
+		if(beforeDate > System.currentTimeMillis()) {
+			throw new BackupException("The given beforeDate is in the future.");
+		}
+		
+		// Throw an Exception if the directory to roll back doesn't exist.
+		if(!this.toBackupDir.isDirectory()) {
+			throw new BackupException(
+					"The directory to roll back does not exist: " + this.toBackupDir.getAbsolutePath());
+		}
+		
+		// Read the backup parts and get the backup state at the given date and the most recent backup state.
+		// Files of which the state entry did not change since the given date have the same version in both states.
+		List<BackupPart> sortedBackups = this.readBackupParts(-1);
+		int targetCount = 0;
+		while(targetCount < sortedBackups.size() && sortedBackups.get(targetCount).getCreationTime() < beforeDate) {
+			targetCount++;
+		}
+		if(targetCount == 0) {
+			throw new BackupException("No backup found before the given date: "
+					+ BACKUP_DATE_FORMAT.format(new Date(beforeDate)));
+		}
+		BackupHistory history = new BackupHistory(sortedBackups, sortedBackups.size());
+		Map<String, StateEntry> targetState = new HashMap<String, StateEntry>();
+		for(int i = 0; i < targetCount; i++) {
+			applyChanges(targetState, i, sortedBackups.get(i), sortedBackups.get(i).getChanges());
+		}
+		Map<String, StateEntry> latestState = new HashMap<String, StateEntry>(targetState);
+		for(int i = targetCount; i < sortedBackups.size(); i++) {
+			applyChanges(latestState, i, sortedBackups.get(i), sortedBackups.get(i).getChanges());
+		}
+		IgnorePaths ignorePaths = new IgnorePaths(this.ignorePaths);
+		targetState.keySet().removeIf(ignorePaths::isIgnored);
+		
+		// Start a stat cache run. Files with unchanged metadata since the most recent backup are equal to their
+		// version in the target state if that version did not change since, so they do not have to be compared.
+		StatCache statCache = this.statCache;
+		boolean useStatCache = false;
+		if(statCache != null) {
+			try {
+				useStatCache = statCache.beginRun(sortedBackups.get(sortedBackups.size() - 1).getCreationTime());
+			} catch (IOException e) {
+				this.logger.warning("Failed to read stat cache for backup: " + this.toBackupDir.getName()
+						+ ". All files will be compared. Exception message: " + e.getMessage());
+			}
+		}
+		
+		// Compare the existing files with their version in the target state. Files that are not in the target state
+		// are removed, files that differ are restored and equal files are left alone.
+		List<String> removedPaths = new ArrayList<String>();
+		Set<String> restoredPaths = new HashSet<String>(targetState.keySet());
+		int unchangedCount = 0;
+		try {
+			ExecutorService workerPool = (this.threadCount <= 1 ? null : Executors.newFixedThreadPool(
+					this.threadCount, new DaemonThreadFactory("WoeshBackup Worker Thread")));
+			List<Future<FileComparison>> pendingComparisons = new ArrayList<Future<FileComparison>>();
+			try {
+				for(FileWalker it = new FileWalker(this.toBackupDir, this.ignorePaths); it.hasNext();) {
+					Utils.checkInterrupt();
+					FileWalker.WalkedFile walkedFile = it.next();
+					String relPath = walkedFile.getRelativePath();
+					File file = walkedFile.getFile();
+					BasicFileAttributes attributes = walkedFile.getAttributes();
+					StateEntry targetEntry = targetState.get(relPath);
+					if(targetEntry == null) {
+						removedPaths.add(relPath);
+						continue;
+					}
+					boolean isUnchanged = (useStatCache && latestState.get(relPath) == targetEntry
+							&& !relPath.endsWith(File.separator) && attributes != null
+							&& statCache.isUnchanged(relPath, FileStat.of(attributes)));
+					if(workerPool == null) {
+						if(compareFile(relPath, file, attributes, targetEntry, isUnchanged, history, null).isEqual) {
+							restoredPaths.remove(relPath);
+							unchangedCount++;
+						}
+					} else {
+						pendingComparisons.add(workerPool.submit(() -> compareFile(
+								relPath, file, attributes, targetEntry, isUnchanged, history, null)));
+					}
+				}
+				for(Future<FileComparison> pendingComparison : pendingComparisons) {
+					FileComparison comparison = getFileComparison(pendingComparison);
+					if(comparison.isEqual) {
+						restoredPaths.remove(comparison.relPath);
+						unchangedCount++;
+					}
+				}
+			} finally {
+				if(workerPool != null) {
+					workerPool.shutdownNow();
+				}
+			}
+		} finally {
+			if(statCache != null) {
+				statCache.abortRun();
+			}
+		}
+		
+		// The backup state no longer matches the directory, so the next backup has to examine all files.
+		// Rewritten files have new metadata, so they are compared regardless of the stat cache.
+		this.changeHintAnchorTime = -1;
+		if(this.dirtyPathTracker != null) {
+			this.dirtyPathTracker.invalidate();
+		}
+		
+		// Remove the files that are not in the target state, removing the contents of directories first.
+		// Directories that still contain ignored files are not removed.
+		for(int i = removedPaths.size() - 1; i >= 0; i--) {
+			String relPath = removedPaths.get(i);
+			try {
+				Files.deleteIfExists(new File(this.toBackupDir, relPath).toPath());
+			} catch (DirectoryNotEmptyException e) {
+				this.logger.warning("Not removing directory containing ignored files during rollback of backup: "
+						+ this.toBackupDir.getName() + "/" + relPath);
+			} catch (IOException e) {
+				throw new BackupException("Failed to remove file: " + relPath, e);
+			}
+		}
+		
+		// Restore the differing and missing files from the backup parts containing their version in the target state.
+		List<Map<String, ChangeType>> restoreChanges = new ArrayList<Map<String, ChangeType>>();
+		for(int i = 0; i < sortedBackups.size(); i++) {
+			restoreChanges.add(new HashMap<String, ChangeType>());
+		}
+		for(String relPath : restoredPaths) {
+			int index = targetState.get(relPath).getBackupPartIndex();
+			restoreChanges.get(index).put(relPath, sortedBackups.get(index).getChanges().get(relPath));
+		}
+		BackupRestoreWriter restoreWriter = new BackupRestoreDirectoryWriter(
+				this.toBackupDir.getAbsoluteFile().getParentFile(), 0, true);
+		try {
+			restoreWriter.open();
+			if(this.threadCount > 1) {
+				this.restoreConcurrently(history, restoreChanges, restoreWriter);
+			} else {
+				for(int i = restoreChanges.size() - 1; i >= 0; i--) {
+					this.restoreFiles(history, i, restoreChanges.get(i), restoreWriter);
+				}
+			}
+			restoreWriter.close();
+		} catch (IOException e) {
+			throw new BackupException("Failed to write restored files to: " + this.toBackupDir.getAbsolutePath(), e);
+		}
+		
+		// Log the rollback statistics.
+		this.logger.info("Rolled back backup " + this.toBackupDir.getName() + " to "
+				+ BACKUP_DATE_FORMAT.format(new Date(sortedBackups.get(targetCount - 1).getCreationTime())) + ": "
+				+ restoredPaths.size() + " restored, " + removedPaths.size() + " removed, "
+				+ unchangedCount + " unchanged.");
+	}
+	
+	@Override
+	public InputStream readFile(long beforeDate, String relPath) throws BackupException {
+		
+		// Hold the backup part lock until the returned stream is closed, so that the backup parts that it reads from
+		// are not merged in the meantime.
+		long stamp = this.backupPartLock.readLock();
+		InputStream inStream = null;
+		try {
+			inStream = this.readFileVersion(beforeDate, relPath);
+		} finally {
+			if(inStream == null) {
+				this.backupPartLock.unlockRead(stamp);
+			}
+		}
+		if(inStream == null) {
+			return null;
+		}
+		return new FilterInputStream(inStream) {
+			private boolean isClosed = false;
+			
+			@Override
+			public void close() throws IOException {
+				if(!this.isClosed) {
+					this.isClosed = true;
+					try {
+						super.close();
+					} finally {
+						SimpleBackup.this.backupPartLock.unlockRead(stamp);
+					}
+				}
+			}
+		};
+	}
+	
 	/**
-	 * Reads all backup parts.
-	 * @return A list of backup parts from oldest to most recent.
-	 * @throws BackupException When a backup part is corrupted or could not be read.
+	 * Performs {@link #readFile(long, String)}. The caller has to hold the backup part lock.
+	 * @param beforeDate - The timestamp threshold for restoring.
+	 * @param relPath - The path of the file, relative to the to-backup directory.
+	 * @return A stream containing the file contents or {@code null} if the file did not exist at the given date,
+	 * is a directory or is ignored.
+	 * @throws BackupException When no backup part exists before the given date or the file could not be read.
 	 */
-	private List<BackupPart> readBackupParts() throws BackupException {
-		return this.readBackupParts(-1);
+	private InputStream readFileVersion(long beforeDate, String relPath) throws BackupException {
+		
+		// Disallow a beforeDate in the future.
+		if(beforeDate > System.currentTimeMillis()) {
+			throw new BackupException("The given beforeDate is in the future.");
+		}
+		
+		// List the backup parts. Their changes are read from newest to oldest, until the file version is found.
+		List<BackupPart> sortedBackups = this.listBackupParts(beforeDate);
+		if(sortedBackups.isEmpty()) {
+			throw new BackupException("No backup found before the given date: "
+					+ BACKUP_DATE_FORMAT.format(new Date(beforeDate)));
+		}
+		
+		// Return null for directories and ignored files, since these are not restored either.
+		if(relPath.endsWith(File.separator) || new IgnorePaths(this.ignorePaths).isIgnored(relPath)) {
+			return null;
+		}
+		
+		// Read the file from the backup part that contains its latest version.
+		BackupHistory history = new BackupHistory(sortedBackups, 0);
+		try {
+			return history.readFile(sortedBackups.size() - 1, relPath);
+		} catch (IOException e) {
+			throw new BackupException("Failed to read file: " + relPath, e);
+		} catch (CorruptedBackupException e) {
+			throw new BackupException("Failed to read file from corrupted backup part: "
+					+ this.toBackupDir.getName() + "/" + e.getBackup().getName(), e);
+		}
+	}
+	
+	@Override
+	public File getToBackupDir() {
+		return this.toBackupDir;
+	}
+	
+	@Override
+	public List<Long> getRestoreDateThresholds() throws IOException {
+		List<Long> ret = new ArrayList<Long>();
+		long stamp = this.backupPartLock.readLock();
+		try {
+			for(BackupPart part : this.backupPartFactory.readAllBefore(-1)) {
+				ret.add(part.getCreationTime());
+			}
+		} finally {
+			this.backupPartLock.unlockRead(stamp);
+		}
+		return ret;
+	}
+	
+	@Override
+	public long getFreeUsableSpace() {
+		return this.backupPartFactory.getFreeUsableSpace();
+	}
+	
+	@Override
+	public void setIgnorePaths(Collection<String> ignorePaths) {
+		if(ignorePaths == null) {
+			this.ignorePaths = Collections.emptySet();
+		} else {
+			// Copy set and set OS-specific file separator char.
+			this.ignorePaths = new HashSet<String>();
+			for(String ignorePath : ignorePaths) {
+				this.ignorePaths.add(ignorePath.replace('/', File.separatorChar).replace('\\', File.separatorChar));
+			}
+		}
+	}
+	
+	@Override
+	public Set<String> getIgnorePaths() {
+		return Collections.unmodifiableSet(this.ignorePaths);
+	}
+	
+	/**
+	 * Sets the amount of threads used to compare files with the backup state during a backup, and to restore files
+	 * when the restore writer is thread-safe. The created backup parts do not depend on this amount.
+	 * @param threadCount - The amount of threads. When 1, all files are compared and restored on the thread performing
+	 * the backup or restore.
+	 * @throws IllegalArgumentException When the given amount of threads is less than 1.
+	 */
+	public void setThreadCount(int threadCount) throws IllegalArgumentException {
+		if(threadCount < 1) {
+			throw new IllegalArgumentException("The amount of threads must be at least 1. Found: " + threadCount);
+		}
+		this.threadCount = threadCount;
+	}
+	
+	/**
+	 * Gets the amount of threads used to compare files with the backup state during a backup and to restore files.
+	 * @return The amount of threads.
+	 */
+	public int getThreadCount() {
+		return this.threadCount;
+	}
+	
+	/**
+	 * Sets the maximum amount of modifications that have to be applied to read a file version. Modified files are
+	 * stored fully when storing them relative to their previous version would exceed this length, which bounds the
+	 * cost of restoring them.
+	 * @param maxDeltaChainLength - The maximum modification chain length. Use 0 to always store files fully.
+	 * @throws IllegalArgumentException When the given length is negative.
+	 */
+	public void setMaxDeltaChainLength(int maxDeltaChainLength) throws IllegalArgumentException {
+		if(maxDeltaChainLength < 0) {
+			throw new IllegalArgumentException(
+					"The maximum delta chain length must be at least 0. Found: " + maxDeltaChainLength);
+		}
+		this.maxDeltaChainLength = maxDeltaChainLength;
+	}
+	
+	/**
+	 * Gets the maximum amount of modifications that have to be applied to read a file version.
+	 * @return The maximum modification chain length.
+	 */
+	public int getMaxDeltaChainLength() {
+		return this.maxDeltaChainLength;
+	}
+	
+	/**
+	 * Sets the stat cache used to skip content comparison of files whose metadata did not change since the previous
+	 * backup.
+	 * @param statCache - The stat cache or {@code null} to compare all files by content.
+	 */
+	public void setStatCache(StatCache statCache) {
+		this.statCache = statCache;
+	}
+	
+	/**
+	 * Gets the stat cache of this {@link SimpleBackup}.
+	 * @return The stat cache or {@code null} if no stat cache is used.
+	 */
+	public StatCache getStatCache() {
+		return this.statCache;
+	}
+	
+	/**
+	 * Sets the staging directory that {@link #stage()} copies the to-backup directory to, so that the next backup
+	 * reads from the staging copy instead of from the to-backup directory.
+	 * @param stagingDir - The staging directory or {@code null} to always read from the to-backup directory.
+	 */
+	public void setStagingDir(StagingDirectory stagingDir) {
+		this.stagingDir = stagingDir;
+		this.isStaged = false;
+	}
+	
+	/**
+	 * Gets the staging directory of this {@link SimpleBackup}.
+	 * @return The staging directory or {@code null} if no staging directory is used.
+	 */
+	public StagingDirectory getStagingDir() {
+		return this.stagingDir;
+	}
+	
+	/**
+	 * Sets the state index used to store the backup state after each backup and merge, so that the next backup does
+	 * not have to read and replay the changes of all backup parts.
+	 * @param stateIndex - The state index or {@code null} to read the backup state from the backup parts.
+	 */
+	public void setStateIndex(BackupStateIndex stateIndex) {
+		this.stateIndex = stateIndex;
+	}
+	
+	/**
+	 * Gets the state index of this {@link SimpleBackup}.
+	 * @return The state index or {@code null} if no state index is used.
+	 */
+	public BackupStateIndex getStateIndex() {
+		return this.stateIndex;
+	}
+	
+	/**
+	 * Sets the dirty path tracker used to only examine the paths that changed since the previous backup.
+	 * The tracker should track the directory that is backed up and has to be started and closed by the caller.
+	 * @param dirtyPathTracker - The dirty path tracker or {@code null} to examine all files during every backup.
+	 */
+	public void setDirtyPathTracker(DirtyPathTracker dirtyPathTracker) {
+		this.dirtyPathTracker = dirtyPathTracker;
+	}
+	
+	/**
+	 * Gets the dirty path tracker of this {@link SimpleBackup}.
+	 * @return The dirty path tracker or {@code null} if no dirty path tracker is used.
+	 */
+	public DirtyPathTracker getDirtyPathTracker() {
+		return this.dirtyPathTracker;
+	}
+	
+	/**
+	 * Gets the backup part factory of this {@link SimpleBackup}.
+	 * @return The backup part factory.
+	 */
+	public BackupPartFactory getBackupPartFactory() {
+		return this.backupPartFactory;
+	}
+	
+	/**
+	 * Sets the backup part factory of this {@link SimpleBackup}.
+	 * Backup parts that were created by the previous factory are not visible through the new factory, unless the new
+	 * factory reads them from the same storage.
+	 * @param backupPartFactory - The factory used to create and read backup parts.
+	 */
+	public void setBackupPartFactory(BackupPartFactory backupPartFactory) {
+		Objects.requireNonNull(backupPartFactory);
+		this.backupPartFactory = backupPartFactory;
 	}
 	
 	/**
@@ -470,16 +1294,33 @@ public class SimpleBackup implements Backup {
 	 * @throws BackupException When a backup part is corrupted or could not be read.
 	 */
 	private List<BackupPart> readBackupParts(long beforeDate) throws BackupException {
-		
-		// Get the backup parts.
-		List<BackupPart> backupParts;
+		List<BackupPart> backupParts = this.listBackupParts(beforeDate);
+		this.readChanges(backupParts);
+		return backupParts;
+	}
+	
+	/**
+	 * Gets all backup parts dated before the given beforeDate from the storage without reading their changes.
+	 * @param beforeDate - The timestamp threshold before which to get backup parts or -1 to get all backup parts.
+	 * @return A list of backup parts from oldest to most recent.
+	 * @throws BackupException When the backup parts could not be obtained from the storage.
+	 */
+	private List<BackupPart> listBackupParts(long beforeDate) throws BackupException {
 		try {
-			backupParts = this.backupPartFactory.readAllBefore(beforeDate);
+			return this.backupPartFactory.readAllBefore(beforeDate);
 		} catch (IOException e) {
 			throw new BackupException("Failed to read backup parts from the storage.", e);
 		}
-		
-		// Read the backup part changes.
+	}
+	
+	/**
+	 * Reads the changes of the given backup parts. Corrupted backup parts are removed from the storage and from the
+	 * given list.
+	 * @param backupParts - The backup parts.
+	 * @throws BackupException When the changes of a backup part could not be read or when a corrupted backup part
+	 * could not be removed.
+	 */
+	private void readChanges(List<BackupPart> backupParts) throws BackupException {
 		for(Iterator<BackupPart> it = backupParts.iterator(); it.hasNext();) {
 			BackupPart backupPart = it.next();
 			try {
@@ -488,52 +1329,949 @@ public class SimpleBackup implements Backup {
 				throw new BackupException("Failed to read changes from backup: "
 						+ this.toBackupDir.getName() + "/" + backupPart.getName() + ".", e);
 			} catch (CorruptedBackupException e) {
-				this.logger.warning("Found corrupted backup: "
-						+ this.toBackupDir.getName() + "/" + backupPart.getName());
+				this.deleteCorruptedBackupPart(backupPart);
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Removes the given corrupted backup part from the storage.
+	 * @param backupPart - The corrupted backup part.
+	 * @throws BackupException When the backup part could not be removed.
+	 */
+	private void deleteCorruptedBackupPart(BackupPart backupPart) throws BackupException {
+		this.logger.warning("Found corrupted backup: " + this.toBackupDir.getName() + "/" + backupPart.getName());
+		try {
+			backupPart.delete();
+			if(this.statCache != null) {
+				this.statCache.invalidate(); // Removing a backup part changes the backup state.
+			}
+			if(this.dirtyPathTracker != null) {
+				this.dirtyPathTracker.invalidate();
+			}
+			this.changeHintAnchorTime = -1;
+		} catch (IOException e) {
+			this.logger.severe("Failed to remove corrupted backup: "
+					+ this.toBackupDir.getName() + "/" + backupPart.getName()
+					+ ". Here's the stacktrace:\n" + Utils.getStacktrace(e));
+			throw new BackupException("Failed to remove corrupted backup: "
+					+ this.toBackupDir.getName() + "/" + backupPart.getName(), e);
+		}
+	}
+	
+	/**
+	 * Gets the history of all backup parts, of which only the changes of the backup parts dated before the given
+	 * beforeDate are read. Corrupted backup parts dated before the given beforeDate are removed.
+	 * @param beforeDate - The timestamp threshold before which to read the changes of backup parts.
+	 * @return The {@link BackupHistory}.
+	 * @throws BackupException When a backup part could not be read or removed.
+	 */
+	private BackupHistory readBackupHistory(long beforeDate) throws BackupException {
+		List<BackupPart> sortedBackups = (beforeDate > 0
+				? this.readBackupParts(beforeDate) : new ArrayList<BackupPart>());
+		int readCount = sortedBackups.size();
+		for(BackupPart backup : this.listBackupParts(-1)) {
+			if(backup.getCreationTime() >= beforeDate) {
+				sortedBackups.add(backup);
+			}
+		}
+		return new BackupHistory(sortedBackups, readCount);
+	}
+	
+	/**
+	 * Lists the files that have to be examined for the given changed paths. These are the existing changed paths,
+	 * their parent directories that are not in the backup state and the (nested) contents of changed directories that
+	 * were created or that are not in the backup state. All files in a removed directory are examined as well.
+	 * @param sourceDir - The directory to read the files from.
+	 * @param dirtyPaths - The changed paths.
+	 * @param state - The backup state.
+	 * @param ignorePaths - The ignore paths.
+	 * @return The {@link DirtyScope} containing the files to examine.
+	 */
+	private DirtyScope listDirtyFiles(File sourceDir,
+			DirtyPaths dirtyPaths, Map<String, StateEntry> state, IgnorePaths ignorePaths) {
+		DirtyScope scope = new DirtyScope(sourceDir.toPath());
+		Set<String> listedPaths = new HashSet<String>();
+		for(String dirtyPath : new TreeSet<String>(dirtyPaths.getPaths())) {
+			
+			// List the parent directories that are not in the backup state, from the top down.
+			for(int i = dirtyPath.indexOf(File.separatorChar); i != -1;
+					i = dirtyPath.indexOf(File.separatorChar, i + 1)) {
+				String relDirPath = dirtyPath.substring(0, i + 1);
+				if(!state.containsKey(relDirPath) && !ignorePaths.isIgnored(relDirPath)
+						&& !listedPaths.contains(relDirPath)) {
+					BasicFileAttributes attributes = readAttributes(sourceDir.toPath().resolve(relDirPath));
+					if(attributes != null && attributes.isDirectory()) {
+						scope.add(relDirPath, attributes);
+						listedPaths.add(relDirPath);
+					}
+				}
+			}
+			
+			// List the changed path. Removed paths are examined, but not listed.
+			String relDirPath = dirtyPath + File.separator;
+			Path path = sourceDir.toPath().resolve(dirtyPath);
+			BasicFileAttributes attributes;
+			boolean exists = true;
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (NoSuchFileException e) {
+				attributes = null;
+				exists = false;
+			} catch (IOException e) {
+				
+				// Files of which the attributes cannot be read are handled as files, unless their parent is no longer
+				// a directory.
+				attributes = null;
+				exists = Files.isDirectory(path.getParent());
+			}
+			if(!exists) {
+				scope.examinedPaths.add(dirtyPath);
+				scope.examinedPaths.add(relDirPath);
+				scope.examinedDirs.add(relDirPath);
+				continue;
+			}
+			boolean isDirectory = (attributes != null && attributes.isDirectory());
+			String relPath = (isDirectory ? relDirPath : dirtyPath);
+			if(ignorePaths.isIgnored(relPath)) {
+				continue;
+			}
+			if(listedPaths.add(relPath)) {
+				scope.add(relPath, attributes);
+			}
+			scope.examinedPaths.add(dirtyPath);
+			scope.examinedPaths.add(relDirPath);
+			
+			// List the contents of created directories and of directories that replaced a file.
+			if(isDirectory && (dirtyPaths.getSubtrees().contains(dirtyPath) || !state.containsKey(relDirPath))) {
+				scope.examinedDirs.add(relDirPath);
+				FileWalker walker = new FileWalker(sourceDir, relDirPath, this.ignorePaths);
+				while(walker.hasNext()) {
+					FileWalker.WalkedFile walkedFile = walker.next();
+					if(listedPaths.add(walkedFile.getRelativePath())) {
+						scope.files.add(walkedFile);
+					}
+				}
+			} else if(!isDirectory) {
+				scope.examinedDirs.add(relDirPath); // A directory might have been replaced by this file.
+			}
+		}
+		return scope;
+	}
+	
+	/**
+	 * Reads the attributes of the file at the given path.
+	 * @param path - The path.
+	 * @return The attributes or {@code null} if they could not be read.
+	 */
+	private static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Compares the given file with the file in the backup state. This may be called from any thread.
+	 * @param relPath - The relative path of the file.
+	 * @param file - The file.
+	 * @param attributes - The attributes of the file, read before the file contents, or {@code null} if not available.
+	 * @param stateEntry - The entry of the file in the backup state or {@code null} if the file is not in the backup
+	 * state.
+	 * @param isUnchanged - {@code true} if the file is known to be unchanged since the previous backup according to a
+	 * {@link ChangeHint}, {@code false} otherwise.
+	 * @param history - The existing backup parts, used to compare files without a digest in the backup state.
+	 * @param statCache - The stat cache to skip comparing unchanged files with, or {@code null} to compare all files.
+	 * @return The {@link FileComparison}.
+	 * @throws BackupException When an I/O error occurs while comparing the file.
+	 */
+	private static FileComparison compareFile(String relPath, File file, BasicFileAttributes attributes,
+			StateEntry stateEntry, boolean isUnchanged, BackupHistory history, StatCache statCache)
+			throws BackupException {
+		
+		// Get the file metadata before reading the file, so that changes during the backup are detected later.
+		// The given attributes were read before the file, so they are used when available.
+		FileStat stat = (statCache == null || relPath.endsWith(File.separator) ? null
+				: (attributes != null ? FileStat.of(attributes) : getFileStat(file)));
+		
+		// Return if the file is not in the backup state.
+		if(stateEntry == null) {
+			return new FileComparison(relPath, file, stat, null, false);
+		}
+		
+		// Compare the file. Directories, files that are unchanged according to the change hint and files with unchanged
+		// metadata according to the stat cache are not compared. Files are compared with their digest if available,
+		// which does not require reading the changes of the backup part containing the file.
+		if(relPath.endsWith(File.separator) || isUnchanged
+				|| (statCache != null && statCache.isUnchanged(relPath, stat))) {
+			return new FileComparison(relPath, file, stat, stateEntry, true);
+		}
+		try {
+			int index = stateEntry.getBackupPartIndex();
+			boolean isEqual = (stateEntry.getDigest() != null
+					? history.getBackupPart(index).matchesDigest(stateEntry.getDigest(), file)
+					: history.readBackupPart(index).contains(relPath, file, true));
+			return new FileComparison(relPath, file, stat, stateEntry, isEqual);
+		} catch (IOException e) {
+			throw new BackupException(
+					"Failed to compare file with file in backup state: " + file.getAbsolutePath(), e);
+		} catch (CorruptedBackupException e) {
+			throw new BackupException("Failed to compare file with file in corrupted backup part: "
+					+ e.getBackup().getName(), e);
+		}
+	}
+	
+	/**
+	 * Waits for the given file comparison to complete and returns it.
+	 * @param future - The future of the file comparison.
+	 * @return The {@link FileComparison}.
+	 * @throws BackupException When the file comparison has failed.
+	 * @throws InterruptedException When the current thread is interrupted while waiting.
+	 */
+	private static FileComparison getFileComparison(
+			Future<FileComparison> future) throws BackupException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof BackupException) {
+				throw (BackupException) cause;
+			}
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new BackupException("Failed to compare file with file in backup state.", cause);
+		}
+	}
+	
+	/**
+	 * Adds the compared file to the given new backup part if it is not equal to the file in the backup state.
+	 * @param comparison - The file comparison.
+	 * @param backup - The new backup part.
+	 * @param remainingFiles - The files in the backup state that have not been found yet. The compared file is
+	 * removed from this set.
+	 * @param history - The existing backup parts, used to supply the previous version of modified files.
+	 * @param statCache - The stat cache to record the file metadata in, or {@code null}.
+	 * @throws BackupException When an I/O error occurs while adding the file to the backup part.
+	 */
+	private void handleFileComparison(FileComparison comparison, BackupPart backup, Set<String> remainingFiles,
+			BackupHistory history, StatCache statCache) throws BackupException {
+		if(comparison.stateEntry == null) {
+			try {
+				backup.addAddition(comparison.relPath, comparison.file);
+			} catch (IOException e) {
+				throw new BackupException("Failed to add file to backup: " + comparison.file.getAbsolutePath(), e);
+			}
+		} else {
+			
+			// Store a modification if the file is different. The modification is only stored relative to the
+			// previous version if that does not exceed the maximum modification chain length.
+			if(!comparison.isEqual) {
 				try {
-					e.getBackup().delete();
-					it.remove();
-				} catch (IOException e1) {
-					this.logger.severe("Failed to remove corrupted backup: "
-							+ this.toBackupDir.getName() + "/" + backupPart.getName()
-							+ ". Here's the stacktrace:\n" + Utils.getStacktrace(e1));
-					throw new BackupException("Failed to remove corrupted backup: "
-							+ this.toBackupDir.getName() + "/" + backupPart.getName(), e1);
+					StateEntry stateEntry = comparison.stateEntry;
+					if(stateEntry.getChainLength() < this.maxDeltaChainLength) {
+						backup.addModification(comparison.relPath, comparison.file,
+								history.getVersionSupplier(stateEntry.getChain(), comparison.relPath));
+					} else {
+						backup.addModification(comparison.relPath, comparison.file);
+					}
+				} catch (IOException e) {
+					throw new BackupException(
+							"Failed to add modified file to backup: " + comparison.file.getAbsolutePath(), e);
 				}
 			}
+			
+			// Remove the handled file or directory from the remaining files so that only deleted files will remain.
+			remainingFiles.remove(comparison.relPath);
 		}
 		
-		// Return the backup parts.
-		return backupParts;
+		// Record the file metadata, since the file now equals the file in the new backup state.
+		if(statCache != null) {
+			statCache.record(comparison.relPath, comparison.stat);
+		}
 	}
 	
-	// Assumes sortedBackups to be sorted from oldest to latest (initial backup at index 0).
-	private Map<String, BackupPart> getBackupState(List<BackupPart> sortedBackups) {
-		Map<String, BackupPart> stateMap = new HashMap<String, BackupPart>();
-		Set<String> removedFiles = new HashSet<String>();
-		IgnorePaths ignorePaths = new IgnorePaths(this.ignorePaths);
-		for(int i = sortedBackups.size() - 1; i >= 0; i--) {
-			BackupPart backup = sortedBackups.get(i);
-			Map<String, ChangeType> changes = backup.getChanges();
+	/**
+	 * Gets the creation time of the most recent backup part in the storage.
+	 * @return The creation time of the most recent backup part or -1 if there are no backup parts.
+	 * @throws IOException When the backup parts could not be obtained from the storage.
+	 */
+	private long getLatestBackupPartTime() throws IOException {
+		List<BackupPart> backupParts = this.backupPartFactory.readAllBefore(-1);
+		return (backupParts.isEmpty() ? -1 : backupParts.get(backupParts.size() - 1).getCreationTime());
+	}
+	
+	/**
+	 * Moves the stat cache, the dirty path tracker and the change hint validity from the given replaced backup part
+	 * to the new backup part that replaced it, logging a warning on failure.
+	 * @param oldBackupPartTime - The creation time of the replaced backup part.
+	 * @param newBackupPartTime - The creation time of the new backup part.
+	 */
+	private void rebaseLatestBackupPart(long oldBackupPartTime, long newBackupPartTime) {
+		if(this.changeHintAnchorTime == oldBackupPartTime) {
+			this.changeHintAnchorTime = newBackupPartTime;
+		}
+		if(this.dirtyPathTracker != null) {
+			this.dirtyPathTracker.rebase(oldBackupPartTime, newBackupPartTime);
+		}
+		if(this.statCache != null) {
+			try {
+				this.statCache.rebase(oldBackupPartTime, newBackupPartTime);
+			} catch (IOException e) {
+				this.logger.warning("Failed to update stat cache for backup: " + this.toBackupDir.getName()
+						+ ". Exception message: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Adds the files that are modified in the given range of backup parts to the given new backup part that will
+	 * replace that range. Backup part merging copies modifications as they are, which is only valid for a
+	 * modification that is the only change of its file in the range and that has a backup part before the range
+	 * to be relative to. Other modified files are reconstructed and added to the new backup part as a modification
+	 * relative to the version before the range, or as an addition if there is no such version.
+	 * @param history - The backup parts.
+	 * @param fromIndex - The index of the oldest backup part in the range.
+	 * @param toIndex - The index of the most recent backup part in the range.
+	 * @param newBackup - The new backup part.
+	 * @throws BackupException When a modified file could not be reconstructed or added to the new backup part.
+	 */
+	private void mergeModifications(BackupHistory history,
+			int fromIndex, int toIndex, BackupPart newBackup) throws BackupException {
+		
+		// Get the files whose most recent change in the range is a modification.
+		Set<String> handledFiles = new HashSet<String>();
+		Map<String, Integer> modifications = new HashMap<String, Integer>();
+		Set<String> chainedModifications = new HashSet<String>();
+		for(int i = toIndex; i >= fromIndex; i--) {
+			Map<String, ChangeType> changes;
+			try {
+				changes = history.getChanges(i);
+			} catch (IOException e) {
+				throw new BackupException("Failed to read changes from backup: "
+						+ this.toBackupDir.getName() + "/" + history.getBackupPart(i).getName() + ".", e);
+			} catch (CorruptedBackupException e) {
+				throw new BackupException("Failed to merge modified files from corrupted backup part: "
+						+ this.toBackupDir.getName() + "/" + e.getBackup().getName(), e);
+			}
 			for(Entry<String, ChangeType> change : changes.entrySet()) {
-				String changePath = change.getKey();
-				if(!removedFiles.contains(changePath)
-						&& !stateMap.containsKey(changePath) && !ignorePaths.isIgnored(changePath)) {
-					switch(change.getValue()) {
-						case ADDITION:
-							stateMap.put(changePath, backup);
-							break;
-						case REMOVAL:
-							removedFiles.add(changePath);
-							break;
-						default:
-							throw new InternalError("Unsupported change type: '"
-									+ change.getValue() + "' in backup: "
-									+ this.toBackupDir.getName() + "/" + backup.getName());
+				String relPath = change.getKey();
+				if(handledFiles.add(relPath)) {
+					if(change.getValue() == ChangeType.MODIFICATION) {
+						modifications.put(relPath, i);
 					}
+				} else if(modifications.containsKey(relPath)) {
+					chainedModifications.add(relPath);
 				}
 			}
 		}
-		return stateMap;
+		
+		// Reconstruct the modified files that cannot be copied as they are and add them to the new backup part.
+		for(Entry<String, Integer> modification : modifications.entrySet()) {
+			String relPath = modification.getKey();
+			if(fromIndex > 0 && !chainedModifications.contains(relPath)) {
+				continue;
+			}
+			File tempFile = null;
+			try {
+				tempFile = Files.createTempFile("woeshbackup", ".tmp").toFile();
+				InputStream inStream = history.readFile(modification.getValue(), relPath);
+				try {
+					Files.copy(inStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					inStream.close();
+				}
+				if(fromIndex > 0 && history.getChainLength(fromIndex - 1, relPath) < this.maxDeltaChainLength) {
+					newBackup.addModification(relPath, tempFile, history.getVersionSupplier(fromIndex - 1, relPath));
+				} else {
+					newBackup.addAddition(relPath, tempFile);
+				}
+			} catch (IOException e) {
+				throw new BackupException("Failed to merge modified file: " + relPath, e);
+			} catch (CorruptedBackupException e) {
+				throw new BackupException("Failed to merge modified file from corrupted backup part: "
+						+ this.toBackupDir.getName() + "/" + e.getBackup().getName(), e);
+			} finally {
+				if(tempFile != null) {
+					tempFile.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the metadata of the given file.
+	 * @param file - The file.
+	 * @return The file metadata or {@code null} if it could not be read.
+	 */
+	private static FileStat getFileStat(File file) {
+		try {
+			return FileStat.of(file);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Merges the backup parts in the given index range of the given history into a new backup part that takes the
+	 * place of the most recent backup part in the range, and removes the merged backup parts from the storage.
+	 * Corrupted backup parts in the range are removed without being merged.
+	 * @param history - The backup parts.
+	 * @param fromIndex - The index of the oldest backup part to merge.
+	 * @param toIndex - The index of the most recent backup part to merge.
+	 * @param state - The backup state of the given history or {@code null} if not available.
+	 * @return The backup state after the merge or {@code null} if the given state was {@code null} or could not be
+	 * updated.
+	 * @throws BackupException When a backup part could not be read or when the new backup part could not be created.
+	 */
+	private Map<String, StateEntry> mergeRange(BackupHistory history,
+			int fromIndex, int toIndex, Map<String, StateEntry> state) throws BackupException {
+		long backupTime = history.getBackupPart(toIndex).getCreationTime();
+		
+		// Read the changes of the backup parts to merge, removing corrupted backup parts.
+		for(int i = fromIndex; i <= toIndex; i++) {
+			BackupPart backup = history.getBackupPart(i);
+			if(backup == null) {
+				continue;
+			}
+			try {
+				history.getChanges(i);
+			} catch (IOException e) {
+				throw new BackupException("Failed to read changes from backup: "
+						+ this.toBackupDir.getName() + "/" + backup.getName() + ".", e);
+			} catch (CorruptedBackupException e) {
+				this.deleteCorruptedBackupPart(backup);
+				history.remove(i);
+				state = null;
+			}
+		}
+		
+		// Create the new backup part.
+		// TODO - Backup with this time/name already exists. Overwrite or is subtracting a second acceptable?
+		BackupPart newBackup = this.backupPartFactory.createNew(backupTime - 1000);
+		
+		// Merge the backups. The new backup part is removed on failure, releasing the blobs that it referenced.
+		try {
+			this.mergeModifications(history, fromIndex, toIndex, newBackup);
+			for(int i = toIndex; i >= fromIndex; i--) {
+				BackupPart backup = history.getBackupPart(i);
+				if(backup == null) {
+					continue;
+				}
+				try {
+					newBackup.merge(backup);
+				} catch (IOException e) {
+					throw new BackupException("Failed to merge backup parts.", e);
+				} catch (CorruptedBackupException e) {
+					throw new BackupException("Failed to merge backup part with corrupted backup part: "
+							+ this.toBackupDir.getName() + "/" + e.getBackup().getName(), e);
+				}
+			}
+		} catch (BackupException e) {
+			try {
+				newBackup.delete();
+			} catch (IOException e1) {
+				this.logger.severe(
+						"Failed to remove a failed merge backup. Here's the stacktrace:\n" + Utils.getStacktrace(e1));
+			}
+			throw e;
+		}
+		try {
+			newBackup.close();
+		} catch (IOException e) {
+			try {
+				newBackup.delete();
+			} catch (IOException e1) {
+				this.logger.severe(
+						"Failed to remove a failed merge backup. Here's the stacktrace:\n" + Utils.getStacktrace(e1));
+				throw new BackupException("Failed to close the merged backup. It could also not be removed.", e);
+			}
+			throw new BackupException("Failed to close the merged backup.", e);
+		}
+		
+		// Update the backup state and replace the merged backups by the new backup part.
+		state = mergeState(state, fromIndex, toIndex, newBackup);
+		List<BackupPart> mergedBackups = history.replace(fromIndex, toIndex, newBackup);
+		
+		// Remove the merged backups.
+		for(BackupPart backup : mergedBackups) {
+			try {
+				backup.delete();
+			} catch (IOException e) {
+				this.logger.severe(
+						"Failed to remove a merged backup. Here's the stacktrace:\n" + Utils.getStacktrace(e));
+			}
+		}
+		
+		// Move the stat cache to the new backup part if the most recent backup part was merged.
+		this.rebaseLatestBackupPart(backupTime, newBackup.getCreationTime());
+		return state;
+	}
+	
+	/**
+	 * Reads the backup state from the state index.
+	 * @param sortedBackups - The current backup parts, sorted from oldest to most recent.
+	 * @return The backup state or {@code null} if there is no state index or if it is not valid for the given
+	 * backup parts.
+	 */
+	private Map<String, StateEntry> readStateIndex(List<BackupPart> sortedBackups) {
+		if(this.stateIndex == null) {
+			return null;
+		}
+		try {
+			return this.stateIndex.read(sortedBackups);
+		} catch (IOException e) {
+			this.logger.warning("Failed to read state index for backup: " + this.toBackupDir.getName()
+					+ ". The backup state will be read from all backup parts. Exception message: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Stores the given backup state in the state index, logging a warning on failure. The state index is invalidated
+	 * instead if no backup state is given or if the given backup parts do not match the backup parts in the storage.
+	 * @param sortedBackups - The backup parts of the backup state, sorted from oldest to most recent.
+	 * @param state - The backup state or {@code null} if not available.
+	 */
+	private void writeStateIndex(List<BackupPart> sortedBackups, Map<String, StateEntry> state) {
+		if(this.stateIndex == null) {
+			return;
+		}
+		try {
+			
+			// Get the stored backup parts, since their names and creation times are the ones that are read later.
+			List<BackupPart> storedBackups = this.backupPartFactory.readAllBefore(-1);
+			boolean isValid = (state != null && storedBackups.size() == sortedBackups.size());
+			for(int i = 0; isValid && i < storedBackups.size(); i++) {
+				isValid = storedBackups.get(i).getName().equals(sortedBackups.get(i).getName());
+			}
+			if(isValid) {
+				this.stateIndex.write(storedBackups, state);
+			} else {
+				this.stateIndex.invalidate();
+			}
+		} catch (IOException e) {
+			this.logger.warning("Failed to store state index for backup: " + this.toBackupDir.getName()
+					+ ". Exception message: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Invalidates the state index, logging a warning on failure.
+	 */
+	private void invalidateStateIndex() {
+		try {
+			this.stateIndex.invalidate();
+		} catch (IOException e) {
+			this.logger.warning("Failed to invalidate state index for backup: " + this.toBackupDir.getName()
+					+ ". Exception message: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Applies the given changes of the backup part at the given index to the given backup state.
+	 * @param state - The backup state before the backup part.
+	 * @param index - The index of the backup part.
+	 * @param backup - The backup part.
+	 * @param changes - The changes of the backup part.
+	 */
+	private static void applyChanges(Map<String, StateEntry> state,
+			int index, BackupPart backup, Map<String, ChangeType> changes) {
+		for(Entry<String, ChangeType> change : changes.entrySet()) {
+			String relPath = change.getKey();
+			switch(change.getValue()) {
+				case ADDITION:
+				case MODIFICATION:
+					state.put(relPath, StateEntry.of(
+							index, change.getValue(), state.get(relPath), backup.getDigest(relPath)));
+					break;
+				case REMOVAL:
+					state.remove(relPath);
+					break;
+				default:
+					throw new InternalError("Unsupported change type: '"
+							+ change.getValue() + "' in backup: " + backup.getName());
+			}
+		}
+	}
+	
+	/**
+	 * Updates the given backup state after merging the backup parts in the given index range into the given backup
+	 * part, which takes the place of the most recent backup part in the range.
+	 * @param state - The backup state before the merge or {@code null} if not available.
+	 * @param fromIndex - The index of the oldest merged backup part.
+	 * @param toIndex - The index of the most recent merged backup part.
+	 * @param newBackup - The merged backup part.
+	 * @return The backup state after the merge or {@code null} if the given state is {@code null} or does not match
+	 * the merged backup part.
+	 */
+	private static Map<String, StateEntry> mergeState(
+			Map<String, StateEntry> state, int fromIndex, int toIndex, BackupPart newBackup) {
+		if(state == null) {
+			return null;
+		}
+		Map<String, ChangeType> changes = newBackup.getChanges();
+		for(Entry<String, StateEntry> entry : state.entrySet()) {
+			
+			// Get the part of the chain that consists of merged backup parts.
+			int[] chain = entry.getValue().getChain();
+			int start = 0;
+			while(start < chain.length && chain[start] > toIndex) {
+				start++;
+			}
+			int end = start;
+			while(end < chain.length && chain[end] >= fromIndex) {
+				end++;
+			}
+			if(start == end) {
+				continue;
+			}
+			
+			// Replace the merged backup parts in the chain by the new backup part. The chain only continues with the
+			// backup parts before the range if the new backup part contains a modification.
+			ChangeType changeType = (changes == null ? null : changes.get(entry.getKey()));
+			if(changeType != ChangeType.ADDITION && changeType != ChangeType.MODIFICATION) {
+				return null;
+			}
+			int tailLength = (changeType == ChangeType.MODIFICATION ? chain.length - end : 0);
+			int[] newChain = new int[start + 1 + tailLength];
+			System.arraycopy(chain, 0, newChain, 0, start);
+			newChain[start] = toIndex;
+			System.arraycopy(chain, end, newChain, start + 1, tailLength);
+			entry.setValue(new StateEntry(newChain,
+					(start == 0 ? newBackup.getDigest(entry.getKey()) : entry.getValue().getDigest())));
+		}
+		return state;
+	}
+	
+	/**
+	 * Changes the backup part indices in the given backup state using the given mapping.
+	 * @param state - The backup state or {@code null} if not available.
+	 * @param indexMapping - The new index for each old backup part index or -1 for removed backup parts.
+	 * @return The backup state or {@code null} if the given state is {@code null} or refers to a removed backup part.
+	 */
+	private static Map<String, StateEntry> remapState(Map<String, StateEntry> state, int[] indexMapping) {
+		if(state == null) {
+			return null;
+		}
+		for(Entry<String, StateEntry> entry : state.entrySet()) {
+			int[] chain = entry.getValue().getChain();
+			int[] newChain = new int[chain.length];
+			for(int i = 0; i < chain.length; i++) {
+				newChain[i] = indexMapping[chain[i]];
+				if(newChain[i] < 0) {
+					return null;
+				}
+			}
+			entry.setValue(new StateEntry(newChain, entry.getValue().getDigest()));
+		}
+		return state;
+	}
+	
+	/**
+	 * Represents the backup parts of a backup from oldest to most recent, used to read file versions that consist of
+	 * a chain of modifications. The changes of backup parts are read when they are first needed.
+	 * @author P.J.S. Kools
+	 */
+	private static final class BackupHistory {
+		private final List<BackupPart> backupParts;
+		private final List<Map<String, ChangeType>> changes;
+		
+		/**
+		 * Creates a new {@link BackupHistory}.
+		 * @param sortedBackups - The backup parts, sorted from oldest to most recent.
+		 * @param readCount - The amount of backup parts at the start of the given list of which the changes have been
+		 * read. The changes of the other backup parts are read when they are needed.
+		 */
+		private BackupHistory(List<BackupPart> sortedBackups, int readCount) {
+			this.backupParts = new ArrayList<BackupPart>(sortedBackups);
+			this.changes = new ArrayList<Map<String, ChangeType>>(sortedBackups.size());
+			for(int i = 0; i < sortedBackups.size(); i++) {
+				this.changes.add(i < readCount ? sortedBackups.get(i).getChanges() : null);
+			}
+		}
+		
+		/**
+		 * Gets the amount of backup parts in this history.
+		 * @return The amount of backup parts.
+		 */
+		private int size() {
+			return this.backupParts.size();
+		}
+		
+		/**
+		 * Gets the backup part at the given index without reading its changes.
+		 * @param index - The backup part index.
+		 * @return The backup part or {@code null} if it has been removed.
+		 */
+		private BackupPart getBackupPart(int index) {
+			return this.backupParts.get(index);
+		}
+		
+		/**
+		 * Gets the backup parts in this history that have not been removed.
+		 * @return The backup parts from oldest to most recent.
+		 */
+		private List<BackupPart> getBackupParts() {
+			List<BackupPart> backupParts = new ArrayList<BackupPart>(this.backupParts.size());
+			for(BackupPart backup : this.backupParts) {
+				if(backup != null) {
+					backupParts.add(backup);
+				}
+			}
+			return backupParts;
+		}
+		
+		/**
+		 * Gets the backup part at the given index, reading its changes if they have not been read yet.
+		 * @param index - The backup part index.
+		 * @return The backup part.
+		 * @throws IOException When an I/O error occurs while reading the changes.
+		 * @throws CorruptedBackupException When the changes are corrupted.
+		 */
+		private BackupPart readBackupPart(int index) throws IOException, CorruptedBackupException {
+			this.getChanges(index);
+			return this.backupParts.get(index);
+		}
+		
+		/**
+		 * Gets the changes of the backup part at the given index, reading them if they have not been read yet.
+		 * This may be called from any thread.
+		 * @param index - The backup part index.
+		 * @return The changes.
+		 * @throws IOException When an I/O error occurs while reading the changes.
+		 * @throws CorruptedBackupException When the changes are corrupted.
+		 */
+		private synchronized Map<String, ChangeType> getChanges(
+				int index) throws IOException, CorruptedBackupException {
+			Map<String, ChangeType> changes = this.changes.get(index);
+			if(changes == null) {
+				BackupPart backup = this.backupParts.get(index);
+				backup.readChanges();
+				changes = backup.getChanges();
+				this.changes.set(index, changes);
+			}
+			return changes;
+		}
+		
+		/**
+		 * Gets the backup state after the most recent backup part, including ignored files.
+		 * @return The backup state, mapping relative paths to their state entries.
+		 * @throws IOException When an I/O error occurs while reading the changes of a backup part.
+		 * @throws CorruptedBackupException When the changes of a backup part are corrupted.
+		 */
+		private Map<String, StateEntry> getState() throws IOException, CorruptedBackupException {
+			Map<String, StateEntry> state = new HashMap<String, StateEntry>();
+			for(int i = 0; i < this.backupParts.size(); i++) {
+				if(this.backupParts.get(i) != null) {
+					applyChanges(state, i, this.backupParts.get(i), this.getChanges(i));
+				}
+			}
+			return state;
+		}
+		
+		/**
+		 * Reads the version of the file at the given path in the backup state of the backup part at the given index.
+		 * @param index - The backup part index or -1 for the state before the first backup part.
+		 * @param relPath - The relative path of the file.
+		 * @return A stream containing the file contents or {@code null} if the file does not exist in the state.
+		 * @throws IOException If an I/O error has occurred.
+		 * @throws CorruptedBackupException If the file could not be read from a backup part.
+		 */
+		private InputStream readFile(int index, String relPath) throws IOException, CorruptedBackupException {
+			for(int i = index; i >= 0; i--) {
+				ChangeType changeType = this.getChanges(i).get(relPath);
+				if(changeType == ChangeType.REMOVAL) {
+					return null;
+				} else if(changeType != null) {
+					return this.backupParts.get(i).readFile(relPath, this.getVersionSupplier(i - 1, relPath));
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Gets the amount of modifications that have to be applied to read the version of the file at the given path
+		 * in the backup state of the backup part at the given index.
+		 * @param index - The backup part index or -1 for the state before the first backup part.
+		 * @param relPath - The relative path of the file.
+		 * @return The modification chain length.
+		 * @throws IOException When an I/O error occurs while reading the changes of a backup part.
+		 * @throws CorruptedBackupException When the changes of a backup part are corrupted.
+		 */
+		private int getChainLength(int index, String relPath) throws IOException, CorruptedBackupException {
+			int chainLength = 0;
+			for(int i = index; i >= 0; i--) {
+				ChangeType changeType = this.getChanges(i).get(relPath);
+				if(changeType == ChangeType.MODIFICATION) {
+					chainLength++;
+				} else if(changeType != null) {
+					break;
+				}
+			}
+			return chainLength;
+		}
+		
+		/**
+		 * Gets a supplier of the version of the file at the given path in the backup state of the backup part at
+		 * the given index.
+		 * @param index - The backup part index or -1 for the state before the first backup part.
+		 * @param relPath - The relative path of the file.
+		 * @return The {@link FileVersionSupplier}.
+		 */
+		private FileVersionSupplier getVersionSupplier(int index, String relPath) {
+			return () -> this.readFile(index, relPath);
+		}
+		
+		/**
+		 * Gets a supplier of the version of the file at the given path that is stored in the given chain of backup
+		 * parts. Only the changes of the backup parts in the chain are read.
+		 * @param chain - The indices of the backup parts from {@link StateEntry#getChain()}.
+		 * @param relPath - The relative path of the file.
+		 * @return The {@link FileVersionSupplier}.
+		 */
+		private FileVersionSupplier getVersionSupplier(int[] chain, String relPath) {
+			return this.getVersionSupplier(chain, 0, relPath);
+		}
+		
+		private FileVersionSupplier getVersionSupplier(int[] chain, int chainIndex, String relPath) {
+			return () -> (chainIndex >= chain.length ? null : this.readBackupPart(chain[chainIndex]).readFile(
+					relPath, this.getVersionSupplier(chain, chainIndex + 1, relPath)));
+		}
+		
+		/**
+		 * Replaces the backup parts in the given index range by the given backup part that was merged from them.
+		 * The merged backup part takes the place of the most recent backup part in the range.
+		 * @param fromIndex - The index of the oldest merged backup part.
+		 * @param toIndex - The index of the most recent merged backup part.
+		 * @param newBackup - The merged backup part.
+		 * @return The replaced backup parts.
+		 */
+		private List<BackupPart> replace(int fromIndex, int toIndex, BackupPart newBackup) {
+			List<BackupPart> replacedBackups = new ArrayList<BackupPart>();
+			for(int i = fromIndex; i <= toIndex; i++) {
+				if(this.backupParts.get(i) != null) {
+					replacedBackups.add(this.backupParts.get(i));
+				}
+				this.remove(i);
+			}
+			this.backupParts.set(toIndex, newBackup);
+			this.changes.set(toIndex, newBackup.getChanges());
+			return replacedBackups;
+		}
+		
+		/**
+		 * Removes the backup part at the given index from this history, leaving an empty place.
+		 * @param index - The backup part index.
+		 */
+		private void remove(int index) {
+			this.backupParts.set(index, null);
+			this.changes.set(index, Collections.<String, ChangeType>emptyMap());
+		}
+		
+		/**
+		 * Removes the empty places of removed backup parts from this history.
+		 * @return The new index for each old backup part index or -1 for removed backup parts.
+		 */
+		private int[] compact() {
+			int[] indexMapping = new int[this.backupParts.size()];
+			int newIndex = 0;
+			for(int i = 0; i < indexMapping.length; i++) {
+				if(this.backupParts.get(i) == null) {
+					indexMapping[i] = -1;
+				} else {
+					this.backupParts.set(newIndex, this.backupParts.get(i));
+					this.changes.set(newIndex, this.changes.get(i));
+					indexMapping[i] = newIndex++;
+				}
+			}
+			while(this.backupParts.size() > newIndex) {
+				this.backupParts.remove(this.backupParts.size() - 1);
+				this.changes.remove(this.changes.size() - 1);
+			}
+			return indexMapping;
+		}
+	}
+	
+	/**
+	 * Represents the files that are examined during a backup that only examines the paths that changed since the
+	 * previous backup.
+	 * @author P.J.S. Kools
+	 */
+	private static final class DirtyScope {
+		private final Path baseDir;
+		private final List<FileWalker.WalkedFile> files = new ArrayList<FileWalker.WalkedFile>();
+		private final Set<String> examinedPaths = new HashSet<String>();
+		private final Set<String> examinedDirs = new HashSet<String>();
+		
+		/**
+		 * Creates a new empty {@link DirtyScope}.
+		 * @param baseDir - The directory containing the examined files.
+		 */
+		private DirtyScope(Path baseDir) {
+			this.baseDir = baseDir;
+		}
+		
+		/**
+		 * Adds the file at the given relative path to the files to examine.
+		 * @param relPath - The relative path of the file.
+		 * @param attributes - The attributes of the file or {@code null} if they could not be read.
+		 */
+		private void add(String relPath, BasicFileAttributes attributes) {
+			this.files.add(new FileWalker.WalkedFile(this.baseDir.resolve(relPath), relPath, attributes));
+			this.examinedPaths.add(relPath);
+		}
+		
+		/**
+		 * Checks whether the file at the given relative path is examined.
+		 * @param relPath - The relative path of the file.
+		 * @return {@code true} if the file is examined, {@code false} otherwise.
+		 */
+		private boolean isExamined(String relPath) {
+			if(this.examinedPaths.contains(relPath)) {
+				return true;
+			}
+			for(int i = relPath.indexOf(File.separatorChar); i != -1 && i < relPath.length() - 1;
+					i = relPath.indexOf(File.separatorChar, i + 1)) {
+				if(this.examinedDirs.contains(relPath.substring(0, i + 1))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Represents the result of comparing a file with the file in the backup state.
+	 * @author P.J.S. Kools
+	 */
+	private static final class FileComparison {
+		private final String relPath;
+		private final File file;
+		private final FileStat stat;
+		private final StateEntry stateEntry;
+		private final boolean isEqual;
+		
+		/**
+		 * Creates a new {@link FileComparison}.
+		 * @param relPath - The relative path of the file.
+		 * @param file - The file.
+		 * @param stat - The file metadata, obtained before the file was read, or {@code null} if not available.
+		 * @param stateEntry - The entry of the file in the backup state or {@code null} if the file is not in the
+		 * backup state.
+		 * @param isEqual - Whether the file is equal to the file in the backup state.
+		 */
+		private FileComparison(String relPath, File file, FileStat stat, StateEntry stateEntry, boolean isEqual) {
+			this.relPath = relPath;
+			this.file = file;
+			this.stat = stat;
+			this.stateEntry = stateEntry;
+			this.isEqual = isEqual;
+		}
 	}
 }
@@ -0,0 +1,357 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import io.github.pieter12345.woeshbackup.utils.Utils;
+
+/**
+ * A staging copy of a directory, which can be backed up at leisure while the original directory is in use again.
+ * The staging copy is kept between backups, so that only files of which the size or last modified time changed have to
+ * be copied to bring it up to date. Files are cloned using reflinks when the file system supports them, which shares
+ * their data with the original files until either of them is written. Otherwise, they are copied.
+ * @author P.J.S. Kools
+ */
+public class StagingDirectory {
+	
+	private final File stagingDir;
+	private boolean useReflinks;
+	private boolean reflinksSupported = false;
+	
+	// The maximum amount of files that are cloned by a single copy process.
+	private static final int MAX_FILES_PER_CLONE = 256;
+	
+	/**
+	 * Creates a new {@link StagingDirectory}.
+	 * @param stagingDir - The directory to store the staging copy in. Existing files in this directory that are not in
+	 * the synchronized directory are removed.
+	 * @param useReflinks - When {@code true}, files are cloned using reflinks unless the first attempt to clone files
+	 * fails, for example because the file system or the operating system does not support them. Otherwise, files are
+	 * always copied.
+	 */
+	public StagingDirectory(File stagingDir, boolean useReflinks) {
+		Objects.requireNonNull(stagingDir);
+		this.stagingDir = stagingDir;
+		this.useReflinks = useReflinks && File.separatorChar == '/';
+	}
+	
+	/**
+	 * Brings the staging copy up to date with the given directory. Files and directories that do not exist in the
+	 * given directory or that are ignored are removed from the staging copy.
+	 * The last modified time of copied files is preserved.
+	 * @param sourceDir - The directory to copy.
+	 * @param ignorePaths - The relative paths of the files and directories in the source directory to ignore.
+	 * @return The result of the synchronization.
+	 * @throws IOException When an I/O error occurs. The staging copy might be partially updated in that case.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	public SyncResult sync(File sourceDir, Collection<String> ignorePaths) throws IOException, InterruptedException {
+		Path stagingPath = this.stagingDir.toPath();
+		Files.createDirectories(stagingPath);
+		
+		// Create the directories in the staging copy and list the files that are missing or have different metadata.
+		Set<String> sourcePaths = new HashSet<String>();
+		Map<String, FileTime> changedFiles = new LinkedHashMap<String, FileTime>();
+		for(FileWalker it = new FileWalker(sourceDir, ignorePaths); it.hasNext();) {
+			Utils.checkInterrupt();
+			FileWalker.WalkedFile walkedFile = it.next();
+			String relPath = walkedFile.getRelativePath();
+			BasicFileAttributes attributes = walkedFile.getAttributes();
+			sourcePaths.add(relPath);
+			Path target = stagingPath.resolve(relPath);
+			BasicFileAttributes targetAttributes = readAttributes(target);
+			if(walkedFile.isDirectory()) {
+				if(targetAttributes != null && !targetAttributes.isDirectory()) {
+					Files.delete(target);
+				}
+				Files.createDirectories(target);
+			} else if(attributes == null || targetAttributes == null || !targetAttributes.isRegularFile()
+					|| targetAttributes.size() != attributes.size()
+					|| !targetAttributes.lastModifiedTime().equals(attributes.lastModifiedTime())) {
+				if(targetAttributes != null && targetAttributes.isDirectory()) {
+					deleteRecursively(target);
+				}
+				changedFiles.put(relPath, (attributes != null ? attributes.lastModifiedTime() : null));
+			}
+		}
+		
+		// Clone the changed files, copying them when they cannot be cloned.
+		boolean usedReflinks = this.useReflinks;
+		Set<String> clonedFiles = (this.useReflinks
+				? this.cloneFiles(sourceDir.toPath(), stagingPath, changedFiles.keySet()) : Collections.emptySet());
+		for(Entry<String, FileTime> entry : changedFiles.entrySet()) {
+			Utils.checkInterrupt();
+			String relPath = entry.getKey();
+			if(!clonedFiles.contains(relPath)) {
+				usedReflinks = false;
+				try {
+					copyFile(sourceDir.toPath().resolve(relPath), stagingPath.resolve(relPath), entry.getValue());
+				} catch (NoSuchFileException e) {
+					sourcePaths.remove(relPath); // The file was removed after it was listed.
+				}
+			}
+		}
+		
+		// Remove the files that are not in the source directory, removing the contents of directories first.
+		List<Path> removedPaths = new ArrayList<Path>();
+		for(FileWalker it = new FileWalker(this.stagingDir, Collections.emptySet()); it.hasNext();) {
+			FileWalker.WalkedFile walkedFile = it.next();
+			if(!sourcePaths.contains(walkedFile.getRelativePath())) {
+				removedPaths.add(walkedFile.getPath());
+			}
+		}
+		for(int i = removedPaths.size() - 1; i >= 0; i--) {
+			Files.deleteIfExists(removedPaths.get(i));
+		}
+		return new SyncResult(changedFiles.size(), removedPaths.size(), usedReflinks && !changedFiles.isEmpty());
+	}
+	
+	/**
+	 * Removes the staging copy.
+	 * @throws IOException When an I/O error occurs.
+	 */
+	public void delete() throws IOException {
+		if(this.stagingDir.exists()) {
+			deleteRecursively(this.stagingDir.toPath());
+		}
+	}
+	
+	/**
+	 * Gets the directory containing the staging copy.
+	 * @return The staging directory.
+	 */
+	public File getDir() {
+		return this.stagingDir;
+	}
+	
+	/**
+	 * Clones the given files using reflinks with their last modified time, in batches per directory.
+	 * When a batch fails to clone, its files are cloned one by one, so that only the files that cannot be cloned have
+	 * to be copied. When cloning fails before any file has been cloned, reflinks are assumed to be unsupported and are
+	 * no longer used by this {@link StagingDirectory}.
+	 * @param sourcePath - The source directory.
+	 * @param targetPath - The target directory.
+	 * @param relPaths - The relative paths of the files to clone.
+	 * @return The relative paths of the files that were cloned.
+	 * @throws InterruptedException When the current Thread is interrupted.
+	 */
+	private Set<String> cloneFiles(Path sourcePath, Path targetPath, Collection<String> relPaths)
+			throws InterruptedException {
+		
+		// Group the files by directory, since a single copy process copies files to a single directory.
+		Map<String, List<String>> relPathsPerDir = new LinkedHashMap<String, List<String>>();
+		for(String relPath : relPaths) {
+			String relDirPath = relPath.substring(0, relPath.lastIndexOf(File.separatorChar) + 1);
+			List<String> dirRelPaths = relPathsPerDir.get(relDirPath);
+			if(dirRelPaths == null) {
+				dirRelPaths = new ArrayList<String>();
+				relPathsPerDir.put(relDirPath, dirRelPaths);
+			}
+			dirRelPaths.add(relPath);
+		}
+		
+		// Clone the files.
+		Set<String> clonedFiles = new HashSet<String>();
+		for(Entry<String, List<String>> entry : relPathsPerDir.entrySet()) {
+			List<String> dirRelPaths = entry.getValue();
+			for(int i = 0; i < dirRelPaths.size(); i += MAX_FILES_PER_CLONE) {
+				List<String> batch = dirRelPaths.subList(i, Math.min(i + MAX_FILES_PER_CLONE, dirRelPaths.size()));
+				List<String> command = new ArrayList<String>();
+				Collections.addAll(command, "cp", "--reflink=always", "--preserve=timestamps", "-t",
+						targetPath.resolve(entry.getKey()).toString(), "--");
+				for(String relPath : batch) {
+					command.add(sourcePath.resolve(relPath).toString());
+				}
+				if(runProcess(command)) {
+					this.reflinksSupported = true;
+					clonedFiles.addAll(batch);
+					continue;
+				}
+				
+				// Stop using reflinks if they have never worked. Otherwise, clone the files in the batch one by one,
+				// since it is unknown which of them failed. A file can for example be removed while cloning.
+				if(!this.reflinksSupported) {
+					this.useReflinks = false;
+					return clonedFiles;
+				}
+				int argCount = command.size() - batch.size();
+				for(String relPath : batch) {
+					command.subList(argCount, command.size()).clear();
+					command.add(sourcePath.resolve(relPath).toString());
+					if(runProcess(command)) {
+						clonedFiles.add(relPath);
+					}
+				}
+			}
+		}
+		return clonedFiles;
+	}
+	
+	/**
+	 * Runs the given command, discarding its output.
+	 * @param command - The command.
+	 * @return {@code true} if the process exited successfully, {@code false} if it failed or could not be started.
+	 * @throws InterruptedException When the current Thread is interrupted. The process is destroyed in that case.
+	 */
+	private static boolean runProcess(List<String> command) throws InterruptedException {
+		Process process;
+		try {
+			process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		} catch (IOException e) {
+			return false;
+		}
+		try {
+			InputStream inStream = process.getInputStream();
+			try {
+				byte[] buffer = new byte[1024];
+				while(inStream.read(buffer) != -1) {
+					Utils.checkInterrupt();
+				}
+			} finally {
+				inStream.close();
+			}
+			return process.waitFor() == 0;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			process.destroy();
+		}
+	}
+	
+	/**
+	 * Copies the given file, overwriting the target file if it exists.
+	 * @param source - The file to copy.
+	 * @param target - The target file.
+	 * @param lastModifiedTime - The last modified time to set on the target file or {@code null} to not set it.
+	 * @throws IOException When an I/O error occurs.
+	 */
+	private static void copyFile(Path source, Path target, FileTime lastModifiedTime) throws IOException {
+		FileChannel inChannel = FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			FileChannel outChannel = FileChannel.open(target, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				long size = inChannel.size();
+				long position = 0;
+				while(position < size) {
+					long count = inChannel.transferTo(position, size - position, outChannel);
+					if(count <= 0) {
+						break; // The file was truncated while copying.
+					}
+					position += count;
+				}
+			} finally {
+				outChannel.close();
+			}
+		} finally {
+			inChannel.close();
+		}
+		if(lastModifiedTime != null) {
+			Files.setLastModifiedTime(target, lastModifiedTime);
+		}
+	}
+	
+	/**
+	 * Reads the attributes of the file at the given path.
+	 * @param path - The path.
+	 * @return The attributes or {@code null} if the file does not exist or its attributes could not be read.
+	 */
+	private static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Removes the given file or directory including its contents.
+	 * @param path - The path of the file or directory.
+	 * @throws IOException When an I/O error occurs.
+	 */
+	private static void deleteRecursively(Path path) throws IOException {
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if(e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Represents the result of a staging copy synchronization.
+	 * @author P.J.S. Kools
+	 */
+	public static class SyncResult {
+		private final int copiedFileCount;
+		private final int removedFileCount;
+		private final boolean usedReflinks;
+		
+		/**
+		 * Creates a new {@link SyncResult}.
+		 * @param copiedFileCount - The amount of files that were cloned or copied.
+		 * @param removedFileCount - The amount of files and directories that were removed.
+		 * @param usedReflinks - Whether all copied files were cloned using reflinks.
+		 */
+		public SyncResult(int copiedFileCount, int removedFileCount, boolean usedReflinks) {
+			this.copiedFileCount = copiedFileCount;
+			this.removedFileCount = removedFileCount;
+			this.usedReflinks = usedReflinks;
+		}
+		
+		/**
+		 * Gets the amount of files that were cloned or copied.
+		 * @return The amount of copied files.
+		 */
+		public int getCopiedFileCount() {
+			return this.copiedFileCount;
+		}
+		
+		/**
+		 * Gets the amount of files and directories that were removed from the staging copy.
+		 * @return The amount of removed files.
+		 */
+		public int getRemovedFileCount() {
+			return this.removedFileCount;
+		}
+		
+		/**
+		 * Checks whether all copied files were cloned using reflinks.
+		 * @return {@code true} if at least one file was copied and all copied files were cloned, {@code false}
+		 * otherwise.
+		 */
+		public boolean usedReflinks() {
+			return this.usedReflinks;
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A persisted cache containing the size, last modified time and file key (device and inode on most systems) of files
+ * that were found equal to the file in the backup state during the last backup.
+ * A file that still has the same metadata is assumed to be unchanged, so that it does not have to be read and compared.
+ * The cache is only valid for the backup state that it was created for, which is identified by the creation time of
+ * the most recent backup part at that time.
+ * @author P.J.S. Kools
+ */
+public class StatCache {
+	
+	private final File cacheFile;
+	private final int fullRehashInterval;
+	
+	private Map<String, FileStat> stats = null;
+	private Map<String, FileStat> newStats = null;
+	private long anchorTime = -1;
+	private int runsSinceFullRehash = 0;
+	private boolean useCache = false;
+	private long runStartNanos = 0;
+	
+	private static final String HEADER = "#statcache 1";
+	private static final String FOOTER = "#end";
+	
+	// Files modified this close to the start of a run are not recorded, since they might be modified again
+	// during the run without changing their last modified time on file systems with a coarse time resolution.
+	private static final long RACY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+	
+	/**
+	 * Creates a new {@link StatCache} that is persisted in the given file.
+	 * @param cacheFile - The file to store the cache in.
+	 * @param fullRehashInterval - Every this amount of backup runs, the cache will not be used so that all files are
+	 * compared by content. Use 0 or less to never force such a run.
+	 */
+	public StatCache(File cacheFile, int fullRehashInterval) {
+		Objects.requireNonNull(cacheFile);
+		this.cacheFile = cacheFile;
+		this.fullRehashInterval = fullRehashInterval;
+	}
+	
+	/**
+	 * Starts a new backup run. This loads the cache from the storage if it was not loaded yet and discards all cached
+	 * entries if they were not created for the given backup state.
+	 * @param latestBackupPartTime - The creation time of the most recent backup part in the backup state or -1 if
+	 * there are no backup parts.
+	 * @return {@code true} if cached entries can be used during this run, {@code false} otherwise.
+	 * @throws IOException When an I/O error occurs while reading the cache file.
+	 * When this is thrown, the cache will be empty for this run.
+	 */
+	public boolean beginRun(long latestBackupPartTime) throws IOException {
+		this.newStats = new HashMap<String, FileStat>();
+		this.useCache = false;
+		this.runStartNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+		if(this.stats == null) {
+			this.stats = new HashMap<String, FileStat>();
+			this.read();
+		}
+		
+		// Discard the cache if it does not belong to the current backup state.
+		if(this.anchorTime != latestBackupPartTime || latestBackupPartTime < 0) {
+			this.stats.clear();
+			this.runsSinceFullRehash = 0;
+			return false;
+		}
+		
+		// Force a full content comparison every fullRehashInterval runs.
+		if(this.fullRehashInterval > 0 && ++this.runsSinceFullRehash >= this.fullRehashInterval) {
+			this.runsSinceFullRehash = 0;
+			return false;
+		}
+		this.useCache = true;
+		return true;
+	}
+	
+	/**
+	 * Checks whether the file at the given relative path has the same metadata as when it was last recorded.
+	 * This always returns {@code false} when the current run does not use the cached entries.
+	 * @param relPath - The relative path of the file.
+	 * @param stat - The current metadata of the file.
+	 * @return {@code true} if the file is known to be unchanged, {@code false} otherwise.
+	 */
+	public boolean isUnchanged(String relPath, FileStat stat) {
+		if(!this.useCache || stat == null) {
+			return false;
+		}
+		FileStat cachedStat = this.stats.get(relPath);
+		return cachedStat != null && cachedStat.equals(stat);
+	}
+	
+	/**
+	 * Records the metadata of a file that is equal to its version in the backup state after the current run.
+	 * Files that were modified shortly before the start of the run are not recorded.
+	 * @param relPath - The relative path of the file.
+	 * @param stat - The metadata of the file, obtained before its contents were read.
+	 * @throws IllegalStateException When no run was started.
+	 */
+	public void record(String relPath, FileStat stat) throws IllegalStateException {
+		if(this.newStats == null) {
+			throw new IllegalStateException("No stat cache run was started.");
+		}
+		if(stat != null && stat.lastModifiedNanos < this.runStartNanos - RACY_WINDOW_NANOS) {
+			this.newStats.put(relPath, stat);
+		}
+	}
+	
+	/**
+	 * Carries the cached entries of files that were not examined during the current run over to the entries recorded
+	 * during this run. This should be called before finishing a run that did not examine all files, since the files
+	 * that it did not examine are still equal to their version in the backup state.
+	 * Does nothing if the cached entries do not belong to the backup state of the current run.
+	 * @param isExamined - A predicate that returns {@code true} for relative paths that were examined during this run.
+	 * @throws IllegalStateException When no run was started.
+	 */
+	public void carryOver(Predicate<String> isExamined) throws IllegalStateException {
+		if(this.newStats == null) {
+			throw new IllegalStateException("No stat cache run was started.");
+		}
+		for(Entry<String, FileStat> entry : this.stats.entrySet()) {
+			if(!isExamined.test(entry.getKey())) {
+				this.newStats.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Finishes the current run, replacing the cached entries by the entries recorded during this run and storing
+	 * the cache.
+	 * @param latestBackupPartTime - The creation time of the most recent backup part in the backup state after the
+	 * run or -1 if there are no backup parts.
+	 * @throws IOException When an I/O error occurs while writing the cache file.
+	 */
+	public void finishRun(long latestBackupPartTime) throws IOException {
+		if(this.newStats == null) {
+			return;
+		}
+		this.stats = this.newStats;
+		this.newStats = null;
+		this.useCache = false;
+		this.anchorTime = latestBackupPartTime;
+		this.write();
+	}
+	
+	/**
+	 * Aborts the current run, discarding all entries recorded during this run.
+	 */
+	public void abortRun() {
+		this.newStats = null;
+		this.useCache = false;
+	}
+	
+	/**
+	 * Moves the cache to a new backup state when the most recent backup part was replaced without changing the
+	 * backup state, which happens when it is merged with older backup parts.
+	 * Does nothing if the cache does not belong to the given old state.
+	 * @param oldLatestBackupPartTime - The creation time of the most recent backup part before the change.
+	 * @param newLatestBackupPartTime - The creation time of the most recent backup part after the change.
+	 * @throws IOException When an I/O error occurs while reading or writing the cache file.
+	 */
+	public void rebase(long oldLatestBackupPartTime, long newLatestBackupPartTime) throws IOException {
+		if(oldLatestBackupPartTime == newLatestBackupPartTime) {
+			return;
+		}
+		if(this.stats == null) {
+			this.stats = new HashMap<String, FileStat>();
+			this.read();
+		}
+		if(this.anchorTime == oldLatestBackupPartTime) {
+			this.anchorTime = newLatestBackupPartTime;
+			this.write();
+		}
+	}
+	
+	/**
+	 * Invalidates the cache, causing all files to be compared by content during the next run.
+	 * This should be called when the backup state changes outside of a backup run, for example when a corrupted
+	 * backup part is removed.
+	 * @throws IOException When the cache file could not be deleted.
+	 */
+	public void invalidate() throws IOException {
+		this.stats = new HashMap<String, FileStat>();
+		this.anchorTime = -1;
+		this.runsSinceFullRehash = 0;
+		Files.deleteIfExists(this.cacheFile.toPath());
+	}
+	
+	/**
+	 * Gets the file in which this cache is stored.
+	 * @return The cache file.
+	 */
+	public File getCacheFile() {
+		return this.cacheFile;
+	}
+	
+	/**
+	 * Gets the full rehash interval.
+	 * @return The amount of runs after which all files will be compared by content, or 0 or less for never.
+	 */
+	public int getFullRehashInterval() {
+		return this.fullRehashInterval;
+	}
+	
+	private void read() throws IOException {
+		
+		/* Cache file format:
+		 * #statcache 1
+		 * @<anchorTime>\t<runsSinceFullRehash>
+		 * <size>\t<lastModifiedNanos>\t<fileKey>\t<relPath>
+		 * #end
+		 *
+		 */
+		
+		// Leave the cache empty if the cache file does not exist.
+		if(!this.cacheFile.isFile()) {
+			return;
+		}
+		
+		// Read the cache file. Corrupted cache files are ignored, since they only cause files to be compared.
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(this.cacheFile), StandardCharsets.UTF_8));
+		try {
+			if(!HEADER.equals(reader.readLine())) {
+				return;
+			}
+			String line = reader.readLine();
+			if(line == null || !line.startsWith("@")) {
+				return;
+			}
+			String[] split = line.substring(1).split("\t");
+			long anchorTime = Long.parseLong(split[0]);
+			int runsSinceFullRehash = Integer.parseInt(split[1]);
+			Map<String, FileStat> stats = new HashMap<String, FileStat>();
+			while((line = reader.readLine()) != null) {
+				if(line.equals(FOOTER)) {
+					this.stats = stats;
+					this.anchorTime = anchorTime;
+					this.runsSinceFullRehash = runsSinceFullRehash;
+					return;
+				}
+				split = line.split("\t", 4);
+				String fileKey = (split[2].isEmpty() ? null : split[2]);
+				stats.put(split[3].replace('/', File.separatorChar),
+						new FileStat(Long.parseLong(split[0]), Long.parseLong(split[1]), fileKey));
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			return;
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private void write() throws IOException {
+		
+		// Write the cache to a temporary file.
+		File tempFile = new File(this.cacheFile.getParentFile(), this.cacheFile.getName() + ".tmp");
+		if(!this.cacheFile.getParentFile().exists()) {
+			this.cacheFile.getParentFile().mkdirs();
+		}
+		BufferedWriter writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+		try {
+			writer.write(HEADER);
+			writer.write('\n');
+			writer.write("@" + this.anchorTime + "\t" + this.runsSinceFullRehash + "\n");
+			for(Entry<String, FileStat> entry : this.stats.entrySet()) {
+				FileStat stat = entry.getValue();
+				writer.write(stat.size + "\t" + stat.lastModifiedNanos + "\t"
+						+ (stat.fileKey == null ? "" : stat.fileKey) + "\t"
+						+ entry.getKey().replace(File.separatorChar, '/') + "\n");
+			}
+			writer.write(FOOTER);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+		
+		// Replace the cache file by the temporary file.
+		try {
+			Files.move(tempFile.toPath(), this.cacheFile.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), this.cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Represents the metadata of a file that is used to detect changes without reading the file.
+	 * @author P.J.S. Kools
+	 */
+	public static class FileStat {
+		private final long size;
+		private final long lastModifiedNanos;
+		private final String fileKey;
+		
+		/**
+		 * Creates a new {@link FileStat}.
+		 * @param size - The file size in bytes.
+		 * @param lastModifiedNanos - The last modified time of the file in nanoseconds since the epoch.
+		 * @param fileKey - The string representation of the file key (includes the inode on most systems)
+		 * or {@code null} if the file system does not provide file keys.
+		 */
+		public FileStat(long size, long lastModifiedNanos, String fileKey) {
+			this.size = size;
+			this.lastModifiedNanos = lastModifiedNanos;
+			this.fileKey = fileKey;
+		}
+		
+		/**
+		 * Gets the {@link FileStat} of the given file.
+		 * @param file - The file.
+		 * @return The {@link FileStat} of the file.
+		 * @throws IOException When an I/O error occurs while reading the file attributes.
+		 */
+		public static FileStat of(File file) throws IOException {
+			return of(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+		}
+		
+		/**
+		 * Gets the {@link FileStat} from the given file attributes.
+		 * @param attrs - The file attributes.
+		 * @return The {@link FileStat} of the file.
+		 */
+		public static FileStat of(BasicFileAttributes attrs) {
+			Object fileKey = attrs.fileKey();
+			return new FileStat(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+					(fileKey == null ? null : fileKey.toString()));
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof FileStat)) {
+				return false;
+			}
+			FileStat stat = (FileStat) obj;
+			return this.size == stat.size && this.lastModifiedNanos == stat.lastModifiedNanos
+					&& Objects.equals(this.fileKey, stat.fileKey);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.size, this.lastModifiedNanos, this.fileKey);
+		}
+	}
+}
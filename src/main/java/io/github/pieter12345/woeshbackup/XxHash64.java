@@ -0,0 +1,180 @@
+package io.github.pieter12345.woeshbackup;
+
+/**
+ * A streaming implementation of the 64-bit xxHash (XXH64) non-cryptographic hash algorithm.
+ * Instances are not thread-safe.
+ * @author P.J.S. Kools
+ */
+public class XxHash64 {
+	
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+	
+	private final long seed;
+	private long v1;
+	private long v2;
+	private long v3;
+	private long v4;
+	private final byte[] buffer = new byte[32];
+	private int bufferLength;
+	private long totalLength;
+	
+	/**
+	 * Creates a new {@link XxHash64} with seed 0.
+	 */
+	public XxHash64() {
+		this(0);
+	}
+	
+	/**
+	 * Creates a new {@link XxHash64} with the given seed.
+	 * @param seed - The seed.
+	 */
+	public XxHash64(long seed) {
+		this.seed = seed;
+		this.reset();
+	}
+	
+	/**
+	 * Resets this hash to its initial state.
+	 */
+	public void reset() {
+		this.v1 = this.seed + PRIME1 + PRIME2;
+		this.v2 = this.seed + PRIME2;
+		this.v3 = this.seed;
+		this.v4 = this.seed - PRIME1;
+		this.bufferLength = 0;
+		this.totalLength = 0;
+	}
+	
+	/**
+	 * Updates this hash with the given bytes.
+	 * @param bytes - The buffer containing the bytes.
+	 * @param offset - The offset of the bytes in the buffer.
+	 * @param length - The amount of bytes.
+	 */
+	public void update(byte[] bytes, int offset, int length) {
+		this.totalLength += length;
+		int end = offset + length;
+		
+		// Complete the buffered stripe.
+		if(this.bufferLength > 0) {
+			int count = Math.min(length, 32 - this.bufferLength);
+			System.arraycopy(bytes, offset, this.buffer, this.bufferLength, count);
+			this.bufferLength += count;
+			offset += count;
+			if(this.bufferLength < 32) {
+				return;
+			}
+			this.processStripe(this.buffer, 0);
+			this.bufferLength = 0;
+		}
+		
+		// Process full stripes directly from the given buffer.
+		for(; offset + 32 <= end; offset += 32) {
+			this.processStripe(bytes, offset);
+		}
+		
+		// Buffer the remaining bytes.
+		this.bufferLength = end - offset;
+		System.arraycopy(bytes, offset, this.buffer, 0, this.bufferLength);
+	}
+	
+	/**
+	 * Updates this hash with the given long in little-endian byte order.
+	 * @param value - The value.
+	 */
+	public void updateLong(long value) {
+		byte[] bytes = new byte[8];
+		for(int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (value >>> (8 * i));
+		}
+		this.update(bytes, 0, 8);
+	}
+	
+	/**
+	 * Gets the hash of the bytes that this hash was updated with. This does not change the state of this hash.
+	 * @return The hash value.
+	 */
+	public long getValue() {
+		long hash;
+		if(this.totalLength >= 32) {
+			hash = Long.rotateLeft(this.v1, 1) + Long.rotateLeft(this.v2, 7)
+					+ Long.rotateLeft(this.v3, 12) + Long.rotateLeft(this.v4, 18);
+			hash = mergeRound(hash, this.v1);
+			hash = mergeRound(hash, this.v2);
+			hash = mergeRound(hash, this.v3);
+			hash = mergeRound(hash, this.v4);
+		} else {
+			hash = this.seed + PRIME5;
+		}
+		hash += this.totalLength;
+		
+		// Process the buffered bytes.
+		int offset = 0;
+		for(; offset + 8 <= this.bufferLength; offset += 8) {
+			hash ^= round(0, readLong(this.buffer, offset));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if(offset + 4 <= this.bufferLength) {
+			hash ^= (readInt(this.buffer, offset) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			offset += 4;
+		}
+		for(; offset < this.bufferLength; offset++) {
+			hash ^= (this.buffer[offset] & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+		
+		// Avalanche.
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+	
+	/**
+	 * Computes the hash of the given bytes with seed 0.
+	 * @param bytes - The buffer containing the bytes.
+	 * @param offset - The offset of the bytes in the buffer.
+	 * @param length - The amount of bytes.
+	 * @return The hash value.
+	 */
+	public static long hash(byte[] bytes, int offset, int length) {
+		XxHash64 hash = new XxHash64();
+		hash.update(bytes, offset, length);
+		return hash.getValue();
+	}
+	
+	private void processStripe(byte[] bytes, int offset) {
+		this.v1 = round(this.v1, readLong(bytes, offset));
+		this.v2 = round(this.v2, readLong(bytes, offset + 8));
+		this.v3 = round(this.v3, readLong(bytes, offset + 16));
+		this.v4 = round(this.v4, readLong(bytes, offset + 24));
+	}
+	
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME1;
+	}
+	
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0, value);
+		return acc * PRIME1 + PRIME4;
+	}
+	
+	private static long readLong(byte[] bytes, int offset) {
+		return (readInt(bytes, offset) & 0xFFFFFFFFL) | ((long) readInt(bytes, offset + 4) << 32);
+	}
+	
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+				| ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24);
+	}
+}
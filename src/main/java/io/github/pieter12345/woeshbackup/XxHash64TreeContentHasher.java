@@ -0,0 +1,130 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * A {@link ContentHasher} that splits content into fixed size leaves, hashes every leaf using xxHash64 and hashes
+ * the leaf hashes together with the content length into a root hash. Since leaves are independent, large files are
+ * hashed in parallel. The resulting hash does not depend on whether the content was hashed in parallel.
+ * @author P.J.S. Kools
+ */
+public class XxHash64TreeContentHasher implements ContentHasher {
+	
+	// The size of the leaves that are hashed independently.
+	private static final int LEAF_SIZE = 1024 * 1024;
+	
+	// The minimum amount of leaves in a file for it to be hashed in parallel.
+	private static final int MIN_PARALLEL_LEAF_COUNT = 8;
+	
+	/**
+	 * Creates a new {@link XxHash64TreeContentHasher}.
+	 */
+	public XxHash64TreeContentHasher() {
+	}
+	
+	@Override
+	public String getName() {
+		return "xxh64-tree";
+	}
+	
+	@Override
+	public Digest newDigest() {
+		return new TreeDigest();
+	}
+	
+	@Override
+	public String hash(File file) throws IOException {
+		long fileLength = file.length();
+		long leafCountLong = (fileLength + LEAF_SIZE - 1) / LEAF_SIZE;
+		if(leafCountLong < MIN_PARALLEL_LEAF_COUNT || leafCountLong > Integer.MAX_VALUE) {
+			return ContentHasher.super.hash(file);
+		}
+		int leafCount = (int) leafCountLong;
+		
+		// Hash the leaves in parallel using positional reads.
+		long[] leafHashes;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			leafHashes = IntStream.range(0, leafCount).parallel().mapToLong((leafIndex) -> {
+				long position = (long) leafIndex * LEAF_SIZE;
+				int length = (int) Math.min(LEAF_SIZE, fileLength - position);
+				ByteBuffer buffer = ByteBuffer.allocate(length);
+				try {
+					while(buffer.hasRemaining()) {
+						if(channel.read(buffer, position + buffer.position()) == -1) {
+							throw new IOException("File was truncated while being hashed: " + file.getAbsolutePath());
+						}
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return XxHash64.hash(buffer.array(), 0, length);
+			}).toArray();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
+		}
+		
+		// Hash the leaf hashes into the root hash.
+		XxHash64 rootHash = new XxHash64();
+		for(long leafHash : leafHashes) {
+			rootHash.updateLong(leafHash);
+		}
+		return toRootHash(rootHash, fileLength);
+	}
+	
+	private static String toRootHash(XxHash64 rootHash, long length) {
+		rootHash.updateLong(length);
+		String hex = Long.toHexString(rootHash.getValue());
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+	
+	/**
+	 * A {@link Digest} that sequentially computes the same hash as the parallel file hash.
+	 */
+	private static class TreeDigest implements Digest {
+		
+		private final XxHash64 leafHash = new XxHash64();
+		private final XxHash64 rootHash = new XxHash64();
+		private int leafLength = 0;
+		private long length = 0;
+		
+		/**
+		 * Creates a new {@link TreeDigest}.
+		 */
+		public TreeDigest() {
+		}
+		
+		@Override
+		public void update(byte[] bytes, int offset, int length) {
+			while(length > 0) {
+				int count = Math.min(length, LEAF_SIZE - this.leafLength);
+				this.leafHash.update(bytes, offset, count);
+				this.leafLength += count;
+				this.length += count;
+				offset += count;
+				length -= count;
+				if(this.leafLength == LEAF_SIZE) {
+					this.rootHash.updateLong(this.leafHash.getValue());
+					this.leafHash.reset();
+					this.leafLength = 0;
+				}
+			}
+		}
+		
+		@Override
+		public String digest() {
+			if(this.leafLength > 0 || this.length == 0) {
+				this.rootHash.updateLong(this.leafHash.getValue());
+			}
+			return toRootHash(this.rootHash, this.length);
+		}
+	}
+}
@@ -16,6 +16,10 @@ import java.util.List;
 public class ZipFileBackupPartFactory implements BackupPartFactory {
 	
 	private File storageDir;
+	private int compressionThreadCount = 1;
+	private ContentHasher contentHasher = ContentHasher.XXH64_TREE;
+	private CompressionPolicy compressionPolicy = CompressionPolicy.DEFLATE_ALL;
+	private CompressionCodec codec = CompressionCodec.DEFLATE;
 	
 	private static final DateFormat BACKUP_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
 	
@@ -34,7 +38,11 @@ public class ZipFileBackupPartFactory implements BackupPartFactory {
 	}
 	
 	private BackupPart createNew(long time, String backupName) {
-		return new ZippedBackupPart(this.storageDir, backupName, time);
+		ZippedBackupPart part = new ZippedBackupPart(
+				this.storageDir, backupName, time, this.compressionThreadCount, this.contentHasher);
+		part.setCompressionPolicy(this.compressionPolicy);
+		part.setCodec(this.codec);
+		return part;
 	}
 	
 	@Override
@@ -94,4 +102,77 @@ public class ZipFileBackupPartFactory implements BackupPartFactory {
 	public void setStorageDir(File storageDir) {
 		this.storageDir = storageDir;
 	}
+	
+	/**
+	 * Gets the amount of threads used to compress files in created backup parts.
+	 * @return The amount of threads.
+	 */
+	public int getCompressionThreadCount() {
+		return this.compressionThreadCount;
+	}
+	
+	/**
+	 * Sets the amount of threads used to compress files in created backup parts.
+	 * The created backup parts do not depend on this amount.
+	 * @param compressionThreadCount - The amount of threads.
+	 * When 1, files are compressed on the thread that adds them to the backup part.
+	 * @throws IllegalArgumentException When the given amount of threads is less than 1.
+	 */
+	public void setCompressionThreadCount(int compressionThreadCount) throws IllegalArgumentException {
+		if(compressionThreadCount < 1) {
+			throw new IllegalArgumentException(
+					"The amount of threads must be at least 1. Found: " + compressionThreadCount);
+		}
+		this.compressionThreadCount = compressionThreadCount;
+	}
+	
+	/**
+	 * Gets the content hasher used to hash files in created backup parts.
+	 * @return The content hasher.
+	 */
+	public ContentHasher getContentHasher() {
+		return this.contentHasher;
+	}
+	
+	/**
+	 * Sets the content hasher used to hash files in created backup parts.
+	 * Existing backup parts keep using the content hasher that they were created with.
+	 * @param contentHasher - The content hasher.
+	 */
+	public void setContentHasher(ContentHasher contentHasher) {
+		this.contentHasher = contentHasher;
+	}
+	
+	/**
+	 * Gets the compression policy used in created backup parts.
+	 * @return The compression policy.
+	 */
+	public CompressionPolicy getCompressionPolicy() {
+		return this.compressionPolicy;
+	}
+	
+	/**
+	 * Sets the compression policy used in created backup parts.
+	 * @param compressionPolicy - The compression policy.
+	 */
+	public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+		this.compressionPolicy = compressionPolicy;
+	}
+	
+	/**
+	 * Gets the codec used to compress files in created backup parts.
+	 * @return The codec.
+	 */
+	public CompressionCodec getCodec() {
+		return this.codec;
+	}
+	
+	/**
+	 * Sets the codec used to compress files in created backup parts.
+	 * Existing backup parts can be read regardless of the codec that they were created with.
+	 * @param codec - The codec.
+	 */
+	public void setCodec(CompressionCodec codec) {
+		this.codec = codec;
+	}
 }
@@ -1,23 +1,65 @@
 package io.github.pieter12345.woeshbackup;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 /**
  * This class contains methods for reading zip files.
+ * Entries that were compressed by a {@link CompressionCodec} other than deflate are decoded transparently.
+ * Entries can also be read in their compressed form using {@link #readAllRaw(RawEntryHandler)}, so that they can be
+ * copied to another zip file without decompressing and recompressing them.
+ * Single entries and selections of entries are located using the central directory, which is read once and cached
+ * until the zip file changes, so that other entries do not have to be read.
  * @author P.J.S. Kools
  */
 public class ZipFileReader {
 	
 	private final File zipFile;
+	private EntryIndex index = null;
+	
+	private static final int BUFFER_SIZE = 65536;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int ZIP64_END_SIZE = 56;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int END_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
 	
 	/**
 	 * Creates a new {@link ZipFileReader} from the given file.
@@ -30,48 +72,46 @@ public class ZipFileReader {
 	
 	/**
 	 * read method.
-	 * Reads the entry at the given path.
+	 * Reads the entry at the given path, locating it using the central directory.
 	 * @param pathInZip - The file path in the zip file.
 	 * @return The bytes of the file. Returns null if the file was not found or if the file was a directory.
 	 * @throws IOException If an I/O error occurs.
 	 */
 	public byte[] read(String pathInZip) throws IOException {
-		ZipInputStream inStream = new ZipInputStream(new FileInputStream(this.zipFile));
-		pathInZip = pathInZip.replace(File.separatorChar, '/');
-		ZipEntry entry;
-		while((entry = inStream.getNextEntry()) != null) {
-			if(entry.getName().equals(pathInZip)) {
-				long size = entry.getSize();
-				if(size != -1) {
-					if(inStream.available() != 0) {
-						byte[] entryBytes = new byte[(int) size];
-						int amount = inStream.read(entryBytes);
-						if(amount != entryBytes.length) {
-							inStream.close();
-							throw new IOException("Could not read all bytes of a zip entry. Read: "
-									+ amount + ", expected: " + entryBytes.length);
-						}
-						inStream.closeEntry();
-						inStream.close();
-						return entryBytes;
-					}
-				} else {
-					ByteArrayOutputStream byteArrayOutStream = new ByteArrayOutputStream();
-					byte[] buffer = new byte[1024];
-					int amount;
-					// inStream.available() is not reliable and returns wrong values. This is reliable.
-					while((amount = inStream.read(buffer, 0, buffer.length)) != -1) {
-						byteArrayOutStream.write(buffer, 0, amount);
+		InputStream inStream = this.openStream(pathInZip);
+		return (inStream == null ? null : readFully(inStream));
+	}
+	
+	/**
+	 * Opens the entry at the given path without reading the entries before it, locating it using the central
+	 * directory.
+	 * @param pathInZip - The file path in the zip file.
+	 * @return A stream containing the bytes of the file. Returns null if the file was not found or if the file was
+	 * a directory. Closing the stream closes the zip file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public InputStream openStream(String pathInZip) throws IOException {
+		FileChannel channel = FileChannel.open(this.zipFile.toPath(), StandardOpenOption.READ);
+		try {
+			IndexEntry entry = this.getIndex(channel).entryMap.get(pathInZip.replace('/', File.separatorChar));
+			if(entry == null || entry.relPath.endsWith(File.separator)) {
+				channel.close();
+				return null;
+			}
+			return new FilterInputStream(new RawEntry(channel, entry).openStream()) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						channel.close();
 					}
-					inStream.closeEntry();
-					inStream.close();
-					return byteArrayOutStream.toByteArray();
 				}
-			}
-			inStream.closeEntry();
+			};
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
 		}
-		inStream.close();
-		return null;
 	}
 	
 	/**
@@ -87,8 +127,17 @@ public class ZipFileReader {
 		while((entry = inStream.getNextEntry()) != null) {
 			String relPath = entry.getName().replace('/', File.separatorChar);
 			byte[] bytes;
+			CompressionCodec codec;
+			try {
+				codec = getCodec(entry);
+			} catch (IOException e) {
+				inStream.close();
+				throw e;
+			}
 			if(entry.isDirectory()) {
 				bytes = null;
+			} else if(codec != null) {
+				bytes = readFully(codec.decode(new NonClosingInputStream(inStream)));
 			} else {
 				long size = entry.getSize();
 				if(size != -1) {
@@ -131,15 +180,313 @@ public class ZipFileReader {
 	public void readAll(FileEntryHandler handler) throws InvocationTargetException, IOException {
 		ZipInputStream inStream = new ZipInputStream(new FileInputStream(ZipFileReader.this.zipFile));
 		ZipEntry entry;
-		while((entry = inStream.getNextEntry()) != null) {
-			try {
-				handler.handle(new FileEntry(entry.getName().replace('/', File.separatorChar), inStream));
-			} catch (Throwable t) {
-				throw new InvocationTargetException(t);
+		try {
+			while((entry = inStream.getNextEntry()) != null) {
+				CompressionCodec codec = getCodec(entry);
+				InputStream entryInStream = (codec == null || entry.isDirectory()
+						? inStream : codec.decode(new NonClosingInputStream(inStream)));
+				try {
+					handler.handle(new FileEntry(entry.getName().replace('/', File.separatorChar), entryInStream));
+				} catch (Throwable t) {
+					throw new InvocationTargetException(t);
+				} finally {
+					if(entryInStream != inStream) {
+						entryInStream.close();
+					}
+				}
+				inStream.closeEntry();
 			}
-			inStream.closeEntry();
+		} finally {
+			inStream.close();
+		}
+	}
+	
+	/**
+	 * Reads the zip file entries at the given paths, locating them using the central directory, and passes them to
+	 * the given handler. Other entries are not read. The entries are passed in the order in which they are stored.
+	 * Note that the handler is not allowed to call any reading methods from this class.
+	 * @param relPaths - The relative paths of the entries to read. Paths that are not in the zip file are skipped.
+	 * @param handler - The handler for the zip file entry.
+	 * @throws InvocationTargetException If invoking the handler results in a throwable being thrown.
+	 * @throws IOException If an I/O error has occurred or if the zip file is invalid.
+	 */
+	public void readAll(Collection<String> relPaths,
+			FileEntryHandler handler) throws InvocationTargetException, IOException {
+		FileChannel channel = FileChannel.open(this.zipFile.toPath(), StandardOpenOption.READ);
+		try {
+			for(IndexEntry entry : this.getIndex(channel).getEntries(relPaths)) {
+				InputStream inStream = (entry.relPath.endsWith(File.separator)
+						? null : new RawEntry(channel, entry).openStream());
+				try {
+					handler.handle(new FileEntry(entry.relPath, inStream));
+				} catch (Throwable t) {
+					throw new InvocationTargetException(t);
+				} finally {
+					if(inStream != null) {
+						inStream.close();
+					}
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Reads all zip file entries in the order of the central directory and passes them to the given handler without
+	 * decompressing them. The handler can copy the compressed contents of an entry to another zip file using
+	 * {@link ZipFileWriter#addRaw(String, RawEntry)} or read its decompressed contents using
+	 * {@link RawEntry#openStream()}. The contents are not checked against their CRC when they are copied.
+	 * Note that entries can only be used while they are being handled, and that the handler is not allowed to call
+	 * any reading methods from this class.
+	 * @param handler - The handler for the raw zip file entry.
+	 * @throws InvocationTargetException If invoking the handler results in a throwable being thrown.
+	 * @throws IOException If an I/O error has occurred or if the zip file is invalid.
+	 */
+	public void readAllRaw(RawEntryHandler handler) throws InvocationTargetException, IOException {
+		this.readRaw(null, handler);
+	}
+	
+	/**
+	 * Reads the zip file entries at the given paths like {@link #readAllRaw(RawEntryHandler)}, locating them using
+	 * the central directory. Other entries are not read. The entries are passed in the order in which they are stored.
+	 * @param relPaths - The relative paths of the entries to read, or {@code null} to read all entries in the order
+	 * of the central directory. Paths that are not in the zip file are skipped.
+	 * @param handler - The handler for the raw zip file entry.
+	 * @throws InvocationTargetException If invoking the handler results in a throwable being thrown.
+	 * @throws IOException If an I/O error has occurred or if the zip file is invalid.
+	 */
+	public void readRaw(Collection<String> relPaths,
+			RawEntryHandler handler) throws InvocationTargetException, IOException {
+		FileChannel channel = FileChannel.open(this.zipFile.toPath(), StandardOpenOption.READ);
+		try {
+			for(IndexEntry entry : this.getIndex(channel).getEntries(relPaths)) {
+				try {
+					handler.handle(new RawEntry(channel, entry));
+				} catch (Throwable t) {
+					throw new InvocationTargetException(t);
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Gets the index of the entries in the zip file, reading it from the central directory if it was not cached or
+	 * if the zip file has changed since it was cached.
+	 * @param channel - The channel of the zip file.
+	 * @return The index.
+	 * @throws IOException If an I/O error has occurred or if the central directory is invalid.
+	 */
+	private synchronized EntryIndex getIndex(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		long lastModified = this.zipFile.lastModified();
+		if(this.index == null || this.index.fileSize != fileSize || this.index.lastModified != lastModified) {
+			this.index = new EntryIndex(readCentralDirectory(channel), fileSize, lastModified);
+		}
+		return this.index;
+	}
+	
+	/**
+	 * Reads the entries from the central directory of the zip file in the given channel.
+	 * @param channel - The channel of the zip file.
+	 * @return The entries in the order of the central directory.
+	 * @throws IOException If an I/O error has occurred or if the central directory is invalid.
+	 */
+	private static List<IndexEntry> readCentralDirectory(FileChannel channel) throws IOException {
+		
+		// Find the end of central directory record, which is followed by a comment of variable length.
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+		ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+		int endOffset = tailSize - END_SIZE;
+		while(endOffset >= 0 && (tail.getInt(endOffset) != END_SIGNATURE
+				|| endOffset + END_SIZE + (tail.getShort(endOffset + 20) & 0xFFFF) != tailSize)) {
+			endOffset--;
+		}
+		if(endOffset < 0) {
+			throw new ZipException("Zip file does not contain an end of central directory record.");
+		}
+		long entryCount = tail.getShort(endOffset + 10) & 0xFFFF;
+		long centralDirSize = tail.getInt(endOffset + 12) & ZIP64_MAGIC_VALUE;
+		long centralDirOffset = tail.getInt(endOffset + 16) & ZIP64_MAGIC_VALUE;
+		
+		// Read the zip64 end of central directory record when the values do not fit in the end record.
+		long locatorOffset = fileSize - tailSize + endOffset - ZIP64_LOCATOR_SIZE;
+		if((entryCount == ZIP64_MAGIC_COUNT || centralDirSize == ZIP64_MAGIC_VALUE
+				|| centralDirOffset == ZIP64_MAGIC_VALUE) && locatorOffset >= 0) {
+			ByteBuffer locator = read(channel, locatorOffset, ZIP64_LOCATOR_SIZE);
+			if(locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+				ByteBuffer zip64End = read(channel, locator.getLong(8), ZIP64_END_SIZE);
+				if(zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+					throw new ZipException("Invalid zip64 end of central directory record.");
+				}
+				entryCount = zip64End.getLong(32);
+				centralDirSize = zip64End.getLong(40);
+				centralDirOffset = zip64End.getLong(48);
+			}
+		}
+		if(centralDirOffset < 0 || centralDirSize < 0 || centralDirSize > Integer.MAX_VALUE
+				|| centralDirOffset + centralDirSize > fileSize) {
+			throw new ZipException("Invalid central directory location.");
+		}
+		
+		// Read the central directory headers.
+		ByteBuffer centralDir = read(channel, centralDirOffset, (int) centralDirSize);
+		List<IndexEntry> entries = new ArrayList<IndexEntry>();
+		int offset = 0;
+		for(long i = 0; i < entryCount; i++) {
+			if(offset + CENTRAL_HEADER_SIZE > centralDir.limit()
+					|| centralDir.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory header.");
+			}
+			int method = centralDir.getShort(offset + 10) & 0xFFFF;
+			long crc = centralDir.getInt(offset + 16) & ZIP64_MAGIC_VALUE;
+			long compressedSize = centralDir.getInt(offset + 20) & ZIP64_MAGIC_VALUE;
+			long size = centralDir.getInt(offset + 24) & ZIP64_MAGIC_VALUE;
+			int nameLength = centralDir.getShort(offset + 28) & 0xFFFF;
+			int extraLength = centralDir.getShort(offset + 30) & 0xFFFF;
+			int commentLength = centralDir.getShort(offset + 32) & 0xFFFF;
+			long headerOffset = centralDir.getInt(offset + 42) & ZIP64_MAGIC_VALUE;
+			if(offset + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength > centralDir.limit()) {
+				throw new ZipException("Invalid central directory header.");
+			}
+			byte[] name = new byte[nameLength];
+			centralDir.position(offset + CENTRAL_HEADER_SIZE);
+			centralDir.get(name);
+			byte[] extra = new byte[extraLength];
+			centralDir.get(extra);
+			offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+			
+			// Get the values that did not fit in the header from the zip64 extra field, in their fixed order.
+			int zip64Offset = getExtraFieldOffset(extra, ZIP64_EXTRA_FIELD_ID);
+			if(zip64Offset >= 0) {
+				ByteBuffer zip64Extra = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+				zip64Extra.position(zip64Offset);
+				if(size == ZIP64_MAGIC_VALUE) {
+					size = zip64Extra.getLong();
+				}
+				if(compressedSize == ZIP64_MAGIC_VALUE) {
+					compressedSize = zip64Extra.getLong();
+				}
+				if(headerOffset == ZIP64_MAGIC_VALUE) {
+					headerOffset = zip64Extra.getLong();
+				}
+			}
+			if(headerOffset + LOCAL_HEADER_SIZE + compressedSize > fileSize) {
+				throw new ZipException("Invalid central directory header.");
+			}
+			entries.add(new IndexEntry(new String(name, StandardCharsets.UTF_8).replace('/', File.separatorChar),
+					method, crc, compressedSize, size, getCodecName(extra), headerOffset));
+		}
+		return entries;
+	}
+	
+	/**
+	 * Reads the given amount of bytes at the given position from the given channel.
+	 * @param channel - The channel.
+	 * @param position - The position to read at.
+	 * @param length - The amount of bytes to read.
+	 * @return A little-endian buffer containing the read bytes.
+	 * @throws IOException If an I/O error has occurred or if the end of the channel was reached.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of zip file.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Gets the codec that compressed the given entry from its codec extra field.
+	 * @param entry - The entry.
+	 * @return The codec, or {@code null} if the entry does not have a codec extra field.
+	 * @throws IOException If the codec is unknown.
+	 */
+	private static CompressionCodec getCodec(ZipEntry entry) throws IOException {
+		String codecName = getCodecName(entry.getExtra());
+		if(codecName == null) {
+			return null;
+		}
+		CompressionCodec codec = CompressionCodec.forName(codecName);
+		if(codec == null) {
+			throw new IOException("Zip entry was compressed using an unknown codec: " + codecName);
+		}
+		return codec;
+	}
+	
+	/**
+	 * Gets the name of the codec that compressed an entry from the codec extra field in the given extra data.
+	 * @param extra - The extra data of the entry, or {@code null} if it does not have extra data.
+	 * @return The codec name, or {@code null} if the extra data does not contain a codec extra field.
+	 */
+	private static String getCodecName(byte[] extra) {
+		int offset = (extra == null ? -1 : getExtraFieldOffset(extra, ZipFileWriter.CODEC_EXTRA_FIELD_ID));
+		if(offset < 0) {
+			return null;
+		}
+		int length = (extra[offset - 2] & 0xFF) | ((extra[offset - 1] & 0xFF) << 8);
+		return new String(extra, offset, length, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Gets the offset of the data of the extra field with the given header ID in the given extra data.
+	 * @param extra - The extra data.
+	 * @param id - The header ID of the extra field.
+	 * @return The offset of the extra field data, or -1 if the extra data does not contain a complete extra field
+	 * with the given header ID.
+	 */
+	private static int getExtraFieldOffset(byte[] extra, int id) {
+		for(int offset = 0; offset + 4 <= extra.length;) {
+			int fieldId = (extra[offset] & 0xFF) | ((extra[offset + 1] & 0xFF) << 8);
+			int length = (extra[offset + 2] & 0xFF) | ((extra[offset + 3] & 0xFF) << 8);
+			offset += 4;
+			if(fieldId == id && offset + length <= extra.length) {
+				return offset;
+			}
+			offset += length;
+		}
+		return -1;
+	}
+	
+	private static byte[] readFully(InputStream inStream) throws IOException {
+		try {
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = inStream.read(buffer)) != -1) {
+				outStream.write(buffer, 0, count);
+			}
+			return outStream.toByteArray();
+		} finally {
+			inStream.close();
+		}
+	}
+	
+	/**
+	 * An input stream that does not close the underlying stream, used to decode a single entry of a
+	 * {@link ZipInputStream}.
+	 * @author P.J.S. Kools
+	 */
+	private static class NonClosingInputStream extends FilterInputStream {
+		
+		/**
+		 * Creates a new {@link NonClosingInputStream}.
+		 * @param inStream - The underlying input stream.
+		 */
+		private NonClosingInputStream(InputStream inStream) {
+			super(inStream);
+		}
+		
+		@Override
+		public void close() {
+			// Keep the underlying stream open.
 		}
-		inStream.close();
 	}
 	
 	/**
@@ -149,4 +496,450 @@ public class ZipFileReader {
 	public File getFile() {
 		return this.zipFile;
 	}
+	
+	/**
+	 * A zip entry that is read in its compressed form. Raw entries are passed to a {@link RawEntryHandler} by
+	 * {@link ZipFileReader#readAllRaw(RawEntryHandler)} and can only be used while they are being handled.
+	 * @author P.J.S. Kools
+	 */
+	public static class RawEntry {
+		private final FileChannel channel;
+		private final IndexEntry entry;
+		
+		/**
+		 * Creates a new {@link RawEntry}.
+		 * @param channel - The channel of the zip file containing the entry.
+		 * @param entry - The index entry of the entry.
+		 */
+		private RawEntry(FileChannel channel, IndexEntry entry) {
+			this.channel = channel;
+			this.entry = entry;
+		}
+		
+		/**
+		 * Gets the relative path to the file or directory.
+		 * @return The relative path, ending with a file separator if this entry represents a directory.
+		 */
+		public String getRelativePath() {
+			return this.entry.relPath;
+		}
+		
+		/**
+		 * Gets whether this entry represents a directory.
+		 * @return {@code true} if this entry represents a directory, {@code false} otherwise.
+		 */
+		public boolean isDirectory() {
+			return this.entry.relPath.endsWith(File.separator);
+		}
+		
+		/**
+		 * Gets the compression method of this entry.
+		 * @return The compression method, which is {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED} for entries
+		 * that can be read.
+		 */
+		public int getMethod() {
+			return this.entry.method;
+		}
+		
+		/**
+		 * Gets the CRC32 checksum of this entry. For entries compressed by a codec other than deflate, this is the
+		 * checksum of the compressed contents.
+		 * @return The checksum.
+		 */
+		public long getCrc() {
+			return this.entry.crc;
+		}
+		
+		/**
+		 * Gets the size of the contents of this entry in the zip file.
+		 * @return The compressed size in bytes.
+		 */
+		public long getCompressedSize() {
+			return this.entry.compressedSize;
+		}
+		
+		/**
+		 * Gets the uncompressed size of the contents of this entry. For entries compressed by a codec other than
+		 * deflate, this is the size of the compressed contents.
+		 * @return The size in bytes.
+		 */
+		public long getSize() {
+			return this.entry.size;
+		}
+		
+		/**
+		 * Gets the name of the codec that compressed this entry.
+		 * @return The name of the codec from the codec extra field, {@link DeflateCodec#NAME} for deflated entries
+		 * or {@code null} for entries that are stored without compression.
+		 */
+		public String getCodecName() {
+			return (this.entry.method == METHOD_DEFLATED ? DeflateCodec.NAME : this.entry.codecName);
+		}
+		
+		/**
+		 * Gets whether this entry has a codec extra field, containing the name of the codec that compressed it.
+		 * @return {@code true} if this entry has a codec extra field, {@code false} otherwise.
+		 */
+		public boolean hasCodecExtraField() {
+			return this.entry.codecName != null;
+		}
+		
+		/**
+		 * Opens a stream containing the decompressed contents of this entry. The contents are checked against the CRC
+		 * and size of this entry when the end of the stream is reached.
+		 * @return The stream.
+		 * @throws IOException If an I/O error has occurred or if the entry uses an unsupported compression method or
+		 * an unknown codec. Reading from the stream throws a {@link ZipException} if the contents do not match the
+		 * CRC or size of this entry.
+		 */
+		public InputStream openStream() throws IOException {
+			InputStream rawInStream =
+					new ChannelInputStream(this.channel, this.getDataOffset(), this.entry.compressedSize);
+			if(this.entry.method == METHOD_DEFLATED) {
+				return new EntryCheckingInputStream(new RawInflaterInputStream(rawInStream), this.entry);
+			} else if(this.entry.method != METHOD_STORED) {
+				throw new ZipException("Zip entry uses an unsupported compression method: " + this.entry.method);
+			} else if(this.entry.codecName != null) {
+				CompressionCodec codec = CompressionCodec.forName(this.entry.codecName);
+				if(codec == null) {
+					throw new IOException("Zip entry was compressed using an unknown codec: " + this.entry.codecName);
+				}
+				EntryCheckingInputStream checkedInStream = new EntryCheckingInputStream(rawInStream, this.entry);
+				return new DecodedEntryInputStream(codec.decode(checkedInStream), checkedInStream);
+			}
+			return new EntryCheckingInputStream(rawInStream, this.entry);
+		}
+		
+		/**
+		 * Transfers the compressed contents of this entry to the given channel.
+		 * @param target - The channel to transfer the contents to.
+		 * @throws IOException If an I/O error has occurred.
+		 */
+		void transferTo(WritableByteChannel target) throws IOException {
+			long position = this.getDataOffset();
+			long remaining = this.entry.compressedSize;
+			while(remaining > 0) {
+				long count = this.channel.transferTo(position, remaining, target);
+				if(count <= 0) {
+					throw new EOFException("Unexpected end of zip file.");
+				}
+				position += count;
+				remaining -= count;
+			}
+		}
+		
+		/**
+		 * Gets the offset of the contents of this entry in the zip file, reading it from the local header if it is not
+		 * known yet. The local header can have a different extra field than the central directory header.
+		 * @return The offset.
+		 * @throws IOException If an I/O error has occurred or if the local header is invalid.
+		 */
+		private long getDataOffset() throws IOException {
+			long dataOffset = this.entry.dataOffset;
+			if(dataOffset < 0) {
+				ByteBuffer localHeader = read(this.channel, this.entry.headerOffset, LOCAL_HEADER_SIZE);
+				if(localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+					throw new ZipException("Invalid local header of zip entry: " + this.entry.relPath);
+				}
+				dataOffset = this.entry.headerOffset + LOCAL_HEADER_SIZE
+						+ (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+				if(dataOffset + this.entry.compressedSize > this.channel.size()) {
+					throw new ZipException("Zip entry exceeds the end of the zip file: " + this.entry.relPath);
+				}
+				this.entry.dataOffset = dataOffset;
+			}
+			return dataOffset;
+		}
+	}
+	
+	/**
+	 * A {@link RawEntry} handler.
+	 * @author P.J.S. Kools
+	 */
+	public static interface RawEntryHandler {
+		public void handle(RawEntry entry) throws Exception;
+	}
+	
+	/**
+	 * The entries of a zip file, read from its central directory.
+	 * @author P.J.S. Kools
+	 */
+	private static final class EntryIndex {
+		private final List<IndexEntry> entries;
+		private final Map<String, IndexEntry> entryMap;
+		private final long fileSize;
+		private final long lastModified;
+		
+		/**
+		 * Creates a new {@link EntryIndex}.
+		 * @param entries - The entries in the order of the central directory.
+		 * @param fileSize - The size of the zip file.
+		 * @param lastModified - The last modified time of the zip file.
+		 */
+		private EntryIndex(List<IndexEntry> entries, long fileSize, long lastModified) {
+			this.entries = entries;
+			this.entryMap = new HashMap<String, IndexEntry>(entries.size() * 4 / 3 + 1);
+			for(IndexEntry entry : entries) {
+				this.entryMap.put(entry.relPath, entry);
+			}
+			this.fileSize = fileSize;
+			this.lastModified = lastModified;
+		}
+		
+		/**
+		 * Gets the entries at the given paths, sorted by their offset in the zip file.
+		 * @param relPaths - The relative paths, or {@code null} to get all entries in the order of the central
+		 * directory. Paths that are not in the zip file are skipped.
+		 * @return The entries.
+		 */
+		private List<IndexEntry> getEntries(Collection<String> relPaths) {
+			if(relPaths == null) {
+				return this.entries;
+			}
+			List<IndexEntry> entries = new ArrayList<IndexEntry>();
+			for(String relPath : new HashSet<String>(relPaths)) {
+				IndexEntry entry = this.entryMap.get(relPath);
+				if(entry != null) {
+					entries.add(entry);
+				}
+			}
+			entries.sort((entry1, entry2) -> Long.compare(entry1.headerOffset, entry2.headerOffset));
+			return entries;
+		}
+	}
+	
+	/**
+	 * An entry in the central directory of a zip file.
+	 * @author P.J.S. Kools
+	 */
+	private static final class IndexEntry {
+		private final String relPath;
+		private final int method;
+		private final long crc;
+		private final long compressedSize;
+		private final long size;
+		private final String codecName;
+		private final long headerOffset;
+		private volatile long dataOffset = -1;
+		
+		/**
+		 * Creates a new {@link IndexEntry}.
+		 * @param relPath - The relative path of the entry, using the file separator of this system.
+		 * @param method - The compression method.
+		 * @param crc - The CRC32 checksum.
+		 * @param compressedSize - The size of the entry contents in the zip file.
+		 * @param size - The uncompressed size of the entry contents.
+		 * @param codecName - The name of the codec from the codec extra field, or {@code null} if the entry does not
+		 * have a codec extra field.
+		 * @param headerOffset - The offset of the local header of the entry in the zip file.
+		 */
+		private IndexEntry(String relPath, int method, long crc,
+				long compressedSize, long size, String codecName, long headerOffset) {
+			this.relPath = relPath;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.codecName = codecName;
+			this.headerOffset = headerOffset;
+		}
+	}
+	
+	/**
+	 * An input stream that reads a range of bytes from a file channel without changing the channel position.
+	 * Closing this stream does not close the channel.
+	 * @author P.J.S. Kools
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final FileChannel channel;
+		private long position;
+		private long remaining;
+		
+		/**
+		 * Creates a new {@link ChannelInputStream}.
+		 * @param channel - The channel.
+		 * @param position - The position of the first byte to read.
+		 * @param length - The amount of bytes to read.
+		 */
+		private ChannelInputStream(FileChannel channel, long position, long length) {
+			this.channel = channel;
+			this.position = position;
+			this.remaining = length;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] bytes = new byte[1];
+			return (this.read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xFF);
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if(this.remaining <= 0) {
+				return -1;
+			}
+			int count = this.channel.read(ByteBuffer.wrap(
+					bytes, offset, (int) Math.min(length, this.remaining)), this.position);
+			if(count < 0) {
+				throw new EOFException("Unexpected end of zip file.");
+			}
+			this.position += count;
+			this.remaining -= count;
+			return count;
+		}
+	}
+	
+	/**
+	 * An input stream that computes the CRC32 checksum and size of the contents of a zip entry while they are read, and
+	 * validates them when the end of the stream is reached.
+	 * @author P.J.S. Kools
+	 */
+	private static class EntryCheckingInputStream extends CheckedInputStream {
+		private final IndexEntry entry;
+		private long size = 0;
+		private boolean isChecked = false;
+		
+		/**
+		 * Creates a new {@link EntryCheckingInputStream}.
+		 * @param inStream - The input stream containing the contents of the entry as covered by its CRC.
+		 * @param entry - The index entry of the entry.
+		 */
+		private EntryCheckingInputStream(InputStream inStream, IndexEntry entry) {
+			super(inStream, new CRC32());
+			this.entry = entry;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b == -1) {
+				this.check();
+			} else {
+				this.size++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int count = super.read(bytes, offset, length);
+			if(count == -1) {
+				this.check();
+			} else {
+				this.size += count;
+			}
+			return count;
+		}
+		
+		/**
+		 * Reads the remaining contents, validating the CRC and size of the contents.
+		 * @throws IOException If an I/O error has occurred or if the contents do not match the CRC or size of the
+		 * entry.
+		 */
+		private void readToEnd() throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while(this.read(buffer, 0, buffer.length) != -1) {
+				// Read until the end of the stream.
+			}
+		}
+		
+		/**
+		 * Validates the CRC and size of the read contents.
+		 * @throws ZipException If the read contents do not match the CRC or size of the entry.
+		 */
+		private void check() throws ZipException {
+			if(this.isChecked) {
+				return;
+			}
+			if(this.size != this.entry.size) {
+				throw new ZipException("Invalid size of zip entry: " + this.entry.relPath
+						+ " (expected " + this.entry.size + " but got " + this.size + " bytes).");
+			}
+			if(this.getChecksum().getValue() != this.entry.crc) {
+				throw new ZipException("Invalid CRC of zip entry: " + this.entry.relPath + " (expected 0x"
+						+ Long.toHexString(this.entry.crc) + " but got 0x"
+						+ Long.toHexString(this.getChecksum().getValue()) + ").");
+			}
+			this.isChecked = true;
+		}
+	}
+	
+	/**
+	 * An input stream containing the contents of a zip entry that were decoded by a {@link CompressionCodec}. When the
+	 * end of the decoded contents is reached, the remaining encoded contents are read, so that they are validated
+	 * against the CRC and size of the entry even if the codec does not read them until their end.
+	 * @author P.J.S. Kools
+	 */
+	private static class DecodedEntryInputStream extends FilterInputStream {
+		private final EntryCheckingInputStream encodedInStream;
+		
+		/**
+		 * Creates a new {@link DecodedEntryInputStream}.
+		 * @param decodedInStream - The input stream containing the decoded contents.
+		 * @param encodedInStream - The input stream containing the encoded contents, which is read by the codec.
+		 */
+		private DecodedEntryInputStream(InputStream decodedInStream, EntryCheckingInputStream encodedInStream) {
+			super(decodedInStream);
+			this.encodedInStream = encodedInStream;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b == -1) {
+				this.encodedInStream.readToEnd();
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int count = super.read(bytes, offset, length);
+			if(count == -1) {
+				this.encodedInStream.readToEnd();
+			}
+			return count;
+		}
+	}
+	
+	/**
+	 * An input stream that inflates raw DEFLATE data and releases its inflater when it is closed.
+	 * @author P.J.S. Kools
+	 */
+	private static class RawInflaterInputStream extends InflaterInputStream {
+		private boolean isDummyByteAdded = false;
+		
+		/**
+		 * Creates a new {@link RawInflaterInputStream}.
+		 * @param inStream - The input stream containing the raw DEFLATE data.
+		 */
+		private RawInflaterInputStream(InputStream inStream) {
+			super(inStream, new Inflater(true), BUFFER_SIZE);
+		}
+		
+		@Override
+		protected void fill() throws IOException {
+			
+			// The inflater may need an extra dummy byte after the raw DEFLATE data when nowrap is used.
+			this.len = this.in.read(this.buf, 0, this.buf.length);
+			if(this.len == -1) {
+				if(this.isDummyByteAdded) {
+					throw new EOFException("Unexpected end of zip entry.");
+				}
+				this.isDummyByteAdded = true;
+				this.buf[0] = 0;
+				this.len = 1;
+			}
+			this.inf.setInput(this.buf, 0, this.len);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				this.inf.end();
+			}
+		}
+	}
 }
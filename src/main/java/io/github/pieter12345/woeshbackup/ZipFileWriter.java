@@ -1,33 +1,123 @@
 package io.github.pieter12345.woeshbackup;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Objects;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import io.github.pieter12345.woeshbackup.utils.DaemonThreadFactory;
 
 /**
  * This class contains methods for writing zip files.
+ * File contents are deflated in independent blocks, where each block uses the end of the previous block as
+ * dictionary. The blocks are stitched together into a single standard DEFLATE stream per zip entry, so the resulting
+ * zip file can be read by any zip tool. When multiple threads are used, the blocks are deflated in parallel.
+ * The written zip file does not depend on the amount of threads.
+ * A {@link CompressionPolicy} decides per entry whether it is compressed or stored without compression.
+ * Entries are compressed by deflating them, unless a different {@link CompressionCodec} is set. Entries compressed
+ * by a different codec are written as stored entries with an extra field containing the name of the codec, so that
+ * they can be decoded by {@link ZipFileReader}. Other zip tools extract such entries in their compressed form.
+ * Entries of other zip files can be copied in their compressed form using
+ * {@link #addRaw(String, ZipFileReader.RawEntry)}.
  * @author P.J.S. Kools
  */
 public class ZipFileWriter {
 	
 	private final File zipFile;
-	private ZipOutputStream zipOutStream = null;
-	private static final int BUFFER_SIZE = 2048; // The buffer size for copying files/streams.
+	private final int threadCount;
+	private FileOutputStream fileOutStream = null;
+	private OutputStream outStream = null;
+	private long position;
+	private long dosTime;
+	private List<EntryProperties> entries;
+	private ExecutorService deflatePool = null;
+	private byte[] readBuffer = null;
+	private CompressionPolicy compressionPolicy = CompressionPolicy.DEFLATE_ALL;
+	private CompressionCodec codec = CompressionCodec.DEFLATE;
+	private CompressionStatistics statistics = new CompressionStatistics();
+	private final AtomicLong compressCpuTime = new AtomicLong();
+	
+	private static final int BUFFER_SIZE = 65536; // The buffer size for writing to the zip file.
+	private static final int BLOCK_SIZE = 512 * 1024; // The amount of uncompressed bytes per deflate block.
+	private static final int DICTIONARY_SIZE = 32 * 1024; // The maximum DEFLATE back-reference distance.
+	private static final int MAX_PENDING_BLOCKS_PER_THREAD = 2;
+	private static final byte[] EMPTY_BLOCK = new byte[0];
+	
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	private static final int ZIP64_LOCAL_EXTRA_SIZE = 20;
 	
 	/**
-	 * Creates a new {@link ZipFileWriter} from the given file.
+	 * The header ID of the extra field containing the UTF-8 encoded name of the codec that compressed a stored entry.
+	 */
+	public static final int CODEC_EXTRA_FIELD_ID = 0x5742;
+	
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * Creates a new {@link ZipFileWriter} from the given file that deflates on the calling thread.
 	 * @param zipFile - The file to use as zip file. For example: new File("dir/dir2/myFile.zip").
 	 */
 	public ZipFileWriter(File zipFile) {
+		this(zipFile, 1);
+	}
+	
+	/**
+	 * Creates a new {@link ZipFileWriter} from the given file.
+	 * @param zipFile - The file to use as zip file. For example: new File("dir/dir2/myFile.zip").
+	 * @param threadCount - The amount of threads to deflate file contents with.
+	 * When 1, file contents are deflated on the calling thread.
+	 * @throws IllegalArgumentException When the given amount of threads is less than 1.
+	 */
+	public ZipFileWriter(File zipFile, int threadCount) throws IllegalArgumentException {
 		Objects.requireNonNull(zipFile);
+		if(threadCount < 1) {
+			throw new IllegalArgumentException("The amount of threads must be at least 1. Found: " + threadCount);
+		}
 		this.zipFile = zipFile;
+		this.threadCount = threadCount;
 	}
 	
 	/**
@@ -36,9 +126,19 @@ public class ZipFileWriter {
 	 * does not exist but cannot be created or cannot be opened for any other reason.
 	 */
 	public void open() throws FileNotFoundException {
-		if(this.zipOutStream == null) {
-			this.zipOutStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(this.zipFile)));
-			this.zipOutStream.setMethod(ZipOutputStream.DEFLATED);
+		if(this.outStream == null) {
+			this.fileOutStream = new FileOutputStream(this.zipFile);
+			this.outStream = new BufferedOutputStream(this.fileOutStream, BUFFER_SIZE);
+			this.position = 0;
+			this.statistics = new CompressionStatistics();
+			this.compressCpuTime.set(0);
+			this.dosTime = toDosTime(System.currentTimeMillis());
+			this.entries = new ArrayList<EntryProperties>();
+			this.readBuffer = new byte[BLOCK_SIZE];
+			if(this.threadCount > 1) {
+				this.deflatePool = Executors.newFixedThreadPool(
+						this.threadCount, new DaemonThreadFactory("WoeshBackup Deflate Thread"));
+			}
 		}
 	}
 	
@@ -47,9 +147,21 @@ public class ZipFileWriter {
 	 * @throws IOException If an I/O error has occurred.
 	 */
 	public void close() throws IOException {
-		if(this.zipOutStream != null) {
-			this.zipOutStream.close();
-			this.zipOutStream = null;
+		if(this.outStream != null) {
+			try {
+				this.writeCentralDirectory();
+			} finally {
+				this.statistics.compressCpuTime = this.compressCpuTime.get();
+				this.outStream.close();
+				this.outStream = null;
+				this.fileOutStream = null;
+				this.entries = null;
+				this.readBuffer = null;
+				if(this.deflatePool != null) {
+					this.deflatePool.shutdownNow();
+					this.deflatePool = null;
+				}
+			}
 		}
 	}
 	
@@ -81,10 +193,14 @@ public class ZipFileWriter {
 	public void add(String relPath, File file) throws FileNotFoundException, IOException, IllegalStateException {
 		if(file == null) {
 			this.add(relPath, (InputStream) null);
+			return;
 		}
 		FileInputStream inStream = new FileInputStream(file);
-		this.add(relPath, inStream);
-		inStream.close();
+		try {
+			this.add(relPath, inStream);
+		} finally {
+			inStream.close();
+		}
 	}
 	
 	/**
@@ -98,23 +214,7 @@ public class ZipFileWriter {
 	 * @throws IllegalStateException If the {@link ZipFileWriter} was not open for writing.
 	 */
 	public void add(String relPath, byte[] fileBytes) throws IOException, IllegalStateException {
-		Objects.requireNonNull(relPath);
-		
-		// Check if this ZipFileWriter is open for writing.
-		if(this.zipOutStream == null) {
-			throw new IllegalStateException("Zip file was not opened or already closed.");
-		}
-		
-		// Put the file or directory as next entry in the zip file.
-		this.zipOutStream.putNextEntry(new ZipEntry(relPath));
-		
-		// Copy the file contents if the file was not a directory and not an empty file.
-		if(fileBytes != null && !relPath.endsWith(File.separator)) {
-			this.zipOutStream.write(fileBytes);
-		}
-		
-		// Close the zip entry.
-		this.zipOutStream.closeEntry();
+		this.add(relPath, (fileBytes == null ? null : new ByteArrayInputStream(fileBytes)));
 	}
 	
 	/**
@@ -133,33 +233,342 @@ public class ZipFileWriter {
 		Objects.requireNonNull(relPath);
 		
 		// Check if this ZipFileWriter is open for writing.
-		if(this.zipOutStream == null) {
+		if(this.outStream == null) {
 			throw new IllegalStateException("Zip file was not opened or already closed.");
 		}
 		
-		// Handle null files and directories.
+		// Create the entry. Zip entry names always use '/' as separator.
+		EntryProperties entry = new EntryProperties(
+				relPath.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8), this.position);
+		
+		// Handle null files and directories, storing them as empty entries.
 		if(inStream == null || relPath.endsWith(File.separator)) {
-			this.zipOutStream.putNextEntry(new ZipEntry(relPath));
-			this.zipOutStream.closeEntry();
+			entry.method = METHOD_STORED;
+			entry.flags = FLAG_UTF8;
+			this.writeLocalHeader(entry);
+			this.entries.add(entry);
 			return;
 		}
 		
-		// Create the entry in the zip file.
-		this.zipOutStream.putNextEntry(new ZipEntry(relPath));
+		// Read the first block and let the compression policy decide whether to deflate or store the contents.
+		byte[] block = this.readBlock(inStream);
+		boolean isSingleBlock = (block.length < BLOCK_SIZE);
+		CompressionPolicy.Decision decision =
+				this.compressionPolicy.decide(relPath, (isSingleBlock ? block.length : -1));
+		double estimatedCompressionRatio = 1d;
+		if(decision == CompressionPolicy.Decision.SAMPLE) {
+			long startCpuTime = getCpuTime();
+			estimatedCompressionRatio = CompressionPolicy.estimateCompressionRatio(block, block.length);
+			this.statistics.samplingCpuTime += getCpuTime() - startCpuTime;
+			decision = (estimatedCompressionRatio > this.compressionPolicy.getMaxCompressionRatio()
+					? CompressionPolicy.Decision.STORE : CompressionPolicy.Decision.DEFLATE);
+		}
 		
-		// Write the stream contents to the zip file.
-		byte[] buffer = new byte[BUFFER_SIZE];
-		int count;
-		while(true) {
-			count = inStream.read(buffer, 0, BUFFER_SIZE);
-			if(count == -1) {
-				break;
+		// Add the entry.
+		if(decision == CompressionPolicy.Decision.STORE) {
+			this.addStored(entry, block, inStream);
+			this.statistics.storedEntryCount++;
+			this.statistics.storedSize += entry.size;
+			this.statistics.estimatedStoredCompressedSize += (long) (entry.size * estimatedCompressionRatio);
+		} else {
+			long uncompressedSize;
+			if(this.codec.getName().equals(DeflateCodec.NAME)) {
+				this.addDeflated(entry, block, inStream);
+				uncompressedSize = entry.size;
+			} else {
+				uncompressedSize = this.addEncoded(entry, block, inStream);
 			}
-			this.zipOutStream.write(buffer, 0, count);
+			this.statistics.compressedEntryCount++;
+			this.statistics.compressedEntriesSize += uncompressedSize;
+			this.statistics.compressedSize += entry.compressedSize;
+		}
+		this.entries.add(entry);
+	}
+	
+	/**
+	 * Adds a zip entry at the given relPath containing the compressed contents of the given raw entry, without
+	 * decompressing and recompressing them. The compression method, CRC and codec of the raw entry are kept, so the
+	 * compression policy and codec of this writer are not used.
+	 * @param relPath - The relative path to store the file contents at. This includes the file name.
+	 * Paths to directories should end with a file separator and paths to normal files should not.
+	 * Examples: "path/to/file.txt" or "path/to/dir/".
+	 * @param rawEntry - The raw entry to copy. If the relative path ends with a file separator, this argument is
+	 * ignored. This entry has to be in the handler of {@link ZipFileReader#readAllRaw(ZipFileReader.RawEntryHandler)}.
+	 * @throws IOException If an I/O error has occurred or if the raw entry uses an unsupported compression method.
+	 * @throws IllegalStateException If the {@link ZipFileWriter} was not open for writing.
+	 */
+	public void addRaw(String relPath, ZipFileReader.RawEntry rawEntry) throws IOException, IllegalStateException {
+		Objects.requireNonNull(relPath);
+		if(relPath.endsWith(File.separator)) {
+			this.add(relPath);
+			return;
+		}
+		
+		// Check if this ZipFileWriter is open for writing.
+		if(this.outStream == null) {
+			throw new IllegalStateException("Zip file was not opened or already closed.");
+		}
+		if(rawEntry.getMethod() != METHOD_STORED && rawEntry.getMethod() != METHOD_DEFLATED) {
+			throw new ZipException("Zip entry uses an unsupported compression method: " + rawEntry.getMethod());
 		}
 		
-		// Close the zip entry.
-		this.zipOutStream.closeEntry();
+		// Write the local header. The CRC and sizes are known, so no data descriptor is needed.
+		EntryProperties entry = new EntryProperties(
+				relPath.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8), this.position);
+		entry.method = rawEntry.getMethod();
+		entry.flags = FLAG_UTF8;
+		entry.crc = rawEntry.getCrc();
+		entry.size = rawEntry.getSize();
+		entry.compressedSize = rawEntry.getCompressedSize();
+		entry.hasZip64LocalHeader = (needsZip64(entry.size) || needsZip64(entry.compressedSize));
+		if(rawEntry.hasCodecExtraField()) {
+			entry.codecName = rawEntry.getCodecName().getBytes(StandardCharsets.UTF_8);
+		}
+		this.writeLocalHeader(entry);
+		
+		// Transfer the compressed contents directly from the source zip file.
+		this.outStream.flush();
+		rawEntry.transferTo(this.fileOutStream.getChannel());
+		this.position += entry.compressedSize;
+		this.statistics.copiedEntryCount++;
+		this.statistics.copiedSize += entry.compressedSize;
+		this.entries.add(entry);
+	}
+	
+	/**
+	 * Writes the given entry, deflating its contents.
+	 * @param entry - The entry.
+	 * @param firstBlock - The first block of the entry contents.
+	 * @param inStream - The stream containing the remaining entry contents.
+	 * @throws IOException If an I/O error has occurred.
+	 */
+	private void addDeflated(EntryProperties entry, byte[] firstBlock, InputStream inStream) throws IOException {
+		
+		// Write the local header. The sizes and CRC are written in the data descriptor after the entry data.
+		entry.method = METHOD_DEFLATED;
+		entry.flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+		this.writeLocalHeader(entry);
+		
+		// Deflate and write the stream contents in blocks.
+		// Each block is primed with the end of the previous block and all but the last block end with a sync flush,
+		// making the concatenated blocks a single valid DEFLATE stream.
+		CRC32 crc = new CRC32();
+		Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+		int maxPendingBlocks = this.threadCount * MAX_PENDING_BLOCKS_PER_THREAD;
+		try {
+			byte[] dictionary = null;
+			byte[] block = firstBlock;
+			while(true) {
+				byte[] nextBlock = (block.length < BLOCK_SIZE ? EMPTY_BLOCK : this.readBlock(inStream));
+				boolean isLastBlock = (nextBlock.length == 0);
+				crc.update(block, 0, block.length);
+				entry.size += block.length;
+				DeflateTask task = new DeflateTask(block, dictionary, isLastBlock, this.compressCpuTime);
+				if(this.deflatePool == null) {
+					this.writeBlock(entry, task.call());
+				} else {
+					pendingBlocks.add(this.deflatePool.submit(task));
+					if(pendingBlocks.size() >= maxPendingBlocks) {
+						this.writeBlock(entry, getBlock(pendingBlocks.poll()));
+					}
+				}
+				if(isLastBlock) {
+					break;
+				}
+				dictionary = block;
+				block = nextBlock;
+			}
+			
+			// Write the remaining pending blocks.
+			while(!pendingBlocks.isEmpty()) {
+				this.writeBlock(entry, getBlock(pendingBlocks.poll()));
+			}
+		} finally {
+			for(Future<byte[]> future : pendingBlocks) {
+				future.cancel(true);
+			}
+		}
+		entry.crc = crc.getValue();
+		
+		// Write the data descriptor. Zip64 sizes are used under the same condition as in the central directory.
+		this.writeInt(DATA_DESCRIPTOR_SIGNATURE);
+		this.writeInt(entry.crc);
+		if(needsZip64(entry.size) || needsZip64(entry.compressedSize)) {
+			this.writeLong(entry.compressedSize);
+			this.writeLong(entry.size);
+		} else {
+			this.writeInt(entry.compressedSize);
+			this.writeInt(entry.size);
+		}
+	}
+	
+	/**
+	 * Writes the given entry, storing its contents without compression.
+	 * Stored entries cannot use a data descriptor, since not all zip readers support that. When the contents fit in
+	 * a single block, the CRC and sizes are known before writing the local header. Otherwise, a zip64 local header is
+	 * written and its CRC and sizes are overwritten after the contents have been written.
+	 * @param entry - The entry.
+	 * @param firstBlock - The first block of the entry contents.
+	 * @param inStream - The stream containing the remaining entry contents.
+	 * @throws IOException If an I/O error has occurred.
+	 */
+	private void addStored(EntryProperties entry, byte[] firstBlock, InputStream inStream) throws IOException {
+		entry.method = METHOD_STORED;
+		entry.flags = FLAG_UTF8;
+		CRC32 crc = new CRC32();
+		
+		// Write a single block entry.
+		if(firstBlock.length < BLOCK_SIZE) {
+			crc.update(firstBlock, 0, firstBlock.length);
+			entry.crc = crc.getValue();
+			entry.size = firstBlock.length;
+			entry.compressedSize = firstBlock.length;
+			this.writeLocalHeader(entry);
+			this.write(firstBlock);
+			return;
+		}
+		
+		// Write a multi block entry with placeholder CRC and sizes.
+		entry.hasZip64LocalHeader = true;
+		this.writeLocalHeader(entry);
+		byte[] block = firstBlock;
+		while(block.length > 0) {
+			crc.update(block, 0, block.length);
+			entry.size += block.length;
+			this.write(block);
+			block = (block.length < BLOCK_SIZE ? EMPTY_BLOCK : this.readBlock(inStream));
+		}
+		entry.crc = crc.getValue();
+		entry.compressedSize = entry.size;
+		this.overwriteLocalHeaderSizes(entry);
+	}
+	
+	/**
+	 * Writes the given entry as a stored entry containing its contents compressed by the codec.
+	 * @param entry - The entry.
+	 * @param firstBlock - The first block of the entry contents.
+	 * @param inStream - The stream containing the remaining entry contents.
+	 * @return The uncompressed size of the entry contents.
+	 * @throws IOException If an I/O error has occurred.
+	 */
+	private long addEncoded(EntryProperties entry, byte[] firstBlock, InputStream inStream) throws IOException {
+		entry.method = METHOD_STORED;
+		entry.flags = FLAG_UTF8;
+		entry.codecName = this.codec.getName().getBytes(StandardCharsets.UTF_8);
+		entry.hasZip64LocalHeader = true;
+		this.writeLocalHeader(entry);
+		
+		// Compress the contents into the zip file, computing the CRC of the compressed bytes.
+		CRC32 crc = new CRC32();
+		long uncompressedSize = 0;
+		long startCpuTime = getCpuTime();
+		OutputStream encodeStream = this.codec.encode(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				this.write(new byte[] {(byte) b}, 0, 1);
+			}
+			
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				ZipFileWriter.this.write(bytes, offset, length);
+				crc.update(bytes, offset, length);
+				entry.size += length;
+			}
+			
+			@Override
+			public void close() {
+				// Keep the zip file open.
+			}
+		});
+		try {
+			byte[] block = firstBlock;
+			while(block.length > 0) {
+				encodeStream.write(block);
+				uncompressedSize += block.length;
+				block = (block.length < BLOCK_SIZE ? EMPTY_BLOCK : this.readBlock(inStream));
+			}
+		} finally {
+			encodeStream.close();
+			this.compressCpuTime.addAndGet(getCpuTime() - startCpuTime);
+		}
+		entry.crc = crc.getValue();
+		entry.compressedSize = entry.size;
+		this.overwriteLocalHeaderSizes(entry);
+		return uncompressedSize;
+	}
+	
+	/**
+	 * Overwrites the CRC and the zip64 sizes in the local header of the given entry, after its data has been written.
+	 * @param entry - The entry, which must have a zip64 local header.
+	 * @throws IOException If an I/O error has occurred.
+	 */
+	private void overwriteLocalHeaderSizes(EntryProperties entry) throws IOException {
+		this.outStream.flush();
+		ByteBuffer crcBuffer = ByteBuffer.allocate(4);
+		putInt(crcBuffer, entry.crc);
+		crcBuffer.flip();
+		this.writeAt(crcBuffer, entry.headerOffset + 14);
+		ByteBuffer sizesBuffer = ByteBuffer.allocate(16);
+		putInt(sizesBuffer, entry.size & ZIP64_MAGIC_VALUE);
+		putInt(sizesBuffer, entry.size >>> 32);
+		putInt(sizesBuffer, entry.compressedSize & ZIP64_MAGIC_VALUE);
+		putInt(sizesBuffer, entry.compressedSize >>> 32);
+		sizesBuffer.flip();
+		this.writeAt(sizesBuffer, entry.headerOffset + 30 + entry.name.length + 4);
+	}
+	
+	private void writeAt(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			position += this.fileOutStream.getChannel().write(buffer, position);
+		}
+	}
+	
+	private static void putInt(ByteBuffer buffer, long value) {
+		for(int i = 0; i < 4; i++) {
+			buffer.put((byte) ((value >>> (8 * i)) & 0xFF));
+		}
+	}
+	
+	/**
+	 * Gets the compression policy that decides whether entries are deflated or stored.
+	 * @return The compression policy.
+	 */
+	public CompressionPolicy getCompressionPolicy() {
+		return this.compressionPolicy;
+	}
+	
+	/**
+	 * Sets the compression policy that decides whether entries are deflated or stored.
+	 * @param compressionPolicy - The compression policy.
+	 */
+	public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+		this.compressionPolicy = Objects.requireNonNull(compressionPolicy);
+	}
+	
+	/**
+	 * Gets the codec used to compress entries.
+	 * @return The codec.
+	 */
+	public CompressionCodec getCodec() {
+		return this.codec;
+	}
+	
+	/**
+	 * Sets the codec used to compress entries. Entries that the compression policy decides to store are not
+	 * compressed by the codec.
+	 * @param codec - The codec.
+	 */
+	public void setCodec(CompressionCodec codec) {
+		this.codec = Objects.requireNonNull(codec);
+	}
+	
+	/**
+	 * Gets the compression statistics of the entries that were added since the zip file was last opened.
+	 * The compression CPU time is only included after the zip file has been closed.
+	 * @return The compression statistics.
+	 */
+	public CompressionStatistics getStatistics() {
+		return this.statistics;
 	}
 	
 	/**
@@ -169,4 +578,453 @@ public class ZipFileWriter {
 	public File getFile() {
 		return this.zipFile;
 	}
+	
+	/**
+	 * Gets the amount of threads used to deflate file contents.
+	 * @return The amount of threads.
+	 */
+	public int getThreadCount() {
+		return this.threadCount;
+	}
+	
+	private void writeBlock(EntryProperties entry, byte[] deflatedBlock) throws IOException {
+		this.write(deflatedBlock);
+		entry.compressedSize += deflatedBlock.length;
+	}
+	
+	private void writeLocalHeader(EntryProperties entry) throws IOException {
+		this.writeInt(LOCAL_HEADER_SIGNATURE);
+		this.writeShort(entry.hasZip64LocalHeader ? VERSION_ZIP64
+				: (entry.method == METHOD_DEFLATED ? VERSION_DEFLATED : VERSION_STORED));
+		this.writeShort(entry.flags);
+		this.writeShort(entry.method);
+		this.writeInt(this.dosTime);
+		
+		// Write the CRC and sizes. These are 0 when stored in the data descriptor or overwritten later.
+		this.writeInt(entry.crc);
+		this.writeInt(entry.hasZip64LocalHeader ? ZIP64_MAGIC_VALUE : entry.compressedSize);
+		this.writeInt(entry.hasZip64LocalHeader ? ZIP64_MAGIC_VALUE : entry.size);
+		this.writeShort(entry.name.length);
+		int codecExtraSize = (entry.codecName == null ? 0 : entry.codecName.length + 4);
+		this.writeShort((entry.hasZip64LocalHeader ? ZIP64_LOCAL_EXTRA_SIZE : 0) + codecExtraSize); // Extra length.
+		this.write(entry.name);
+		if(entry.hasZip64LocalHeader) {
+			this.writeShort(0x0001); // Zip64 extra field header ID.
+			this.writeShort(ZIP64_LOCAL_EXTRA_SIZE - 4);
+			this.writeLong(entry.size);
+			this.writeLong(entry.compressedSize);
+		}
+		this.writeCodecExtraField(entry);
+	}
+	
+	private void writeCodecExtraField(EntryProperties entry) throws IOException {
+		if(entry.codecName != null) {
+			this.writeShort(CODEC_EXTRA_FIELD_ID);
+			this.writeShort(entry.codecName.length);
+			this.write(entry.codecName);
+		}
+	}
+	
+	private void writeCentralDirectory() throws IOException {
+		
+		// Write the central directory headers.
+		long centralDirOffset = this.position;
+		for(EntryProperties entry : this.entries) {
+			
+			// Create the zip64 extra field for values that do not fit in 4 bytes.
+			ByteArrayOutputStream zip64Extra = new ByteArrayOutputStream();
+			if(needsZip64(entry.size)) {
+				writeLong(zip64Extra, entry.size);
+			}
+			if(needsZip64(entry.compressedSize)) {
+				writeLong(zip64Extra, entry.compressedSize);
+			}
+			if(needsZip64(entry.headerOffset)) {
+				writeLong(zip64Extra, entry.headerOffset);
+			}
+			boolean isZip64 = (zip64Extra.size() > 0);
+			int version = (isZip64 ? VERSION_ZIP64
+					: (entry.method == METHOD_DEFLATED ? VERSION_DEFLATED : VERSION_STORED));
+			
+			// Write the central directory header.
+			this.writeInt(CENTRAL_HEADER_SIGNATURE);
+			this.writeShort(version); // Version made by.
+			this.writeShort(version); // Version needed to extract.
+			this.writeShort(entry.flags);
+			this.writeShort(entry.method);
+			this.writeInt(this.dosTime);
+			this.writeInt(entry.crc);
+			this.writeInt(Math.min(entry.compressedSize, ZIP64_MAGIC_VALUE));
+			this.writeInt(Math.min(entry.size, ZIP64_MAGIC_VALUE));
+			this.writeShort(entry.name.length);
+			this.writeShort((isZip64 ? zip64Extra.size() + 4 : 0)
+					+ (entry.codecName == null ? 0 : entry.codecName.length + 4));
+			this.writeShort(0); // Comment length.
+			this.writeShort(0); // Disk number start.
+			this.writeShort(0); // Internal file attributes.
+			this.writeInt(0); // External file attributes.
+			this.writeInt(Math.min(entry.headerOffset, ZIP64_MAGIC_VALUE));
+			this.write(entry.name);
+			if(isZip64) {
+				this.writeShort(0x0001); // Zip64 extra field header ID.
+				this.writeShort(zip64Extra.size());
+				this.write(zip64Extra.toByteArray());
+			}
+			this.writeCodecExtraField(entry);
+		}
+		long centralDirSize = this.position - centralDirOffset;
+		
+		// Write the zip64 end of central directory record and locator if required.
+		if(this.entries.size() >= ZIP64_MAGIC_COUNT
+				|| needsZip64(centralDirOffset) || needsZip64(centralDirSize)) {
+			long zip64EndOffset = this.position;
+			this.writeInt(ZIP64_END_SIGNATURE);
+			this.writeLong(44); // Size of the remaining record.
+			this.writeShort(VERSION_ZIP64); // Version made by.
+			this.writeShort(VERSION_ZIP64); // Version needed to extract.
+			this.writeInt(0); // Number of this disk.
+			this.writeInt(0); // Disk with the start of the central directory.
+			this.writeLong(this.entries.size()); // Entries on this disk.
+			this.writeLong(this.entries.size()); // Total entries.
+			this.writeLong(centralDirSize);
+			this.writeLong(centralDirOffset);
+			this.writeInt(ZIP64_LOCATOR_SIGNATURE);
+			this.writeInt(0); // Disk with the start of the zip64 end of central directory record.
+			this.writeLong(zip64EndOffset);
+			this.writeInt(1); // Total number of disks.
+		}
+		
+		// Write the end of central directory record.
+		this.writeInt(END_SIGNATURE);
+		this.writeShort(0); // Number of this disk.
+		this.writeShort(0); // Disk with the start of the central directory.
+		this.writeShort(Math.min(this.entries.size(), ZIP64_MAGIC_COUNT)); // Entries on this disk.
+		this.writeShort(Math.min(this.entries.size(), ZIP64_MAGIC_COUNT)); // Total entries.
+		this.writeInt(Math.min(centralDirSize, ZIP64_MAGIC_VALUE));
+		this.writeInt(Math.min(centralDirOffset, ZIP64_MAGIC_VALUE));
+		this.writeShort(0); // Comment length.
+	}
+	
+	private void write(byte[] bytes) throws IOException {
+		this.write(bytes, 0, bytes.length);
+	}
+	
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		this.outStream.write(bytes, offset, length);
+		this.position += length;
+	}
+	
+	/**
+	 * Checks whether the given size or offset has to be stored in a zip64 field. This is the case when it does not
+	 * fit in 4 bytes or when it equals {@link #ZIP64_MAGIC_VALUE}, which indicates that the zip64 field is used.
+	 * @param value - The size or offset.
+	 * @return {@code true} if a zip64 field is required, {@code false} otherwise.
+	 */
+	private static boolean needsZip64(long value) {
+		return value >= ZIP64_MAGIC_VALUE;
+	}
+	
+	private void writeShort(int value) throws IOException {
+		this.outStream.write(value & 0xFF);
+		this.outStream.write((value >>> 8) & 0xFF);
+		this.position += 2;
+	}
+	
+	private void writeInt(long value) throws IOException {
+		this.writeShort((int) (value & 0xFFFF));
+		this.writeShort((int) ((value >>> 16) & 0xFFFF));
+	}
+	
+	private void writeLong(long value) throws IOException {
+		this.writeInt(value & ZIP64_MAGIC_VALUE);
+		this.writeInt(value >>> 32);
+	}
+	
+	private static void writeLong(ByteArrayOutputStream outStream, long value) {
+		for(int i = 0; i < 8; i++) {
+			outStream.write((int) ((value >>> (8 * i)) & 0xFF));
+		}
+	}
+	
+	/**
+	 * Reads a block of at most {@link #BLOCK_SIZE} bytes from the given input stream.
+	 * @param inStream - The input stream.
+	 * @return The read bytes. This is less than {@link #BLOCK_SIZE} bytes only if the end of the stream was reached.
+	 * @throws IOException If an I/O error has occurred.
+	 */
+	private byte[] readBlock(InputStream inStream) throws IOException {
+		
+		// Read into the read buffer, which is only handed out when it is full to prevent allocations for small files.
+		byte[] block = this.readBuffer;
+		int length = 0;
+		int count;
+		while(length < BLOCK_SIZE && (count = inStream.read(block, length, BLOCK_SIZE - length)) != -1) {
+			length += count;
+		}
+		if(length < BLOCK_SIZE) {
+			return Arrays.copyOf(block, length);
+		}
+		this.readBuffer = new byte[BLOCK_SIZE];
+		return block;
+	}
+	
+	/**
+	 * Waits for the given deflate task to complete and returns the deflated block.
+	 * @param future - The future of the deflate task.
+	 * @return The deflated block.
+	 * @throws IOException When the current thread was interrupted or when deflating has failed.
+	 */
+	private static byte[] getBlock(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a block to be deflated.");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IOException("Failed to deflate block.", e.getCause());
+		}
+	}
+	
+	/**
+	 * Converts the given time to MS-DOS date and time format, as used in zip files.
+	 * @param time - The time in milliseconds since the epoch.
+	 * @return The MS-DOS time in the lower and the MS-DOS date in the higher 16 bits.
+	 */
+	private static long toDosTime(long time) {
+		LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		if(dateTime.getYear() < 1980) {
+			return (1 << 21) | (1 << 16); // 1980-01-01 00:00:00.
+		}
+		return ((long) (dateTime.getYear() - 1980) << 25) | (dateTime.getMonthValue() << 21)
+				| (dateTime.getDayOfMonth() << 16) | (dateTime.getHour() << 11) | (dateTime.getMinute() << 5)
+				| (dateTime.getSecond() >> 1);
+	}
+	
+	/**
+	 * Gets the CPU time of the current thread, or the wall clock time if measuring CPU time is not supported.
+	 * @return The time in nanoseconds.
+	 */
+	private static long getCpuTime() {
+		return (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+				? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime());
+	}
+	
+	/**
+	 * Compression statistics of the entries written by a {@link ZipFileWriter}.
+	 * @author P.J.S. Kools
+	 */
+	public static class CompressionStatistics {
+		private int compressedEntryCount = 0;
+		private long compressedEntriesSize = 0;
+		private long compressedSize = 0;
+		private long compressCpuTime = 0;
+		private int storedEntryCount = 0;
+		private long storedSize = 0;
+		private long estimatedStoredCompressedSize = 0;
+		private long samplingCpuTime = 0;
+		private int copiedEntryCount = 0;
+		private long copiedSize = 0;
+		
+		/**
+		 * Creates new empty {@link CompressionStatistics}.
+		 */
+		private CompressionStatistics() {
+		}
+		
+		/**
+		 * Gets the amount of compressed entries.
+		 * @return The amount of compressed entries.
+		 */
+		public int getCompressedEntryCount() {
+			return this.compressedEntryCount;
+		}
+		
+		/**
+		 * Gets the total uncompressed size of the compressed entries.
+		 * @return The size in bytes.
+		 */
+		public long getCompressedEntriesSize() {
+			return this.compressedEntriesSize;
+		}
+		
+		/**
+		 * Gets the total compressed size of the compressed entries.
+		 * @return The size in bytes.
+		 */
+		public long getCompressedSize() {
+			return this.compressedSize;
+		}
+		
+		/**
+		 * Gets the total CPU time spent compressing entries. CPU time of threads created by a codec is not included.
+		 * @return The CPU time in nanoseconds.
+		 */
+		public long getCompressCpuTime() {
+			return this.compressCpuTime;
+		}
+		
+		/**
+		 * Gets the amount of entries that were stored without compression by the compression policy.
+		 * Directories and empty files are not included.
+		 * @return The amount of stored entries.
+		 */
+		public int getStoredEntryCount() {
+			return this.storedEntryCount;
+		}
+		
+		/**
+		 * Gets the total size of the entries that were stored without compression by the compression policy.
+		 * @return The size in bytes.
+		 */
+		public long getStoredSize() {
+			return this.storedSize;
+		}
+		
+		/**
+		 * Gets the total CPU time spent sampling entries to estimate their compressibility.
+		 * @return The CPU time in nanoseconds.
+		 */
+		public long getSamplingCpuTime() {
+			return this.samplingCpuTime;
+		}
+		
+		/**
+		 * Gets the estimated CPU time saved by storing entries instead of compressing them. This is based on the
+		 * compression CPU time per byte of the compressed entries and includes the sampling CPU time as a cost.
+		 * @return The estimated CPU time in nanoseconds. This is negative when sampling cost more than it saved.
+		 */
+		public long getSavedCpuTime() {
+			double compressCpuTimePerByte = (this.compressedEntriesSize == 0
+					? 0d : (double) this.compressCpuTime / this.compressedEntriesSize);
+			return (long) (this.storedSize * compressCpuTimePerByte) - this.samplingCpuTime;
+		}
+		
+		/**
+		 * Gets the estimated amount of bytes saved by storing entries instead of compressing them. This is based on
+		 * the compression ratio of the sampled entries, where entries that were stored because of a rule are assumed
+		 * to not be compressible.
+		 * @return The estimated size in bytes. This is negative when storing entries made the zip file larger.
+		 */
+		public long getSavedBytes() {
+			return this.estimatedStoredCompressedSize - this.storedSize;
+		}
+		
+		/**
+		 * Gets the amount of entries that were copied in their compressed form from another zip file.
+		 * @return The amount of copied entries.
+		 */
+		public int getCopiedEntryCount() {
+			return this.copiedEntryCount;
+		}
+		
+		/**
+		 * Gets the total compressed size of the entries that were copied from another zip file.
+		 * @return The size in bytes.
+		 */
+		public long getCopiedSize() {
+			return this.copiedSize;
+		}
+		
+		@Override
+		public String toString() {
+			return "Compressed " + this.compressedEntryCount + " entries (" + (this.compressedEntriesSize / 1000)
+					+ "KB -> " + (this.compressedSize / 1000) + "KB) in " + (this.compressCpuTime / 1000000)
+					+ "ms CPU time. Stored " + this.storedEntryCount + " entries (" + (this.storedSize / 1000)
+					+ "KB), saving ~" + (this.getSavedCpuTime() / 1000000) + "ms CPU time and ~"
+					+ (this.getSavedBytes() / 1000) + "KB." + (this.copiedEntryCount == 0 ? "" : " Copied "
+					+ this.copiedEntryCount + " compressed entries (" + (this.copiedSize / 1000) + "KB).");
+		}
+	}
+	
+	/**
+	 * Properties of a written zip entry, used to write the central directory.
+	 * @author P.J.S. Kools
+	 */
+	private static final class EntryProperties {
+		private final byte[] name;
+		private final long headerOffset;
+		private int method;
+		private int flags;
+		private boolean hasZip64LocalHeader = false;
+		private byte[] codecName = null;
+		private long crc = 0;
+		private long compressedSize = 0;
+		private long size = 0;
+		
+		/**
+		 * Creates new {@link EntryProperties}.
+		 * @param name - The UTF-8 encoded entry name.
+		 * @param headerOffset - The offset of the local header of the entry in the zip file.
+		 */
+		private EntryProperties(byte[] name, long headerOffset) {
+			this.name = name;
+			this.headerOffset = headerOffset;
+		}
+	}
+	
+	/**
+	 * A task that deflates a single block of an entry into raw DEFLATE data.
+	 * @author P.J.S. Kools
+	 */
+	private static final class DeflateTask implements Callable<byte[]> {
+		private final byte[] block;
+		private final byte[] previousBlock;
+		private final boolean isLastBlock;
+		private final AtomicLong cpuTime;
+		
+		/**
+		 * Creates a new {@link DeflateTask}.
+		 * @param block - The block to deflate.
+		 * @param previousBlock - The previous block of the entry, or {@code null} if this is the first block.
+		 * The end of this block is used as dictionary.
+		 * @param isLastBlock - Whether this is the last block of the entry.
+		 * If {@code true}, the DEFLATE stream is finished. Otherwise, it is flushed to a byte boundary.
+		 * @param cpuTime - The counter to add the CPU time spent deflating to, in nanoseconds.
+		 */
+		private DeflateTask(byte[] block, byte[] previousBlock, boolean isLastBlock, AtomicLong cpuTime) {
+			this.block = block;
+			this.previousBlock = previousBlock;
+			this.isLastBlock = isLastBlock;
+			this.cpuTime = cpuTime;
+		}
+		
+		@Override
+		public byte[] call() {
+			long startCpuTime = getCpuTime();
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				if(this.previousBlock != null) {
+					int dictionarySize = Math.min(DICTIONARY_SIZE, this.previousBlock.length);
+					deflater.setDictionary(
+							this.previousBlock, this.previousBlock.length - dictionarySize, dictionarySize);
+				}
+				deflater.setInput(this.block);
+				ByteArrayOutputStream outStream = new ByteArrayOutputStream(this.block.length / 2 + 64);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				if(this.isLastBlock) {
+					deflater.finish();
+					while(!deflater.finished()) {
+						int count = deflater.deflate(buffer);
+						outStream.write(buffer, 0, count);
+					}
+				} else {
+					int count;
+					do {
+						count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						outStream.write(buffer, 0, count);
+					} while(count == buffer.length);
+				}
+				return outStream.toByteArray();
+			} finally {
+				deflater.end();
+				this.cpuTime.addAndGet(getCpuTime() - startCpuTime);
+			}
+		}
+	}
 }
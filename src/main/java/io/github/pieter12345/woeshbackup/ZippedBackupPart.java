@@ -1,20 +1,34 @@
 package io.github.pieter12345.woeshbackup;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.UTFDataFormatException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import io.github.pieter12345.woeshbackup.exceptions.CorruptedBackupException;
 
@@ -31,7 +45,29 @@ public class ZippedBackupPart implements BackupPart {
 	private final ZipFileWriter zipFileWriter;
 	private final File metaFile;
 	
+	// Changes that are added to this backup part are stored in the changes map until this backup part is closed.
+	// Changes that are read from the meta file or that were added before closing are stored in the change table.
 	private Map<String, ChangeProperties> changesMap = null;
+	private ChangeTable changeTable = null;
+	private ContentHasher contentHasher;
+	private String codecName = DeflateCodec.NAME;
+	
+	// The binary meta file format. Legacy text meta files start with a format version header or a change instead.
+	private static final byte[] META_MAGIC = new byte[] {0, 'W', 'B', 'M'};
+	private static final int META_FORMAT_VERSION = 3;
+	private static final int META_ADDITION = 0;
+	private static final int META_MODIFICATION = 1;
+	private static final int META_REMOVAL = 2;
+	private static final int MAX_META_PATH_LENGTH = 1024 * 1024;
+	
+	// The legacy text meta file format version that has a format version header.
+	private static final int TEXT_META_FORMAT_VERSION = 2;
+	
+	// The maximum size of region files that are stored as a difference with their previous version.
+	private static final long MAX_REGION_FILE_DELTA_SIZE = 64L * 1024L * 1024L;
+	
+	// The minimum size of other files that are stored as a binary difference with their previous version.
+	private static final long MIN_BINARY_DELTA_FILE_SIZE = 64L * 1024L;
 	
 	/**
 	 * Creates a new ZippedBackupPart.
@@ -41,89 +77,215 @@ public class ZippedBackupPart implements BackupPart {
 	 * @param creationTime - The creation time of this backup.
 	 */
 	public ZippedBackupPart(File parentDir, String name, long creationTime) {
+		this(parentDir, name, creationTime, 1);
+	}
+	
+	/**
+	 * Creates a new ZippedBackupPart.
+	 * The given name will be used to create a name.zip and a name.meta file in the given parent directory.
+	 * @param parentDir - The directory to put the files for this backup part in.
+	 * @param name - The name of this backup.
+	 * @param creationTime - The creation time of this backup.
+	 * @param compressionThreadCount - The amount of threads used to compress added files.
+	 */
+	public ZippedBackupPart(File parentDir, String name, long creationTime, int compressionThreadCount) {
+		this(parentDir, name, creationTime, compressionThreadCount, ContentHasher.XXH64_TREE);
+	}
+	
+	/**
+	 * Creates a new ZippedBackupPart.
+	 * The given name will be used to create a name.zip and a name.meta file in the given parent directory.
+	 * @param parentDir - The directory to put the files for this backup part in.
+	 * @param name - The name of this backup.
+	 * @param creationTime - The creation time of this backup.
+	 * @param compressionThreadCount - The amount of threads used to compress added files.
+	 * @param contentHasher - The content hasher used to hash added files. When reading an existing backup part,
+	 * the content hasher stored in its meta file is used instead.
+	 */
+	public ZippedBackupPart(File parentDir, String name,
+			long creationTime, int compressionThreadCount, ContentHasher contentHasher) {
 		this.creationTime = creationTime;
 		this.name = name;
 		this.parentDir = parentDir;
 		this.zipFileReader = new ZipFileReader(new File(parentDir, name + ".zip"));
-		this.zipFileWriter = new ZipFileWriter(new File(parentDir, name + ".zip"));
+		this.zipFileWriter = new ZipFileWriter(new File(parentDir, name + ".zip"), compressionThreadCount);
 		this.metaFile = new File(parentDir, name + ".meta");
+		this.contentHasher = contentHasher;
 	}
 	
 	@Override
 	public void addAddition(String relPath, File file) throws IOException {
 		if(relPath.endsWith(File.separator)) {
 			// Add directory.
-			this.addAddition(relPath, (InputStream) null);
+			this.addAddition(relPath, (InputStream) null, null);
 		} else {
+			
+			// Get the region file fingerprint. The header is read first, so that it cannot be newer than the contents.
+			String fingerprint = null;
+			if(RegionFileDelta.isRegionFile(relPath)) {
+				long fileLength = file.length();
+				fingerprint = RegionFileDelta.getStableFingerprint(
+						RegionFileDelta.readHeader(file), fileLength, this.creationTime);
+			}
+			
 			// Add file.
 			FileInputStream inStream = new FileInputStream(file);
-			this.addAddition(relPath, inStream);
+			this.addAddition(relPath, inStream, fingerprint);
 			inStream.close();
 		}
 	}
 	
-	private void addAddition(String relPath, InputStream inStream) throws IOException {
-		if(this.changesMap == null) {
-			this.changesMap = new HashMap<String, ChangeProperties>();
-			if(!this.parentDir.exists()) {
-				this.parentDir.mkdirs();
-			}
-			if(this.zipFileWriter.getFile().exists()) {
-				throw new IOException("Target file already exists: " + this.zipFileWriter.getFile().getAbsolutePath());
-			}
-			this.zipFileWriter.open();
-		}
-		
-		// Throw an exception if the relPath was already added.
-		if(this.changesMap.containsKey(relPath)) {
-			throw new IllegalArgumentException("Relative path was already added: " + relPath);
-		}
+	private void addAddition(String relPath, InputStream inStream, String fingerprint) throws IOException {
+		this.prepareChange(relPath);
 		
-		// Add the directory or file to the zip, getting the MD5 hash in the process.
+		// Add the directory or file to the zip, getting the hash in the process.
 		String hash;
 		if(relPath.endsWith(File.separator)) {
 			this.zipFileWriter.add(relPath);
 			hash = null;
 		} else {
-			MessageDigest messageDigest;
-			try {
-				messageDigest = MessageDigest.getInstance("MD5");
-			} catch (NoSuchAlgorithmException e) {
-				throw new Error(e); // Never happens, and if it does, then there is no fallback anyways.
-			}
-			this.zipFileWriter.add(relPath, new DigestInputStream(inStream, messageDigest));
-			hash = Base64.getEncoder().encodeToString(messageDigest.digest());
+			ContentHasher.Digest digest = this.contentHasher.newDigest();
+			this.zipFileWriter.add(relPath, new ContentHasher.DigestInputStream(inStream, digest));
+			hash = digest.digest();
 		}
 		
 		// Store the change.
-		this.changesMap.put(relPath, new ChangeProperties(relPath, ChangeType.ADDITION, hash));
+		this.changesMap.put(relPath, new ChangeProperties(relPath, ChangeType.ADDITION, hash, fingerprint));
 	}
 	
 	@Override
 	public void addModification(String relPath, File file) throws IOException {
-		/* TODO - Store modifications differently? If this is done, the merge method should account for this.
-		 * Merging could result in a 'first' backup with modifications instead of additions.
-		 */
 		this.addAddition(relPath, file);
 	}
 	
 	@Override
-	public void addRemoval(String relPath) throws IOException {
-		if(this.changesMap == null) {
-			this.changesMap = new HashMap<String, ChangeProperties>();
-			if(!this.parentDir.exists()) {
-				this.parentDir.mkdirs();
-			}
-			if(this.zipFileWriter.getFile().exists()) {
-				throw new IOException("Target file already exists: " + this.zipFileWriter.getFile().getAbsolutePath());
+	public void addModification(String relPath, File file, FileVersionSupplier previousVersion) throws IOException {
+		
+		/* Region files are stored as a difference containing only the chunks that changed compared to the previous
+		 * version. Other large files are stored as a binary difference with the previous version. Small files, and
+		 * files for which this does not result in a smaller entry, are stored fully.
+		 */
+		if(previousVersion == null || relPath.endsWith(File.separator)) {
+			this.addAddition(relPath, file);
+			return;
+		}
+		long fileLength = file.length();
+		if(RegionFileDelta.isRegionFile(relPath) && fileLength <= MAX_REGION_FILE_DELTA_SIZE) {
+			this.addRegionFileModification(relPath, file, previousVersion);
+		} else if(fileLength >= MIN_BINARY_DELTA_FILE_SIZE) {
+			this.addBinaryModification(relPath, file, previousVersion);
+		} else {
+			this.addAddition(relPath, file);
+		}
+	}
+	
+	/**
+	 * Adds the given region file as a difference containing only the chunks that changed compared to the given
+	 * previous version.
+	 * @param relPath - The relative path of the region file.
+	 * @param file - The region file.
+	 * @param previousVersion - The previous version of the region file.
+	 * @throws IOException When an I/O error occurs while reading the file or writing to the backup part.
+	 */
+	private void addRegionFileModification(String relPath,
+			File file, FileVersionSupplier previousVersion) throws IOException {
+		
+		// Read the previous version. The file is stored fully if the previous version is not available.
+		byte[] previousBytes;
+		try {
+			InputStream previousInStream = previousVersion.open();
+			if(previousInStream == null) {
+				this.addAddition(relPath, file);
+				return;
 			}
-			this.zipFileWriter.open();
+			previousBytes = readAllBytes(previousInStream);
+		} catch (IOException | CorruptedBackupException e) {
+			this.addAddition(relPath, file);
+			return;
 		}
 		
-		// Throw an exception if the relPath was already added.
-		if(this.changesMap.containsKey(relPath)) {
-			throw new IllegalArgumentException("Relative path was already added: " + relPath);
+		// Create the difference and store it if it is smaller than the file.
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		String hash = this.contentHasher.hash(bytes);
+		String fingerprint = RegionFileDelta.getStableFingerprint(bytes, bytes.length, this.creationTime);
+		byte[] delta = RegionFileDelta.create(previousBytes, bytes);
+		this.prepareChange(relPath);
+		if(delta != null && delta.length < bytes.length) {
+			this.zipFileWriter.add(relPath, delta);
+			this.changesMap.put(relPath,
+					new ChangeProperties(relPath, ChangeType.MODIFICATION, hash, fingerprint));
+		} else {
+			this.zipFileWriter.add(relPath, bytes);
+			this.changesMap.put(relPath, new ChangeProperties(relPath, ChangeType.ADDITION, hash, fingerprint));
+		}
+	}
+	
+	/**
+	 * Adds the given file as a binary difference with the given previous version, or as an addition if the
+	 * difference is not smaller than the file. Both versions are streamed, so the file size is not limited by memory.
+	 * @param relPath - The relative path of the file.
+	 * @param file - The file.
+	 * @param previousVersion - The previous version of the file.
+	 * @throws IOException When an I/O error occurs while reading the file or writing to the backup part.
+	 */
+	private void addBinaryModification(String relPath,
+			File file, FileVersionSupplier previousVersion) throws IOException {
+		File deltaFile = Files.createTempFile("woeshbackup", ".delta").toFile();
+		try {
+			
+			// Write the difference to a temporary file, getting the hash of the file in the process.
+			// The file is stored fully if the previous version is not available.
+			ContentHasher.Digest digest = this.contentHasher.newDigest();
+			long fileLength = file.length();
+			try {
+				InputStream previousInStream = previousVersion.open();
+				if(previousInStream == null) {
+					this.addAddition(relPath, file);
+					return;
+				}
+				try {
+					InputStream inStream = new ContentHasher.DigestInputStream(new FileInputStream(file), digest);
+					try {
+						FileOutputStream deltaOutStream = new FileOutputStream(deltaFile);
+						try {
+							BinaryDelta.create(previousInStream, inStream,
+									BinaryDelta.getBlockSize(fileLength), deltaOutStream);
+						} finally {
+							deltaOutStream.close();
+						}
+					} finally {
+						inStream.close();
+					}
+				} finally {
+					previousInStream.close();
+				}
+			} catch (CorruptedBackupException e) {
+				this.addAddition(relPath, file);
+				return;
+			}
+			
+			// Store the difference if it is smaller than the file.
+			if(deltaFile.length() >= fileLength) {
+				this.addAddition(relPath, file);
+				return;
+			}
+			String hash = digest.digest();
+			this.prepareChange(relPath);
+			FileInputStream deltaInStream = new FileInputStream(deltaFile);
+			try {
+				this.zipFileWriter.add(relPath, deltaInStream);
+			} finally {
+				deltaInStream.close();
+			}
+			this.changesMap.put(relPath, new ChangeProperties(relPath, ChangeType.MODIFICATION, hash, null));
+		} finally {
+			deltaFile.delete();
 		}
+	}
+	
+	@Override
+	public void addRemoval(String relPath) throws IOException {
+		this.prepareChange(relPath);
 		
 		// Store the change.
 		this.changesMap.put(relPath, new ChangeProperties(relPath, ChangeType.REMOVAL, null));
@@ -132,34 +294,34 @@ public class ZippedBackupPart implements BackupPart {
 	@Override
 	public void merge(BackupPart backup) throws IOException, CorruptedBackupException {
 		
-		// Get changes map.
-		final Map<String, ChangeType> changesMap = backup.getChanges();
+		// Get changes map. This is a copy, since changes are removed from it when they are handled.
+		final Map<String, ChangeType> changesMap = new HashMap<String, ChangeType>(backup.getChanges());
 		
 		// Handle additions based on backup part files.
 		try {
-			backup.readAll((fileEntry) -> {
-				String relPath = fileEntry.getRelativePath();
-				
-				// Remove change from changes map to mark it as handled and validate change type.
-				ChangeType changeType = changesMap.remove(relPath);
-				if(changeType == null) {
-					throw new CorruptedBackupException(this,
-							"Backup part contains file that does not occur in its changes: " + relPath);
-				} else if(changeType == ChangeType.REMOVAL) {
-					throw new CorruptedBackupException(this,
-							"Backup part contains file that occurs as a removal in its changes: " + relPath);
-				} else if(changeType != ChangeType.ADDITION) {
-					throw new Error("Unsupported change type: " + changeType);
-				}
-				
-				// Skip entries that are already in this backup.
-				if(this.changesMap != null && this.changesMap.containsKey(relPath)) {
-					return;
-				}
-				
-				// Add addition entry to this backup part.
-				ZippedBackupPart.this.addAddition(relPath, fileEntry.getFileStream());
-			});
+			if(backup instanceof ZippedBackupPart) {
+				this.mergeRaw((ZippedBackupPart) backup, changesMap);
+			} else {
+				backup.readAll((fileEntry) -> {
+					String relPath = fileEntry.getRelativePath();
+					
+					// Remove change from changes map to mark it as handled and validate change type.
+					ChangeType changeType = this.takeMergedChange(changesMap, relPath);
+					
+					// Skip entries that are already in this backup.
+					if(this.changesMap != null && this.changesMap.containsKey(relPath)) {
+						return;
+					}
+					
+					// Add addition entry to this backup part.
+					if(changeType == ChangeType.ADDITION) {
+						ZippedBackupPart.this.addAddition(relPath, fileEntry.getFileStream(), null);
+						return;
+					}
+					throw new UnsupportedOperationException("Merging modifications from backup parts of type "
+							+ backup.getClass().getName() + " is not supported.");
+				});
+			}
 		} catch (InvocationTargetException e) {
 			if(e.getTargetException() instanceof CorruptedBackupException) {
 				throw (CorruptedBackupException) e.getTargetException();
@@ -178,7 +340,8 @@ public class ZippedBackupPart implements BackupPart {
 			ChangeType changeType = changeEntry.getValue();
 			String relPath = changeEntry.getKey();
 			switch(changeType) {
-				case ADDITION: {
+				case ADDITION:
+				case MODIFICATION: {
 					throw new CorruptedBackupException(this,
 							"Backup part is missing a file that occurs in its changes: " + relPath);
 				}
@@ -200,36 +363,109 @@ public class ZippedBackupPart implements BackupPart {
 		}
 	}
 	
+	/**
+	 * Merges the files of the given backup part into this backup part, copying their compressed zip entries without
+	 * decompressing and recompressing them. The hashes of the files are taken from the changes of the given backup
+	 * part. Files are only decompressed when they were compressed by a different codec than the codec of this backup
+	 * part, or when their addition has to be hashed because the given backup part uses a different content hasher.
+	 * @param backup - The backup part to merge.
+	 * @param changesMap - The changes of the given backup part that have not been handled yet. Handled changes are
+	 * removed from this map.
+	 * @throws InvocationTargetException If handling a file of the given backup part results in a throwable being
+	 * thrown.
+	 * @throws IOException If an I/O error has occurred while reading the given backup part.
+	 */
+	private void mergeRaw(ZippedBackupPart backup,
+			Map<String, ChangeType> changesMap) throws InvocationTargetException, IOException {
+		boolean isSameContentHasher = backup.contentHasher.getName().equals(this.contentHasher.getName());
+		backup.readAllRaw((rawEntry) -> {
+			String relPath = rawEntry.getRelativePath();
+			
+			// Remove change from changes map to mark it as handled and validate change type.
+			ChangeType changeType = this.takeMergedChange(changesMap, relPath);
+			
+			// Skip entries that are already in this backup.
+			if(this.changesMap != null && this.changesMap.containsKey(relPath)) {
+				return;
+			}
+			
+			// Add directories as empty entries.
+			if(rawEntry.isDirectory()) {
+				this.addAddition(relPath, (InputStream) null, null);
+				return;
+			}
+			
+			// Get the hash of the file. The hash of a modified file is not in the entry, so hashes of a different
+			// content hasher are dropped for modifications, causing the next comparison to see a change.
+			ChangeProperties change = backup.getChange(relPath);
+			String hash = (isSameContentHasher ? change.hash : null);
+			if(hash == null && changeType == ChangeType.MODIFICATION) {
+				hash = "";
+			}
+			
+			// Copy the compressed entry if it was compressed by the codec of this backup part or not compressed at all.
+			String codecName = rawEntry.getCodecName();
+			if(hash != null && (codecName == null || codecName.equals(this.codecName))) {
+				this.prepareChange(relPath);
+				this.zipFileWriter.addRaw(relPath, rawEntry);
+				this.changesMap.put(relPath, new ChangeProperties(relPath, changeType, hash, change.fingerprint));
+				return;
+			}
+			
+			// Decompress the entry and add it, compressing it using the codec of this backup part.
+			InputStream inStream = rawEntry.openStream();
+			try {
+				if(changeType == ChangeType.ADDITION) {
+					this.addAddition(relPath, inStream, change.fingerprint);
+				} else {
+					this.prepareChange(relPath);
+					this.zipFileWriter.add(relPath, inStream);
+					this.changesMap.put(relPath, new ChangeProperties(relPath, changeType, hash, change.fingerprint));
+				}
+			} finally {
+				inStream.close();
+			}
+		});
+	}
+	
+	/**
+	 * Removes the change of a file that is merged into this backup part from the given changes, validating that the
+	 * file is an addition or modification.
+	 * @param changesMap - The changes of the merged backup part that have not been handled yet.
+	 * @param relPath - The relative path of the merged file.
+	 * @return The change type of the merged file.
+	 * @throws CorruptedBackupException If the merged file is not an addition or modification in the given changes.
+	 */
+	private ChangeType takeMergedChange(
+			Map<String, ChangeType> changesMap, String relPath) throws CorruptedBackupException {
+		ChangeType changeType = changesMap.remove(relPath);
+		if(changeType == null) {
+			throw new CorruptedBackupException(this,
+					"Backup part contains file that does not occur in its changes: " + relPath);
+		} else if(changeType == ChangeType.REMOVAL) {
+			throw new CorruptedBackupException(this,
+					"Backup part contains file that occurs as a removal in its changes: " + relPath);
+		} else if(changeType != ChangeType.ADDITION && changeType != ChangeType.MODIFICATION) {
+			throw new Error("Unsupported change type: " + changeType);
+		}
+		return changeType;
+	}
+	
 	@Override
 	public void close() throws IOException {
 		
 		// Close the zip file.
 		this.zipFileWriter.close();
 		
-		// Write the changes file.
+		// Move the changes into the change table and write the changes file.
 		if(this.changesMap != null) {
-			StringBuilder changesStr = new StringBuilder();
+			ChangeTable.Builder changes = new ChangeTable.Builder();
 			for(ChangeProperties change : this.changesMap.values()) {
-				String relPath = change.relPath.replace(File.separatorChar, '/');
-				switch(change.changeType) {
-					case ADDITION:
-						changesStr.append('+').append(relPath).append('\n');
-						boolean isDirectory = relPath.endsWith("/");
-						if(!isDirectory) {
-							changesStr.append('\t').append(change.hash).append('\n');
-						}
-						break;
-					case REMOVAL:
-						changesStr.append('-').append(relPath).append('\n');
-						break;
-					default:
-						throw new Error("Unimplemented change type found: " + change.changeType);
-				}
+				changes.add(change.relPath, change.changeType, change.hash, change.fingerprint);
 			}
-			changesStr.append('#').append(this.name).append('\n');
-			FileOutputStream fos = new FileOutputStream(this.metaFile);
-			fos.write(changesStr.toString().getBytes(StandardCharsets.UTF_8));
-			fos.close();
+			this.changeTable = changes.build();
+			this.changesMap = null;
+			this.writeMetaFile();
 		}
 	}
 	
@@ -237,7 +473,7 @@ public class ZippedBackupPart implements BackupPart {
 	public boolean contains(String relPath, File file, boolean compareContent) throws IOException {
 		
 		// Get the change for the given relPath.
-		ChangeProperties change = this.changesMap.get(relPath);
+		ChangeProperties change = this.getChange(relPath);
 		if(change == null || change.changeType == ChangeType.REMOVAL) {
 			return false; // No change or a removal for relPath found.
 		}
@@ -250,41 +486,82 @@ public class ZippedBackupPart implements BackupPart {
 					+ relPath + ", directory path: " + file.getAbsolutePath());
 		}
 		
-		// Get the file hash.
-		MessageDigest messageDigest;
-		try {
-			messageDigest = MessageDigest.getInstance("MD5");
-		} catch (NoSuchAlgorithmException e) {
-			throw new Error(e); // Never happens, and if it does, then there is no fallback anyways.
+		return matches(file, this.contentHasher, change.hash, change.fingerprint);
+	}
+	
+	@Override
+	public String getDigest(String relPath) {
+		ChangeProperties change = this.getChange(relPath);
+		if(change == null || change.hash == null || change.hash.isEmpty() || relPath.endsWith(File.separator)) {
+			return null;
 		}
-		FileInputStream inStream = new FileInputStream(file);
-		byte[] buffer = new byte[2048];
-		int count;
-		while((count = inStream.read(buffer)) > 0) {
-			messageDigest.update(buffer, 0, count);
+		return this.contentHasher.getName() + ":" + change.hash
+				+ (change.fingerprint == null ? "" : ":" + change.fingerprint);
+	}
+	
+	@Override
+	public boolean matchesDigest(String digest, File file) throws IOException {
+		String[] split = digest.split(":", 3);
+		ContentHasher contentHasher = ContentHasher.forName(split[0]);
+		if(split.length < 2 || contentHasher == null) {
+			return false;
+		}
+		return matches(file, contentHasher, split[1], (split.length == 3 ? split[2] : null));
+	}
+	
+	/**
+	 * Checks whether the given file has the given hash or region file fingerprint.
+	 * @param file - The file.
+	 * @param contentHasher - The content hasher that created the hash.
+	 * @param hash - The hash or {@code null} or an empty string if not available.
+	 * @param fingerprint - The region file fingerprint or {@code null} if not available.
+	 * @return {@code true} if the file has the given fingerprint or hash, {@code false} otherwise.
+	 * @throws IOException When an I/O error occurs while reading the file.
+	 */
+	private static boolean matches(File file,
+			ContentHasher contentHasher, String hash, String fingerprint) throws IOException {
+		
+		// Compare the region file fingerprint, which only requires reading the region file header.
+		// A different fingerprint does not imply different contents, so the hashes are compared in that case.
+		if(fingerprint != null) {
+			long fileLength = file.length();
+			if(fingerprint.equals(RegionFileDelta.getFingerprint(RegionFileDelta.readHeader(file), fileLength))) {
+				return true;
+			}
 		}
-		inStream.close();
-		String fileHash = Base64.getEncoder().encodeToString(messageDigest.digest());
 		
-		// Compare the given file to the file in this backup part using their MD5 hashes.
-		return fileHash.equals(change.hash);
+		// Compare the given file to the file in this backup part using their hashes.
+		// Large files are hashed in parallel if the content hasher supports it.
+		if(hash == null || hash.isEmpty()) {
+			return false;
+		}
+		return contentHasher.hash(file).equals(hash);
 	}
 	
 	@Override
 	public void readChanges() throws IOException, CorruptedBackupException {
 		
-		/* Meta file format:
+		/* Meta file format (binary, see writeMetaFile() for details):
+		 * <magic><formatVersion><contentHasherName><codecName><changeCount>
+		 * <change>... (sorted by path, with the path prefix shared with the previous path omitted)
+		 * <name><CRC32 checksum>
+		 * 
+		 * Legacy meta file format (text):
+		 * [!<formatVersion>\t<contentHasherName>[\t<codecName> (absent for deflate)]
+		 * (absent in legacy meta files, which use MD5 hashes and deflate)]
 		 * +some/path/to/file
-		 * \t<fileHash (only for file additions)>
+		 * \t<fileHash (only for file additions)>[\t<regionFileFingerprint (only for stable region files)>]
 		 * +some/path/to/dir/
+		 * *some/path/to/modified/file
+		 * \t<fileHash (of the modified file)>[\t<regionFileFingerprint (only for stable region files)>]
 		 * -some/other/file/path
 		 * -some/other/dir/path/
 		 * #<name>
 		 * 
 		 */
 		
-		// Return if the changes were already read.
-		if(this.changesMap != null) {
+		// Return if the changes were already read or added.
+		if(this.changeTable != null || this.changesMap != null) {
 			return;
 		}
 		
@@ -293,59 +570,232 @@ public class ZippedBackupPart implements BackupPart {
 			throw new CorruptedBackupException(this, "Meta file does not exist.");
 		}
 		
-		// Read the changes.
-		String changes = new String(Files.readAllBytes(this.metaFile.toPath()), StandardCharsets.UTF_8);
-		String[] lines = changes.replaceAll("\r\n", "\n").split("\n");
-		
-		// Create the new changes map.
-		this.changesMap = new HashMap<String, ChangeProperties>();
-		
+		// Read the changes, streaming them from the meta file. The format is detected from the first bytes.
+		ChangeTable.Builder changes = new ChangeTable.Builder();
+		BufferedInputStream inStream = new BufferedInputStream(new FileInputStream(this.metaFile));
 		try {
-			// Detect write corruption.
-			if(!lines[lines.length - 1].equals('#' + this.name)) {
-				throw new CorruptedBackupException(this, "Meta file does not end with expected suffix.");
+			inStream.mark(META_MAGIC.length);
+			boolean isBinary = true;
+			for(int i = 0; i < META_MAGIC.length && isBinary; i++) {
+				isBinary = (inStream.read() == (META_MAGIC[i] & 0xFF));
 			}
+			inStream.reset();
+			if(isBinary) {
+				this.readBinaryMetaFile(inStream, changes);
+			} else {
+				this.readTextMetaFile(
+						new BufferedReader(new InputStreamReader(inStream, StandardCharsets.UTF_8)), changes);
+			}
+		} finally {
+			inStream.close();
+		}
+		try {
+			this.changeTable = changes.build();
+		} catch (IllegalArgumentException e) {
+			throw new CorruptedBackupException(this, "Meta file contains a change more than once: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Reads the changes from a binary meta file into the given change table builder.
+	 * @param inStream - The stream to read the meta file from, positioned at the start of the meta file.
+	 * @param changes - The change table builder to add the changes to.
+	 * @throws IOException When an I/O error occurs while reading the meta file.
+	 * @throws CorruptedBackupException When the meta file is corrupted or has an unsupported format version.
+	 */
+	private void readBinaryMetaFile(
+			InputStream inStream, ChangeTable.Builder changes) throws IOException, CorruptedBackupException {
+		CRC32 checksum = new CRC32();
+		DataInputStream dataInStream = new DataInputStream(new CheckedInputStream(inStream, checksum));
+		try {
 			
-			// Parse and store the changes.
-			for(int i = 0; i < lines.length - 1; i++) {
-				String line = lines[i];
-				if(line.isEmpty()) {
-					throw new CorruptedBackupException(this, "Meta file contains an empty line.");
+			// Read the header.
+			dataInStream.readFully(new byte[META_MAGIC.length]);
+			int formatVersion = dataInStream.readUnsignedByte();
+			if(formatVersion != META_FORMAT_VERSION) {
+				throw new CorruptedBackupException(this,
+						"Meta file has an unsupported format version: " + formatVersion);
+			}
+			String contentHasherName = dataInStream.readUTF();
+			ContentHasher contentHasher = ContentHasher.forName(contentHasherName);
+			if(contentHasher == null) {
+				throw new CorruptedBackupException(this,
+						"Meta file has an unknown content hasher: " + contentHasherName);
+			}
+			this.contentHasher = contentHasher;
+			String codecName = dataInStream.readUTF();
+			if(CompressionCodec.forName(codecName) == null) {
+				throw new CorruptedBackupException(this, "Meta file has an unknown codec: " + codecName);
+			}
+			this.codecName = codecName;
+			
+			// Read the changes. Paths are front-coded, so every path is read into the buffer holding the previous path.
+			int changeCount = readVarInt(dataInStream);
+			byte[] pathBytes = new byte[256];
+			int pathLength = 0;
+			for(int i = 0; i < changeCount; i++) {
+				int flags = dataInStream.readUnsignedByte();
+				int prefixLength = readVarInt(dataInStream);
+				int suffixLength = readVarInt(dataInStream);
+				if(prefixLength > pathLength || suffixLength > MAX_META_PATH_LENGTH - prefixLength) {
+					throw new CorruptedBackupException(this, "Meta file contains an invalid path length.");
 				}
-				char typeChar = line.charAt(0);
-				String relPath = line.substring(1).replace('/', File.separatorChar);
-				switch(typeChar) {
-					case '+':
-						boolean isDirectory = relPath.endsWith(File.separator);
-						String hash = null;
-						if(!isDirectory) {
-							String nextLine = lines[++i];
-							if(!nextLine.startsWith("\t")) {
-								throw new CorruptedBackupException(this,
-										"Meta file does not contain hash for file addition: " + relPath);
-							}
-							hash = nextLine.substring(1);
-						}
-						this.changesMap.put(relPath, new ChangeProperties(relPath, ChangeType.ADDITION, hash));
+				pathLength = prefixLength + suffixLength;
+				if(pathLength > pathBytes.length) {
+					pathBytes = Arrays.copyOf(pathBytes, Math.max(pathLength, 2 * pathBytes.length));
+				}
+				dataInStream.readFully(pathBytes, prefixLength, suffixLength);
+				String relPath = new String(pathBytes, 0, pathLength, StandardCharsets.UTF_8)
+						.replace('/', File.separatorChar);
+				String hash = this.readMetaToken(dataInStream, (flags >>> 2) & 0x03);
+				String fingerprint = this.readMetaToken(dataInStream, (flags >>> 4) & 0x03);
+				
+				// Validate and store the change.
+				boolean isDirectory = relPath.endsWith(File.separator);
+				ChangeType changeType;
+				switch(flags & 0x03) {
+					case META_ADDITION:
+						changeType = ChangeType.ADDITION;
+						break;
+					case META_MODIFICATION:
+						changeType = ChangeType.MODIFICATION;
 						break;
-					case '-':
-						this.changesMap.put(relPath, new ChangeProperties(relPath, ChangeType.REMOVAL));
+					case META_REMOVAL:
+						changeType = ChangeType.REMOVAL;
 						break;
 					default:
-						throw new CorruptedBackupException(this, "Meta file contains"
-								+ " unexpected first character on line " + (i + 1) + ": '" + typeChar + "'");
+						throw new CorruptedBackupException(this, "Meta file contains an unknown change type.");
 				}
+				if((changeType == ChangeType.REMOVAL || isDirectory) != (hash == null)
+						|| (changeType == ChangeType.MODIFICATION && isDirectory)) {
+					throw new CorruptedBackupException(this,
+							"Meta file contains an invalid hash for change: " + relPath);
+				}
+				changes.add(relPath, changeType, hash, fingerprint);
 			}
-		} catch (CorruptedBackupException e) {
 			
-			// Reset the changes map so that it can be initialized again and rethrow the exception.
-			this.changesMap = null;
-			throw e;
+			// Detect write corruption and bit rot using the name and checksum footer.
+			String name = dataInStream.readUTF();
+			int expectedChecksum = (int) checksum.getValue();
+			if(!name.equals(this.name)) {
+				throw new CorruptedBackupException(this, "Meta file does not end with expected suffix.");
+			}
+			if(dataInStream.readInt() != expectedChecksum || dataInStream.read() != -1) {
+				throw new CorruptedBackupException(this, "Meta file checksum does not match.");
+			}
+		} catch (EOFException e) {
+			throw new CorruptedBackupException(this, "Meta file is truncated.");
+		} catch (UTFDataFormatException e) {
+			throw new CorruptedBackupException(this, "Meta file contains invalid text.");
+		}
+	}
+	
+	/**
+	 * Reads the changes from a legacy text meta file into the given change table builder.
+	 * @param reader - The reader to read the meta file from, positioned at the start of the meta file.
+	 * @param changes - The change table builder to add the changes to.
+	 * @throws IOException When an I/O error occurs while reading the meta file.
+	 * @throws CorruptedBackupException When the meta file is corrupted or has an unsupported format version.
+	 */
+	private void readTextMetaFile(
+			BufferedReader reader, ChangeTable.Builder changes) throws IOException, CorruptedBackupException {
+		
+		// Parse the format version header. Legacy meta files do not have it and use MD5 hashes and deflate.
+		// Entries compressed using a different codec contain the codec name themselves, so the codec name is only
+		// validated here.
+		String line = reader.readLine();
+		this.contentHasher = ContentHasher.MD5;
+		this.codecName = DeflateCodec.NAME;
+		if(line != null && line.startsWith("!")) {
+			String[] headerParts = line.substring(1).split("\t", 3);
+			if(!headerParts[0].equals(Integer.toString(TEXT_META_FORMAT_VERSION))) {
+				throw new CorruptedBackupException(this,
+						"Meta file has an unsupported format version: " + headerParts[0]);
+			}
+			ContentHasher contentHasher = (headerParts.length > 1 ? ContentHasher.forName(headerParts[1]) : null);
+			if(contentHasher == null) {
+				throw new CorruptedBackupException(this, "Meta file has an unknown content hasher: "
+						+ (headerParts.length > 1 ? headerParts[1] : null));
+			}
+			this.contentHasher = contentHasher;
+			if(headerParts.length > 2) {
+				if(CompressionCodec.forName(headerParts[2]) == null) {
+					throw new CorruptedBackupException(this, "Meta file has an unknown codec: " + headerParts[2]);
+				}
+				this.codecName = headerParts[2];
+			}
+			line = reader.readLine();
+		}
+		
+		// Parse and store the changes until the name suffix is found.
+		for(int lineNum = 1; ; lineNum++) {
+			
+			// Detect write corruption. Only empty lines may follow the name suffix.
+			if(line == null) {
+				throw new CorruptedBackupException(this, "Meta file does not end with expected suffix.");
+			}
+			if(line.equals('#' + this.name)) {
+				while((line = reader.readLine()) != null) {
+					if(!line.isEmpty()) {
+						throw new CorruptedBackupException(this, "Meta file does not end with expected suffix.");
+					}
+				}
+				return;
+			}
+			
+			if(line.isEmpty()) {
+				throw new CorruptedBackupException(this, "Meta file contains an empty line.");
+			}
+			char typeChar = line.charAt(0);
+			String relPath = line.substring(1).replace('/', File.separatorChar);
+			switch(typeChar) {
+				case '+':
+					boolean isDirectory = relPath.endsWith(File.separator);
+					String hash = null;
+					String fingerprint = null;
+					if(!isDirectory) {
+						String nextLine = reader.readLine();
+						lineNum++;
+						if(nextLine == null || !nextLine.startsWith("\t")) {
+							throw new CorruptedBackupException(this,
+									"Meta file does not contain hash for file addition: " + relPath);
+						}
+						String[] hashLineParts = nextLine.substring(1).split("\t", 2);
+						hash = hashLineParts[0];
+						fingerprint = (hashLineParts.length > 1 ? hashLineParts[1] : null);
+					}
+					changes.add(relPath, ChangeType.ADDITION, hash, fingerprint);
+					break;
+				case '*': {
+					String nextLine = (relPath.endsWith(File.separator) ? null : reader.readLine());
+					lineNum++;
+					if(nextLine == null || !nextLine.startsWith("\t")) {
+						throw new CorruptedBackupException(this,
+								"Meta file does not contain hash for file modification: " + relPath);
+					}
+					String[] hashLineParts = nextLine.substring(1).split("\t", 2);
+					changes.add(relPath, ChangeType.MODIFICATION,
+							hashLineParts[0], (hashLineParts.length > 1 ? hashLineParts[1] : null));
+					break;
+				}
+				case '-':
+					changes.add(relPath, ChangeType.REMOVAL, null, null);
+					break;
+				default:
+					throw new CorruptedBackupException(this, "Meta file contains"
+							+ " unexpected first character on line " + lineNum + ": '" + typeChar + "'");
+			}
+			line = reader.readLine();
 		}
 	}
 	
 	@Override
 	public Map<String, ChangeType> getChanges() {
+		
+		// Return a read-only view of the change table. Changes of a backup part that is not yet closed are copied.
+		if(this.changeTable != null) {
+			return this.changeTable.asMap();
+		}
 		if(this.changesMap == null) {
 			return null;
 		}
@@ -366,8 +816,48 @@ public class ZippedBackupPart implements BackupPart {
 		return this.creationTime;
 	}
 	
+	@Override
+	public String getSummary() {
+		ZipFileWriter.CompressionStatistics statistics = this.zipFileWriter.getStatistics();
+		return (statistics.getCompressedEntryCount() + statistics.getStoredEntryCount()
+				+ statistics.getCopiedEntryCount() == 0
+				? null : "Codec: " + this.codecName + ". " + statistics.toString());
+	}
+	
+	/**
+	 * Sets the codec used to compress files added to this backup part.
+	 * @param codec - The codec.
+	 */
+	public void setCodec(CompressionCodec codec) {
+		this.zipFileWriter.setCodec(codec);
+		this.codecName = codec.getName();
+	}
+	
+	/**
+	 * Gets the name of the codec that compressed the files in this backup part. For existing backup parts, this is
+	 * only known after reading the changes.
+	 * @return The codec name.
+	 */
+	public String getCodecName() {
+		return this.codecName;
+	}
+	
+	/**
+	 * Sets the compression policy that decides whether files added to this backup part are compressed or stored
+	 * without compression.
+	 * @param compressionPolicy - The compression policy.
+	 */
+	public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+		this.zipFileWriter.setCompressionPolicy(compressionPolicy);
+	}
+	
 	@Override
 	public void delete() throws IOException {
+		try {
+			this.zipFileWriter.close(); // Releases the zip file when deleting a backup part that is being written.
+		} catch (IOException e) {
+			// Ignore, the zip file is removed anyways.
+		}
 		if(this.metaFile.exists()) {
 			Files.delete(this.metaFile.toPath());
 		}
@@ -376,11 +866,292 @@ public class ZippedBackupPart implements BackupPart {
 		}
 	}
 	
+	@Override
+	public InputStream readFile(String relPath,
+			FileVersionSupplier previousVersion) throws IOException, CorruptedBackupException {
+		
+		// Get the change for the given relPath.
+		ChangeProperties change = this.getChange(relPath);
+		if(change == null || change.changeType == ChangeType.REMOVAL || relPath.endsWith(File.separator)) {
+			return null;
+		}
+		
+		// Open the zip entry.
+		InputStream inStream = this.zipFileReader.openStream(relPath);
+		if(inStream == null) {
+			throw new CorruptedBackupException(this,
+					"Backup part is missing a file that occurs in its changes: " + relPath);
+		}
+		if(change.changeType == ChangeType.ADDITION) {
+			return inStream;
+		}
+		
+		// Get the previous version of the modified file.
+		InputStream previousInStream;
+		try {
+			previousInStream = (previousVersion == null ? null : previousVersion.open());
+		} catch (IOException | CorruptedBackupException | RuntimeException e) {
+			inStream.close();
+			throw e;
+		}
+		if(previousInStream == null) {
+			inStream.close();
+			throw new CorruptedBackupException(this,
+					"Previous version of modified file is not available: " + relPath);
+		}
+		
+		// Determine the difference type from its format identifier.
+		PushbackInputStream deltaInStream = new PushbackInputStream(inStream, 4);
+		byte[] magic = new byte[4];
+		int magicLength = 0;
+		int count;
+		while(magicLength < magic.length
+				&& (count = deltaInStream.read(magic, magicLength, magic.length - magicLength)) != -1) {
+			magicLength += count;
+		}
+		deltaInStream.unread(magic, 0, magicLength);
+		
+		// Apply a binary difference while the file is being read, using a temporary copy of the previous version.
+		if(BinaryDelta.isBinaryDelta(magic, magicLength)) {
+			File previousFile = Files.createTempFile("woeshbackup", ".tmp").toFile();
+			try {
+				try {
+					Files.copy(previousInStream, previousFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					previousInStream.close();
+				}
+				return new FilterInputStream(BinaryDelta.apply(deltaInStream, previousFile)) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							previousFile.delete();
+						}
+					}
+				};
+			} catch (IOException e) {
+				deltaInStream.close();
+				previousFile.delete();
+				throw new CorruptedBackupException(this,
+						"Modified file could not be restored from its previous version: " + relPath, e);
+			}
+		}
+		
+		// Apply the stored region file difference to the previous version of the modified file.
+		try {
+			byte[] delta = readAllBytes(deltaInStream);
+			return new ByteArrayInputStream(RegionFileDelta.apply(delta, readAllBytes(previousInStream)));
+		} catch (IOException e) {
+			throw new CorruptedBackupException(this,
+					"Modified file could not be restored from its previous version: " + relPath, e);
+		}
+	}
+	
 	@Override
 	public void readAll(FileEntryHandler handler) throws InvocationTargetException, IOException {
 		this.zipFileReader.readAll(handler);
 	}
 	
+	/**
+	 * Reads the files at the given relative paths and passes them to the given handler, without reading the other
+	 * files in this backup part. The contents of modifications are stored differences, which have to be applied to
+	 * their previous version.
+	 * @param relPaths - The relative paths of the files to read. Paths that are not in this backup part are skipped.
+	 * @param handler - The handler for the files.
+	 * @throws InvocationTargetException If invoking the handler results in a throwable being thrown.
+	 * @throws IOException If an I/O error has occurred.
+	 * @see ZipFileReader#readAll(Collection, FileEntryHandler)
+	 */
+	public void readAll(Collection<String> relPaths,
+			FileEntryHandler handler) throws InvocationTargetException, IOException {
+		this.zipFileReader.readAll(relPaths, handler);
+	}
+	
+	/**
+	 * Reads all zip entries of this backup part in their compressed form and passes them to the given handler.
+	 * The contents of modifications are stored differences, which have to be applied to their previous version.
+	 * @param handler - The handler for the raw zip entries.
+	 * @throws InvocationTargetException If invoking the handler results in a throwable being thrown.
+	 * @throws IOException If an I/O error has occurred.
+	 * @see ZipFileReader#readAllRaw(ZipFileReader.RawEntryHandler)
+	 */
+	public void readAllRaw(ZipFileReader.RawEntryHandler handler) throws InvocationTargetException, IOException {
+		this.zipFileReader.readAllRaw(handler);
+	}
+	
+	/**
+	 * Reads the zip entries of the files at the given relative paths in their compressed form and passes them to the
+	 * given handler, without reading the other files in this backup part.
+	 * @param relPaths - The relative paths of the files to read. Paths that are not in this backup part are skipped.
+	 * @param handler - The handler for the raw zip entries.
+	 * @throws InvocationTargetException If invoking the handler results in a throwable being thrown.
+	 * @throws IOException If an I/O error has occurred.
+	 * @see ZipFileReader#readRaw(Collection, ZipFileReader.RawEntryHandler)
+	 */
+	public void readRaw(Collection<String> relPaths,
+			ZipFileReader.RawEntryHandler handler) throws InvocationTargetException, IOException {
+		this.zipFileReader.readRaw(relPaths, handler);
+	}
+	
+	/**
+	 * Initializes this backup part for writing if it was not yet initialized and validates that no change was added
+	 * for the given relative path.
+	 * @param relPath - The relative path of the change that is about to be added.
+	 * @throws IOException When the zip file already exists or could not be opened.
+	 */
+	private void prepareChange(String relPath) throws IOException {
+		if(this.changesMap == null) {
+			this.changesMap = new HashMap<String, ChangeProperties>();
+			if(!this.parentDir.exists()) {
+				this.parentDir.mkdirs();
+			}
+			if(this.zipFileWriter.getFile().exists()) {
+				throw new IOException("Target file already exists: " + this.zipFileWriter.getFile().getAbsolutePath());
+			}
+			this.zipFileWriter.open();
+		}
+		
+		// Throw an exception if the relPath was already added.
+		if(this.changesMap.containsKey(relPath)) {
+			throw new IllegalArgumentException("Relative path was already added: " + relPath);
+		}
+	}
+	
+	/**
+	 * Gets the change of the given path from the changes map or the change table.
+	 * @param relPath - The relative path.
+	 * @return The change or {@code null} if this backup part does not contain a change of the given path or if the
+	 * changes are not initialized.
+	 */
+	private ChangeProperties getChange(String relPath) {
+		if(this.changesMap != null) {
+			return this.changesMap.get(relPath);
+		}
+		int index = (this.changeTable == null ? -1 : this.changeTable.indexOf(relPath));
+		if(index < 0) {
+			return null;
+		}
+		return new ChangeProperties(relPath, this.changeTable.getChangeType(index),
+				this.changeTable.getHash(index), this.changeTable.getFingerprint(index));
+	}
+	
+	/**
+	 * Writes the change table to the meta file in the binary meta file format. Changes are written in the order of
+	 * the change table, which is sorted by path, and every path is stored as the length of the prefix that it shares
+	 * with the previous path, followed by the remainder. Hashes and fingerprints are stored as the bytes that they
+	 * encode when possible. The file ends with the name of this backup part and a CRC32 checksum of all preceding
+	 * bytes. Changes are written to the file as they are encoded.
+	 * @throws IOException When an I/O error occurs while writing the meta file.
+	 */
+	private void writeMetaFile() throws IOException {
+		CRC32 checksum = new CRC32();
+		DataOutputStream outStream = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(this.metaFile)), checksum));
+		try {
+			outStream.write(META_MAGIC);
+			outStream.writeByte(META_FORMAT_VERSION);
+			outStream.writeUTF(this.contentHasher.getName());
+			outStream.writeUTF(this.codecName);
+			writeVarInt(outStream, this.changeTable.size());
+			byte[] previousPathBytes = new byte[0];
+			for(int i = 0; i < this.changeTable.size(); i++) {
+				byte[] pathBytes = this.changeTable.getPath(i)
+						.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8);
+				int prefixLength = 0;
+				int maxPrefixLength = Math.min(pathBytes.length, previousPathBytes.length);
+				while(prefixLength < maxPrefixLength && pathBytes[prefixLength] == previousPathBytes[prefixLength]) {
+					prefixLength++;
+				}
+				int changeTypeCode;
+				ChangeType changeType = this.changeTable.getChangeType(i);
+				switch(changeType) {
+					case ADDITION:
+						changeTypeCode = META_ADDITION;
+						break;
+					case MODIFICATION:
+						changeTypeCode = META_MODIFICATION;
+						break;
+					case REMOVAL:
+						changeTypeCode = META_REMOVAL;
+						break;
+					default:
+						throw new Error("Unimplemented change type found: " + changeType);
+				}
+				String hash = this.changeTable.getHash(i);
+				String fingerprint = this.changeTable.getFingerprint(i);
+				int hashEncoding = ChangeTable.getTokenEncoding(hash);
+				int fingerprintEncoding = ChangeTable.getTokenEncoding(fingerprint);
+				outStream.writeByte(changeTypeCode | (hashEncoding << 2) | (fingerprintEncoding << 4));
+				writeVarInt(outStream, prefixLength);
+				writeVarInt(outStream, pathBytes.length - prefixLength);
+				outStream.write(pathBytes, prefixLength, pathBytes.length - prefixLength);
+				writeMetaToken(outStream, hash, hashEncoding);
+				writeMetaToken(outStream, fingerprint, fingerprintEncoding);
+				previousPathBytes = pathBytes;
+			}
+			outStream.writeUTF(this.name);
+			outStream.writeInt((int) checksum.getValue());
+		} finally {
+			outStream.close();
+		}
+	}
+	
+	private static void writeMetaToken(DataOutputStream outStream, String token, int encoding) throws IOException {
+		byte[] bytes = ChangeTable.encodeToken(token, encoding);
+		if(bytes != null) {
+			writeVarInt(outStream, bytes.length);
+			outStream.write(bytes);
+		}
+	}
+	
+	private String readMetaToken(DataInputStream inStream, int encoding) throws IOException, CorruptedBackupException {
+		if(encoding == ChangeTable.TOKEN_ABSENT) {
+			return null;
+		}
+		int length = readVarInt(inStream);
+		if(length > MAX_META_PATH_LENGTH) {
+			throw new CorruptedBackupException(this, "Meta file contains an invalid hash length.");
+		}
+		byte[] bytes = new byte[length];
+		inStream.readFully(bytes);
+		return ChangeTable.decodeToken(bytes, 0, length, encoding);
+	}
+	
+	private static void writeVarInt(DataOutputStream outStream, int value) throws IOException {
+		while((value & ~0x7F) != 0) {
+			outStream.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		outStream.writeByte(value);
+	}
+	
+	private static int readVarInt(DataInputStream inStream) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = inStream.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Variable length integer is too long.");
+	}
+	
+	private static byte[] readAllBytes(InputStream inStream) throws IOException {
+		try {
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = inStream.read(buffer)) != -1) {
+				outStream.write(buffer, 0, count);
+			}
+			return outStream.toByteArray();
+		} finally {
+			inStream.close();
+		}
+	}
+	
 	/**
 	 * Change properties for backup part changes.
 	 * @author P.J.S. Kools
@@ -389,11 +1160,17 @@ public class ZippedBackupPart implements BackupPart {
 		public final String relPath;
 		public final ChangeType changeType;
 		public final String hash;
+		public final String fingerprint;
 		
-		public ChangeProperties(String relPath, ChangeType changeType, String hash) {
+		public ChangeProperties(String relPath, ChangeType changeType, String hash, String fingerprint) {
 			this.relPath = relPath;
 			this.changeType = changeType;
 			this.hash = hash;
+			this.fingerprint = fingerprint;
+		}
+		
+		public ChangeProperties(String relPath, ChangeType changeType, String hash) {
+			this(relPath, changeType, hash, null);
 		}
 		
 		public ChangeProperties(String relPath, ChangeType changeType) {
@@ -0,0 +1,130 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import io.github.pieter12345.woeshbackup.utils.Utils;
+
+/**
+ * A {@link CompressionCodec} producing Zstandard frames. This requires the zstd-jni library.
+ * @author P.J.S. Kools
+ */
+public class ZstdCodec implements CompressionCodec {
+	
+	/**
+	 * The name of this codec.
+	 */
+	public static final String NAME = "zstd";
+	
+	/**
+	 * The default compression level.
+	 */
+	public static final int DEFAULT_LEVEL = 3;
+	
+	/**
+	 * The maximum window log for long distance matching. Larger windows cannot be decoded using default settings.
+	 */
+	public static final int MAX_WINDOW_LOG = 27;
+	
+	private final int level;
+	private final int longDistanceWindowLog;
+	private final int workerCount;
+	
+	/**
+	 * Creates a new {@link ZstdCodec} using the default compression level without long distance matching.
+	 */
+	public ZstdCodec() {
+		this(DEFAULT_LEVEL, 0, 0);
+	}
+	
+	/**
+	 * Creates a new {@link ZstdCodec}.
+	 * @param level - The compression level from 1 to 22.
+	 * @param longDistanceWindowLog - The base 2 logarithm of the long distance matching window size from 10 to
+	 * {@link #MAX_WINDOW_LOG}, or 0 to disable long distance matching. Long distance matching finds repetitions
+	 * further apart than the normal window, at the cost of memory.
+	 * @param workerCount - The amount of threads used to compress a single entry, or 0 to compress on the calling
+	 * thread.
+	 * @throws IllegalArgumentException If the level, window log or worker count is out of range.
+	 */
+	public ZstdCodec(int level, int longDistanceWindowLog, int workerCount) throws IllegalArgumentException {
+		if(level < 1 || level > 22) {
+			throw new IllegalArgumentException("The level must be between 1 and 22. Found: " + level);
+		}
+		if(longDistanceWindowLog != 0 && (longDistanceWindowLog < 10 || longDistanceWindowLog > MAX_WINDOW_LOG)) {
+			throw new IllegalArgumentException("The long distance window log must be 0 or between 10 and "
+					+ MAX_WINDOW_LOG + ". Found: " + longDistanceWindowLog);
+		}
+		if(workerCount < 0) {
+			throw new IllegalArgumentException("The worker count must be at least 0. Found: " + workerCount);
+		}
+		this.level = level;
+		this.longDistanceWindowLog = longDistanceWindowLog;
+		this.workerCount = workerCount;
+	}
+	
+	@Override
+	public String getName() {
+		return NAME;
+	}
+	
+	@Override
+	public boolean isAvailable() {
+		return Utils.isClassPresent("com.github.luben.zstd.ZstdOutputStream");
+	}
+	
+	@Override
+	public OutputStream encode(OutputStream outStream) throws IOException {
+		this.checkAvailable();
+		return ZstdStreams.encode(outStream, this.level, this.longDistanceWindowLog, this.workerCount);
+	}
+	
+	@Override
+	public InputStream decode(InputStream inStream) throws IOException {
+		this.checkAvailable();
+		return ZstdStreams.decode(inStream);
+	}
+	
+	private void checkAvailable() throws IOException {
+		if(!this.isAvailable()) {
+			throw new IOException("The " + NAME + " codec requires the zstd-jni library, which is not available.");
+		}
+	}
+	
+	/**
+	 * Contains the references to the zstd-jni library, so that they are only resolved when the library is available.
+	 */
+	private static final class ZstdStreams {
+		
+		/**
+		 * Private constructor, preventing instantiation.
+		 */
+		private ZstdStreams() {
+		}
+		
+		private static OutputStream encode(OutputStream outStream,
+				int level, int longDistanceWindowLog, int workerCount) throws IOException {
+			ZstdOutputStream zstdOutStream = new ZstdOutputStream(outStream, level);
+			try {
+				if(longDistanceWindowLog != 0) {
+					zstdOutStream.setLong(longDistanceWindowLog);
+				}
+				if(workerCount != 0) {
+					zstdOutStream.setWorkers(workerCount);
+				}
+			} catch (IOException | RuntimeException e) {
+				zstdOutStream.close();
+				throw e;
+			}
+			return zstdOutStream;
+		}
+		
+		private static InputStream decode(InputStream inStream) throws IOException {
+			return new ZstdInputStream(inStream);
+		}
+	}
+}
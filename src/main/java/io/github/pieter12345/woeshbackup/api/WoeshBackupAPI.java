@@ -1,9 +1,13 @@
 package io.github.pieter12345.woeshbackup.api;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import io.github.pieter12345.woeshbackup.Backup;
+import io.github.pieter12345.woeshbackup.BackupRestoreWriterFactory;
+import io.github.pieter12345.woeshbackup.exceptions.BackupException;
 
 /**
  * API for external control over WoeshBackup.
@@ -47,6 +51,42 @@ public interface WoeshBackupAPI {
 	 */
 	public boolean backupInProgress();
 	
+	/**
+	 * Merges old backup parts of all {@link Backup}s according to the configured merge intervals on a separate low
+	 * priority thread. This also happens periodically. Does nothing if a merge or backup is in progress. A running
+	 * merge stops after the backup that it is merging when a backup is started.
+	 */
+	public void performMerge();
+	
+	/**
+	 * Checks if a merge is currently in progress.
+	 * @return {@code true} if a merge is in progress, {@code false} otherwise.
+	 */
+	public boolean mergeInProgress();
+	
+	/**
+	 * Rolls the given world back in place to its state at the given timestamp, rounding down to the closest older
+	 * backup part. The world is unloaded during the rollback and players in it are moved to the spawn of the default
+	 * world. Only files that differ from their backed up version are rewritten, so the duration of the rollback
+	 * depends on the amount of changes since that state. This has to be called on the main thread.
+	 * See {@link Backup#rollback(long)}.
+	 * @param worldName - The name of the world (case insensitive).
+	 * @param beforeDate - The timestamp threshold for rolling back.
+	 * @param callback - The callback that is called on the main thread after the world has been loaded again,
+	 * receiving the {@link Exception} that caused the rollback to fail or {@code null} if it was successful.
+	 * @throws IllegalArgumentException When the world or its backup could not be found or when the world is the
+	 * default world, which cannot be unloaded.
+	 * @throws IllegalStateException When a backup or rollback is in progress or the world could not be unloaded.
+	 */
+	public void rollbackWorld(String worldName, long beforeDate, Consumer<Exception> callback)
+			throws IllegalArgumentException, IllegalStateException;
+	
+	/**
+	 * Checks if a world rollback is currently in progress.
+	 * @return {@code true} if a rollback is in progress, {@code false} otherwise.
+	 */
+	public boolean rollbackInProgress();
+	
 	/**
 	 * Gets the time on which the last backup started.
 	 * @return The time on which the last backup started.
@@ -87,6 +127,26 @@ public interface WoeshBackupAPI {
 	 */
 	public Set<Backup> getBackups();
 	
+	/**
+	 * Reads a single file from the backup with the given name as it was at the given timestamp, rounding down to the
+	 * closest older backup part. See {@link Backup#readFile(long, String)}.
+	 * @param backupName - The name of the backup, which is the name of its to-backup directory (case insensitive).
+	 * @param beforeDate - The timestamp threshold for restoring.
+	 * @param relPath - The path of the file, relative to the to-backup directory.
+	 * @return A stream containing the file contents or {@code null} if the file did not exist at the given date,
+	 * is a directory or is ignored. The stream has to be closed by the caller.
+	 * @throws BackupException When the backup could not be found, no backup part exists before the given date or the
+	 * file could not be read.
+	 */
+	public default InputStream readFile(String backupName, long beforeDate, String relPath) throws BackupException {
+		for(Backup backup : this.getBackups()) {
+			if(backup.getToBackupDir().getName().equalsIgnoreCase(backupName)) {
+				return backup.readFile(beforeDate, relPath);
+			}
+		}
+		throw new BackupException("Backup could not be found: " + backupName);
+	}
+	
 	/**
 	 * Gets the directory used for storing backups.
 	 * @return The directory used for storing backups.
@@ -99,6 +159,14 @@ public interface WoeshBackupAPI {
 	 */
 	public File getSnapshotsDir();
 	
+	/**
+	 * Gets the factory that creates the writers used to generate snapshots of the given backup in the snapshots
+	 * directory. Depending on the configuration, snapshots are written to a zip file or directly to a directory.
+	 * @param backup - The backup.
+	 * @return The snapshot writer factory.
+	 */
+	public BackupRestoreWriterFactory getSnapshotWriterFactory(Backup backup);
+	
 	/**
 	 * Checks if debug mode is enabled.
 	 * @return {@code true} if debug mode is enabled, {@code false} otherwise.
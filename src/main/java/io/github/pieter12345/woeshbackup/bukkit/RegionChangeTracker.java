@@ -0,0 +1,171 @@
+package io.github.pieter12345.woeshbackup.bukkit;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+
+import io.github.pieter12345.woeshbackup.ChangeHint;
+
+/**
+ * Tracks the region files of worlds that might have been written since the previous backup, based on the chunks that
+ * the server unloaded and saved. This is used to create {@link ChangeHint}s, so that world backups do not have to
+ * compare untouched region files.
+ * Chunks might be written some time after they were saved, so region files stay marked as changed for two backups.
+ * @author P.J.S. Kools
+ */
+public class RegionChangeTracker implements Listener {
+	
+	private int fullScanInterval = 0;
+	private final Map<String, WorldRegions> worldRegions = new HashMap<String, WorldRegions>();
+	
+	/**
+	 * Creates a new {@link RegionChangeTracker}. The tracker has to be registered as a listener to track changes.
+	 */
+	public RegionChangeTracker() {
+	}
+	
+	/**
+	 * Marks the region file of the unloaded chunk as changed, since the chunk is saved when it is unloaded.
+	 * @param event - The chunk unload event.
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		this.markChunk(event.getWorld(), event.getChunk());
+	}
+	
+	/**
+	 * Marks the region files of all loaded chunks in the saved world as changed.
+	 * @param event - The world save event.
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onWorldSave(WorldSaveEvent event) {
+		this.markLoadedChunks(event.getWorld());
+	}
+	
+	/**
+	 * Sets the full scan interval.
+	 * @param fullScanInterval - Every this amount of backups of a world, no hint is created so that all region files
+	 * are compared. Use 0 or less to never force such a backup.
+	 */
+	public synchronized void setFullScanInterval(int fullScanInterval) {
+		this.fullScanInterval = fullScanInterval;
+	}
+	
+	/**
+	 * Creates a change hint for the region files of the given world that might have been written since the previous
+	 * call, marking the regions of all loaded chunks as changed. This should be called on the main thread, after the
+	 * world has been saved for the backup.
+	 * @param world - The world.
+	 * @return The change hint or {@code null} if all region files have to be compared, which is the case for the first
+	 * backup of the world since this tracker was created and every fullScanInterval backups.
+	 */
+	public synchronized ChangeHint takeHint(World world) {
+		this.markLoadedChunks(world);
+		WorldRegions regions = this.getWorldRegions(world);
+		Set<String> changedPaths = new HashSet<String>(regions.changedPaths);
+		changedPaths.addAll(regions.previousChangedPaths);
+		regions.previousChangedPaths = regions.changedPaths;
+		regions.changedPaths = new HashSet<String>();
+		
+		// Do not create a hint if changes before the creation of this tracker are unknown.
+		if(!regions.isComplete) {
+			regions.isComplete = true;
+			return null;
+		}
+		
+		// Do not create a hint every fullScanInterval backups.
+		if(this.fullScanInterval > 0 && ++regions.backupsSinceFullScan >= this.fullScanInterval) {
+			regions.backupsSinceFullScan = 0;
+			return null;
+		}
+		return new ChangeHint(Collections.singleton(getRegionDirPath(world)), changedPaths);
+	}
+	
+	/**
+	 * Marks the changed region files of the given hint as changed again. This should be called when the backup that
+	 * used the hint has failed.
+	 * @param world - The world.
+	 * @param hint - The change hint that was taken for the world.
+	 */
+	public synchronized void restoreHint(World world, ChangeHint hint) {
+		this.getWorldRegions(world).changedPaths.addAll(hint.getChangedPaths());
+	}
+	
+	/**
+	 * Marks the region files of all loaded chunks in the given world as changed.
+	 * @param world - The world.
+	 */
+	private synchronized void markLoadedChunks(World world) {
+		for(Chunk chunk : world.getLoadedChunks()) {
+			this.markChunk(world, chunk);
+		}
+	}
+	
+	/**
+	 * Marks the region file containing the given chunk as changed.
+	 * @param world - The world containing the chunk.
+	 * @param chunk - The chunk.
+	 */
+	private synchronized void markChunk(World world, Chunk chunk) {
+		this.getWorldRegions(world).changedPaths.add(getRegionDirPath(world)
+				+ "r." + (chunk.getX() >> 5) + "." + (chunk.getZ() >> 5) + ".mca");
+	}
+	
+	/**
+	 * Gets the tracked region files of the given world, creating them if the world was not tracked yet.
+	 * @param world - The world.
+	 * @return The tracked region files.
+	 */
+	private WorldRegions getWorldRegions(World world) {
+		WorldRegions regions = this.worldRegions.get(world.getName());
+		if(regions == null) {
+			regions = new WorldRegions();
+			this.worldRegions.put(world.getName(), regions);
+		}
+		return regions;
+	}
+	
+	/**
+	 * Gets the path of the directory containing the region files of the given world, relative to the world folder.
+	 * @param world - The world.
+	 * @return The relative region directory path, ending with a file separator.
+	 */
+	private static String getRegionDirPath(World world) {
+		switch(world.getEnvironment()) {
+			case NETHER:
+				return "DIM-1" + File.separator + "region" + File.separator;
+			case THE_END:
+				return "DIM1" + File.separator + "region" + File.separator;
+			default:
+				return "region" + File.separator;
+		}
+	}
+	
+	/**
+	 * Represents the tracked region files of a world.
+	 * @author P.J.S. Kools
+	 */
+	private static class WorldRegions {
+		private Set<String> changedPaths = new HashSet<String>();
+		private Set<String> previousChangedPaths = new HashSet<String>();
+		private boolean isComplete = false;
+		private int backupsSinceFullScan = 0;
+		
+		/**
+		 * Creates a new {@link WorldRegions} without tracked region files.
+		 */
+		WorldRegions() {
+		}
+	}
+}
@@ -1,8 +1,16 @@
 package io.github.pieter12345.woeshbackup.bukkit;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -14,7 +22,6 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.Plugin;
 
 import io.github.pieter12345.woeshbackup.Backup;
-import io.github.pieter12345.woeshbackup.BackupRestoreZipFileWriter;
 import io.github.pieter12345.woeshbackup.api.WoeshBackupAPI;
 import io.github.pieter12345.woeshbackup.exceptions.BackupException;
 import io.github.pieter12345.woeshbackup.utils.Utils;
@@ -35,6 +42,7 @@ public class WoeshBackupCommandExecutor implements CommandExecutor {
 	private static final String PREFIX_ERROR = PREFIX_RAW + ChatColor.RED + " ";
 	private static final String NO_PERMS_MSG = PREFIX_ERROR + "You do not have permission to use this command.";
 	private static final String TOO_MANY_ARGS_MSG = PREFIX_ERROR + "Too many arguments.";
+	private static final DateFormat SNAPSHOT_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss");
 	
 	/**
 	 * Creates a new {@link CommandExecutor} for WoeshBackup commands.
@@ -87,6 +95,10 @@ public class WoeshBackupCommandExecutor implements CommandExecutor {
 							+ "\n&3    Displays the total, free and usable disk space."
 							+ "\n&6  - /woeshbackup generatesnapshot <backupName> <date> [--ignorelimit]"
 							+ "\n&3    Generates a snapshot for the given backup on the given date."
+							+ "\n&6  - /woeshbackup restorefile <backupName> <date> <path>"
+							+ "\n&3    Restores a single file from the given backup on the given date."
+							+ "\n&6  - /woeshbackup rollback <world> <date>"
+							+ "\n&3    Rolls the given world back in place to the given date."
 							+ "\n&6  - /woeshbackup removesnapshots"
 							+ "\n&3    Removes all generated snapshots."
 							+ "\n&6  - /woeshbackup toggledebug"
@@ -129,6 +141,22 @@ public class WoeshBackupCommandExecutor implements CommandExecutor {
 									+ " The \"--ignorelimit\" argument can be used to bypass the minimum disk space"
 									+ " requirement set in the configuration."));
 							return true;
+						case "restorefile":
+							sender.sendMessage(PREFIX_INFO + colorize(
+									"&6/woeshbackup restorefile <backupName> <date> <path> &8-&3"
+									+ " Restores the file at the given path from the given backup on the given date"
+									+ " to the snapshots directory. date is in format: yyyy-MM-dd or"
+									+ " yyyy-MM-dd-HH-mm-ss. path is relative to the backed up directory,"
+									+ " for example: playerdata/<uuid>.dat."));
+							return true;
+						case "rollback":
+							sender.sendMessage(PREFIX_INFO + colorize(
+									"&6/woeshbackup rollback <world> <date> &8-&3"
+									+ " Rolls the given world back in place to its backup on the given date."
+									+ " The world is unloaded during the rollback and only files that changed since"
+									+ " that date are restored. date is in format: yyyy-MM-dd or yyyy-MM-dd-HH-mm-ss."
+									+ " The default world cannot be rolled back."));
+							return true;
 						case "removesnapshots":
 							sender.sendMessage(PREFIX_INFO + colorize(
 									"&6/woeshbackup removesnapshots &8-&3 Removes all generated snapshots."));
@@ -218,6 +246,8 @@ public class WoeshBackupCommandExecutor implements CommandExecutor {
 					sender.sendMessage(new String[] {
 							PREFIX_INFO + "Backup in progress: " + ChatColor.LIGHT_PURPLE
 									+ (this.api.backupInProgress() ? "Yes" : "No") + ChatColor.GREEN + ".",
+							PREFIX_INFO + "Merge in progress: " + ChatColor.LIGHT_PURPLE
+									+ (this.api.mergeInProgress() ? "Yes" : "No") + ChatColor.GREEN + ".",
 							PREFIX_INFO + "Last backup started: " + ChatColor.LIGHT_PURPLE + (lastBackupTime <= 0
 									? "Never" : ((System.currentTimeMillis() - lastBackupTime) / 60000) + "m ago")
 									+ ChatColor.GREEN + ".",
@@ -416,10 +446,8 @@ public class WoeshBackupCommandExecutor implements CommandExecutor {
 					// Generate a snapshot from the backup.
 					BackupException ex = null;
 					try {
-						File restoreToDir = new File(WoeshBackupCommandExecutor.this.api.getSnapshotsDir(),
-								finalBackup.getToBackupDir().getName());
-						finalBackup.restore(finalDate + 1, (restoreFileDate) ->
-								new BackupRestoreZipFileWriter(restoreToDir, restoreFileDate));
+						finalBackup.restore(finalDate + 1,
+								WoeshBackupCommandExecutor.this.api.getSnapshotWriterFactory(finalBackup));
 					} catch (BackupException e) {
 						ex = e;
 					} catch (InterruptedException e) {
@@ -464,6 +492,171 @@ public class WoeshBackupCommandExecutor implements CommandExecutor {
 				}).start();
 				return true;
 			}
+			case "restorefile": {
+				
+				// "/woeshbackup restorefile <backupName> <date> <path>".
+				if(args.length != 4) {
+					sender.sendMessage(new String[] {
+							(args.length < 4 ? PREFIX_ERROR + "Not enough arguments." : TOO_MANY_ARGS_MSG),
+							PREFIX_RAW + ChatColor.GOLD
+									+ " Syntax: /woeshbackup restorefile <backupName> <date> <path>."
+									+ " date is in format: yyyy-MM-dd or yyyy-MM-dd-HH-mm-ss"});
+					return true;
+				}
+				
+				// Check for permission.
+				if(!sender.hasPermission("woeshbackup.restorefile")) {
+					sender.sendMessage(NO_PERMS_MSG);
+					return true;
+				}
+				
+				// Parse date argument.
+				String dateStr = args[2];
+				long date;
+				try {
+					date = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").parse(dateStr).getTime();
+				} catch (ParseException e) {
+					try {
+						date = new SimpleDateFormat("yyyy-MM-dd").parse(dateStr).getTime();
+					} catch (ParseException e1) {
+						sender.sendMessage(PREFIX_ERROR + "Syntax error: date has to be in format"
+								+ " yyyy-MM-dd or yyyy-MM-dd-HH-mm-ss. Found: " + dateStr);
+						return true;
+					}
+				}
+				
+				// Check if the given backup exists.
+				String backupName = args[1];
+				Backup backup = null;
+				for(Backup b : this.api.getBackups()) {
+					if(b.getToBackupDir().getName().equalsIgnoreCase(backupName)) {
+						backup = b;
+						break;
+					}
+				}
+				if(backup == null) {
+					sender.sendMessage(PREFIX_ERROR + "Backup could not be found: " + backupName);
+					return true;
+				}
+				
+				// Parse the path argument, disallowing paths that point outside of the backed up directory.
+				String pathStr = args[3];
+				String relPath = pathStr.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+				Path normalizedRelPath = Paths.get(relPath).normalize();
+				if(relPath.isEmpty() || relPath.endsWith(File.separator) || normalizedRelPath.isAbsolute()
+						|| normalizedRelPath.startsWith("..") || !normalizedRelPath.toString().equals(relPath)) {
+					sender.sendMessage(PREFIX_ERROR + "Invalid file path: " + pathStr
+							+ ". The path has to be a normalized path to a file, relative to the backed up directory.");
+					return true;
+				}
+				
+				// Print feedback about starting.
+				sender.sendMessage(PREFIX_INFO + "Restoring file from backup: "
+						+ backup.getToBackupDir().getName() + ", date: " + dateStr + ", path: " + pathStr);
+				
+				// Restore the file to the snapshots directory.
+				final Backup finalBackup = backup;
+				final long finalDate = date;
+				new Thread(() -> {
+					File restoredFile = null;
+					BackupException ex = null;
+					try {
+						restoredFile = WoeshBackupCommandExecutor.this.restoreFile(finalBackup, finalDate + 1, relPath);
+					} catch (BackupException e) {
+						ex = e;
+					}
+					
+					// Give feedback to the player.
+					final File finalRestoredFile = restoredFile;
+					final BackupException finalEx = ex;
+					if(WoeshBackupCommandExecutor.this.plugin.isEnabled()) {
+						Bukkit.getScheduler().runTask(WoeshBackupCommandExecutor.this.plugin, () -> {
+							if(finalEx == null) {
+								sender.sendMessage(finalRestoredFile == null
+										? PREFIX_ERROR + "File did not exist in backup: "
+												+ finalBackup.getToBackupDir().getName() + ", path: " + pathStr
+										: PREFIX_INFO + "Succesfully restored file to: " + finalRestoredFile.getPath());
+							} else {
+								if(this.api.debugEnabled()) {
+									WoeshBackupCommandExecutor.this.logger.severe("An Exception occurred "
+											+ "while restoring a file from backup: "
+											+ finalBackup.getToBackupDir().getName() + ". Here's the stacktrace:\n"
+											+ Utils.getStacktrace(finalEx));
+								}
+								String message = "Failed to restore file: " + finalBackup.getToBackupDir().getName()
+										+ "/" + pathStr + ". Info: " + finalEx.getMessage();
+								for(Throwable cause = finalEx.getCause(); cause != null; cause = cause.getCause()) {
+									message += "\nCaused by: " + cause.getClass().getSimpleName()
+											+ "\n\tMessage: " + cause.getMessage();
+								}
+								sender.sendMessage(PREFIX_ERROR + message);
+							}
+						});
+					}
+				}).start();
+				return true;
+			}
+			case "rollback": {
+				
+				// "/woeshbackup rollback <world> <date>".
+				if(args.length != 3) {
+					sender.sendMessage(new String[] {
+							(args.length < 3 ? PREFIX_ERROR + "Not enough arguments." : TOO_MANY_ARGS_MSG),
+							PREFIX_RAW + ChatColor.GOLD
+									+ " Syntax: /woeshbackup rollback <world> <date>."
+									+ " date is in format: yyyy-MM-dd or yyyy-MM-dd-HH-mm-ss"});
+					return true;
+				}
+				
+				// Check for permission.
+				if(!sender.hasPermission("woeshbackup.rollback")) {
+					sender.sendMessage(NO_PERMS_MSG);
+					return true;
+				}
+				
+				// Parse date argument.
+				String dateStr = args[2];
+				long date;
+				try {
+					date = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").parse(dateStr).getTime();
+				} catch (ParseException e) {
+					try {
+						date = new SimpleDateFormat("yyyy-MM-dd").parse(dateStr).getTime();
+					} catch (ParseException e1) {
+						sender.sendMessage(PREFIX_ERROR + "Syntax error: date has to be in format"
+								+ " yyyy-MM-dd or yyyy-MM-dd-HH-mm-ss. Found: " + dateStr);
+						return true;
+					}
+				}
+				
+				// Roll the world back. The world is unloaded until the rollback has finished.
+				String worldName = args[1];
+				try {
+					this.api.rollbackWorld(worldName, date + 1, (Exception ex) -> {
+						if(ex == null) {
+							sender.sendMessage(PREFIX_INFO + "Succesfully rolled back world: " + worldName);
+						} else {
+							if(this.api.debugEnabled()) {
+								this.logger.severe("An Exception occurred while rolling back world: " + worldName
+										+ ". Here's the stacktrace:\n" + Utils.getStacktrace(ex));
+							}
+							String message = "Failed to roll back world: " + worldName + ". Info: " + ex.getMessage();
+							for(Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+								message += "\nCaused by: " + cause.getClass().getSimpleName()
+										+ "\n\tMessage: " + cause.getMessage();
+							}
+							sender.sendMessage(PREFIX_ERROR + message);
+						}
+					});
+				} catch (IllegalArgumentException | IllegalStateException e) {
+					sender.sendMessage(PREFIX_ERROR + e.getMessage());
+					return true;
+				}
+				
+				// Print feedback about starting.
+				sender.sendMessage(PREFIX_INFO + "Rolling back world: " + worldName + ", date: " + dateStr);
+				return true;
+			}
 			case "removesnapshots": {
 				
 				// "/woeshbackup removesnapshots".
@@ -527,6 +720,52 @@ public class WoeshBackupCommandExecutor implements CommandExecutor {
 		}
 	}
 	
+	/**
+	 * Restores the file at the given path from the given backup to
+	 * "snapshotsDir/backupName/yyyy-MM-dd HH-mm-ss/relPath", using the date of the backup part it was restored from.
+	 * @param backup - The backup.
+	 * @param beforeDate - The timestamp threshold for restoring.
+	 * @param relPath - The normalized path of the file, relative to the to-backup directory.
+	 * @return The restored file or {@code null} if the file did not exist in the backup at the given date.
+	 * @throws BackupException When the file could not be read from the backup or written to the snapshots directory.
+	 */
+	private File restoreFile(Backup backup, long beforeDate, String relPath) throws BackupException {
+		
+		// Get the date of the backup part to restore from.
+		long restoreFileDate = -1;
+		try {
+			for(long restoreDateThresh : backup.getRestoreDateThresholds()) {
+				if(restoreDateThresh < beforeDate && restoreDateThresh > restoreFileDate) {
+					restoreFileDate = restoreDateThresh;
+				}
+			}
+		} catch (IOException e) {
+			throw new BackupException("Failed to read backup part dates.", e);
+		}
+		
+		// Read the file from the backup.
+		InputStream inStream = backup.readFile(beforeDate, relPath);
+		if(inStream == null) {
+			return null;
+		}
+		
+		// Write the file to the snapshots directory.
+		File restoredFile = new File(new File(new File(this.api.getSnapshotsDir(), backup.getToBackupDir().getName()),
+				SNAPSHOT_DATE_FORMAT.format(new Date(restoreFileDate))), relPath);
+		try {
+			try {
+				Files.createDirectories(restoredFile.getParentFile().toPath());
+				Files.copy(inStream, restoredFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				inStream.close();
+			}
+		} catch (IOException e) {
+			restoredFile.delete();
+			throw new BackupException("Failed to write restored file to: " + restoredFile.getPath(), e);
+		}
+		return restoredFile;
+	}
+	
 	/**
 	 * Colorizes the given string by replacing color char '&' by {@link ChatColor#COLOR_CHAR} for
 	 * color idenfitiers 0-9a-fA-F.
@@ -8,11 +8,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -20,16 +22,36 @@ import java.util.regex.Pattern;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.WorldCreator;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitTask;
 
 import io.github.pieter12345.woeshbackup.Backup;
+import io.github.pieter12345.woeshbackup.BackupPartFactory;
+import io.github.pieter12345.woeshbackup.BackupRestoreDirectoryWriter;
+import io.github.pieter12345.woeshbackup.BackupRestoreWriterFactory;
+import io.github.pieter12345.woeshbackup.BackupRestoreZipFileWriter;
+import io.github.pieter12345.woeshbackup.BackupStateIndex;
+import io.github.pieter12345.woeshbackup.BlobStore;
 import io.github.pieter12345.woeshbackup.BoundedInterval;
+import io.github.pieter12345.woeshbackup.ChangeHint;
+import io.github.pieter12345.woeshbackup.CompressionCodec;
+import io.github.pieter12345.woeshbackup.CompressionPolicy;
+import io.github.pieter12345.woeshbackup.ContentHasher;
+import io.github.pieter12345.woeshbackup.DedupBackupPartFactory;
+import io.github.pieter12345.woeshbackup.DirtyPathTracker;
+import io.github.pieter12345.woeshbackup.FastCdcChunker;
+import io.github.pieter12345.woeshbackup.Lz4Codec;
 import io.github.pieter12345.woeshbackup.SimpleBackup;
+import io.github.pieter12345.woeshbackup.StagingDirectory;
+import io.github.pieter12345.woeshbackup.StatCache;
 import io.github.pieter12345.woeshbackup.ZipFileBackupPartFactory;
+import io.github.pieter12345.woeshbackup.ZstdCodec;
 import io.github.pieter12345.woeshbackup.api.WoeshBackupAPI;
 import io.github.pieter12345.woeshbackup.exceptions.BackupException;
 import io.github.pieter12345.woeshbackup.utils.AnsiColor;
@@ -47,14 +69,42 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 	private File backupDir = null;
 	private File snapshotsDir = null;
 	private Map<Backup, File> backups;
-	private Thread backupThread = null;
+	private volatile Thread backupThread = null;
+	private Thread mergeThread = null;
+	private Thread rollbackThread = null;
 	private BukkitTask backupIntervalTask = null;
 	private long lastBackupStartTime = -1; // [ms].
 	private int backupIntervalSeconds = -1; // [sec].
 	private List<BoundedInterval> mergeIntervals; // {{interval [sec], duration [sec]}, ...}.
+	private BukkitTask autoMergeTask = null;
+	private int autoMergeIntervalSeconds = -1; // [sec].
 	private int minDiskSpaceToAllowBackup; // [MB].
+	private boolean statCacheEnabled;
+	private int statCacheFullRehashInterval; // [backups].
+	private boolean stateIndexEnabled;
+	private boolean dirtyTrackingEnabled;
+	private int dirtyTrackingFullScanInterval; // [backups].
+	private RegionChangeTracker regionChangeTracker = null;
+	private boolean regionTrackingEnabled;
+	private int backupThreadCount;
+	private int maxDeltaChainLength;
+	private ContentHasher contentHasher;
+	private CompressionPolicy compressionPolicy;
+	private CompressionCodec codec;
+	private String storageType = null;
+	private BlobStore blobStore = null;
+	private FastCdcChunker chunker;
+	private long minChunkedFileSize; // [bytes].
+	private boolean snapshotAsDirectory;
+	private int snapshotSyncBatchSize; // [files].
+	private boolean stagingEnabled;
+	private File stagingDir = null;
+	private boolean stagingUseReflinks;
 	public boolean debugEnabled;
 	
+	// The maximum delay in seconds before the first merge after enabling.
+	private static final int MAX_INITIAL_MERGE_DELAY = 300;
+	
 	private final WoeshBackupCommandExecutor commandExecutor;
 	private final WoeshBackupTabCompleter tabCompleter;
 	private final Logger logger;
@@ -88,12 +138,16 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 	@Override
 	public void onEnable() {
 		
-		// Initialize backups map.
+		// Initialize backups map and the region change tracker.
 		this.backups = new HashMap<Backup, File>();
+		this.regionChangeTracker = new RegionChangeTracker();
 		
 		// Load the config file, creating the default config if it did not exist.
 		this.loadConfig();
 		
+		// Track the region files that the server writes, to skip comparing untouched region files during backups.
+		Bukkit.getPluginManager().registerEvents(this.regionChangeTracker, this);
+		
 		// Create a WoeshBackup for all worlds. The delay is there to allow the worlds to load (10 sec delay @ 20tps).
 		this.addBackupsForWorlds();
 		Bukkit.getScheduler().runTaskLater(this, () -> WoeshBackupPlugin.this.addBackupsForWorlds(), 20 * 10);
@@ -110,9 +164,10 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 					"IOException while reading plugins ignore file. No files will be ignored during the next backup.");
 		}
 		File toBackupDir = new File("plugins");
-		ZipFileBackupPartFactory backupPartFactory =
-				new ZipFileBackupPartFactory(new File(this.backupDir, toBackupDir.getName()));
-		this.backups.put(new SimpleBackup(toBackupDir, backupPartFactory, this.logger, ignorePaths), ignoreFile);
+		SimpleBackup pluginsBackup = new SimpleBackup(toBackupDir,
+				this.createBackupPartFactory(toBackupDir), this.logger, ignorePaths);
+		this.configureBackup(pluginsBackup);
+		this.backups.put(pluginsBackup, ignoreFile);
 		
 		// Schedule a task to update the backups every backupInterval minutes, at least one minute from now.
 		boolean autoBackup = this.getConfig().getBoolean("autoBackup.enabled", true);
@@ -145,11 +200,25 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 	
 	@Override
 	public void onDisable() {
+		if(this.backups != null) {
+			for(Backup backup : this.backups.keySet()) {
+				DirtyPathTracker dirtyPathTracker = ((SimpleBackup) backup).getDirtyPathTracker();
+				if(dirtyPathTracker != null) {
+					dirtyPathTracker.close();
+				}
+			}
+		}
 		this.backupDir = null;
 		this.backups = null;
 		if(this.backupThread != null) {
 			this.backupThread.interrupt();
 		}
+		if(this.mergeThread != null) {
+			this.mergeThread.interrupt();
+		}
+		if(this.rollbackThread != null) {
+			this.rollbackThread.interrupt();
+		}
 		Bukkit.getScheduler().cancelTasks(this);
 	}
 	
@@ -211,6 +280,12 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 			return;
 		}
 		
+		// Return if a world is being rolled back.
+		if(this.rollbackInProgress()) {
+			this.logger.warning("Skipping backup because a rollback is in progress.");
+			return;
+		}
+		
 		// Create the backup directory if it does not exist.
 		if(!this.backupDir.isDirectory()) {
 			if(!this.backupDir.mkdir()) {
@@ -244,12 +319,23 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 		this.addBackupsForWorlds();
 		
 		// Update all backups on a separate thread.
-		final List<BoundedInterval> mergeIntervals = new ArrayList<>(this.mergeIntervals); // Clone for thread safety.
+		final RegionChangeTracker regionChangeTracker = (this.regionTrackingEnabled ? this.regionChangeTracker : null);
+		final Thread mergeThread = this.mergeThread;
 		this.backupThread = new Thread() {
 			@Override
 			public void run() {
 				final long fullBackupStartTime = currentTime;
 				
+				// Wait for a running merge to stop before disabling autosave. Merges stop after merging the current
+				// backup when a backup is in progress.
+				if(mergeThread != null) {
+					try {
+						mergeThread.join();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				
 				// Update all backups.
 				for(final Backup backup : WoeshBackupPlugin.this.backups.keySet()) {
 					
@@ -267,8 +353,9 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 					try {
 						
 						// Check if the backup directory has the same name as a world.
-						// If it does, disable autosave for that world and save it.
-						Object[] retInfo = new Object[] {false, null};
+						// If it does, disable autosave for that world and save it. Then take the region files that
+						// the server wrote since the previous backup of the world.
+						Object[] retInfo = new Object[] {false, null, null};
 						try {
 							retInfo = Bukkit.getScheduler().callSyncMethod(
 									WoeshBackupPlugin.this, new Callable<Object[]>() {
@@ -279,9 +366,11 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 										boolean isAutoSave = world.isAutoSave();
 										world.setAutoSave(false);
 										world.save();
-										return new Object[] {isAutoSave, world};
+										ChangeHint changeHint = (regionChangeTracker == null
+												? null : regionChangeTracker.takeHint(world));
+										return new Object[] {isAutoSave, world, changeHint};
 									}
-									return new Object[] {false, null};
+									return new Object[] {false, null, null};
 								}
 							}).get();
 						} catch (InterruptedException e) {
@@ -292,27 +381,45 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 						}
 						final boolean wasAutoSaveEnabled = (boolean) retInfo[0];
 						final World world = (World) retInfo[1];
+						final ChangeHint changeHint = (ChangeHint) retInfo[2];
 						
-						// Merge (and remove) old backups.
-						try {
-							backup.merge(mergeIntervals, currentTime);
-						} catch (BackupException e) {
-							WoeshBackupPlugin.this.logger.severe("Merging backups failed for backup: "
-									+ backup.getToBackupDir().getName() + ". Here's the stacktrace:\n"
-									+ Utils.getStacktrace(e));
+						// Copy the world to the staging directory and re-enable auto-save, so that the server can save
+						// the world again while the backup reads the staging copy. When staging fails, the backup reads
+						// the world directly and auto-save stays disabled until the backup has finished.
+						boolean enableAutoSave = (wasAutoSaveEnabled && world != null);
+						if(((SimpleBackup) backup).getStagingDir() != null) {
+							try {
+								((SimpleBackup) backup).stage();
+								if(enableAutoSave) {
+									Bukkit.getScheduler().runTask(WoeshBackupPlugin.this,
+											() -> world.setAutoSave(true));
+									enableAutoSave = false;
+								}
+							} catch (BackupException e) {
+								WoeshBackupPlugin.this.logger.warning("Staging failed for backup: "
+										+ backup.getToBackupDir().getName() + ". The backup will read the files"
+										+ " directly. Exception message: " + e.getMessage());
+							}
 						}
-					
-						// Perform the backup.
+						
+						// Perform the backup. The region files of a failed backup have to be compared again during
+						// the next backup.
 						try {
-							backup.backup(currentTime);
+							((SimpleBackup) backup).backup(currentTime, changeHint);
 						} catch (InterruptedException e) {
+							if(changeHint != null) {
+								regionChangeTracker.restoreHint(world, changeHint);
+							}
 							throw e;
 						} catch (Exception e) {
 							ex = e;
 						}
+						if(ex != null && changeHint != null) {
+							regionChangeTracker.restoreHint(world, changeHint);
+						}
 						
 						// Re-enable auto-save for the world if it was disabled.
-						if(wasAutoSaveEnabled && world != null) {
+						if(enableAutoSave) {
 							Bukkit.getScheduler().runTask(WoeshBackupPlugin.this, () -> world.setAutoSave(true));
 						}
 					} catch (InterruptedException e) {
@@ -366,6 +473,187 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 		return this.backupThread != null && this.backupThread.isAlive();
 	}
 	
+	@Override
+	public void performMerge() {
+		
+		// Return if merges are still/already in progress.
+		if(this.mergeInProgress()) {
+			this.logger.warning("Skipping merge because a merge is already in progress.");
+			return;
+		}
+		
+		// Return if backups are in progress. The next merge will merge the new backups as well.
+		if(this.backupInProgress()) {
+			this.logger.info("Skipping merge because a backup is in progress.");
+			return;
+		}
+		
+		// Merge all backups on a separate low priority thread, so that merging does not compete with the server.
+		final List<BoundedInterval> mergeIntervals = new ArrayList<>(this.mergeIntervals); // Clone for thread safety.
+		final List<Backup> backups = new ArrayList<>(this.backups.keySet());
+		this.mergeThread = new Thread(() -> {
+			final long fullMergeStartTime = System.currentTimeMillis();
+			
+			// Merge all backups.
+			for(final Backup backup : backups) {
+				
+				// Stop if the thread has been interrupted (server shutting down) or if a backup is waiting to start.
+				if(Thread.currentThread().isInterrupted()) {
+					return;
+				}
+				if(WoeshBackupPlugin.this.backupInProgress()) {
+					WoeshBackupPlugin.this.logger.info("Stopping merges because a backup has started."
+							+ " The remaining backups will be merged during the next merge.");
+					break;
+				}
+				
+				// Merge (and remove) old backup parts.
+				final long singleMergeStartTime = System.currentTimeMillis();
+				int oldPartCount = getBackupPartCount(backup);
+				try {
+					backup.merge(mergeIntervals, singleMergeStartTime);
+				} catch (BackupException e) {
+					WoeshBackupPlugin.this.logger.severe("Merging backups failed for backup: "
+							+ backup.getToBackupDir().getName() + ". Here's the stacktrace:\n"
+							+ Utils.getStacktrace(e));
+					continue;
+				} catch (InterruptedException e) {
+					WoeshBackupPlugin.this.logger.warning("Merge was interrupted during execution: "
+							+ backup.getToBackupDir().getName());
+					return;
+				}
+				
+				// Send the merge cost to console.
+				int newPartCount = getBackupPartCount(backup);
+				float timeElapsed = (float) ((System.currentTimeMillis() - singleMergeStartTime) / 1000);
+				if(oldPartCount != newPartCount) {
+					WoeshBackupPlugin.this.logger.info(String.format("Finished merging backup: %s (%d -> %d backup"
+							+ " parts, %.0f sec).", backup.getToBackupDir().getName(), oldPartCount, newPartCount,
+							timeElapsed));
+				}
+			}
+			
+			// Send feedback since the merges are done.
+			final float timeElapsed = (float) ((System.currentTimeMillis() - fullMergeStartTime) / 1000);
+			WoeshBackupPlugin.this.logger.info(String.format("Merges finished in %.0f sec.", timeElapsed));
+			
+			// Allow a new merge to start.
+			if(WoeshBackupPlugin.this.isEnabled()) {
+				Bukkit.getScheduler().runTask(WoeshBackupPlugin.this, () -> WoeshBackupPlugin.this.mergeThread = null);
+			}
+		});
+		this.mergeThread.setName("WoeshBackup Merge Thread");
+		this.mergeThread.setPriority(Thread.MIN_PRIORITY);
+		this.mergeThread.start();
+	}
+	
+	@Override
+	public boolean mergeInProgress() {
+		return this.mergeThread != null && this.mergeThread.isAlive();
+	}
+	
+	/**
+	 * Gets the amount of backup parts of the given backup.
+	 * @param backup - The backup.
+	 * @return The amount of backup parts or -1 if they could not be listed.
+	 */
+	private static int getBackupPartCount(Backup backup) {
+		try {
+			return backup.getRestoreDateThresholds().size();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+	
+	@Override
+	public void rollbackWorld(String worldName, long beforeDate, Consumer<Exception> callback)
+			throws IllegalArgumentException, IllegalStateException {
+		
+		// Disallow rollbacks during backups and other rollbacks, since these use the same files.
+		if(this.backupInProgress()) {
+			throw new IllegalStateException("Cannot roll back a world while a backup is in progress.");
+		}
+		if(this.rollbackInProgress()) {
+			throw new IllegalStateException("Cannot roll back a world while another rollback is in progress.");
+		}
+		
+		// Get the world and its backup. The default world cannot be unloaded.
+		World world = null;
+		for(World w : Bukkit.getWorlds()) {
+			if(w.getName().equalsIgnoreCase(worldName)) {
+				world = w;
+				break;
+			}
+		}
+		if(world == null) {
+			throw new IllegalArgumentException("World could not be found: " + worldName);
+		}
+		World defaultWorld = Bukkit.getWorlds().get(0);
+		if(world.equals(defaultWorld)) {
+			throw new IllegalArgumentException("The default world cannot be rolled back while the server is running.");
+		}
+		this.addBackupsForWorlds();
+		File toBackupWorldDir = world.getWorldFolder().getAbsoluteFile();
+		if(toBackupWorldDir.getName().equals(".")) {
+			toBackupWorldDir = toBackupWorldDir.getParentFile();
+		}
+		Backup worldBackup = null;
+		for(Backup backup : this.backups.keySet()) {
+			if(backup.getToBackupDir().equals(toBackupWorldDir)) {
+				worldBackup = backup;
+				break;
+			}
+		}
+		if(worldBackup == null) {
+			throw new IllegalArgumentException("Backup could not be found for world: " + world.getName());
+		}
+		
+		// Move all players out of the world and unload it without saving, since its state is discarded.
+		Location spawnLocation = defaultWorld.getSpawnLocation();
+		for(Player player : world.getPlayers()) {
+			player.teleport(spawnLocation);
+		}
+		WorldCreator worldCreator = new WorldCreator(world.getName()).copy(world);
+		if(!Bukkit.unloadWorld(world, false)) {
+			throw new IllegalStateException("The world could not be unloaded: " + world.getName());
+		}
+		
+		// Roll the world back on a separate thread and load it again afterwards.
+		final Backup finalBackup = worldBackup;
+		this.logger.info("Starting rollback: " + world.getName() + ".");
+		final long startTime = System.currentTimeMillis();
+		this.rollbackThread = new Thread(() -> {
+			Exception ex = null;
+			try {
+				finalBackup.rollback(beforeDate);
+			} catch (BackupException e) {
+				ex = e;
+			} catch (InterruptedException e) {
+				WoeshBackupPlugin.this.logger.warning("Rollback was interrupted during execution: "
+						+ finalBackup.getToBackupDir().getName());
+				return;
+			}
+			final Exception finalEx = ex;
+			float timeElapsed = (float) ((System.currentTimeMillis() - startTime) / 1000);
+			WoeshBackupPlugin.this.logger.info(String.format("Rollback " + (ex == null ? "finished" : "failed")
+					+ ": %s (%.0f sec).", finalBackup.getToBackupDir().getName(), timeElapsed));
+			if(WoeshBackupPlugin.this.isEnabled()) {
+				Bukkit.getScheduler().runTask(WoeshBackupPlugin.this, () -> {
+					Bukkit.createWorld(worldCreator);
+					WoeshBackupPlugin.this.rollbackThread = null;
+					callback.accept(finalEx);
+				});
+			}
+		});
+		this.rollbackThread.setName("WoeshBackup Rollback Thread");
+		this.rollbackThread.start();
+	}
+	
+	@Override
+	public boolean rollbackInProgress() {
+		return this.rollbackThread != null && this.rollbackThread.isAlive();
+	}
+	
 	/**
 	 * Sets the time on which the last backup started.
 	 * @param time - The time on which the last backup started.
@@ -427,6 +715,8 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 		int count = 0;
 		Pattern snapshotPattern = Pattern.compile(
 				"^\\d{4}-\\d{2}-\\d{2} \\d{2}-\\d{2}-\\d{2}\\.zip$"); // Format: "yyyy-MM-dd HH-mm-ss.zip".
+		Pattern restoredFilesDirPattern = Pattern.compile(
+				"^\\d{4}-\\d{2}-\\d{2} \\d{2}-\\d{2}-\\d{2}$"); // Format: "yyyy-MM-dd HH-mm-ss".
 		for(File snapDir : snapDirs) {
 			if(snapDir.isDirectory()) {
 				File[] snapDirFiles = snapDir.listFiles();
@@ -439,6 +729,10 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 						this.logger.info("Removing snapshot: " + snapDir.getName() + "/" + file.getName());
 						success = success && file.delete();
 						count++;
+					} else if(file.isDirectory() && restoredFilesDirPattern.matcher(file.getName()).matches()) {
+						this.logger.info("Removing snapshot directory: " + snapDir.getName() + "/" + file.getName());
+						success = success && deleteRecursively(file);
+						count++;
 					} else {
 						snapDirEmpty = false;
 					}
@@ -471,6 +765,14 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 			backupIntervalSeconds = 3600;
 		}
 		
+		// Read the interval of the merge task, which merges backups separately from the backup task.
+		int autoMergeIntervalSeconds = (int) this.getConfigTimeSeconds("autoMerge.interval", 3600);
+		if(autoMergeIntervalSeconds < 60) {
+			this.logger.warning("Invalid config entry found: autoMerge.interval has to be >= 60 [sec]. Found: "
+					+ autoMergeIntervalSeconds + ". Using default value: 3600 [sec].");
+			autoMergeIntervalSeconds = 3600;
+		}
+		
 		// Read and valiate merge intervals.
 		List<?> mergeIntervalsRaw = this.getConfig().getList("mergeIntervals");
 		List<BoundedInterval> mergeIntervals = new ArrayList<>();
@@ -515,17 +817,118 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 			this.minDiskSpaceToAllowBackup = 5000;
 		}
 		
+		this.statCacheEnabled = this.getConfig().getBoolean("statCache.enabled", true);
+		this.statCacheFullRehashInterval = this.getConfig().getInt("statCache.fullRehashInterval", 24);
+		if(this.statCacheFullRehashInterval < 0) {
+			this.logger.warning("Invalid config entry found: statCache.fullRehashInterval has to be >= 0. Found: "
+					+ this.statCacheFullRehashInterval + ". Using default value: 24.");
+			this.statCacheFullRehashInterval = 24;
+		}
+		
+		this.stateIndexEnabled = this.getConfig().getBoolean("stateIndex.enabled", true);
+		
+		this.dirtyTrackingEnabled = this.getConfig().getBoolean("dirtyTracking.enabled", false);
+		this.dirtyTrackingFullScanInterval = this.getConfig().getInt("dirtyTracking.fullScanInterval", 24);
+		if(this.dirtyTrackingFullScanInterval < 0) {
+			this.logger.warning("Invalid config entry found: dirtyTracking.fullScanInterval has to be >= 0. Found: "
+					+ this.dirtyTrackingFullScanInterval + ". Using default value: 24.");
+			this.dirtyTrackingFullScanInterval = 24;
+		}
+		
+		this.regionTrackingEnabled = this.getConfig().getBoolean("regionTracking.enabled", false);
+		int regionTrackingFullScanInterval = this.getConfig().getInt("regionTracking.fullScanInterval", 24);
+		if(regionTrackingFullScanInterval < 0) {
+			this.logger.warning("Invalid config entry found: regionTracking.fullScanInterval has to be >= 0. Found: "
+					+ regionTrackingFullScanInterval + ". Using default value: 24.");
+			regionTrackingFullScanInterval = 24;
+		}
+		if(this.regionChangeTracker != null) {
+			this.regionChangeTracker.setFullScanInterval(regionTrackingFullScanInterval);
+		}
+		
+		int backupThreadCount = this.getConfig().getInt("backupThreadCount", 4);
+		if(backupThreadCount < 0) {
+			this.logger.warning("Invalid config entry found: backupThreadCount has to be >= 0. Found: "
+					+ backupThreadCount + ". Using default value: 4.");
+			backupThreadCount = 4;
+		}
+		this.backupThreadCount =
+				(backupThreadCount == 0 ? Runtime.getRuntime().availableProcessors() : backupThreadCount);
+		
+		this.maxDeltaChainLength = this.getConfig().getInt(
+				"maxDeltaChainLength", SimpleBackup.DEFAULT_MAX_DELTA_CHAIN_LENGTH);
+		if(this.maxDeltaChainLength < 0) {
+			this.logger.warning("Invalid config entry found: maxDeltaChainLength has to be >= 0. Found: "
+					+ this.maxDeltaChainLength + ". Using default value: "
+					+ SimpleBackup.DEFAULT_MAX_DELTA_CHAIN_LENGTH + ".");
+			this.maxDeltaChainLength = SimpleBackup.DEFAULT_MAX_DELTA_CHAIN_LENGTH;
+		}
+		
+		String contentHasherName = this.getConfig().getString("contentHash", ContentHasher.XXH64_TREE.getName());
+		this.contentHasher = ContentHasher.forName(contentHasherName);
+		if(this.contentHasher == null) {
+			this.logger.warning("Invalid config entry found: contentHash has to be 'xxh64-tree' or 'md5'. Found: "
+					+ contentHasherName + ". Using default value: xxh64-tree.");
+			this.contentHasher = ContentHasher.XXH64_TREE;
+		}
+		
+		this.compressionPolicy = this.readCompressionPolicy();
+		this.codec = this.readCodec();
+		
+		String storageType = this.getConfig().getString("storageType", "zip");
+		if(!storageType.equals("zip") && !storageType.equals("dedup")) {
+			this.logger.warning("Invalid config entry found: storageType has to be 'zip' or 'dedup'. Found: "
+					+ storageType + ". Using default value: zip.");
+			storageType = "zip";
+		}
+		
+		boolean chunkingEnabled = this.getConfig().getBoolean("dedupChunking.enabled", true);
+		int minChunkedFileSizeKB = this.getConfig().getInt("dedupChunking.minFileSizeInKB", 1024);
+		if(minChunkedFileSizeKB < 0) {
+			this.logger.warning("Invalid config entry found: dedupChunking.minFileSizeInKB has to be >= 0. Found: "
+					+ minChunkedFileSizeKB + ". Using default value: 1024.");
+			minChunkedFileSizeKB = 1024;
+		}
+		int averageChunkSizeKB = this.getConfig().getInt("dedupChunking.averageChunkSizeInKB", 64);
+		if(averageChunkSizeKB < 1 || averageChunkSizeKB > 16384 || Integer.bitCount(averageChunkSizeKB) != 1) {
+			this.logger.warning("Invalid config entry found: dedupChunking.averageChunkSizeInKB has to be a power of"
+					+ " two between 1 and 16384. Found: " + averageChunkSizeKB + ". Using default value: 64.");
+			averageChunkSizeKB = 64;
+		}
+		this.chunker = (chunkingEnabled ? new FastCdcChunker(
+				averageChunkSizeKB * 256, averageChunkSizeKB * 1024, averageChunkSizeKB * 4096) : null);
+		this.minChunkedFileSize = minChunkedFileSizeKB * 1024L;
+		
+		String snapshotFormat = this.getConfig().getString("snapshotFormat", "zip");
+		if(!snapshotFormat.equals("zip") && !snapshotFormat.equals("directory")) {
+			this.logger.warning("Invalid config entry found: snapshotFormat has to be 'zip' or 'directory'. Found: "
+					+ snapshotFormat + ". Using default value: zip.");
+			snapshotFormat = "zip";
+		}
+		this.snapshotAsDirectory = snapshotFormat.equals("directory");
+		this.snapshotSyncBatchSize = this.getConfig().getInt("snapshotSyncBatchSize", 0);
+		if(this.snapshotSyncBatchSize < 0) {
+			this.logger.warning("Invalid config entry found: snapshotSyncBatchSize has to be >= 0. Found: "
+					+ this.snapshotSyncBatchSize + ". Using default value: 0.");
+			this.snapshotSyncBatchSize = 0;
+		}
+		
+		this.stagingEnabled = this.getConfig().getBoolean("staging.enabled", false);
+		this.stagingDir = new File(new File("").getAbsoluteFile(),
+				this.getConfig().getString("staging.dirPath", "woeshBackupStaging"));
+		this.stagingUseReflinks = this.getConfig().getBoolean("staging.useReflinks", true);
+		
 		this.debugEnabled = this.getConfig().getBoolean("debugEnabled", false);
 		
 		// Set the directories in which backups/snapshots will be stored if they have changed.
 		File backupDir = new File(new File("").getAbsoluteFile(), backupDirPath);
 		File snapshotsDir = new File(new File("").getAbsoluteFile(), snapshotsDirPath);
-		if(!backupDir.equals(this.backupDir)) {
+		if(!backupDir.equals(this.backupDir) || !storageType.equals(this.storageType)) {
 			this.backupDir = backupDir;
+			this.storageType = storageType;
+			this.blobStore = null;
 			for(Backup backup : this.backups.keySet()) {
-				ZipFileBackupPartFactory factory =
-						(ZipFileBackupPartFactory) ((SimpleBackup) backup).getBackupPartFactory();
-				factory.setStorageDir(new File(this.backupDir, backup.getToBackupDir().getName()));
+				((SimpleBackup) backup).setBackupPartFactory(this.createBackupPartFactory(backup.getToBackupDir()));
 			}
 		}
 		if(!snapshotsDir.equals(this.snapshotsDir)) {
@@ -544,6 +947,12 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 			}
 		}
 		
+		// Update the backup settings, since they, the ignore paths or the backup storage directories might have
+		// changed.
+		for(Backup backup : this.backups.keySet()) {
+			this.configureBackup((SimpleBackup) backup);
+		}
+		
 		// Start, stop or restart the backup task if the enabled state and/or interval has changed.
 		if(backupIntervalSeconds != this.backupIntervalSeconds || this.backupIntervalTaskActive() != autoBackup) {
 			this.backupIntervalSeconds = backupIntervalSeconds;
@@ -554,6 +963,16 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 				this.startBackupIntervalTask();
 			}
 		}
+		
+		// Start or restart the merge task if its interval has changed.
+		if(autoMergeIntervalSeconds != this.autoMergeIntervalSeconds) {
+			this.autoMergeIntervalSeconds = autoMergeIntervalSeconds;
+			if(this.autoMergeTask != null) {
+				this.autoMergeTask.cancel();
+			}
+			this.autoMergeTask = Bukkit.getScheduler().runTaskTimer(this, () -> WoeshBackupPlugin.this.performMerge(),
+					20 * Math.min(MAX_INITIAL_MERGE_DELAY, autoMergeIntervalSeconds), 20 * autoMergeIntervalSeconds);
+		}
 	}
 	
 	/**
@@ -648,6 +1067,16 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 		return this.snapshotsDir;
 	}
 	
+	@Override
+	public BackupRestoreWriterFactory getSnapshotWriterFactory(Backup backup) {
+		File restoreToDir = new File(this.snapshotsDir, backup.getToBackupDir().getName());
+		if(this.snapshotAsDirectory) {
+			int syncBatchSize = this.snapshotSyncBatchSize;
+			return (restoreFileDate) -> new BackupRestoreDirectoryWriter(restoreToDir, restoreFileDate, syncBatchSize);
+		}
+		return (restoreFileDate) -> new BackupRestoreZipFileWriter(restoreToDir, restoreFileDate);
+	}
+	
 	@Override
 	public boolean debugEnabled() {
 		return this.debugEnabled;
@@ -658,6 +1087,93 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 		this.debugEnabled = enabled;
 	}
 	
+	/**
+	 * Creates a backup part factory of the configured storage type that stores its backup parts in the storage
+	 * directory of the given directory to backup.
+	 * Deduplicating factories of all backups share a single blob store in the backup directory. When this blob store
+	 * is created, the storage directories of all backups in the backup directory are registered as its reference
+	 * sources, including backups of worlds that are not loaded, so that a sweep of the blob store does not remove
+	 * their blobs.
+	 * @param toBackupDir - The directory to backup.
+	 * @return The backup part factory.
+	 */
+	private BackupPartFactory createBackupPartFactory(File toBackupDir) {
+		File storageDir = new File(this.backupDir, toBackupDir.getName());
+		if(this.storageType.equals("dedup")) {
+			if(this.blobStore == null) {
+				this.blobStore = new BlobStore(new File(this.backupDir, ".blobstore"));
+				File[] storageDirs = this.backupDir.listFiles((file) -> {
+					String[] manifestNames = (file.isDirectory()
+							? file.list((dir, name) -> name.endsWith(".manifest")) : new String[0]);
+					return manifestNames == null || manifestNames.length > 0;
+				});
+				if(storageDirs != null) {
+					for(File existingStorageDir : storageDirs) {
+						new DedupBackupPartFactory(existingStorageDir, this.blobStore); // Registers the directory.
+					}
+				}
+			}
+			return new DedupBackupPartFactory(storageDir, this.blobStore);
+		}
+		return new ZipFileBackupPartFactory(storageDir);
+	}
+	
+	/**
+	 * Applies the settings from the config to the given backup. This sets the amount of threads and sets a new stat
+	 * cache and state index in the storage directory of the given backup, or removes them if they are disabled in the
+	 * config. A new dirty path tracker is started for the current ignore paths of the backup if enabled, replacing the
+	 * previous one.
+	 * @param backup - The backup.
+	 */
+	private void configureBackup(SimpleBackup backup) {
+		backup.setThreadCount(this.backupThreadCount);
+		backup.setMaxDeltaChainLength(this.maxDeltaChainLength);
+		BackupPartFactory factory = backup.getBackupPartFactory();
+		if(factory instanceof ZipFileBackupPartFactory) {
+			((ZipFileBackupPartFactory) factory).setCompressionThreadCount(this.backupThreadCount);
+			((ZipFileBackupPartFactory) factory).setContentHasher(this.contentHasher);
+			((ZipFileBackupPartFactory) factory).setCompressionPolicy(this.compressionPolicy);
+			((ZipFileBackupPartFactory) factory).setCodec(this.codec);
+		} else if(factory instanceof DedupBackupPartFactory) {
+			((DedupBackupPartFactory) factory).setChunker(this.chunker, this.minChunkedFileSize);
+		}
+		if(this.statCacheEnabled) {
+			File storageDir = new File(this.backupDir, backup.getToBackupDir().getName());
+			backup.setStatCache(new StatCache(new File(storageDir, ".statcache"), this.statCacheFullRehashInterval));
+		} else {
+			backup.setStatCache(null);
+		}
+		if(this.stateIndexEnabled) {
+			File storageDir = new File(this.backupDir, backup.getToBackupDir().getName());
+			backup.setStateIndex(new BackupStateIndex(new File(storageDir, ".stateindex")));
+		} else {
+			backup.setStateIndex(null);
+		}
+		if(this.stagingEnabled) {
+			File stagingDir = new File(this.stagingDir, backup.getToBackupDir().getName());
+			backup.setStagingDir(new StagingDirectory(stagingDir, this.stagingUseReflinks));
+		} else {
+			backup.setStagingDir(null);
+		}
+		DirtyPathTracker oldDirtyPathTracker = backup.getDirtyPathTracker();
+		if(oldDirtyPathTracker != null) {
+			oldDirtyPathTracker.close();
+			backup.setDirtyPathTracker(null);
+		}
+		if(this.dirtyTrackingEnabled) {
+			DirtyPathTracker dirtyPathTracker = new DirtyPathTracker(
+					backup.getToBackupDir(), backup.getIgnorePaths(), this.dirtyTrackingFullScanInterval);
+			try {
+				dirtyPathTracker.start();
+				backup.setDirtyPathTracker(dirtyPathTracker);
+			} catch (IOException e) {
+				this.logger.warning("Failed to start dirty path tracker for backup: "
+						+ backup.getToBackupDir().getName() + ". All files will be examined during every backup."
+						+ " Exception message: " + e.getMessage());
+			}
+		}
+	}
+	
 	/**
 	 * Adds a backup for all loaded worlds. If a world already has a corresponding backup, it is ignored.
 	 */
@@ -673,10 +1189,109 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 					continue iterateLoop;
 				}
 			}
-			ZipFileBackupPartFactory backupPartFactory =
-					new ZipFileBackupPartFactory(new File(this.backupDir, toBackupWorldDir.getName()));
-			this.backups.put(new SimpleBackup(toBackupWorldDir, backupPartFactory, this.logger), null);
+			SimpleBackup worldBackup = new SimpleBackup(
+					toBackupWorldDir, this.createBackupPartFactory(toBackupWorldDir), this.logger);
+			this.configureBackup(worldBackup);
+			this.backups.put(worldBackup, null);
+		}
+	}
+	
+	/**
+	 * Reads the compression policy from the config, logging a warning for invalid entries.
+	 * @return The compression policy.
+	 */
+	private CompressionPolicy readCompressionPolicy() {
+		String modeStr = this.getConfig().getString("compression.mode", "auto");
+		CompressionPolicy.Mode mode;
+		try {
+			mode = CompressionPolicy.Mode.valueOf(modeStr.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			this.logger.warning("Invalid config entry found: compression.mode has to be 'auto', 'deflate' or 'store'."
+					+ " Found: " + modeStr + ". Using default value: auto.");
+			mode = CompressionPolicy.Mode.AUTO;
+		}
+		CompressionPolicy policy = new CompressionPolicy(mode);
+		for(String extension : this.getConfig().getStringList("compression.storeExtensions")) {
+			policy.addStoreExtension(extension);
+		}
+		for(String glob : this.getConfig().getStringList("compression.storeGlobs")) {
+			try {
+				policy.addStoreGlob(glob);
+			} catch (IllegalArgumentException e) {
+				this.logger.warning("Invalid config entry found: compression.storeGlobs contains an invalid glob"
+						+ " pattern: " + glob + ". Ignoring pattern.");
+			}
+		}
+		for(String glob : this.getConfig().getStringList("compression.deflateGlobs")) {
+			try {
+				policy.addDeflateGlob(glob);
+			} catch (IllegalArgumentException e) {
+				this.logger.warning("Invalid config entry found: compression.deflateGlobs contains an invalid glob"
+						+ " pattern: " + glob + ". Ignoring pattern.");
+			}
+		}
+		int minDeflateSize = this.getConfig().getInt("compression.minDeflateSizeInBytes", 64);
+		if(minDeflateSize < 0) {
+			this.logger.warning("Invalid config entry found: compression.minDeflateSizeInBytes has to be >= 0."
+					+ " Found: " + minDeflateSize + ". Using default value: 64.");
+			minDeflateSize = 64;
+		}
+		policy.setMinDeflateSize(minDeflateSize);
+		int maxCompressionPercentage = this.getConfig().getInt("compression.maxCompressionPercentage", 95);
+		if(maxCompressionPercentage < 1) {
+			this.logger.warning("Invalid config entry found: compression.maxCompressionPercentage has to be >= 1."
+					+ " Found: " + maxCompressionPercentage + ". Using default value: 95.");
+			maxCompressionPercentage = 95;
+		}
+		policy.setMaxCompressionRatio(maxCompressionPercentage / 100d);
+		return policy;
+	}
+	
+	/**
+	 * Reads the compression codec from the config, logging a warning for invalid entries and for codecs of which the
+	 * library is not available.
+	 * @return The compression codec.
+	 */
+	private CompressionCodec readCodec() {
+		String codecName = this.getConfig().getString("compression.codec", "deflate");
+		CompressionCodec codec;
+		switch(codecName) {
+			case "deflate": {
+				return CompressionCodec.DEFLATE;
+			}
+			case "zstd": {
+				int level = this.getConfig().getInt("compression.zstd.level", ZstdCodec.DEFAULT_LEVEL);
+				if(level < 1 || level > 22) {
+					this.logger.warning("Invalid config entry found: compression.zstd.level has to be between 1 and"
+							+ " 22. Found: " + level + ". Using default value: " + ZstdCodec.DEFAULT_LEVEL + ".");
+					level = ZstdCodec.DEFAULT_LEVEL;
+				}
+				int windowLog = this.getConfig().getInt("compression.zstd.longDistanceWindowLog", 0);
+				if(windowLog != 0 && (windowLog < 10 || windowLog > ZstdCodec.MAX_WINDOW_LOG)) {
+					this.logger.warning("Invalid config entry found: compression.zstd.longDistanceWindowLog has to be 0"
+							+ " or between 10 and " + ZstdCodec.MAX_WINDOW_LOG + ". Found: " + windowLog
+							+ ". Using default value: 0.");
+					windowLog = 0;
+				}
+				codec = new ZstdCodec(level, windowLog, (this.backupThreadCount > 1 ? this.backupThreadCount : 0));
+				break;
+			}
+			case "lz4": {
+				codec = new Lz4Codec();
+				break;
+			}
+			default: {
+				this.logger.warning("Invalid config entry found: compression.codec has to be 'deflate', 'zstd' or"
+						+ " 'lz4'. Found: " + codecName + ". Using default value: deflate.");
+				return CompressionCodec.DEFLATE;
+			}
 		}
+		if(!codec.isAvailable()) {
+			this.logger.warning("The " + codecName + " compression codec is not available, because its library could"
+					+ " not be loaded. Using deflate instead.");
+			return CompressionCodec.DEFLATE;
+		}
+		return codec;
 	}
 	
 	/**
@@ -708,6 +1323,22 @@ public class WoeshBackupPlugin extends JavaPlugin implements WoeshBackupAPI {
 		return ignorePaths;
 	}
 	
+	/**
+	 * Removes the given file or directory, including its (nested) contents.
+	 * @param file - The file or directory to remove.
+	 * @return {@code true} if the removal was successful, {@code false} if one or more files could not be removed.
+	 */
+	private static boolean deleteRecursively(File file) {
+		boolean success = true;
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File subFile : files) {
+				success &= deleteRecursively(subFile);
+			}
+		}
+		return file.delete() && success;
+	}
+	
 	@Override
 	public boolean onCommand(final CommandSender sender, Command command, String label, String[] args) {
 		
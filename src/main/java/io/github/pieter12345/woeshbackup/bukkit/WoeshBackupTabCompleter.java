@@ -51,7 +51,7 @@ public class WoeshBackupTabCompleter implements TabCompleter {
 		if(args.length == 1) {
 			List<String> ret = new ArrayList<String>();
 			for(String comp : new String[] {"now", "status", "on", "off", "diskinfo",
-					"generatesnapshot", "removesnapshots", "toggledebug", "reload"}) {
+					"generatesnapshot", "restorefile", "rollback", "removesnapshots", "toggledebug", "reload"}) {
 				if(comp.startsWith(args[0].toLowerCase())) {
 					ret.add(comp);
 				}
@@ -59,12 +59,14 @@ public class WoeshBackupTabCompleter implements TabCompleter {
 			return ret;
 		}
 		
-		// TAB-complete "/woeshbackup generatesnapshot <backupName> <beforeData>".
-		// beforeDate is in format: yyyy-MM-dd or yyyy-MM-dd-HH-mm-ss.
-		if(args[0].equalsIgnoreCase("generatesnapshot")) {
+		// TAB-complete "/woeshbackup generatesnapshot <backupName> <beforeData>",
+		// "/woeshbackup restorefile <backupName> <beforeData> <path>" and "/woeshbackup rollback <world> <beforeDate>".
+		// beforeDate is in format: yyyy-MM-dd or yyyy-MM-dd-HH-mm-ss. World backups are named after their world.
+		if(args[0].equalsIgnoreCase("generatesnapshot") || args[0].equalsIgnoreCase("restorefile")
+				|| args[0].equalsIgnoreCase("rollback")) {
 			
 			// Check for permission.
-			if(!sender.hasPermission("woeshbackup.generatesnapshot")) {
+			if(!sender.hasPermission("woeshbackup." + args[0].toLowerCase())) {
 				return new ArrayList<String>(); // Return an empty list so no info about backups can be obtained.
 			}
 			
@@ -0,0 +1,29 @@
+package io.github.pieter12345.woeshbackup.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ThreadFactory} that creates numbered daemon threads for worker pools.
+ * @author P.J.S. Kools
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	
+	private final String threadName;
+	private final AtomicInteger threadCount = new AtomicInteger();
+	
+	/**
+	 * Creates a new {@link DaemonThreadFactory}.
+	 * @param threadName - The name of the created threads. The thread number is appended to this name.
+	 */
+	public DaemonThreadFactory(String threadName) {
+		this.threadName = threadName;
+	}
+	
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, this.threadName + " #" + this.threadCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
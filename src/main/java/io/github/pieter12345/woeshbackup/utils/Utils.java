@@ -77,6 +77,21 @@ public abstract class Utils {
 		}
 	}
 	
+	/**
+	 * Checks whether the class with the given name can be loaded by the class loader of this class, without
+	 * initializing it. This is used to detect whether optional libraries are present.
+	 * @param className - The fully qualified class name.
+	 * @return {@code true} if the class is present, {@code false} otherwise.
+	 */
+	public static boolean isClassPresent(String className) {
+		try {
+			Class.forName(className, false, Utils.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+	
 	/**
 	 * Glues elements in an iterable together into a string with the given glue.
 	 * @param iterable - The iterable containing the elements to generate a string with.
@@ -0,0 +1,145 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link BackupRestoreDirectoryWriter} class.
+ * @author P.J.S. Kools
+ */
+class BackupRestoreDirectoryWriterTest {
+	
+	static final File BASE_DIR = new File(BackupRestoreDirectoryWriterTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that files and directories added from multiple threads are written to the restore directory, including
+	 * preallocated files of which the given size is larger than their contents.
+	 */
+	@Test
+	void testWriteMultiThreaded() throws Exception {
+		
+		// Create file contents, including files that are large enough to be preallocated.
+		Random random = new Random(0);
+		List<byte[]> contents = new ArrayList<byte[]>();
+		for(int size : new int[] {0, 100, 64 * 1024 + 1, (int) BackupRestoreDirectoryWriter.PREALLOCATION_THRESHOLD,
+				3000000}) {
+			byte[] bytes = new byte[size];
+			random.nextBytes(bytes);
+			contents.add(bytes);
+		}
+		
+		// Write the files from multiple threads. The last file is given a larger size than its contents.
+		BackupRestoreDirectoryWriter writer = new BackupRestoreDirectoryWriter(BASE_DIR, 1000L, 2);
+		assertThat(writer.isThreadSafe()).isTrue();
+		writer.open();
+		ExecutorService threadPool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int i = 0; i < contents.size(); i++) {
+				String relPath = "dir" + (i % 2) + File.separator + "file" + i;
+				byte[] bytes = contents.get(i);
+				long size = (i == contents.size() - 1 ? bytes.length + 1000000 : bytes.length);
+				futures.add(threadPool.submit(() -> {
+					writer.add(relPath, new ByteArrayInputStream(bytes), size);
+					return null;
+				}));
+			}
+			futures.add(threadPool.submit(() -> {
+				writer.add("emptyDir" + File.separator, null);
+				return null;
+			}));
+			for(Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			threadPool.shutdownNow();
+		}
+		writer.close();
+		
+		// Assert that the files were written with their exact contents.
+		for(int i = 0; i < contents.size(); i++) {
+			File file = new File(writer.getRestoreDir(), "dir" + (i % 2) + File.separator + "file" + i);
+			assertThat(Files.readAllBytes(file.toPath())).isEqualTo(contents.get(i));
+		}
+		assertThat(new File(writer.getRestoreDir(), "emptyDir").isDirectory()).isTrue();
+		
+		// Assert that the restore directory is removed on delete.
+		writer.delete();
+		assertThat(writer.getRestoreDir().exists()).isFalse();
+	}
+	
+	/**
+	 * Tests that a writer that is allowed to overwrite writes to an existing directory, truncating overwritten files
+	 * and leaving other files alone.
+	 */
+	@Test
+	void testOverwrite() throws Exception {
+		
+		// Create an existing directory with files.
+		File restoreDir = new File(BASE_DIR, "overwrite");
+		File overwrittenFile = new File(restoreDir, "file1");
+		File untouchedFile = new File(restoreDir, "file2");
+		assertThat(restoreDir.mkdir()).isTrue();
+		Files.write(overwrittenFile.toPath(), new byte[] {1, 2, 3, 4, 5});
+		Files.write(untouchedFile.toPath(), new byte[] {6, 7});
+		
+		// Assert that a writer that is not allowed to overwrite cannot be opened.
+		assertThrows(IOException.class, () -> new BackupRestoreDirectoryWriter(restoreDir, 0, false).open());
+		
+		// Overwrite a file with shorter contents.
+		BackupRestoreDirectoryWriter writer = new BackupRestoreDirectoryWriter(restoreDir, 1, true);
+		writer.open();
+		writer.add("file1", new ByteArrayInputStream(new byte[] {8, 9}));
+		writer.close();
+		
+		// Assert that only the overwritten file was changed.
+		assertThat(Files.readAllBytes(overwrittenFile.toPath())).isEqualTo(new byte[] {8, 9});
+		assertThat(Files.readAllBytes(untouchedFile.toPath())).isEqualTo(new byte[] {6, 7});
+	}
+	
+	/**
+	 * Tests that {@link BackupRestoreDirectoryWriter#add(String, java.io.InputStream)} throws an
+	 * {@link IllegalStateException} when the writer is not open.
+	 */
+	@Test
+	void testAddWhenClosed() {
+		BackupRestoreDirectoryWriter writer = new BackupRestoreDirectoryWriter(BASE_DIR, 2000L, 0);
+		assertThrows(IllegalStateException.class, () -> writer.add("file", new ByteArrayInputStream(new byte[1])));
+	}
+}
@@ -0,0 +1,183 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.BackupPart.ChangeType;
+import io.github.pieter12345.woeshbackup.BackupStateIndex.StateEntry;
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link BackupStateIndex} class.
+ * @author P.J.S. Kools
+ */
+class BackupStateIndexTest {
+	
+	static final File BASE_DIR = new File(BackupStateIndexTest.class.getSimpleName() + "-temp");
+	static final String FILE1 = "file1";
+	static final String FILE2 = "dir" + File.separator + "file2";
+	static final String DIR1 = "dir" + File.separator;
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that a written backup state is read back for the same backup parts.
+	 */
+	@Test
+	void testWriteAndRead() throws Exception {
+		BackupStateIndex index = new BackupStateIndex(new File(BASE_DIR, "testWriteAndRead"));
+		List<BackupPart> backups = createBackupParts(1000, 2000, 3000);
+		
+		// Write a backup state.
+		Map<String, StateEntry> state = new HashMap<String, StateEntry>();
+		state.put(FILE1, new StateEntry(new int[] {2, 1, 0}, "xxh64-tree:abc:def"));
+		state.put(FILE2, new StateEntry(new int[] {1}, "md5:123"));
+		state.put(DIR1, new StateEntry(new int[] {0}, null));
+		index.write(backups, state);
+		
+		// Assert that the backup state is read back.
+		Map<String, StateEntry> readState = index.read(createBackupParts(1000, 2000, 3000));
+		assertThat(readState).isNotNull();
+		assertThat(readState.keySet()).containsExactlyInAnyOrder(FILE1, FILE2, DIR1);
+		assertThat(readState.get(FILE1).getChain()).isEqualTo(new int[] {2, 1, 0});
+		assertThat(readState.get(FILE1).getChainLength()).isEqualTo(2);
+		assertThat(readState.get(FILE1).getBackupPartIndex()).isEqualTo(2);
+		assertThat(readState.get(FILE1).getDigest()).isEqualTo("xxh64-tree:abc:def");
+		assertThat(readState.get(FILE2).getChain()).isEqualTo(new int[] {1});
+		assertThat(readState.get(FILE2).getDigest()).isEqualTo("md5:123");
+		assertThat(readState.get(DIR1).getDigest()).isNull();
+	}
+	
+	/**
+	 * Tests that the index is not used for different backup parts.
+	 */
+	@Test
+	void testReadDifferentBackupParts() throws Exception {
+		BackupStateIndex index = new BackupStateIndex(new File(BASE_DIR, "testReadDifferentBackupParts"));
+		Map<String, StateEntry> state = new HashMap<String, StateEntry>();
+		state.put(FILE1, new StateEntry(new int[] {1}, null));
+		index.write(createBackupParts(1000, 2000), state);
+		
+		// Assert that the index is only used for the backup parts that it was created for.
+		assertThat(index.read(createBackupParts(1000, 2000))).isNotNull();
+		assertThat(index.read(createBackupParts(1000))).isNull();
+		assertThat(index.read(createBackupParts(1000, 2000, 3000))).isNull();
+		assertThat(index.read(createBackupParts(1000, 2500))).isNull();
+	}
+	
+	/**
+	 * Tests that missing, truncated and invalidated index files are not used.
+	 */
+	@Test
+	void testCorruptedAndInvalidated() throws Exception {
+		File indexFile = new File(BASE_DIR, "testCorruptedAndInvalidated");
+		BackupStateIndex index = new BackupStateIndex(indexFile);
+		List<BackupPart> backups = createBackupParts(1000, 2000);
+		
+		// Assert that a missing index file is not used.
+		assertThat(index.read(backups)).isNull();
+		
+		// Write a backup state.
+		Map<String, StateEntry> state = new HashMap<String, StateEntry>();
+		state.put(FILE1, new StateEntry(new int[] {1, 0}, null));
+		state.put(FILE2, new StateEntry(new int[] {0}, null));
+		index.write(backups, state);
+		assertThat(index.read(backups)).isNotNull();
+		
+		// Assert that a truncated index file is not used.
+		String content = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8);
+		Files.write(indexFile.toPath(),
+				content.substring(0, content.lastIndexOf("#end")).getBytes(StandardCharsets.UTF_8));
+		assertThat(index.read(backups)).isNull();
+		
+		// Assert that an index file referring to non-existing backup parts is not used.
+		Files.write(indexFile.toPath(), content.replace("1,0\t", "2,0\t").getBytes(StandardCharsets.UTF_8));
+		assertThat(index.read(backups)).isNull();
+		
+		// Assert that an invalidated index is not used.
+		index.write(backups, state);
+		index.invalidate();
+		assertThat(indexFile.exists()).isFalse();
+		assertThat(index.read(backups)).isNull();
+	}
+	
+	/**
+	 * Tests the creation of state entries for new changes.
+	 */
+	@Test
+	void testStateEntryOf() {
+		StateEntry addition = StateEntry.of(0, ChangeType.ADDITION, null, "a");
+		assertThat(addition.getChain()).isEqualTo(new int[] {0});
+		StateEntry modification = StateEntry.of(2, ChangeType.MODIFICATION, addition, "b");
+		assertThat(modification.getChain()).isEqualTo(new int[] {2, 0});
+		assertThat(modification.getDigest()).isEqualTo("b");
+		assertThat(StateEntry.of(3, ChangeType.MODIFICATION, null, null).getChain()).isEqualTo(new int[] {3});
+		assertThat(StateEntry.of(3, ChangeType.ADDITION, modification, null).getChain()).isEqualTo(new int[] {3});
+	}
+	
+	/**
+	 * Tests that digests of a {@link ZippedBackupPart} match the file that was added.
+	 */
+	@Test
+	void testZippedBackupPartDigest() throws Exception {
+		File dir = new File(BASE_DIR, "testZippedBackupPartDigest");
+		dir.mkdir();
+		File file = new File(dir, "file.txt");
+		Files.write(file.toPath(), "Some file contents.".getBytes(StandardCharsets.UTF_8));
+		
+		// Create a backup part containing the file.
+		ZippedBackupPart backup = new ZippedBackupPart(dir, "backup", 1000);
+		backup.addAddition(FILE1, file);
+		backup.addAddition(DIR1, null);
+		backup.close();
+		backup = new ZippedBackupPart(dir, "backup", 1000);
+		backup.readChanges();
+		
+		// Assert that the digest matches the file, also on a backup part that did not read its changes.
+		String digest = backup.getDigest(FILE1);
+		assertThat(digest).isNotNull();
+		assertThat(backup.getDigest(DIR1)).isNull();
+		assertThat(backup.getDigest(FILE2)).isNull();
+		BackupPart otherBackup = new ZippedBackupPart(dir, "other", 2000);
+		assertThat(otherBackup.matchesDigest(digest, file)).isTrue();
+		Files.write(file.toPath(), "Other file contents.".getBytes(StandardCharsets.UTF_8));
+		assertThat(otherBackup.matchesDigest(digest, file)).isFalse();
+	}
+	
+	private static List<BackupPart> createBackupParts(long... creationTimes) {
+		BackupPart[] backups = new BackupPart[creationTimes.length];
+		for(int i = 0; i < creationTimes.length; i++) {
+			backups[i] = new ZippedBackupPart(BASE_DIR, "backup" + creationTimes[i], creationTimes[i]);
+		}
+		return Arrays.asList(backups);
+	}
+}
@@ -0,0 +1,118 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.io.Files;
+
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link BinaryDelta} class.
+ * @author P.J.S. Kools
+ */
+class BinaryDeltaTest {
+	
+	static final File BASE_DIR = new File(BinaryDeltaTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that applying a created difference to the previous version results in the new version, and that the
+	 * difference only contains the bytes around the changes.
+	 */
+	@Test
+	void testCreateApply() throws Exception {
+		
+		// Create a new version with an insertion, a removal and a replaced range.
+		byte[] previousVersion = RegionFileDeltaTest.createChunk(1, 1000000);
+		ByteArrayOutputStream newVersionStream = new ByteArrayOutputStream();
+		newVersionStream.write(previousVersion, 0, 200000);
+		newVersionStream.write(RegionFileDeltaTest.createChunk(2, 1234));
+		newVersionStream.write(previousVersion, 200000, 300000);
+		newVersionStream.write(previousVersion, 600000, 200000);
+		newVersionStream.write(RegionFileDeltaTest.createChunk(3, 5000));
+		newVersionStream.write(previousVersion, 805000, 195000);
+		byte[] newVersion = newVersionStream.toByteArray();
+		
+		// Assert that the difference restores the new version and is small.
+		byte[] delta = createDelta(previousVersion, newVersion);
+		assertThat(BinaryDelta.isBinaryDelta(delta, delta.length)).isTrue();
+		assertThat(delta.length).isLessThan(20000);
+		assertThat(applyDelta(delta, previousVersion)).isEqualTo(newVersion);
+	}
+	
+	/**
+	 * Tests creating and applying differences with empty and unrelated versions.
+	 */
+	@Test
+	void testUnrelatedVersions() throws Exception {
+		byte[] version1 = RegionFileDeltaTest.createChunk(1, 100000);
+		byte[] version2 = RegionFileDeltaTest.createChunk(2, 70001);
+		byte[] empty = new byte[0];
+		assertThat(applyDelta(createDelta(version1, version2), version1)).isEqualTo(version2);
+		assertThat(applyDelta(createDelta(empty, version2), empty)).isEqualTo(version2);
+		assertThat(applyDelta(createDelta(version1, empty), version1)).isEqualTo(empty);
+		assertThat(applyDelta(createDelta(version1, version1), version1)).isEqualTo(version1);
+	}
+	
+	/**
+	 * Tests that applying an invalid or truncated difference fails.
+	 */
+	@Test
+	void testInvalidDelta() throws Exception {
+		byte[] previousVersion = RegionFileDeltaTest.createChunk(1, 100000);
+		byte[] newVersion = RegionFileDeltaTest.createChunk(2, 100000);
+		byte[] delta = createDelta(previousVersion, newVersion);
+		byte[] truncatedDelta = new byte[delta.length - 10];
+		System.arraycopy(delta, 0, truncatedDelta, 0, truncatedDelta.length);
+		assertThat(BinaryDelta.isBinaryDelta(new byte[10], 10)).isFalse();
+		assertThrows(IOException.class, () -> applyDelta(new byte[10], previousVersion));
+		assertThrows(IOException.class, () -> applyDelta(truncatedDelta, previousVersion));
+	}
+	
+	private static byte[] createDelta(byte[] previousVersion, byte[] newVersion) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		BinaryDelta.create(new ByteArrayInputStream(previousVersion), new ByteArrayInputStream(newVersion),
+				BinaryDelta.getBlockSize(newVersion.length), outStream);
+		return outStream.toByteArray();
+	}
+	
+	private static byte[] applyDelta(byte[] delta, byte[] previousVersion) throws IOException {
+		File previousFile = new File(BASE_DIR, "previous");
+		Files.write(previousVersion, previousFile);
+		InputStream inStream = BinaryDelta.apply(new ByteArrayInputStream(delta), previousFile);
+		try {
+			return ZippedBackupPartTest.readAll(inStream);
+		} finally {
+			inStream.close();
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Tests the {@link ChangeHint} class.
+ * @author P.J.S. Kools
+ */
+class ChangeHintTest {
+	
+	/**
+	 * Tests whether paths are considered unchanged by a hint covering "region/" with "region/r.0.0.mca" marked as
+	 * changed.
+	 */
+	@ParameterizedTest(name = "Check for: \"{0}\", Expect unchanged: {1}")
+	@CsvSource({
+		"region/r.0.1.mca, true",
+		"region/r.0.0.mca, false",
+		"region/, false",
+		"region/sub/, false",
+		"region/sub/r.0.1.mca, false",
+		"data/r.0.1.mca, false",
+		"r.0.1.mca, false",
+		"DIM-1/region/r.0.1.mca, false"
+	})
+	void testIsUnchanged(String checkPath, boolean expectUnchanged) {
+		checkPath = checkPath.replace('/', File.separatorChar);
+		ChangeHint hint = new ChangeHint(Arrays.asList("region" + File.separator),
+				Arrays.asList("region" + File.separator + "r.0.0.mca"));
+		assertThat(hint.isUnchanged(checkPath)).isEqualTo(expectUnchanged);
+	}
+}
@@ -0,0 +1,108 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.BackupPart.ChangeType;
+
+/**
+ * Tests the {@link ChangeTable} class.
+ * @author P.J.S. Kools
+ */
+class ChangeTableTest {
+	
+	/**
+	 * Tests that changes added in any order can be looked up and that their hashes and fingerprints are preserved.
+	 */
+	@Test
+	void testAddAndGet() {
+		String file1 = "dir" + File.separator + "fileé";
+		String file2 = "dir" + File.separator + "a";
+		String dir1 = "dir" + File.separator;
+		String file3 = "other";
+		ChangeTable table = new ChangeTable.Builder()
+				.add(file1, ChangeType.ADDITION, "0123456789abcdef", "dGVzdCBmaW5nZXJwcmludA==")
+				.add(file2, ChangeType.MODIFICATION, "", null)
+				.add(dir1, ChangeType.ADDITION, null, null)
+				.add(file3, ChangeType.REMOVAL, null, null)
+				.build();
+		
+		// Assert that all changes are found with their hashes and fingerprints.
+		assertThat(table.size()).isEqualTo(4);
+		int index = table.indexOf(file1);
+		assertThat(index).isGreaterThanOrEqualTo(0);
+		assertThat(table.getPath(index)).isEqualTo(file1);
+		assertThat(table.getChangeType(index)).isEqualTo(ChangeType.ADDITION);
+		assertThat(table.getHash(index)).isEqualTo("0123456789abcdef");
+		assertThat(table.getFingerprint(index)).isEqualTo("dGVzdCBmaW5nZXJwcmludA==");
+		index = table.indexOf(file2);
+		assertThat(table.getChangeType(index)).isEqualTo(ChangeType.MODIFICATION);
+		assertThat(table.getHash(index)).isEqualTo("");
+		assertThat(table.getFingerprint(index)).isNull();
+		assertThat(table.getHash(table.indexOf(dir1))).isNull();
+		assertThat(table.getChangeType(file3)).isEqualTo(ChangeType.REMOVAL);
+		assertThat(table.indexOf("dir")).isLessThan(0);
+		assertThat(table.getChangeType("missing")).isNull();
+		
+		// Assert that the changes are sorted by path.
+		for(int i = 1; i < table.size(); i++) {
+			assertThat(table.getPath(i - 1).compareTo(table.getPath(i))).isLessThan(0);
+		}
+	}
+	
+	/**
+	 * Tests that hashes that cannot be stored as bytes are preserved.
+	 */
+	@Test
+	void testTextTokens() {
+		String[] hashes = new String[] {"ABCDEF", "abc", "not base64!", "a:b", "é"};
+		ChangeTable.Builder builder = new ChangeTable.Builder();
+		for(int i = 0; i < hashes.length; i++) {
+			builder.add("file" + i, ChangeType.ADDITION, hashes[i], hashes[hashes.length - 1 - i]);
+		}
+		ChangeTable table = builder.build();
+		for(int i = 0; i < hashes.length; i++) {
+			int index = table.indexOf("file" + i);
+			assertThat(table.getHash(index)).isEqualTo(hashes[i]);
+			assertThat(table.getFingerprint(index)).isEqualTo(hashes[hashes.length - 1 - i]);
+		}
+	}
+	
+	/**
+	 * Tests that the map view contains all changes and cannot be modified.
+	 */
+	@Test
+	void testAsMap() {
+		ChangeTable.Builder builder = new ChangeTable.Builder();
+		Map<String, ChangeType> expectedChanges = new HashMap<String, ChangeType>();
+		for(int i = 1000; i > 0; i--) {
+			ChangeType changeType = (i % 3 == 0 ? ChangeType.REMOVAL : ChangeType.ADDITION);
+			builder.add("file" + i, changeType, null, null);
+			expectedChanges.put("file" + i, changeType);
+		}
+		Map<String, ChangeType> changes = builder.build().asMap();
+		assertThat(changes).isEqualTo(expectedChanges);
+		assertThat(changes.get("file3")).isEqualTo(ChangeType.REMOVAL);
+		assertThat(changes.containsKey("file0")).isFalse();
+		assertThrows(UnsupportedOperationException.class, () -> changes.put("file0", ChangeType.ADDITION));
+		assertThrows(UnsupportedOperationException.class, () -> changes.remove("file1"));
+	}
+	
+	/**
+	 * Tests that adding a path more than once is rejected.
+	 */
+	@Test
+	void testDuplicatePath() {
+		ChangeTable.Builder builder = new ChangeTable.Builder()
+				.add("b", ChangeType.ADDITION, null, null)
+				.add("a", ChangeType.ADDITION, null, null)
+				.add("b", ChangeType.REMOVAL, null, null);
+		assertThrows(IllegalArgumentException.class, () -> builder.build());
+	}
+}
@@ -0,0 +1,118 @@
+package io.github.pieter12345.woeshbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks the available {@link CompressionCodec} implementations against deflate on the files in a directory,
+ * such as a sample world. Every file is compressed separately, as is done for zip entries.
+ * This is not a test and is not run during the build. Usage: {@code CompressionCodecBenchmark <directory>}.
+ * @author P.J.S. Kools
+ */
+public class CompressionCodecBenchmark {
+	
+	/**
+	 * Creates a new {@link CompressionCodecBenchmark}.
+	 */
+	private CompressionCodecBenchmark() {
+	}
+	
+	/**
+	 * Runs the benchmark.
+	 * @param args - The arguments, containing the directory to read the files from.
+	 * @throws IOException If an I/O error has occurred while reading the files.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 1) {
+			System.out.println("Usage: CompressionCodecBenchmark <directory>");
+			return;
+		}
+		
+		// Read all files into memory, so that disk I/O does not influence the results.
+		List<byte[]> files = new ArrayList<byte[]>();
+		long totalSize = readFiles(new File(args[0]), files);
+		System.out.println("Read " + files.size() + " files containing " + totalSize + " bytes.");
+		
+		// Create the codecs.
+		Map<String, CompressionCodec> codecs = new LinkedHashMap<String, CompressionCodec>();
+		codecs.put("deflate", new DeflateCodec());
+		codecs.put("deflate-1", new DeflateCodec(1));
+		for(int level : new int[] {1, 3, 9, 19}) {
+			codecs.put("zstd-" + level, new ZstdCodec(level, 0, 0));
+			codecs.put("zstd-" + level + "-long", new ZstdCodec(level, ZstdCodec.MAX_WINDOW_LOG, 0));
+		}
+		codecs.put("lz4", new Lz4Codec());
+		
+		// Benchmark the codecs.
+		for(Map.Entry<String, CompressionCodec> entry : codecs.entrySet()) {
+			CompressionCodec codec = entry.getValue();
+			if(!codec.isAvailable()) {
+				System.out.println(entry.getKey() + ": Not available.");
+				continue;
+			}
+			long compressedSize = 0;
+			long encodeTime = 0;
+			long decodeTime = 0;
+			byte[] buffer = new byte[8192];
+			for(byte[] bytes : files) {
+				
+				// Encode the file.
+				long startTime = System.nanoTime();
+				ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+				OutputStream outStream = codec.encode(byteOutStream);
+				outStream.write(bytes);
+				outStream.close();
+				encodeTime += System.nanoTime() - startTime;
+				byte[] compressedBytes = byteOutStream.toByteArray();
+				compressedSize += compressedBytes.length;
+				
+				// Decode the file.
+				startTime = System.nanoTime();
+				InputStream inStream = codec.decode(new ByteArrayInputStream(compressedBytes));
+				long decodedSize = 0;
+				int count;
+				while((count = inStream.read(buffer)) != -1) {
+					decodedSize += count;
+				}
+				inStream.close();
+				decodeTime += System.nanoTime() - startTime;
+				if(decodedSize != bytes.length) {
+					throw new IllegalStateException(entry.getKey() + " decoded " + decodedSize
+							+ " bytes while " + bytes.length + " bytes were encoded.");
+				}
+			}
+			System.out.println(String.format("%s: %d -> %d bytes (%.1f%%). Encode: %.1f MB/s. Decode: %.1f MB/s.",
+					entry.getKey(), totalSize, compressedSize, 100d * compressedSize / Math.max(totalSize, 1),
+					toMegaBytesPerSecond(totalSize, encodeTime), toMegaBytesPerSecond(totalSize, decodeTime)));
+		}
+	}
+	
+	private static long readFiles(File file, List<byte[]> files) throws IOException {
+		if(file.isDirectory()) {
+			long size = 0;
+			File[] subFiles = file.listFiles();
+			if(subFiles != null) {
+				for(File subFile : subFiles) {
+					size += readFiles(subFile, files);
+				}
+			}
+			return size;
+		}
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		files.add(bytes);
+		return bytes.length;
+	}
+	
+	private static double toMegaBytesPerSecond(long size, long nanoTime) {
+		return (nanoTime == 0 ? 0d : (size / 1000000d) / (nanoTime / 1000000000d));
+	}
+}
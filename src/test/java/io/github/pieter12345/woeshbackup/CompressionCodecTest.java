@@ -0,0 +1,89 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link CompressionCodec} implementations.
+ * @author P.J.S. Kools
+ */
+class CompressionCodecTest {
+	
+	/**
+	 * Tests that codecs are found by their name and that unknown names do not result in a codec.
+	 */
+	@Test
+	void testForName() {
+		assertThat(CompressionCodec.forName("deflate")).isSameAs(CompressionCodec.DEFLATE);
+		assertThat(CompressionCodec.forName("zstd")).isInstanceOf(ZstdCodec.class);
+		assertThat(CompressionCodec.forName("lz4")).isInstanceOf(Lz4Codec.class);
+		assertThat(CompressionCodec.forName("unknown")).isNull();
+	}
+	
+	/**
+	 * Tests that the deflate codec decodes what it encodes.
+	 */
+	@Test
+	void testDeflate() throws Exception {
+		testEncodeDecode(CompressionCodec.DEFLATE);
+	}
+	
+	/**
+	 * Tests that the Zstandard codec with long distance matching decodes what it encodes.
+	 * This test is skipped when the zstd-jni library is not available.
+	 */
+	@Test
+	void testZstd() throws Exception {
+		ZstdCodec codec = new ZstdCodec(5, 24, 0);
+		assumeTrue(codec.isAvailable());
+		testEncodeDecode(codec);
+		testEncodeDecode(new ZstdCodec());
+	}
+	
+	/**
+	 * Tests that the LZ4 codec decodes what it encodes.
+	 * This test is skipped when the lz4-java library is not available.
+	 */
+	@Test
+	void testLz4() throws Exception {
+		Lz4Codec codec = new Lz4Codec();
+		assumeTrue(codec.isAvailable());
+		testEncodeDecode(codec);
+	}
+	
+	private static void testEncodeDecode(CompressionCodec codec) throws Exception {
+		
+		// Create partially compressible bytes.
+		Random random = new Random(0);
+		byte[] bytes = new byte[300000];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (i % 1000 < 500 ? random.nextInt(256) : i % 13);
+		}
+		
+		// Encode and decode the bytes.
+		ByteArrayOutputStream encodedStream = new ByteArrayOutputStream();
+		OutputStream encodeStream = codec.encode(encodedStream);
+		encodeStream.write(bytes, 0, 1000);
+		encodeStream.write(bytes, 1000, bytes.length - 1000);
+		encodeStream.close();
+		byte[] encoded = encodedStream.toByteArray();
+		assertThat(encoded.length).isLessThan(bytes.length);
+		InputStream decodeStream = codec.decode(new ByteArrayInputStream(encoded));
+		ByteArrayOutputStream decodedStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		while((count = decodeStream.read(buffer)) != -1) {
+			decodedStream.write(buffer, 0, count);
+		}
+		decodeStream.close();
+		assertThat(decodedStream.toByteArray()).isEqualTo(bytes);
+	}
+}
@@ -0,0 +1,304 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.BackupPart.ChangeType;
+import io.github.pieter12345.woeshbackup.exceptions.CorruptedBackupException;
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link DedupBackupPart} class.
+ * @author P.J.S. Kools
+ */
+class DedupBackupPartTest {
+	
+	static final File BASE_DIR = new File(DedupBackupPartTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests writing changes to a backup part and reading them using a new backup part instance, and that files with
+	 * equal contents are stored as a single blob.
+	 */
+	@Test
+	void testWriteRead() throws Exception {
+		File baseDir = new File(BASE_DIR, "writeRead");
+		baseDir.mkdir();
+		BlobStore blobStore = new BlobStore(new File(baseDir, "blobstore"));
+		File storageDir = new File(baseDir, "storage");
+		File file1 = ZippedBackupPartTest.createFile(baseDir, "file1", new byte[] {1, 2, 3});
+		File file2 = ZippedBackupPartTest.createFile(baseDir, "file2", new byte[] {1, 2, 3});
+		File file3 = ZippedBackupPartTest.createFile(baseDir, "file3", new byte[] {4, 5});
+		File dir = ZippedBackupPartTest.createDir(baseDir, "dir");
+		
+		// Write the backup part.
+		BackupPart writePart = new DedupBackupPart(storageDir, "part", 1000, blobStore);
+		writePart.addAddition("file1", file1);
+		writePart.addAddition("file2", file2);
+		writePart.addAddition("dir" + File.separator, dir);
+		writePart.addRemoval("file3");
+		writePart.close();
+		
+		// Read the backup part using a new blob store instance and verify its changes and contents.
+		blobStore = new BlobStore(new File(baseDir, "blobstore"));
+		BackupPart readPart = new DedupBackupPart(storageDir, "part", 1000, blobStore);
+		readPart.readChanges();
+		Map<String, ChangeType> changes = new HashMap<String, ChangeType>();
+		changes.put("file1", ChangeType.ADDITION);
+		changes.put("file2", ChangeType.ADDITION);
+		changes.put("dir" + File.separator, ChangeType.ADDITION);
+		changes.put("file3", ChangeType.REMOVAL);
+		assertThat(readPart.getChanges()).isEqualTo(changes);
+		assertThat(ZippedBackupPartTest.readAll(readPart.readFile("file2", null))).isEqualTo(new byte[] {1, 2, 3});
+		assertThat(readPart.contains("file1", file1, true)).isTrue();
+		assertThat(readPart.contains("file1", file3, true)).isFalse();
+		assertThat(readPart.contains("file3", file3, false)).isFalse();
+		
+		// Verify that the equal files share a single blob.
+		assertThat(new File(baseDir, "blobstore/blobs").listFiles().length).isEqualTo(1);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {1, 2, 3}))).isEqualTo(2);
+	}
+	
+	/**
+	 * Tests that merging backup parts that share a blob store only merges their manifests and that deleting backup
+	 * parts removes blobs that are no longer referenced.
+	 */
+	@Test
+	void testMergeDelete() throws Exception {
+		File baseDir = new File(BASE_DIR, "mergeDelete");
+		baseDir.mkdir();
+		BlobStore blobStore = new BlobStore(new File(baseDir, "blobstore"));
+		File storageDir = new File(baseDir, "storage");
+		File file1 = ZippedBackupPartTest.createFile(baseDir, "file1", new byte[] {1, 2, 3});
+		File file2 = ZippedBackupPartTest.createFile(baseDir, "file2", new byte[] {4, 5});
+		File file3 = ZippedBackupPartTest.createFile(baseDir, "file3", new byte[] {6});
+		
+		// Write two backup parts, where the newer part overwrites file1.
+		BackupPart part1 = new DedupBackupPart(storageDir, "part1", 1000, blobStore);
+		part1.addAddition("file1", file1);
+		part1.addAddition("file3", file3);
+		part1.close();
+		BackupPart part2 = new DedupBackupPart(storageDir, "part2", 2000, blobStore);
+		part2.addAddition("file1", file2);
+		part2.addRemoval("file3");
+		part2.close();
+		
+		// Merge the parts into a new part, newest first.
+		BackupPart mergedPart = new DedupBackupPart(storageDir, "merged", 2000, blobStore);
+		part2.readChanges();
+		mergedPart.merge(part2);
+		part1.readChanges();
+		mergedPart.merge(part1);
+		mergedPart.close();
+		assertThat(mergedPart.getChanges()).containsEntry("file1", ChangeType.ADDITION)
+				.containsEntry("file3", ChangeType.REMOVAL).hasSize(2);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {4, 5}))).isEqualTo(2);
+		
+		// Delete the merged parts and verify that only the blob of the merged part remains.
+		part1.delete();
+		part2.delete();
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {4, 5}))).isEqualTo(1);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {1, 2, 3}))).isEqualTo(0);
+		assertThat(new File(baseDir, "blobstore/blobs").listFiles().length).isEqualTo(1);
+		assertThat(ZippedBackupPartTest.readAll(mergedPart.readFile("file1", null))).isEqualTo(new byte[] {4, 5});
+		
+		// Delete the merged part and verify that the blob store is empty.
+		mergedPart.delete();
+		assertThat(new File(baseDir, "blobstore/blobs").listFiles().length).isEqualTo(0);
+		assertThat(storageDir.listFiles().length).isEqualTo(0);
+	}
+	
+	/**
+	 * Tests that large files are stored as content-defined chunks and that only the changed chunks of a modified file
+	 * are stored.
+	 */
+	@Test
+	void testChunking() throws Exception {
+		File baseDir = new File(BASE_DIR, "chunking");
+		baseDir.mkdir();
+		BlobStore blobStore = new BlobStore(new File(baseDir, "blobstore"));
+		File storageDir = new File(baseDir, "storage");
+		FastCdcChunker chunker = new FastCdcChunker(1024, 4096, 16384);
+		byte[] bytes = new byte[500000];
+		new Random(0).nextBytes(bytes);
+		File file1 = ZippedBackupPartTest.createFile(baseDir, "file1", bytes);
+		bytes[250000]++;
+		File file2 = ZippedBackupPartTest.createFile(baseDir, "file2", bytes);
+		
+		// Write the original file and the modified file in two backup parts.
+		DedupBackupPart part1 = new DedupBackupPart(storageDir, "part1", 1000, blobStore, chunker, 100000);
+		part1.addAddition("file", file1);
+		part1.close();
+		DedupBackupPart part2 = new DedupBackupPart(storageDir, "part2", 2000, blobStore, chunker, 100000);
+		part2.addAddition("file", file2);
+		part2.close();
+		
+		// Verify the statistics and that the modified file only stored one new chunk.
+		assertThat(part1.getStatistics().getNewChunkCount()).isEqualTo(part1.getStatistics().getChunkCount());
+		assertThat(part2.getStatistics().getByteCount()).isEqualTo(bytes.length);
+		assertThat(part2.getStatistics().getNewChunkCount()).isEqualTo(1);
+		assertThat(part2.getStatistics().getNewByteCount()).isLessThanOrEqualTo(16384);
+		assertThat(part2.getSummary()).isNotNull();
+		
+		// Verify that the file can be read and compared using a new backup part instance.
+		BackupPart readPart = new DedupBackupPart(storageDir, "part2", 2000, blobStore);
+		readPart.readChanges();
+		assertThat(ZippedBackupPartTest.readAll(readPart.readFile("file", null))).isEqualTo(bytes);
+		assertThat(readPart.contains("file", file2, true)).isTrue();
+		assertThat(readPart.contains("file", file1, true)).isFalse();
+		
+		// Verify that deleting the first part only removes the chunk that the second part does not reference.
+		part1.delete();
+		assertThat(ZippedBackupPartTest.readAll(readPart.readFile("file", null))).isEqualTo(bytes);
+	}
+	
+	/**
+	 * Tests that deleting a backup part with a corrupted manifest recomputes the reference counts from the manifests
+	 * of all backups that share the blob store, and that this is deferred while a backup part is being written.
+	 */
+	@Test
+	void testDeleteCorrupted() throws Exception {
+		File baseDir = new File(BASE_DIR, "deleteCorrupted");
+		baseDir.mkdir();
+		BlobStore blobStore = new BlobStore(new File(baseDir, "blobstore"));
+		DedupBackupPartFactory factory1 = new DedupBackupPartFactory(new File(baseDir, "storage1"), blobStore);
+		DedupBackupPartFactory factory2 = new DedupBackupPartFactory(new File(baseDir, "storage2"), blobStore);
+		File file1 = ZippedBackupPartTest.createFile(baseDir, "file1", new byte[] {1, 2, 3});
+		File file2 = ZippedBackupPartTest.createFile(baseDir, "file2", new byte[] {4, 5});
+		File file3 = ZippedBackupPartTest.createFile(baseDir, "file3", new byte[] {6});
+		
+		// Write a backup part in both backups, where the second part references both blobs.
+		BackupPart part1 = factory1.createNew(1000000);
+		part1.addAddition("file1", file1);
+		part1.close();
+		BackupPart part2 = factory2.createNew(2000000);
+		part2.addAddition("file1", file1);
+		part2.addAddition("file2", file2);
+		part2.close();
+		
+		// Corrupt the manifest of the second part and delete it using a new backup part instance.
+		File manifestFile = new File(factory2.getStorageDir(), part2.getName() + ".manifest");
+		Files.write(manifestFile.toPath(), Arrays.copyOf(Files.readAllBytes(manifestFile.toPath()), 10));
+		BackupPart corruptedPart = factory2.readAllBefore(-1).get(0);
+		assertThrows(CorruptedBackupException.class, () -> corruptedPart.readChanges());
+		corruptedPart.delete();
+		
+		// Verify that only the blob that is referenced by the first backup remains.
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {1, 2, 3}))).isEqualTo(1);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {4, 5}))).isEqualTo(0);
+		assertThat(new File(baseDir, "blobstore/blobs").listFiles().length).isEqualTo(1);
+		
+		// Corrupt and delete the first part while a new part is being written.
+		BackupPart part3 = factory2.createNew(3000000);
+		part3.addAddition("file3", file3);
+		manifestFile = new File(factory1.getStorageDir(), part1.getName() + ".manifest");
+		Files.write(manifestFile.toPath(), Arrays.copyOf(Files.readAllBytes(manifestFile.toPath()), 10));
+		factory1.readAllBefore(-1).get(0).delete();
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {1, 2, 3}))).isEqualTo(1);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {6}))).isEqualTo(1);
+		
+		// Verify that the sweep is performed once the new part is closed, keeping the blob of the new part.
+		part3.close();
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {1, 2, 3}))).isEqualTo(0);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {6}))).isEqualTo(1);
+		assertThat(new File(baseDir, "blobstore/blobs").listFiles().length).isEqualTo(1);
+		part3.readChanges();
+		assertThat(ZippedBackupPartTest.readAll(part3.readFile("file3", null))).isEqualTo(new byte[] {6});
+	}
+	
+	/**
+	 * Tests that a sweep is postponed while the storage directory of a backup that shares the blob store has no
+	 * registered reference source, so that the blobs of that backup are not removed.
+	 */
+	@Test
+	void testSweepWithUnregisteredSource() throws Exception {
+		File baseDir = new File(BASE_DIR, "sweepWithUnregisteredSource");
+		baseDir.mkdir();
+		File storeDir = new File(baseDir, "blobstore");
+		File storageDir1 = new File(baseDir, "storage1");
+		File storageDir2 = new File(baseDir, "storage2");
+		BlobStore blobStore = new BlobStore(storeDir);
+		DedupBackupPartFactory factory1 = new DedupBackupPartFactory(storageDir1, blobStore);
+		DedupBackupPartFactory factory2 = new DedupBackupPartFactory(storageDir2, blobStore);
+		File file1 = ZippedBackupPartTest.createFile(baseDir, "file1", new byte[] {1, 2, 3});
+		File file2 = ZippedBackupPartTest.createFile(baseDir, "file2", new byte[] {4, 5});
+		File file3 = ZippedBackupPartTest.createFile(baseDir, "file3", new byte[] {6});
+		
+		// Write a backup part in both backups.
+		BackupPart part1 = factory1.createNew(1000000);
+		part1.addAddition("file1", file1);
+		part1.close();
+		BackupPart part2 = factory2.createNew(2000000);
+		part2.addAddition("file2", file2);
+		part2.close();
+		
+		// Use a new blob store instance for which only the first backup is registered, as after a restart.
+		blobStore = new BlobStore(storeDir);
+		factory1 = new DedupBackupPartFactory(storageDir1, blobStore);
+		
+		// Write a part in the first backup, corrupt its manifest and delete it, requesting a sweep.
+		BackupPart part3 = factory1.createNew(3000000);
+		part3.addAddition("file3", file3);
+		part3.close();
+		File manifestFile = new File(storageDir1, part3.getName() + ".manifest");
+		Files.write(manifestFile.toPath(), Arrays.copyOf(Files.readAllBytes(manifestFile.toPath()), 10));
+		factory1.readAllBefore(-1).get(1).delete();
+		
+		// Verify that the sweep was postponed, keeping the blob of the unregistered backup.
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {4, 5}))).isEqualTo(1);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {6}))).isEqualTo(1);
+		assertThat(new File(baseDir, "blobstore/blobs").listFiles().length).isEqualTo(3);
+		BackupPart readPart = new DedupBackupPartFactory(storageDir2, new BlobStore(storeDir)).readAllBefore(-1).get(0);
+		readPart.readChanges();
+		assertThat(ZippedBackupPartTest.readAll(readPart.readFile("file2", null))).isEqualTo(new byte[] {4, 5});
+		
+		// Register the second backup and verify that the sweep is performed after the next update.
+		factory2 = new DedupBackupPartFactory(storageDir2, blobStore);
+		BackupPart part4 = factory2.createNew(4000000);
+		part4.addAddition("file2", file2);
+		part4.close();
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {1, 2, 3}))).isEqualTo(1);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {4, 5}))).isEqualTo(2);
+		assertThat(blobStore.getReferenceCount(sha256(new byte[] {6}))).isEqualTo(0);
+		assertThat(new File(baseDir, "blobstore/blobs").listFiles().length).isEqualTo(2);
+	}
+	
+	private static String sha256(byte[] bytes) throws Exception {
+		StringBuilder str = new StringBuilder();
+		for(byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+			str.append(String.format("%02x", b));
+		}
+		return str.toString();
+	}
+}
@@ -0,0 +1,159 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.DirtyPathTracker.DirtyPaths;
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link DirtyPathTracker} class.
+ * @author P.J.S. Kools
+ */
+class DirtyPathTrackerTest {
+	
+	static final File BASE_DIR = new File(DirtyPathTrackerTest.class.getSimpleName() + "-temp");
+	static final long TIMEOUT = 10000;
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that changed paths are tracked after a full scan, and that created directories are tracked as subtrees.
+	 */
+	@Test
+	void testTrackChanges() throws Exception {
+		File dir = new File(BASE_DIR, "testTrackChanges");
+		dir.mkdir();
+		TestUtils.createFiles(dir, Arrays.asList("file1", "dir1" + File.separator, "ignored" + File.separator));
+		DirtyPathTracker tracker = new DirtyPathTracker(dir, Arrays.asList("ignored" + File.separator), 0);
+		try {
+			tracker.start();
+			awaitWatching(tracker);
+			
+			// Assert that the first run requires a full scan.
+			assertThat(tracker.beginRun(1000)).isNull();
+			tracker.finishRun(2000);
+			
+			// Change files and assert that the changes are tracked.
+			Files.write(new File(dir, "file1").toPath(), new byte[] {1});
+			Files.write(new File(dir, "ignored" + File.separator + "file").toPath(), new byte[] {1});
+			new File(dir, "dir2").mkdir();
+			Files.write(new File(dir, "dir2" + File.separator + "file").toPath(), new byte[] {1});
+			DirtyPaths dirtyPaths = awaitDirtyPaths(tracker, 2000, "file1", "dir2");
+			assertThat(dirtyPaths.getPaths()).doesNotContain("ignored", "ignored" + File.separator + "file");
+			assertThat(dirtyPaths.getSubtrees()).containsExactly("dir2");
+			tracker.finishRun(3000);
+			
+			// Assert that files in the created directory are tracked.
+			Files.write(new File(dir, "dir2" + File.separator + "file").toPath(), new byte[] {2});
+			dirtyPaths = awaitDirtyPaths(tracker, 3000, "dir2" + File.separator + "file");
+			assertThat(dirtyPaths.getPaths()).doesNotContain("file1");
+			tracker.finishRun(4000);
+		} finally {
+			tracker.close();
+		}
+		assertThat(tracker.isWatching()).isFalse();
+		assertThat(tracker.beginRun(4000)).isNull();
+	}
+	
+	/**
+	 * Tests that a full scan is required when the backup state changed, when the tracker was invalidated and every
+	 * full scan interval runs.
+	 */
+	@Test
+	void testFullScan() throws Exception {
+		File dir = new File(BASE_DIR, "testFullScan");
+		dir.mkdir();
+		DirtyPathTracker tracker = new DirtyPathTracker(dir, new ArrayList<String>(), 3);
+		try {
+			tracker.start();
+			awaitWatching(tracker);
+			assertThat(tracker.beginRun(1000)).isNull();
+			tracker.finishRun(1000);
+			
+			// Assert that a full scan is required for a different backup state.
+			assertThat(tracker.beginRun(1000)).isNotNull();
+			tracker.finishRun(2000);
+			assertThat(tracker.beginRun(1000)).isNull();
+			tracker.finishRun(2000);
+			
+			// Assert that a full scan is required every full scan interval runs.
+			assertThat(tracker.beginRun(2000)).isNotNull();
+			tracker.finishRun(2000);
+			assertThat(tracker.beginRun(2000)).isNotNull();
+			tracker.finishRun(2000);
+			assertThat(tracker.beginRun(2000)).isNull();
+			tracker.finishRun(2000);
+			
+			// Assert that rebasing keeps the tracked changes valid.
+			tracker.rebase(2000, 1500);
+			assertThat(tracker.beginRun(1500)).isNotNull();
+			tracker.finishRun(2000);
+			
+			// Assert that a full scan is required after invalidating and after an unfinished full scan.
+			tracker.invalidate();
+			assertThat(tracker.beginRun(2000)).isNull();
+			assertThat(tracker.beginRun(2000)).isNull();
+			tracker.finishRun(2000);
+			assertThat(tracker.beginRun(2000)).isNotNull();
+			tracker.finishRun(2000);
+		} finally {
+			tracker.close();
+		}
+	}
+	
+	private static void awaitWatching(DirtyPathTracker tracker) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		while(!tracker.isWatching()) {
+			if(System.currentTimeMillis() - startTime > TIMEOUT) {
+				fail("Dirty path tracker did not start watching.");
+			}
+			Thread.sleep(10);
+		}
+	}
+	
+	/**
+	 * Begins runs until the expected changed paths are tracked. Unfinished runs are included in the next run.
+	 */
+	private static DirtyPaths awaitDirtyPaths(DirtyPathTracker tracker,
+			long latestBackupPartTime, String... expectedPaths) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		while(true) {
+			DirtyPaths dirtyPaths = tracker.beginRun(latestBackupPartTime);
+			assertThat(dirtyPaths).isNotNull();
+			if(dirtyPaths.getPaths().containsAll(Arrays.asList(expectedPaths))) {
+				return dirtyPaths;
+			}
+			if(System.currentTimeMillis() - startTime > TIMEOUT) {
+				fail("Expected changed paths were not tracked: " + Arrays.toString(expectedPaths)
+						+ ". Found: " + dirtyPaths.getPaths());
+			}
+			Thread.sleep(50);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link FastCdcChunker} class.
+ * @author P.J.S. Kools
+ */
+class FastCdcChunkerTest {
+	
+	/**
+	 * Tests that the chunks make up the stream and that all chunks except for the last one are within the size
+	 * bounds.
+	 */
+	@Test
+	void testChunkSizes() throws Exception {
+		FastCdcChunker chunker = new FastCdcChunker(1024, 4096, 16384);
+		byte[] data = createData(0, 1000000);
+		List<byte[]> chunks = chunk(chunker, data);
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		for(int i = 0; i < chunks.size(); i++) {
+			byte[] chunk = chunks.get(i);
+			if(i < chunks.size() - 1) {
+				assertThat(chunk.length).isBetween(1024, 16384);
+			}
+			outStream.write(chunk);
+		}
+		assertThat(outStream.toByteArray()).isEqualTo(data);
+		assertThat(chunks.size()).isBetween(1000000 / 16384, 1000000 / 1024);
+		assertThat(chunk(chunker, new byte[0]).size()).isEqualTo(0);
+	}
+	
+	/**
+	 * Tests that inserting bytes into a stream only changes the chunks around the insertion.
+	 */
+	@Test
+	void testInsertion() throws Exception {
+		FastCdcChunker chunker = new FastCdcChunker(1024, 4096, 16384);
+		byte[] data = createData(1, 1000000);
+		byte[] modifiedData = new byte[data.length + 100];
+		System.arraycopy(data, 0, modifiedData, 0, 500000);
+		System.arraycopy(data, 500000, modifiedData, 500100, data.length - 500000);
+		
+		// Assert that at most a few chunks differ.
+		Set<String> chunks = new HashSet<String>();
+		for(byte[] chunk : chunk(chunker, data)) {
+			chunks.add(new String(chunk, "ISO-8859-1"));
+		}
+		int newChunkCount = 0;
+		for(byte[] chunk : chunk(chunker, modifiedData)) {
+			if(!chunks.contains(new String(chunk, "ISO-8859-1"))) {
+				newChunkCount++;
+			}
+		}
+		assertThat(newChunkCount).isBetween(1, 3);
+	}
+	
+	/**
+	 * Tests that invalid chunk sizes are rejected.
+	 */
+	@Test
+	void testInvalidSizes() {
+		assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(0, 4096, 16384));
+		assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(8192, 4096, 16384));
+		assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(1024, 5000, 16384));
+	}
+	
+	private static byte[] createData(long seed, int length) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+	
+	private static List<byte[]> chunk(FastCdcChunker chunker, byte[] data) throws Exception {
+		List<byte[]> chunks = new ArrayList<byte[]>();
+		chunker.chunk(new ByteArrayInputStream(data), (buffer, offset, length) -> {
+			byte[] chunk = new byte[length];
+			System.arraycopy(buffer, offset, chunk, 0, length);
+			chunks.add(chunk);
+		});
+		return chunks;
+	}
+}
@@ -0,0 +1,96 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.FileWalker.WalkedFile;
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link FileWalker} class.
+ * @author P.J.S. Kools
+ */
+class FileWalkerTest {
+	
+	static final File BASE_DIR = new File(FileWalkerTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	static List<String> baseDirRelPaths;
+	
+	@BeforeAll
+	static void initAll() throws Exception {
+		// Create a directory structure to walk.
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+		
+		baseDirRelPaths = Arrays.asList(
+				"file1",
+				"dir1/",
+					"dir1/dir1_file1",
+					"dir1/dir1_dir1/",
+						"dir1/dir1_dir1/dir1_dir1_file1",
+				"dir2/",
+					"dir2/dir2_file1"
+		);
+		for(int i = 0; i < baseDirRelPaths.size(); i++) {
+			baseDirRelPaths.set(i, baseDirRelPaths.get(i).replace('/', File.separatorChar));
+		}
+		TestUtils.createFiles(BASE_DIR, baseDirRelPaths);
+		Files.write(new File(BASE_DIR, "file1").toPath(), new byte[] {1, 2, 3});
+	}
+	
+	@AfterAll
+	static void tearDownAll() throws Exception {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that walking yields the relative paths and attributes of all files and directories.
+	 */
+	@Test
+	void testWalk() {
+		FileWalker it = new FileWalker(BASE_DIR, new ArrayList<String>());
+		List<String> relPaths = new ArrayList<String>();
+		while(it.hasNext()) {
+			WalkedFile next = it.next();
+			relPaths.add(next.getRelativePath());
+			assertThat(next.getAttributes()).isNotNull();
+			assertThat(next.isDirectory()).isEqualTo(next.getRelativePath().endsWith(File.separator));
+			assertThat(next.getFile().getAbsolutePath())
+					.isEqualTo(new File(BASE_DIR, next.getRelativePath()).getAbsolutePath());
+			if(next.getRelativePath().equals("file1")) {
+				assertThat(next.getAttributes().size()).isEqualTo(3);
+			}
+		}
+		assertThat(relPaths).containsExactlyInAnyOrderElementsOf(baseDirRelPaths);
+	}
+	
+	/**
+	 * Tests that ignored directories are not walked.
+	 */
+	@Test
+	void testWalkWithIgnoredDirectory() {
+		FileWalker it = new FileWalker(BASE_DIR, Arrays.asList("dir1" + File.separator, "dir2"));
+		List<String> relPaths = new ArrayList<String>();
+		while(it.hasNext()) {
+			relPaths.add(it.next().getRelativePath());
+		}
+		assertThat(relPaths).containsExactlyInAnyOrder("file1",
+				"dir2" + File.separator, "dir2" + File.separator + "dir2_file1");
+	}
+}
@@ -0,0 +1,156 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.FileWalker.WalkedFile;
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link ParallelFileWalker} class.
+ * @author P.J.S. Kools
+ */
+class ParallelFileWalkerTest {
+	
+	static final File BASE_DIR = new File(ParallelFileWalkerTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	static List<String> baseDirRelPaths;
+	
+	@BeforeAll
+	static void initAll() throws Exception {
+		// Create a directory structure to walk.
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+		
+		baseDirRelPaths = new ArrayList<String>();
+		for(int i = 0; i < 10; i++) {
+			baseDirRelPaths.add("dir" + i + "/");
+			for(int j = 0; j < 10; j++) {
+				baseDirRelPaths.add("dir" + i + "/dir" + i + "_dir" + j + "/");
+				baseDirRelPaths.add("dir" + i + "/dir" + i + "_dir" + j + "/file");
+			}
+			baseDirRelPaths.add("dir" + i + "/file");
+		}
+		baseDirRelPaths.add("file");
+		for(int i = 0; i < baseDirRelPaths.size(); i++) {
+			baseDirRelPaths.set(i, baseDirRelPaths.get(i).replace('/', File.separatorChar));
+		}
+		TestUtils.createFiles(BASE_DIR, baseDirRelPaths);
+	}
+	
+	@AfterAll
+	static void tearDownAll() throws Exception {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that walking yields all files and directories once, with directories before their contents,
+	 * also when the queue is smaller than the amount of files.
+	 */
+	@Test
+	void testWalk() throws Exception {
+		for(int queueCapacity : new int[] {1, 1000}) {
+			ParallelFileWalker walker = new ParallelFileWalker(BASE_DIR, new ArrayList<String>(), 4, queueCapacity);
+			List<String> relPaths = new ArrayList<String>();
+			try {
+				WalkedFile next;
+				while((next = walker.take()) != null) {
+					assertThat(next.getAttributes()).isNotNull();
+					assertThat(next.isDirectory()).isEqualTo(next.getRelativePath().endsWith(File.separator));
+					String relPath = next.getRelativePath();
+					int parentEnd = relPath.lastIndexOf(File.separatorChar, relPath.length() - 2);
+					if(parentEnd != -1) {
+						assertThat(relPaths).contains(relPath.substring(0, parentEnd + 1));
+					}
+					relPaths.add(relPath);
+				}
+			} finally {
+				walker.close();
+			}
+			assertThat(relPaths).containsExactlyInAnyOrderElementsOf(baseDirRelPaths);
+		}
+	}
+	
+	/**
+	 * Tests that files are walked in the order of a {@link FileWalker}, regardless of the parallelism and the queue
+	 * capacity.
+	 */
+	@Test
+	void testWalkOrder() throws Exception {
+		List<String> expected = new ArrayList<String>();
+		FileWalker fileWalker = new FileWalker(BASE_DIR, new ArrayList<String>());
+		while(fileWalker.hasNext()) {
+			expected.add(fileWalker.next().getRelativePath());
+		}
+		for(int i = 0; i < 5; i++) {
+			for(int parallelism : new int[] {1, 4}) {
+				for(int queueCapacity : new int[] {1, 1000}) {
+					ParallelFileWalker walker = new ParallelFileWalker(
+							BASE_DIR, new ArrayList<String>(), parallelism, queueCapacity);
+					List<String> relPaths = new ArrayList<String>();
+					try {
+						WalkedFile next;
+						while((next = walker.take()) != null) {
+							relPaths.add(next.getRelativePath());
+						}
+					} finally {
+						walker.close();
+					}
+					assertThat(relPaths).isEqualTo(expected);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests that ignored directories are not walked.
+	 */
+	@Test
+	void testWalkWithIgnoredDirectory() throws Exception {
+		String ignoredDir = "dir1" + File.separator;
+		ParallelFileWalker walker = new ParallelFileWalker(BASE_DIR,
+				Arrays.asList(ignoredDir, "dir2" + File.separator + "file"), 2, 16);
+		List<String> relPaths = new ArrayList<String>();
+		try {
+			WalkedFile next;
+			while((next = walker.take()) != null) {
+				relPaths.add(next.getRelativePath());
+			}
+		} finally {
+			walker.close();
+		}
+		List<String> expected = new ArrayList<String>();
+		for(String relPath : baseDirRelPaths) {
+			if(!relPath.startsWith(ignoredDir) && !relPath.equals("dir2" + File.separator + "file")) {
+				expected.add(relPath);
+			}
+		}
+		assertThat(relPaths).containsExactlyInAnyOrderElementsOf(expected);
+	}
+	
+	/**
+	 * Tests that a closed walker stops walking.
+	 */
+	@Test
+	void testClose() throws Exception {
+		ParallelFileWalker walker = new ParallelFileWalker(BASE_DIR, new ArrayList<String>(), 2, 1);
+		assertThat(walker.take()).isNotNull();
+		walker.close();
+		assertThat(walker.take()).isNull();
+	}
+}
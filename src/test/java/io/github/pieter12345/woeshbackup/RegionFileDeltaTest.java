@@ -0,0 +1,207 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link RegionFileDelta} class.
+ * @author P.J.S. Kools
+ */
+class RegionFileDeltaTest {
+	
+	/**
+	 * Tests that applying a created difference to the previous version results in the new version and that the
+	 * difference only contains the changed chunks.
+	 */
+	@Test
+	void testCreateApply() throws Exception {
+		
+		// Create two region file versions that differ in one chunk and in the chunk positions.
+		Map<Integer, byte[]> chunks = new TreeMap<Integer, byte[]>();
+		chunks.put(0, createChunk(1, 5000));
+		chunks.put(1, createChunk(2, 100));
+		chunks.put(1023, createChunk(3, 20000));
+		byte[] previousVersion = createRegion(chunks);
+		chunks.put(1, createChunk(4, 9000));
+		chunks.put(512, createChunk(5, 10));
+		byte[] newVersion = createRegion(chunks);
+		
+		// Assert that the difference restores the new version and does not contain the unchanged chunks.
+		byte[] delta = RegionFileDelta.create(previousVersion, newVersion);
+		assertThat(delta).isNotNull();
+		assertThat(delta.length).isLessThan(2 * 4096 + 9000 + 10 + 100);
+		assertThat(RegionFileDelta.apply(delta, previousVersion)).isEqualTo(newVersion);
+	}
+	
+	/**
+	 * Tests that applying a created difference results in exactly the new version when the padding after chunks and
+	 * unused sectors contain data, including when chunks move to sectors that previously contained other data.
+	 */
+	@Test
+	void testCreateApplyUnusedBytes() throws Exception {
+		
+		// Create two region file versions with random padding and a random unused sector at the end.
+		Map<Integer, byte[]> chunks = new TreeMap<Integer, byte[]>();
+		chunks.put(0, createChunk(1, 5000));
+		chunks.put(1, createChunk(2, 100));
+		chunks.put(1023, createChunk(3, 20000));
+		byte[] previousVersion = createRegion(chunks, 1500000000, 10);
+		chunks.put(1, createChunk(4, 9000));
+		byte[] newVersion = createRegion(chunks, 1500000000, 11);
+		
+		// Assert that the difference restores the new version exactly.
+		byte[] delta = RegionFileDelta.create(previousVersion, newVersion);
+		assertThat(delta).isNotNull();
+		assertThat(delta.length).isLessThan(newVersion.length);
+		assertThat(RegionFileDelta.apply(delta, previousVersion)).isEqualTo(newVersion);
+		
+		// Assert that unchanged unused bytes are not stored and that changed padding of zeros is stored compactly.
+		byte[] zeroPaddedVersion = createRegion(chunks);
+		byte[] zeroPaddedDelta = RegionFileDelta.create(previousVersion, zeroPaddedVersion);
+		assertThat(RegionFileDelta.apply(zeroPaddedDelta, previousVersion)).isEqualTo(zeroPaddedVersion);
+		assertThat(zeroPaddedDelta.length).isLessThan(2 * 4096 + 9000 + 1000);
+		assertThat(RegionFileDelta.create(newVersion, newVersion).length).isLessThan(2 * 4096 + 100);
+	}
+	
+	/**
+	 * Tests that differences of the first format version, which do not contain the bytes outside of chunks, are
+	 * applied with those bytes set to zero.
+	 */
+	@Test
+	void testApplyZeroFilledVersion() throws Exception {
+		Map<Integer, byte[]> chunks = new TreeMap<Integer, byte[]>();
+		chunks.put(0, createChunk(1, 5000));
+		byte[] previousVersion = createRegion(chunks, 1500000000, 10);
+		chunks.put(0, createChunk(2, 5000));
+		byte[] newVersion = createRegion(chunks, 1500000000, 10);
+		
+		// Convert the difference to the first format version by removing its (empty) range table.
+		byte[] delta = RegionFileDelta.create(previousVersion, newVersion);
+		byte[] zeroFilledDelta = Arrays.copyOf(delta, delta.length - 4);
+		writeInt(zeroFilledDelta, 4, 1);
+		assertThat(Arrays.copyOfRange(delta, delta.length - 4, delta.length)).isEqualTo(new byte[4]);
+		assertThat(RegionFileDelta.apply(zeroFilledDelta, previousVersion))
+				.isEqualTo(Arrays.copyOf(createRegion(chunks), newVersion.length));
+	}
+	
+	/**
+	 * Tests that no difference is created for files that are not region files and that invalid differences and
+	 * previous versions are rejected.
+	 */
+	@Test
+	void testInvalidRegion() throws Exception {
+		Map<Integer, byte[]> chunks = new TreeMap<Integer, byte[]>();
+		chunks.put(7, createChunk(1, 3000));
+		byte[] region = createRegion(chunks);
+		assertThat(RegionFileDelta.create(new byte[100], region)).isNull();
+		assertThat(RegionFileDelta.create(region, new byte[100])).isNull();
+		
+		// Assert that applying a difference to a previous version that lacks an unchanged chunk fails.
+		byte[] delta = RegionFileDelta.create(region, region);
+		assertThat(delta).isNotNull();
+		assertThrows(IOException.class, () -> {
+			RegionFileDelta.apply(delta, createRegion(new TreeMap<Integer, byte[]>()));
+		});
+		assertThrows(IOException.class, () -> {
+			RegionFileDelta.apply(new byte[10], region);
+		});
+	}
+	
+	/**
+	 * Creates chunk data containing the given amount of random bytes.
+	 * @param seed - The random seed.
+	 * @param length - The length of the chunk data.
+	 * @return The chunk data.
+	 */
+	static byte[] createChunk(long seed, int length) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+	
+	/**
+	 * Tests that a fingerprint is only stable when all chunk timestamps are older than the given time.
+	 */
+	@Test
+	void testStableFingerprint() {
+		Map<Integer, byte[]> chunks = new TreeMap<Integer, byte[]>();
+		chunks.put(3, createChunk(1, 3000));
+		byte[] region = createRegion(chunks, 1000000);
+		String fingerprint = RegionFileDelta.getFingerprint(region, region.length);
+		assertThat(fingerprint).isNotNull();
+		assertThat(RegionFileDelta.getStableFingerprint(region, region.length, 2000000000L)).isEqualTo(fingerprint);
+		assertThat(RegionFileDelta.getStableFingerprint(region, region.length, 1000000000L)).isNull();
+		assertThat(RegionFileDelta.getStableFingerprint(createRegion(chunks, 0), region.length, 2000000000L)).isNull();
+		assertThat(RegionFileDelta.getFingerprint(region, region.length + 1)).isNotEqualTo(fingerprint);
+		assertThat(RegionFileDelta.getFingerprint(createRegion(chunks, 1000001), region.length))
+				.isNotEqualTo(fingerprint);
+	}
+	
+	/**
+	 * Creates a region file containing the given chunks, stored sequentially by chunk index.
+	 * @param chunks - The chunk data by chunk index.
+	 * @return The region file.
+	 */
+	static byte[] createRegion(Map<Integer, byte[]> chunks) {
+		return createRegion(chunks, 1500000000);
+	}
+	
+	/**
+	 * Creates a region file containing the given chunks, stored sequentially by chunk index.
+	 * @param chunks - The chunk data by chunk index.
+	 * @param timestamp - The timestamp of all chunks in seconds.
+	 * @return The region file.
+	 */
+	static byte[] createRegion(Map<Integer, byte[]> chunks, int timestamp) {
+		return createRegion(chunks, timestamp, 0);
+	}
+	
+	/**
+	 * Creates a region file containing the given chunks, stored sequentially by chunk index.
+	 * @param chunks - The chunk data by chunk index.
+	 * @param timestamp - The timestamp of all chunks in seconds.
+	 * @param unusedBytesSeed - The random seed used to fill the padding after chunks and an additional unused sector
+	 * at the end of the file with random bytes, or 0 to create a file without unused sectors and with zero padding.
+	 * @return The region file.
+	 */
+	static byte[] createRegion(Map<Integer, byte[]> chunks, int timestamp, long unusedBytesSeed) {
+		int sectorCount = (unusedBytesSeed == 0 ? 2 : 3);
+		for(byte[] data : chunks.values()) {
+			sectorCount += (5 + data.length + 4095) / 4096;
+		}
+		byte[] region = new byte[sectorCount * 4096];
+		if(unusedBytesSeed != 0) {
+			byte[] unusedBytes = new byte[region.length - 2 * 4096];
+			new Random(unusedBytesSeed).nextBytes(unusedBytes);
+			System.arraycopy(unusedBytes, 0, region, 2 * 4096, unusedBytes.length);
+		}
+		int sector = 2;
+		for(Entry<Integer, byte[]> chunk : new TreeMap<Integer, byte[]>(chunks).entrySet()) {
+			byte[] data = chunk.getValue();
+			int chunkSectors = (5 + data.length + 4095) / 4096;
+			writeInt(region, 4 * chunk.getKey(), (sector << 8) | chunkSectors);
+			writeInt(region, 4096 + 4 * chunk.getKey(), timestamp);
+			writeInt(region, sector * 4096, data.length + 1);
+			region[sector * 4096 + 4] = 2;
+			System.arraycopy(data, 0, region, sector * 4096 + 5, data.length);
+			sector += chunkSectors;
+		}
+		return region;
+	}
+	
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
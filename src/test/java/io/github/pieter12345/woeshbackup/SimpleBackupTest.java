@@ -1,17 +1,25 @@
 package io.github.pieter12345.woeshbackup;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -21,6 +29,7 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InOrder;
 
 import io.github.pieter12345.woeshbackup.BackupPart.ChangeType;
+import io.github.pieter12345.woeshbackup.exceptions.BackupException;
 import io.github.pieter12345.woeshbackup.utils.TestUtils;
 
 /**
@@ -128,7 +137,7 @@ class SimpleBackupTest {
 		
 		// Verify that no changes were added to the new backup part.
 		verify(newBackupPart, never()).addAddition(anyString(), any(File.class));
-		verify(newBackupPart, never()).addModification(anyString(), any(File.class));
+		verify(newBackupPart, never()).addModification(anyString(), any(File.class), any());
 		verify(newBackupPart, never()).addRemoval(anyString());
 		verify(newBackupPart, never()).merge(any(BackupPart.class));
 		
@@ -161,7 +170,7 @@ class SimpleBackupTest {
 		// Verify that only the single change was added to the new backup part.
 		verify(newBackupPart, times(1)).addAddition(anyString(), any(File.class));
 		verify(newBackupPart, times(1)).addAddition(eq(FILE1), any(File.class));
-		verify(newBackupPart, never()).addModification(anyString(), any(File.class));
+		verify(newBackupPart, never()).addModification(anyString(), any(File.class), any());
 		verify(newBackupPart, never()).addRemoval(anyString());
 		verify(newBackupPart, never()).merge(any(BackupPart.class));
 		
@@ -192,8 +201,8 @@ class SimpleBackupTest {
 		
 		// Verify that only the single change was added to the new backup part.
 		verify(newBackupPart, never()).addAddition(anyString(), any(File.class));
-		verify(newBackupPart, times(1)).addModification(anyString(), any(File.class));
-		verify(newBackupPart, times(1)).addModification(eq(FILE1), any(File.class));
+		verify(newBackupPart, times(1)).addModification(anyString(), any(File.class), any());
+		verify(newBackupPart, times(1)).addModification(eq(FILE1), any(File.class), any());
 		verify(newBackupPart, never()).addRemoval(anyString());
 		verify(newBackupPart, never()).merge(any(BackupPart.class));
 		
@@ -201,6 +210,46 @@ class SimpleBackupTest {
 		verify(newBackupPart, times(1)).close();
 	}
 	
+	/**
+	 * Tests that a backup with multiple threads adds the changed files to the new backup part in iteration order.
+	 * @throws Exception
+	 */
+	@Test
+	void testUpdateBackupMultiThreaded() throws Exception {
+		
+		// Create mocked backend in which all files have been modified.
+		Map<String, ChangeType> changes = new HashMap<String, ChangeType>();
+		for(String relPath : toBackupDirRelPaths) {
+			changes.put(relPath, ChangeType.ADDITION);
+		}
+		BackupPart existingBackupPart = mockBackupPart(0L, changes, toBackupDirRelPaths);
+		BackupPart newBackupPart = mock(BackupPart.class);
+		BackupPartFactory backupPartFactory = mockBackupPartFactory(newBackupPart, Arrays.asList(existingBackupPart));
+		
+		// Create backup.
+		SimpleBackup backup = new SimpleBackup(TO_BACKUP_DIR, backupPartFactory, mock(Logger.class));
+		backup.setThreadCount(4);
+		
+		// Perform the backup.
+		backup.backup();
+		
+		// Verify that all files were added as modifications in iteration order.
+		InOrder inOrder = inOrder(newBackupPart);
+		FileIterator it = new FileIterator(TO_BACKUP_DIR, new ArrayList<String>());
+		while(it.hasNext()) {
+			File file = it.next();
+			if(file.isFile()) {
+				String relPath = file.getAbsolutePath().substring(TO_BACKUP_DIR.getAbsolutePath().length() + 1);
+				inOrder.verify(newBackupPart).addModification(eq(relPath), any(File.class), any());
+			}
+		}
+		verify(newBackupPart, never()).addAddition(anyString(), any(File.class));
+		verify(newBackupPart, never()).addRemoval(anyString());
+		
+		// Verify that the new backup part was closed.
+		inOrder.verify(newBackupPart, times(1)).close();
+	}
+	
 	@Test
 	void testUpdateBackupSingleDeletionChange() throws Exception {
 		
@@ -226,7 +275,7 @@ class SimpleBackupTest {
 		
 		// Verify that only the single change was added to the new backup part.
 		verify(newBackupPart, never()).addAddition(anyString(), any(File.class));
-		verify(newBackupPart, never()).addModification(anyString(), any(File.class));
+		verify(newBackupPart, never()).addModification(anyString(), any(File.class), any());
 		verify(newBackupPart, times(1)).addRemoval(anyString());
 		verify(newBackupPart, times(1)).addRemoval(eq(unexistingRelPath));
 		verify(newBackupPart, never()).merge(any(BackupPart.class));
@@ -268,7 +317,7 @@ class SimpleBackupTest {
 		
 		// Verify that no changes added to the new backup part without using merge().
 		verify(newBackupPart, never()).addAddition(anyString(), any(File.class));
-		verify(newBackupPart, never()).addModification(anyString(), any(File.class));
+		verify(newBackupPart, never()).addModification(anyString(), any(File.class), any());
 		verify(newBackupPart, never()).addRemoval(anyString());
 		verify(newBackupPart, times(3)).merge(any(BackupPart.class));
 		
@@ -325,11 +374,11 @@ class SimpleBackupTest {
 		
 		// Verify that no changes were added to the new backup parts without using merge().
 		verify(newBackupPart1, never()).addAddition(anyString(), any(File.class));
-		verify(newBackupPart1, never()).addModification(anyString(), any(File.class));
+		verify(newBackupPart1, never()).addModification(anyString(), any(File.class), any());
 		verify(newBackupPart1, never()).addRemoval(anyString());
 		verify(newBackupPart1, times(2)).merge(any(BackupPart.class));
 		verify(newBackupPart2, never()).addAddition(anyString(), any(File.class));
-		verify(newBackupPart2, never()).addModification(anyString(), any(File.class));
+		verify(newBackupPart2, never()).addModification(anyString(), any(File.class), any());
 		verify(newBackupPart2, never()).addRemoval(anyString());
 		verify(newBackupPart2, times(2)).merge(any(BackupPart.class));
 		
@@ -387,7 +436,7 @@ class SimpleBackupTest {
 		
 		// Verify that no changes were added to the new backup parts without using merge().
 		verify(newBackupPart, never()).addAddition(anyString(), any(File.class));
-		verify(newBackupPart, never()).addModification(anyString(), any(File.class));
+		verify(newBackupPart, never()).addModification(anyString(), any(File.class), any());
 		verify(newBackupPart, never()).addRemoval(anyString());
 		verify(newBackupPart, times(3)).merge(any(BackupPart.class));
 		
@@ -466,6 +515,216 @@ class SimpleBackupTest {
 		}
 	}
 	
+	/**
+	 * Tests that {@link SimpleBackup#readFile(long, String)} reads a file from the most recent backup part that
+	 * contains it before the given date, without reading older backup parts.
+	 * @throws Exception
+	 */
+	@Test
+	void testReadFile() throws Exception {
+		
+		// Create mocked backend in which file1 is added, modified and removed.
+		InputStream addedInStream = mock(InputStream.class);
+		InputStream modifiedInStream = mock(InputStream.class);
+		Map<String, ChangeType> changes1 = new HashMap<String, ChangeType>();
+		changes1.put(FILE1, ChangeType.ADDITION);
+		BackupPart backupPart1 = mockBackupPart(10000L, changes1, null);
+		doReturn(addedInStream).when(backupPart1).readFile(eq(FILE1), any());
+		Map<String, ChangeType> changes2 = new HashMap<String, ChangeType>();
+		changes2.put(FILE1, ChangeType.MODIFICATION);
+		BackupPart backupPart2 = mockBackupPart(20000L, changes2, null);
+		doReturn(modifiedInStream).when(backupPart2).readFile(eq(FILE1), any());
+		Map<String, ChangeType> changes3 = new HashMap<String, ChangeType>();
+		changes3.put(FILE1, ChangeType.REMOVAL);
+		BackupPart backupPart3 = mockBackupPart(30000L, changes3, null);
+		BackupPartFactory backupPartFactory = mockBackupPartFactory(
+				mock(BackupPart.class), Arrays.asList(backupPart1, backupPart2, backupPart3));
+		
+		// Create backup.
+		Backup backup = new SimpleBackup(TO_BACKUP_DIR, backupPartFactory, mock(Logger.class));
+		
+		// Verify that the file is read from the proper backup part.
+		backup.readFile(15000L, FILE1).close();
+		verify(addedInStream, times(1)).close();
+		backup.readFile(25000L, FILE1).close();
+		verify(modifiedInStream, times(1)).close();
+		assertThat(backup.readFile(35000L, FILE1)).isNull();
+		assertThat(backup.readFile(35000L, "file2")).isNull();
+		assertThrows(BackupException.class, () -> backup.readFile(5000L, FILE1));
+		
+		// Verify that the removed file version was found without reading older backup parts.
+		verify(backupPart3, never()).readFile(anyString(), any());
+		verify(backupPart2, times(1)).readFile(eq(FILE1), any());
+		verify(backupPart1, times(1)).readFile(eq(FILE1), any());
+	}
+	
+	/**
+	 * Tests that merges wait until streams returned by {@link SimpleBackup#readFile(long, String)} are closed, so that
+	 * the backup parts that these streams read from are not removed while reading.
+	 */
+	@Test
+	void testMergeWaitsForReadFile() throws Exception {
+		
+		// Create mocked backend in which file1 is added.
+		Map<String, ChangeType> changes = new HashMap<String, ChangeType>();
+		changes.put(FILE1, ChangeType.ADDITION);
+		BackupPart backupPart = mockBackupPart(10000L, changes, null);
+		doReturn(mock(InputStream.class)).when(backupPart).readFile(eq(FILE1), any());
+		BackupPartFactory backupPartFactory = mockBackupPartFactory(mock(BackupPart.class), Arrays.asList(backupPart));
+		
+		// Create backup.
+		Backup backup = new SimpleBackup(TO_BACKUP_DIR, backupPartFactory, mock(Logger.class));
+		
+		// Start a merge while the file is being read.
+		InputStream inStream = backup.readFile(15000L, FILE1);
+		ExecutorService threadPool = Executors.newSingleThreadExecutor();
+		try {
+			Future<Void> mergeFuture = threadPool.submit(() -> {
+				backup.merge(Collections.emptyList(), 20000L);
+				return null;
+			});
+			
+			// Verify that the merge only finishes after the stream is closed.
+			assertThrows(TimeoutException.class, () -> mergeFuture.get(200, TimeUnit.MILLISECONDS));
+			inStream.close();
+			mergeFuture.get(10, TimeUnit.SECONDS);
+		} finally {
+			threadPool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Tests that the state index stays valid for the stored backup parts when backing up without changes, when
+	 * backing up changes and when merging, and that it is used after reloading the backup.
+	 */
+	@Test
+	void testStateIndex() throws Exception {
+		File baseDir = new File(SimpleBackupTest.class.getSimpleName() + "-stateindex-temp");
+		if(baseDir.exists()) {
+			fail("Temporary test directory already exists: " + baseDir.getAbsolutePath());
+		}
+		try {
+			
+			// Create a directory to backup and a backup with a state index.
+			File toBackupDir = new File(baseDir, "toBackup");
+			File storageDir = new File(baseDir, "backups");
+			File file1 = new File(toBackupDir, FILE1);
+			File file2 = new File(toBackupDir, "dir1" + File.separator + "file2");
+			assertThat(file2.getParentFile().mkdirs()).isTrue();
+			Files.write(file1.toPath(), new byte[] {1, 2, 3});
+			Files.write(file2.toPath(), new byte[] {4, 5});
+			BackupStateIndex stateIndex = new BackupStateIndex(new File(storageDir, ".stateindex"));
+			SimpleBackup backup = new SimpleBackup(toBackupDir, new ZipFileBackupPartFactory(storageDir),
+					Logger.getLogger(SimpleBackupTest.class.getName()));
+			backup.setStateIndex(stateIndex);
+			
+			// Perform an initial backup, a backup without changes and a backup with changes.
+			backup.backup(10000L);
+			assertStateIndexValid(stateIndex, storageDir, 1);
+			backup.backup(20000L);
+			assertStateIndexValid(stateIndex, storageDir, 1);
+			Files.write(file1.toPath(), new byte[] {6, 7, 8, 9});
+			assertThat(file2.delete()).isTrue();
+			backup.backup(30000L);
+			assertStateIndexValid(stateIndex, storageDir, 2);
+			
+			// Merge the backup parts and perform a backup with changes.
+			backup.merge(35000L);
+			assertStateIndexValid(stateIndex, storageDir, 1);
+			Files.write(file2.toPath(), new byte[] {10});
+			backup.backup(40000L);
+			assertStateIndexValid(stateIndex, storageDir, 2);
+			
+			// Reload the backup, perform a backup without changes and assert that the files can be read.
+			backup = new SimpleBackup(toBackupDir, new ZipFileBackupPartFactory(storageDir),
+					Logger.getLogger(SimpleBackupTest.class.getName()));
+			backup.setStateIndex(stateIndex);
+			backup.backup(50000L);
+			assertStateIndexValid(stateIndex, storageDir, 2);
+			assertThat(ZippedBackupPartTest.readAll(backup.readFile(35000L, FILE1))).isEqualTo(new byte[] {6, 7, 8, 9});
+			assertThat(backup.readFile(35000L, "dir1" + File.separator + "file2")).isNull();
+			assertThat(ZippedBackupPartTest.readAll(backup.readFile(45000L, "dir1" + File.separator + "file2")))
+					.isEqualTo(new byte[] {10});
+		} finally {
+			TestUtils.deleteFile(baseDir);
+		}
+	}
+	
+	/**
+	 * Tests that files that change after the staging copy was made are backed up by the next backup when using a
+	 * dirty path tracker, rather than being compared with the outdated staging copy and forgotten.
+	 */
+	@Test
+	void testStagedBackupWithDirtyPathTracker() throws Exception {
+		File baseDir = new File(SimpleBackupTest.class.getSimpleName() + "-staging-temp");
+		if(baseDir.exists()) {
+			fail("Temporary test directory already exists: " + baseDir.getAbsolutePath());
+		}
+		DirtyPathTracker tracker = null;
+		try {
+			
+			// Create a directory to backup and a backup with a staging directory and a dirty path tracker.
+			File toBackupDir = new File(baseDir, "toBackup");
+			File file1 = new File(toBackupDir, FILE1);
+			File file2 = new File(toBackupDir, "file2");
+			assertThat(toBackupDir.mkdirs()).isTrue();
+			Files.write(file1.toPath(), new byte[] {1});
+			Files.write(file2.toPath(), new byte[] {2});
+			File storageDir = new File(baseDir, "backups");
+			SimpleBackup backup = new SimpleBackup(toBackupDir, new ZipFileBackupPartFactory(storageDir),
+					Logger.getLogger(SimpleBackupTest.class.getName()));
+			backup.setStagingDir(new StagingDirectory(new File(baseDir, "staging"), false));
+			tracker = new DirtyPathTracker(toBackupDir, Collections.emptyList(), 0);
+			backup.setDirtyPathTracker(tracker);
+			tracker.start();
+			long startTime = System.currentTimeMillis();
+			while(!tracker.isWatching()) {
+				if(System.currentTimeMillis() - startTime > 10000) {
+					fail("Dirty path tracker did not start watching.");
+				}
+				Thread.sleep(10);
+			}
+			
+			// Perform an initial staged backup.
+			backup.stage();
+			backup.backup(10000L);
+			
+			// Change a file before and a file after staging, and give the tracker time to receive the changes.
+			Files.write(file1.toPath(), new byte[] {3, 3});
+			Thread.sleep(500);
+			backup.stage();
+			Files.write(file2.toPath(), new byte[] {4, 4});
+			Thread.sleep(500);
+			
+			// Assert that the backup contains the staged files, and that the next backup contains the later change.
+			backup.backup(20000L);
+			assertThat(ZippedBackupPartTest.readAll(backup.readFile(25000L, FILE1))).isEqualTo(new byte[] {3, 3});
+			assertThat(ZippedBackupPartTest.readAll(backup.readFile(25000L, "file2"))).isEqualTo(new byte[] {2});
+			backup.stage();
+			backup.backup(30000L);
+			assertThat(ZippedBackupPartTest.readAll(backup.readFile(35000L, "file2"))).isEqualTo(new byte[] {4, 4});
+		} finally {
+			if(tracker != null) {
+				tracker.close();
+			}
+			TestUtils.deleteFile(baseDir);
+		}
+	}
+	
+	/**
+	 * Asserts that the given state index is valid for the backup parts in the given storage directory.
+	 * @param stateIndex - The state index.
+	 * @param storageDir - The storage directory of the backup parts.
+	 * @param backupPartCount - The expected amount of backup parts.
+	 * @throws IOException If an I/O error has occurred.
+	 */
+	private static void assertStateIndexValid(BackupStateIndex stateIndex, File storageDir, int backupPartCount)
+			throws IOException {
+		List<BackupPart> backupParts = new ZipFileBackupPartFactory(storageDir).readAllBefore(-1);
+		assertThat(backupParts.size()).isEqualTo(backupPartCount);
+		assertThat(stateIndex.read(backupParts)).isNotNull();
+	}
+	
 	/**
 	 * Creates a {@link BackupPartFactory} mock.
 	 * @param newBackupPart - The BackupPart to return on {@link BackupPartFactory#createNew(long)}.
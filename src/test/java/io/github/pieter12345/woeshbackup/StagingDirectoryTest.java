@@ -0,0 +1,124 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link StagingDirectory} class.
+ * @author P.J.S. Kools
+ */
+class StagingDirectoryTest {
+	
+	static final File BASE_DIR = new File(StagingDirectoryTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that synchronizing copies new and changed files with their last modified time, leaves files with unchanged
+	 * metadata alone and removes files and directories that no longer exist or that are ignored.
+	 */
+	@Test
+	void testSync() throws Exception {
+		
+		// Create a directory to stage.
+		File sourceDir = new File(BASE_DIR, "sync-source");
+		write(new File(sourceDir, "file1"), new byte[] {1, 2, 3}, 10000L);
+		write(new File(sourceDir, "dir1" + File.separator + "file2"), new byte[] {4, 5}, 20000L);
+		write(new File(sourceDir, "dir2" + File.separator + "file3"), new byte[] {6}, 30000L);
+		write(new File(sourceDir, "ignored"), new byte[] {7}, 40000L);
+		
+		// Stage the directory and assert that all files that are not ignored were copied.
+		StagingDirectory staging = new StagingDirectory(new File(BASE_DIR, "sync-staging"), false);
+		StagingDirectory.SyncResult result = staging.sync(sourceDir, Collections.singleton("ignored"));
+		assertThat(result.getCopiedFileCount()).isEqualTo(3);
+		assertThat(result.getRemovedFileCount()).isEqualTo(0);
+		assertThat(result.usedReflinks()).isFalse();
+		assertStaged(staging, "file1", new byte[] {1, 2, 3}, 10000L);
+		assertStaged(staging, "dir1" + File.separator + "file2", new byte[] {4, 5}, 20000L);
+		assertStaged(staging, "dir2" + File.separator + "file3", new byte[] {6}, 30000L);
+		assertThat(new File(staging.getDir(), "ignored").exists()).isFalse();
+		
+		// Change the staged copy of file1 without changing its metadata, change file2, remove dir2 and replace file1.
+		write(new File(staging.getDir(), "file1"), new byte[] {8, 8, 8}, 10000L);
+		write(new File(sourceDir, "dir1" + File.separator + "file2"), new byte[] {9, 9, 9}, 50000L);
+		TestUtils.deleteFile(new File(sourceDir, "dir2"));
+		
+		// Stage the directory again and assert that only the changed file was copied.
+		result = staging.sync(sourceDir, Arrays.asList("ignored"));
+		assertThat(result.getCopiedFileCount()).isEqualTo(1);
+		assertThat(result.getRemovedFileCount()).isEqualTo(2);
+		assertStaged(staging, "file1", new byte[] {8, 8, 8}, 10000L);
+		assertStaged(staging, "dir1" + File.separator + "file2", new byte[] {9, 9, 9}, 50000L);
+		assertThat(new File(staging.getDir(), "dir2").exists()).isFalse();
+		
+		// Replace a file by a directory and the other way around.
+		TestUtils.deleteFile(new File(sourceDir, "dir1"));
+		write(new File(sourceDir, "dir1"), new byte[] {10}, 60000L);
+		assertThat(new File(sourceDir, "file1").delete()).isTrue();
+		write(new File(sourceDir, "file1" + File.separator + "file4"), new byte[] {11}, 70000L);
+		staging.sync(sourceDir, Collections.emptySet());
+		assertStaged(staging, "dir1", new byte[] {10}, 60000L);
+		assertStaged(staging, "file1" + File.separator + "file4", new byte[] {11}, 70000L);
+		assertStaged(staging, "ignored", new byte[] {7}, 40000L);
+		
+		// Assert that the staging copy is removed on delete.
+		staging.delete();
+		assertThat(staging.getDir().exists()).isFalse();
+	}
+	
+	/**
+	 * Tests that files are staged when reflinks are requested, regardless of whether the file system supports them.
+	 */
+	@Test
+	void testSyncWithReflinks() throws Exception {
+		File sourceDir = new File(BASE_DIR, "reflink-source");
+		write(new File(sourceDir, "file1"), new byte[] {1, 2, 3}, 10000L);
+		write(new File(sourceDir, "dir1" + File.separator + "file2"), new byte[] {4, 5}, 20000L);
+		StagingDirectory staging = new StagingDirectory(new File(BASE_DIR, "reflink-staging"), true);
+		assertThat(staging.sync(sourceDir, Collections.emptySet()).getCopiedFileCount()).isEqualTo(2);
+		assertStaged(staging, "file1", new byte[] {1, 2, 3}, 10000L);
+		assertStaged(staging, "dir1" + File.separator + "file2", new byte[] {4, 5}, 20000L);
+	}
+	
+	private static void write(File file, byte[] bytes, long lastModified) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), bytes);
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified));
+	}
+	
+	private static void assertStaged(StagingDirectory staging, String relPath, byte[] bytes, long lastModified)
+			throws IOException {
+		File file = new File(staging.getDir(), relPath);
+		assertThat(Files.readAllBytes(file.toPath())).isEqualTo(bytes);
+		assertThat(Files.getLastModifiedTime(file.toPath()).toMillis()).isEqualTo(lastModified);
+	}
+}
@@ -0,0 +1,145 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.StatCache.FileStat;
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link StatCache} class.
+ * @author P.J.S. Kools
+ */
+class StatCacheTest {
+	
+	static final File BASE_DIR = new File(StatCacheTest.class.getSimpleName() + "-temp");
+	static final String FILE1 = "file1";
+	static final String FILE2 = "dir" + File.separator + "file2";
+	static final FileStat OLD_STAT = new FileStat(100, TimeUnit.SECONDS.toNanos(1000), "(dev=1,ino=2)");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that recorded file metadata is persisted and only used for the backup state that it was recorded for.
+	 */
+	@Test
+	void testPersistAndAnchor() throws Exception {
+		File cacheFile = new File(BASE_DIR, "testPersistAndAnchor");
+		
+		// Record file metadata and store the cache.
+		StatCache cache = new StatCache(cacheFile, 0);
+		assertThat(cache.beginRun(-1)).isFalse();
+		cache.record(FILE1, OLD_STAT);
+		cache.record(FILE2, OLD_STAT);
+		cache.finishRun(1000);
+		
+		// Assert that a new cache instance reads the recorded metadata for the same backup state.
+		StatCache readCache = new StatCache(cacheFile, 0);
+		assertThat(readCache.beginRun(1000)).isTrue();
+		assertThat(readCache.isUnchanged(FILE1, OLD_STAT)).isTrue();
+		assertThat(readCache.isUnchanged(FILE2, OLD_STAT)).isTrue();
+		assertThat(readCache.isUnchanged(FILE1, new FileStat(101, TimeUnit.SECONDS.toNanos(1000), "(dev=1,ino=2)")))
+				.isFalse();
+		assertThat(readCache.isUnchanged(FILE1, null)).isFalse();
+		readCache.abortRun();
+		
+		// Assert that the cache is not used for a different backup state.
+		StatCache otherCache = new StatCache(cacheFile, 0);
+		assertThat(otherCache.beginRun(2000)).isFalse();
+		assertThat(otherCache.isUnchanged(FILE1, OLD_STAT)).isFalse();
+	}
+	
+	/**
+	 * Tests that entries of files that were not examined during a run are carried over to the next run.
+	 */
+	@Test
+	void testCarryOver() throws Exception {
+		StatCache cache = new StatCache(new File(BASE_DIR, "testCarryOver"), 0);
+		cache.beginRun(-1);
+		cache.record(FILE1, OLD_STAT);
+		cache.record(FILE2, OLD_STAT);
+		cache.finishRun(1000);
+		
+		// Examine only FILE2 without recording it and assert that only FILE1 is carried over.
+		assertThat(cache.beginRun(1000)).isTrue();
+		cache.carryOver((relPath) -> relPath.equals(FILE2));
+		cache.finishRun(2000);
+		assertThat(cache.beginRun(2000)).isTrue();
+		assertThat(cache.isUnchanged(FILE1, OLD_STAT)).isTrue();
+		assertThat(cache.isUnchanged(FILE2, OLD_STAT)).isFalse();
+	}
+	
+	/**
+	 * Tests that the cache is not used every fullRehashInterval runs and that rebasing moves the cache.
+	 */
+	@Test
+	void testFullRehashIntervalAndRebase() throws Exception {
+		File cacheFile = new File(BASE_DIR, "testFullRehashIntervalAndRebase");
+		StatCache cache = new StatCache(cacheFile, 3);
+		assertThat(cache.beginRun(-1)).isFalse();
+		cache.record(FILE1, OLD_STAT);
+		cache.finishRun(1000);
+		
+		// Assert that every third run does not use the cache.
+		assertThat(cache.beginRun(1000)).isTrue();
+		cache.record(FILE1, OLD_STAT);
+		cache.finishRun(1000);
+		assertThat(cache.beginRun(1000)).isTrue();
+		cache.record(FILE1, OLD_STAT);
+		cache.finishRun(1000);
+		assertThat(cache.beginRun(1000)).isFalse();
+		cache.record(FILE1, OLD_STAT);
+		cache.finishRun(1000);
+		
+		// Assert that rebasing moves the cache to the new backup state.
+		cache.rebase(1000, 500);
+		StatCache readCache = new StatCache(cacheFile, 3);
+		assertThat(readCache.beginRun(500)).isTrue();
+		assertThat(readCache.isUnchanged(FILE1, OLD_STAT)).isTrue();
+		readCache.abortRun();
+		
+		// Assert that invalidating the cache removes the cache file.
+		readCache.invalidate();
+		assertThat(cacheFile.exists()).isFalse();
+	}
+	
+	/**
+	 * Tests that metadata of recently modified files is not recorded.
+	 */
+	@Test
+	void testRecentlyModifiedFileNotRecorded() throws Exception {
+		File cacheFile = new File(BASE_DIR, "testRecentlyModifiedFileNotRecorded");
+		StatCache cache = new StatCache(cacheFile, 0);
+		cache.beginRun(-1);
+		FileStat recentStat = new FileStat(100,
+				TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()), "(dev=1,ino=2)");
+		cache.record(FILE1, recentStat);
+		cache.finishRun(1000);
+		assertThat(cache.beginRun(1000)).isTrue();
+		assertThat(cache.isUnchanged(FILE1, recentStat)).isFalse();
+	}
+}
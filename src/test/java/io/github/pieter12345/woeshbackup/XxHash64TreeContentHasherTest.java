@@ -0,0 +1,94 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.io.Files;
+
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link XxHash64TreeContentHasher} and {@link XxHash64} classes.
+ * @author P.J.S. Kools
+ */
+class XxHash64TreeContentHasherTest {
+	
+	static final File BASE_DIR = new File(XxHash64TreeContentHasherTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that {@link XxHash64} produces the reference hashes, also when the input is split over multiple updates.
+	 */
+	@Test
+	void testXxHash64() {
+		assertThat(XxHash64.hash(new byte[0], 0, 0)).isEqualTo(0xEF46DB3751D8E999L);
+		byte[] abc = "abc".getBytes(StandardCharsets.UTF_8);
+		assertThat(XxHash64.hash(abc, 0, abc.length)).isEqualTo(0x44BC2CF5AD770999L);
+		byte[] bytes = "Nobody inspects the spammish repetition".getBytes(StandardCharsets.UTF_8);
+		assertThat(XxHash64.hash(bytes, 0, bytes.length)).isEqualTo(0xFBCEA83C8A378BF1L);
+		for(int split = 0; split <= bytes.length; split++) {
+			XxHash64 hash = new XxHash64();
+			hash.update(bytes, 0, split);
+			hash.update(bytes, split, bytes.length - split);
+			assertThat(hash.getValue()).isEqualTo(0xFBCEA83C8A378BF1L);
+		}
+	}
+	
+	/**
+	 * Tests that large files that are hashed in parallel get the same hash as when hashed sequentially, and that a
+	 * change in a single byte changes the hash.
+	 */
+	@Test
+	void testParallelHash() throws Exception {
+		
+		// Create a file of multiple leaves with a partial last leaf.
+		byte[] bytes = new byte[9 * 1024 * 1024 + 12345];
+		new Random(0).nextBytes(bytes);
+		File file = new File(BASE_DIR, "file");
+		Files.write(bytes, file);
+		
+		// Assert that the parallel and sequential hashes are equal.
+		ContentHasher hasher = ContentHasher.XXH64_TREE;
+		String hash = hasher.hash(file);
+		assertThat(hash).isEqualTo(hasher.hash(bytes));
+		ContentHasher.Digest digest = hasher.newDigest();
+		for(int offset = 0; offset < bytes.length; offset += 100000) {
+			digest.update(bytes, offset, Math.min(100000, bytes.length - offset));
+		}
+		assertThat(digest.digest()).isEqualTo(hash);
+		
+		// Assert that changing a byte changes the hash.
+		bytes[5 * 1024 * 1024]++;
+		Files.write(bytes, file);
+		assertThat(hasher.hash(file)).isNotEqualTo(hash);
+		
+		// Assert that content of different lengths does not result in the same hash.
+		assertThat(hasher.hash(new byte[0])).isNotEqualTo(hasher.hash(new byte[1]));
+	}
+}
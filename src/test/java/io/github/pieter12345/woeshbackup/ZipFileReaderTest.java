@@ -0,0 +1,215 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link ZipFileReader} class.
+ * @author P.J.S. Kools
+ */
+class ZipFileReaderTest {
+	
+	static final File BASE_DIR = new File(ZipFileReaderTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that single entries and selections of entries are read using the central directory, both from zip files
+	 * written by {@link ZipFileWriter} and by {@link ZipOutputStream}.
+	 */
+	@Test
+	void testRandomAccess() throws Exception {
+		
+		// Create the entries.
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		for(int i = 0; i < 10; i++) {
+			byte[] bytes = new byte[i * 1000];
+			Arrays.fill(bytes, (byte) i);
+			entries.put("dir" + File.separator + "file" + i, bytes);
+		}
+		
+		// Write the entries using a ZipFileWriter and a ZipOutputStream.
+		File writerZip = new File(BASE_DIR, "writer.zip");
+		ZipFileWriter writer = new ZipFileWriter(writerZip);
+		writer.open();
+		writer.add("dir" + File.separator);
+		for(Entry<String, byte[]> entry : entries.entrySet()) {
+			writer.add(entry.getKey(), entry.getValue());
+		}
+		writer.close();
+		File outStreamZip = new File(BASE_DIR, "outStream.zip");
+		ZipOutputStream zipOutStream = new ZipOutputStream(new FileOutputStream(outStreamZip));
+		try {
+			zipOutStream.putNextEntry(new ZipEntry("dir/"));
+			for(Entry<String, byte[]> entry : entries.entrySet()) {
+				zipOutStream.putNextEntry(new ZipEntry(entry.getKey().replace(File.separatorChar, '/')));
+				zipOutStream.write(entry.getValue());
+			}
+		} finally {
+			zipOutStream.close();
+		}
+		
+		// Assert that single entries are read and that missing entries and directories are not.
+		for(File zipFile : new File[] {writerZip, outStreamZip}) {
+			ZipFileReader reader = new ZipFileReader(zipFile);
+			for(Entry<String, byte[]> entry : entries.entrySet()) {
+				assertThat(reader.read(entry.getKey())).isEqualTo(entry.getValue());
+				assertThat(readAll(reader.openStream(entry.getKey()))).isEqualTo(entry.getValue());
+			}
+			assertThat(reader.read("dir" + File.separator + "missing")).isNull();
+			assertThat(reader.openStream("dir" + File.separator)).isNull();
+			
+			// Assert that only the selected entries are read, in the order in which they are stored.
+			List<String> readPaths = new ArrayList<String>();
+			reader.readAll(Arrays.asList("dir" + File.separator + "file7", "dir" + File.separator + "missing",
+					"dir" + File.separator + "file2", "dir" + File.separator), (fileEntry) -> {
+						readPaths.add(fileEntry.getRelativePath());
+						if(!fileEntry.isDirectory()) {
+							assertThat(readAll(fileEntry.getFileStream()))
+									.isEqualTo(entries.get(fileEntry.getRelativePath()));
+						}
+					});
+			assertThat(readPaths).containsExactly("dir" + File.separator,
+					"dir" + File.separator + "file2", "dir" + File.separator + "file7");
+		}
+	}
+	
+	/**
+	 * Tests that the cached central directory is read again when the zip file changes.
+	 */
+	@Test
+	void testIndexRefresh() throws Exception {
+		File file = new File(BASE_DIR, "refresh.zip");
+		ZipFileWriter writer = new ZipFileWriter(file);
+		writer.open();
+		writer.add("file1", new byte[] {1, 2, 3});
+		writer.close();
+		ZipFileReader reader = new ZipFileReader(file);
+		assertThat(reader.read("file1")).isEqualTo(new byte[] {1, 2, 3});
+		assertThat(reader.read("file2")).isNull();
+		
+		// Rewrite the zip file with different entries.
+		writer.open();
+		writer.add("file2", new byte[] {4, 5, 6, 7});
+		writer.close();
+		assertThat(reader.read("file1")).isNull();
+		assertThat(reader.read("file2")).isEqualTo(new byte[] {4, 5, 6, 7});
+	}
+	
+	/**
+	 * Tests that reading stored and deflated entries of which the contents were changed throws a
+	 * {@link ZipException}, rather than returning the changed contents.
+	 */
+	@Test
+	void testCorruptedEntry() throws Exception {
+		
+		// Write a stored and a deflated entry with random contents, which are stored as-is within the deflated data.
+		Random random = new Random(0);
+		byte[] storedBytes = new byte[1000];
+		byte[] deflatedBytes = new byte[1000];
+		random.nextBytes(storedBytes);
+		random.nextBytes(deflatedBytes);
+		File file = new File(BASE_DIR, "corrupted.zip");
+		ZipOutputStream zipOutStream = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			ZipEntry storedEntry = new ZipEntry("stored");
+			CRC32 crc = new CRC32();
+			crc.update(storedBytes);
+			storedEntry.setMethod(ZipEntry.STORED);
+			storedEntry.setSize(storedBytes.length);
+			storedEntry.setCrc(crc.getValue());
+			zipOutStream.putNextEntry(storedEntry);
+			zipOutStream.write(storedBytes);
+			zipOutStream.putNextEntry(new ZipEntry("deflated"));
+			zipOutStream.write(deflatedBytes);
+		} finally {
+			zipOutStream.close();
+		}
+		ZipFileReader reader = new ZipFileReader(file);
+		assertThat(reader.read("stored")).isEqualTo(storedBytes);
+		assertThat(reader.read("deflated")).isEqualTo(deflatedBytes);
+		
+		// Flip a byte in the contents of both entries.
+		byte[] zipBytes = Files.readAllBytes(file.toPath());
+		for(byte[] bytes : new byte[][] {storedBytes, deflatedBytes}) {
+			int index = indexOf(zipBytes, Arrays.copyOfRange(bytes, 500, 532));
+			assertThat(index).isNotEqualTo(-1);
+			zipBytes[index] ^= 0x01;
+		}
+		Files.write(file.toPath(), zipBytes);
+		
+		// Assert that reading the entries throws an exception.
+		for(String relPath : new String[] {"stored", "deflated"}) {
+			assertThrows(ZipException.class, () -> reader.read(relPath));
+			assertThrows(ZipException.class, () -> readAll(reader.openStream(relPath)));
+			InvocationTargetException e = assertThrows(InvocationTargetException.class,
+					() -> reader.readAll(Arrays.asList(relPath), (fileEntry) -> readAll(fileEntry.getFileStream())));
+			assertThat(e.getCause()).isInstanceOf(ZipException.class);
+		}
+	}
+	
+	private static int indexOf(byte[] bytes, byte[] pattern) {
+		for(int i = 0; i <= bytes.length - pattern.length; i++) {
+			if(Arrays.equals(Arrays.copyOfRange(bytes, i, i + pattern.length), pattern)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static byte[] readAll(InputStream inStream) throws IOException {
+		try {
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[2048];
+			int count;
+			while((count = inStream.read(buffer)) != -1) {
+				outStream.write(buffer, 0, count);
+			}
+			return outStream.toByteArray();
+		} finally {
+			inStream.close();
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package io.github.pieter12345.woeshbackup;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.pieter12345.woeshbackup.utils.TestUtils;
+
+/**
+ * Tests the {@link ZipFileWriter} class.
+ * @author P.J.S. Kools
+ */
+class ZipFileWriterTest {
+	
+	static final File BASE_DIR = new File(ZipFileWriterTest.class.getSimpleName() + "-temp");
+	static boolean baseDirWasCreated = false;
+	
+	@BeforeAll
+	static void initAll() throws IOException {
+		if(BASE_DIR.exists()) {
+			fail("Temporary test directory already exists: " + BASE_DIR.getAbsolutePath());
+		}
+		if(!BASE_DIR.mkdir()) {
+			fail("Temporary test directory could not be created: " + BASE_DIR.getAbsolutePath());
+		}
+		baseDirWasCreated = true;
+	}
+	
+	@AfterAll
+	static void tearDownAll() {
+		if(baseDirWasCreated) {
+			TestUtils.deleteFile(BASE_DIR);
+		}
+	}
+	
+	/**
+	 * Tests that entries of multiple deflate blocks can be read using {@link ZipFile} and that the compressed
+	 * entries do not depend on the amount of threads.
+	 */
+	@Test
+	void testWriteMultiThreaded() throws Exception {
+		
+		// Create entry contents that are partially compressible and span multiple deflate blocks.
+		Random random = new Random(0);
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		for(int size : new int[] {0, 100, 512 * 1024, 512 * 1024 + 1, 3000000}) {
+			byte[] bytes = new byte[size];
+			for(int i = 0; i < size; i++) {
+				bytes[i] = (byte) (i % 1000 < 500 ? random.nextInt(256) : i % 13);
+			}
+			entries.put("dir/file" + size, bytes);
+		}
+		
+		// Write the entries using a single thread and using multiple threads.
+		File singleThreadedZip = writeZip("singleThreaded.zip", 1, entries);
+		File multiThreadedZip = writeZip("multiThreaded.zip", 4, entries);
+		
+		// Assert that both zip files contain the entries with equal compressed sizes.
+		ZipFile singleThreadedZipFile = new ZipFile(singleThreadedZip);
+		ZipFile multiThreadedZipFile = new ZipFile(multiThreadedZip);
+		try {
+			assertThat(multiThreadedZipFile.getEntry("dir/")).isNotNull();
+			for(Entry<String, byte[]> entry : entries.entrySet()) {
+				ZipEntry singleThreadedEntry = singleThreadedZipFile.getEntry(entry.getKey());
+				ZipEntry multiThreadedEntry = multiThreadedZipFile.getEntry(entry.getKey());
+				assertThat(readAll(multiThreadedZipFile.getInputStream(multiThreadedEntry)))
+						.isEqualTo(entry.getValue());
+				assertThat(multiThreadedEntry.getCompressedSize()).isEqualTo(singleThreadedEntry.getCompressedSize());
+				assertThat(multiThreadedEntry.getCrc()).isEqualTo(singleThreadedEntry.getCrc());
+			}
+		} finally {
+			singleThreadedZipFile.close();
+			multiThreadedZipFile.close();
+		}
+	}
+	
+	/**
+	 * Tests that the compression policy stores incompressible and matched entries without compression, and that the
+	 * stored entries can be read using both {@link ZipFile} and {@link ZipInputStream}.
+	 */
+	@Test
+	void testCompressionPolicy() throws Exception {
+		
+		// Create incompressible entries of a single and multiple blocks and compressible entries.
+		Random random = new Random(0);
+		byte[] randomSmall = new byte[10000];
+		random.nextBytes(randomSmall);
+		byte[] randomLarge = new byte[1200000];
+		random.nextBytes(randomLarge);
+		byte[] compressible = new byte[100000];
+		for(int i = 0; i < compressible.length; i++) {
+			compressible[i] = (byte) (i % 13);
+		}
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		entries.put("dir/randomSmall", randomSmall);
+		entries.put("dir/randomLarge", randomLarge);
+		entries.put("dir/compressible", compressible);
+		entries.put("dir/image.PNG", compressible);
+		entries.put("dir/forced/randomSmall", randomSmall);
+		entries.put("dir/tiny", new byte[] {1, 2, 3});
+		
+		// Write the zip file.
+		File file = new File(BASE_DIR, "compressionPolicy.zip");
+		ZipFileWriter writer = new ZipFileWriter(file, 2);
+		writer.setCompressionPolicy(new CompressionPolicy(CompressionPolicy.Mode.AUTO).addStoreExtension("png")
+				.addDeflateGlob("dir/forced/*").setMinDeflateSize(64));
+		writer.open();
+		for(Entry<String, byte[]> entry : entries.entrySet()) {
+			writer.add(entry.getKey(), entry.getValue());
+		}
+		writer.close();
+		
+		// Assert that the entries are stored or deflated as expected.
+		ZipFile zipFile = new ZipFile(file);
+		try {
+			assertThat(zipFile.getEntry("dir/randomSmall").getMethod()).isEqualTo(ZipEntry.STORED);
+			assertThat(zipFile.getEntry("dir/randomLarge").getMethod()).isEqualTo(ZipEntry.STORED);
+			assertThat(zipFile.getEntry("dir/compressible").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+			assertThat(zipFile.getEntry("dir/image.PNG").getMethod()).isEqualTo(ZipEntry.STORED);
+			assertThat(zipFile.getEntry("dir/forced/randomSmall").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+			assertThat(zipFile.getEntry("dir/tiny").getMethod()).isEqualTo(ZipEntry.STORED);
+			for(Entry<String, byte[]> entry : entries.entrySet()) {
+				assertThat(readAll(zipFile.getInputStream(zipFile.getEntry(entry.getKey()))))
+						.isEqualTo(entry.getValue());
+			}
+		} finally {
+			zipFile.close();
+		}
+		ZipInputStream zipInStream = new ZipInputStream(new FileInputStream(file));
+		try {
+			int count = 0;
+			ZipEntry zipEntry;
+			while((zipEntry = zipInStream.getNextEntry()) != null) {
+				assertThat(readAllNoClose(zipInStream)).isEqualTo(entries.get(zipEntry.getName()));
+				count++;
+			}
+			assertThat(count).isEqualTo(entries.size());
+		} finally {
+			zipInStream.close();
+		}
+		
+		// Assert that the statistics contain the stored and deflated entries.
+		ZipFileWriter.CompressionStatistics statistics = writer.getStatistics();
+		assertThat(statistics.getStoredEntryCount()).isEqualTo(4);
+		assertThat(statistics.getStoredSize()).isEqualTo(randomSmall.length + randomLarge.length
+				+ compressible.length + 3);
+		assertThat(statistics.getCompressedEntryCount()).isEqualTo(2);
+		assertThat(statistics.getCompressedSize()).isLessThan(statistics.getCompressedEntriesSize());
+	}
+	
+	/**
+	 * Tests that entries compressed using a codec other than deflate are decoded by all {@link ZipFileReader}
+	 * methods, and that entries stored by the compression policy are not compressed by the codec.
+	 */
+	@Test
+	void testCodec() throws Exception {
+		CompressionCodec codec = new ZstdCodec();
+		assumeTrue(codec.isAvailable());
+		
+		// Write a zip file containing a compressible, an incompressible and an empty entry.
+		byte[] compressible = new byte[700000];
+		for(int i = 0; i < compressible.length; i++) {
+			compressible[i] = (byte) (i % 13);
+		}
+		byte[] incompressible = new byte[10000];
+		new Random(0).nextBytes(incompressible);
+		File file = new File(BASE_DIR, "codec.zip");
+		ZipFileWriter writer = new ZipFileWriter(file);
+		writer.setCodec(codec);
+		writer.setCompressionPolicy(new CompressionPolicy(CompressionPolicy.Mode.AUTO));
+		writer.open();
+		writer.add("dir" + File.separator);
+		writer.add("dir" + File.separator + "compressible", compressible);
+		writer.add("dir" + File.separator + "incompressible", incompressible);
+		writer.add("dir" + File.separator + "empty", new byte[0]);
+		writer.close();
+		assertThat(file.length()).isLessThan(incompressible.length + compressible.length / 10);
+		
+		// Assert that all reading methods decode the entries.
+		ZipFileReader reader = new ZipFileReader(file);
+		String compressiblePath = "dir" + File.separator + "compressible";
+		assertThat(reader.read(compressiblePath)).isEqualTo(compressible);
+		assertThat(readAll(reader.openStream(compressiblePath))).isEqualTo(compressible);
+		assertThat(readAll(reader.openStream("dir" + File.separator + "incompressible"))).isEqualTo(incompressible);
+		Map<String, byte[]> readEntries = reader.readAll();
+		assertThat(readEntries.get(compressiblePath)).isEqualTo(compressible);
+		assertThat(readEntries.get("dir" + File.separator + "incompressible")).isEqualTo(incompressible);
+		assertThat(readEntries.get("dir" + File.separator + "empty")).isEqualTo(new byte[0]);
+		Map<String, byte[]> handledEntries = new LinkedHashMap<String, byte[]>();
+		reader.readAll((fileEntry) -> handledEntries.put(fileEntry.getRelativePath(),
+				(fileEntry.isDirectory() ? null : readAllNoClose(fileEntry.getFileStream()))));
+		assertThat(handledEntries.get(compressiblePath)).isEqualTo(compressible);
+		assertThat(handledEntries.size()).isEqualTo(4);
+	}
+	
+	/**
+	 * Tests that raw entries of zip files written by {@link ZipFileWriter} and by {@link ZipOutputStream} can be
+	 * copied without recompressing them, and that their decompressed contents can be read.
+	 */
+	@Test
+	void testAddRaw() throws Exception {
+		
+		// Create deflated entries of a single and multiple blocks, a stored entry and an empty entry.
+		Random random = new Random(0);
+		byte[] incompressible = new byte[10000];
+		random.nextBytes(incompressible);
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		for(int size : new int[] {100, 3000000}) {
+			byte[] bytes = new byte[size];
+			for(int i = 0; i < size; i++) {
+				bytes[i] = (byte) (i % 1000 < 500 ? random.nextInt(256) : i % 13);
+			}
+			entries.put("dir" + File.separator + "file" + size, bytes);
+		}
+		entries.put("dir" + File.separator + "incompressible", incompressible);
+		entries.put("dir" + File.separator + "empty", new byte[0]);
+		
+		// Write the entries using a ZipFileWriter and a ZipOutputStream.
+		File writerZip = new File(BASE_DIR, "addRawWriter.zip");
+		ZipFileWriter writer = new ZipFileWriter(writerZip);
+		writer.setCompressionPolicy(new CompressionPolicy(CompressionPolicy.Mode.AUTO));
+		writer.open();
+		writer.add("dir" + File.separator);
+		for(Entry<String, byte[]> entry : entries.entrySet()) {
+			writer.add(entry.getKey(), entry.getValue());
+		}
+		writer.close();
+		File outStreamZip = new File(BASE_DIR, "addRawOutStream.zip");
+		ZipOutputStream zipOutStream = new ZipOutputStream(new FileOutputStream(outStreamZip));
+		try {
+			zipOutStream.putNextEntry(new ZipEntry("dir/"));
+			for(Entry<String, byte[]> entry : entries.entrySet()) {
+				zipOutStream.putNextEntry(new ZipEntry(entry.getKey().replace(File.separatorChar, '/')));
+				zipOutStream.write(entry.getValue());
+			}
+		} finally {
+			zipOutStream.close();
+		}
+		
+		// Copy the raw entries of both zip files and assert that their contents and compressed sizes are kept.
+		for(File sourceZip : new File[] {writerZip, outStreamZip}) {
+			File copyZip = new File(BASE_DIR, "copy-" + sourceZip.getName());
+			ZipFileWriter copyWriter = new ZipFileWriter(copyZip);
+			copyWriter.open();
+			Map<String, byte[]> rawEntries = new LinkedHashMap<String, byte[]>();
+			new ZipFileReader(sourceZip).readAllRaw((rawEntry) -> {
+				rawEntries.put(rawEntry.getRelativePath(),
+						(rawEntry.isDirectory() ? null : readAll(rawEntry.openStream())));
+				copyWriter.addRaw(rawEntry.getRelativePath(), rawEntry);
+			});
+			copyWriter.close();
+			assertThat(rawEntries.remove("dir" + File.separator)).isNull();
+			assertThat(rawEntries.keySet()).containsExactlyInAnyOrderElementsOf(entries.keySet());
+			assertThat(copyWriter.getStatistics().getCopiedEntryCount()).isEqualTo(entries.size());
+			ZipFile sourceZipFile = new ZipFile(sourceZip);
+			ZipFile copyZipFile = new ZipFile(copyZip);
+			try {
+				assertThat(copyZipFile.getEntry("dir/")).isNotNull();
+				for(Entry<String, byte[]> entry : entries.entrySet()) {
+					String name = entry.getKey().replace(File.separatorChar, '/');
+					assertThat(rawEntries.get(entry.getKey())).isEqualTo(entry.getValue());
+					assertThat(readAll(copyZipFile.getInputStream(copyZipFile.getEntry(name))))
+							.isEqualTo(entry.getValue());
+					assertThat(copyZipFile.getEntry(name).getCompressedSize())
+							.isEqualTo(sourceZipFile.getEntry(name).getCompressedSize());
+				}
+			} finally {
+				sourceZipFile.close();
+				copyZipFile.close();
+			}
+		}
+	}
+	
+	private static File writeZip(String name, int threadCount, Map<String, byte[]> entries) throws IOException {
+		File file = new File(BASE_DIR, name);
+		ZipFileWriter writer = new ZipFileWriter(file, threadCount);
+		writer.open();
+		writer.add("dir" + File.separator);
+		for(Entry<String, byte[]> entry : entries.entrySet()) {
+			writer.add(entry.getKey(), entry.getValue());
+		}
+		writer.close();
+		return file;
+	}
+	
+	private static byte[] readAll(InputStream inStream) throws IOException {
+		byte[] bytes = readAllNoClose(inStream);
+		inStream.close();
+		return bytes;
+	}
+	
+	private static byte[] readAllNoClose(InputStream inStream) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[2048];
+		int count;
+		while((count = inStream.read(buffer)) != -1) {
+			outStream.write(buffer, 0, count);
+		}
+		return outStream.toByteArray();
+	}
+}
@@ -2,14 +2,20 @@ package io.github.pieter12345.woeshbackup;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -137,6 +143,291 @@ class ZippedBackupPartTest {
 		});
 	}
 	
+	/**
+	 * Tests that a modified region file is stored as a modification and can be read using its previous version,
+	 * resulting in exactly the stored file, including the unused bytes between chunks.
+	 */
+	@Test
+	void testRegionFileModification() throws Exception {
+		
+		// Create two versions of a region file that differ in one chunk and that contain non-zero unused bytes.
+		Map<Integer, byte[]> chunks = new TreeMap<Integer, byte[]>();
+		chunks.put(0, RegionFileDeltaTest.createChunk(1, 50000));
+		chunks.put(1, RegionFileDeltaTest.createChunk(2, 50000));
+		File regionDir = createDir(BASE_DIR, "testRegionFileModification");
+		File previousRegion = createFile(
+				regionDir, "r.0.0.mca.old", RegionFileDeltaTest.createRegion(chunks, 1500000000, 10));
+		chunks.put(1, RegionFileDeltaTest.createChunk(3, 50000));
+		byte[] regionBytes = RegionFileDeltaTest.createRegion(chunks, 1500000000, 10);
+		File region = createFile(regionDir, "r.0.0.mca", regionBytes);
+		String relPath = fileToRelPath(regionDir, region);
+		
+		// Write a backup part containing the previous version and a backup part containing the modification.
+		BackupPart previousPart = new ZippedBackupPart(regionDir, "previous", 1000);
+		previousPart.addAddition(relPath, previousRegion);
+		previousPart.close();
+		BackupPart writePart = new ZippedBackupPart(regionDir, "modified", 2000);
+		writePart.addModification(relPath, region, () -> previousPart.readFile(relPath, null));
+		writePart.close();
+		assertThat(new File(regionDir, "modified.zip").length()).isLessThan(region.length() / 2);
+		
+		// Verify that the modified file is read using the previous version.
+		BackupPart readPart = new ZippedBackupPart(regionDir, "modified", 2000);
+		readPart.readChanges();
+		assertThat(readPart.getChanges()).containsEntry(relPath, ChangeType.MODIFICATION);
+		assertThat(readPart.contains(relPath, region, true)).isTrue();
+		byte[] readBytes = readAll(readPart.readFile(relPath, () -> previousPart.readFile(relPath, null)));
+		assertThat(readBytes).isEqualTo(regionBytes);
+		assertThrows(CorruptedBackupException.class, () -> {
+			readPart.readFile(relPath, () -> null);
+		});
+		
+		// Verify that the read file matches the stored digest.
+		File readRegion = createFile(regionDir, "r.0.0.mca.read", readBytes);
+		assertThat(readPart.matchesDigest(readPart.getDigest(relPath), readRegion)).isTrue();
+	}
+	
+	/**
+	 * Tests that unchanged region files are detected using their header fingerprint when all chunk timestamps are
+	 * older than the backup part, and by their contents otherwise.
+	 */
+	@Test
+	void testRegionFileFingerprint() throws Exception {
+		
+		// Create a region file with old chunk timestamps and a region file with recent chunk timestamps.
+		Map<Integer, byte[]> chunks = new TreeMap<Integer, byte[]>();
+		chunks.put(0, RegionFileDeltaTest.createChunk(1, 5000));
+		File regionDir = createDir(BASE_DIR, "testRegionFileFingerprint");
+		long time = System.currentTimeMillis();
+		byte[] oldRegionBytes = RegionFileDeltaTest.createRegion(chunks);
+		byte[] recentRegionBytes = RegionFileDeltaTest.createRegion(chunks, (int) (time / 1000));
+		File oldRegion = createFile(regionDir, "r.0.0.mca", oldRegionBytes);
+		File recentRegion = createFile(regionDir, "r.0.1.mca", recentRegionBytes);
+		
+		// Write and read the backup part.
+		BackupPart writePart = new ZippedBackupPart(regionDir, "part", time);
+		writePart.addAddition(fileToRelPath(regionDir, oldRegion), oldRegion);
+		writePart.addAddition(fileToRelPath(regionDir, recentRegion), recentRegion);
+		writePart.close();
+		BackupPart readPart = new ZippedBackupPart(regionDir, "part", time);
+		readPart.readChanges();
+		
+		// Change the chunk data without changing the headers.
+		// The contents of the region file with old chunk timestamps are not read, as its header did not change.
+		oldRegionBytes[2 * 4096 + 10]++;
+		recentRegionBytes[2 * 4096 + 10]++;
+		Files.write(oldRegionBytes, oldRegion);
+		Files.write(recentRegionBytes, recentRegion);
+		assertThat(readPart.contains(fileToRelPath(regionDir, oldRegion), oldRegion, true)).isTrue();
+		assertThat(readPart.contains(fileToRelPath(regionDir, recentRegion), recentRegion, true)).isFalse();
+		
+		// Rewrite the header without changing the chunks and assert that this is detected by content comparison.
+		Files.write(RegionFileDeltaTest.createRegion(chunks, 1500000001), oldRegion);
+		assertThat(readPart.contains(fileToRelPath(regionDir, oldRegion), oldRegion, true)).isFalse();
+	}
+	
+	/**
+	 * Tests that a modified large file is stored as a binary difference with its previous version.
+	 */
+	@Test
+	void testBinaryModification() throws Exception {
+		
+		// Create two versions of a file that differ by an insertion.
+		byte[] previousBytes = RegionFileDeltaTest.createChunk(1, 300000);
+		byte[] bytes = new byte[previousBytes.length + 10];
+		System.arraycopy(previousBytes, 0, bytes, 0, 100000);
+		System.arraycopy(previousBytes, 100000, bytes, 100010, previousBytes.length - 100000);
+		File dir = createDir(BASE_DIR, "testBinaryModification");
+		File previousFile = createFile(dir, "file.old", previousBytes);
+		File file = createFile(dir, "file.db", bytes);
+		String relPath = fileToRelPath(dir, file);
+		
+		// Write a backup part containing the previous version and a backup part containing the modification.
+		BackupPart previousPart = new ZippedBackupPart(dir, "previous", 1000);
+		previousPart.addAddition(relPath, previousFile);
+		previousPart.close();
+		BackupPart writePart = new ZippedBackupPart(dir, "modified", 2000);
+		writePart.addModification(relPath, file, () -> previousPart.readFile(relPath, null));
+		writePart.close();
+		assertThat(new File(dir, "modified.zip").length()).isLessThan(file.length() / 10);
+		
+		// Verify that the modified file is read using the previous version.
+		BackupPart readPart = new ZippedBackupPart(dir, "modified", 2000);
+		readPart.readChanges();
+		assertThat(readPart.getChanges()).containsEntry(relPath, ChangeType.MODIFICATION);
+		assertThat(readPart.contains(relPath, file, true)).isTrue();
+		assertThat(readAll(readPart.readFile(relPath, () -> previousPart.readFile(relPath, null))))
+				.isEqualTo(bytes);
+	}
+	
+	/**
+	 * Tests that the content hasher is stored in the meta file, that legacy text meta files with and without a format
+	 * version are read and that meta files with an unsupported format version are rejected.
+	 */
+	@Test
+	void testContentHasher() throws Exception {
+		File dir = createDir(BASE_DIR, "testContentHasher");
+		byte[] bytes = new byte[] {1, 2, 3};
+		File file = createFile(dir, "file", bytes);
+		String relPath = fileToRelPath(dir, file);
+		
+		// Write and read a backup part using MD5 and a backup part using the xxHash64 tree content hasher.
+		for(ContentHasher hasher : new ContentHasher[] {ContentHasher.MD5, ContentHasher.XXH64_TREE}) {
+			String name = hasher.getName();
+			BackupPart writePart = new ZippedBackupPart(dir, name, 1000, 1, hasher);
+			writePart.addAddition(relPath, file);
+			writePart.close();
+			BackupPart readPart = new ZippedBackupPart(dir, name, 1000, 1, ContentHasher.XXH64_TREE);
+			readPart.readChanges();
+			assertThat(readPart.contains(relPath, file, true)).isTrue();
+			assertThat(readPart.getDigest(relPath)).isEqualTo(name + ":" + hasher.hash(bytes));
+		}
+		
+		// Assert that legacy text meta files are read.
+		Files.write(("+" + relPath + "\n\t" + ContentHasher.MD5.hash(bytes) + "\n#legacy\n").getBytes("UTF-8"),
+				new File(dir, "legacy.meta"));
+		Files.write(("!2\txxh64-tree\n+" + relPath + "\n\t" + ContentHasher.XXH64_TREE.hash(bytes)
+				+ "\n-removed\n#text\n").getBytes("UTF-8"), new File(dir, "text.meta"));
+		for(String name : new String[] {"legacy", "text"}) {
+			BackupPart textPart = new ZippedBackupPart(dir, name, 1000);
+			textPart.readChanges();
+			assertThat(textPart.contains(relPath, file, true)).isTrue();
+		}
+		BackupPart textPart = new ZippedBackupPart(dir, "text", 1000);
+		textPart.readChanges();
+		assertThat(textPart.getChanges()).containsEntry("removed", ChangeType.REMOVAL);
+		
+		// Assert that a meta file with an unsupported format version is rejected.
+		Files.write(("!3\txxh64-tree\n-" + relPath + "\n#unsupported\n").getBytes("UTF-8"),
+				new File(dir, "unsupported.meta"));
+		BackupPart unsupportedPart = new ZippedBackupPart(dir, "unsupported", 1000);
+		assertThrows(CorruptedBackupException.class, () -> unsupportedPart.readChanges());
+	}
+	
+	/**
+	 * Tests that binary meta files store all changes with front-coded paths and that corrupted and truncated binary
+	 * meta files are rejected.
+	 */
+	@Test
+	void testBinaryMetaFile() throws Exception {
+		File dir = createDir(BASE_DIR, "testBinaryMetaFile");
+		File file = createFile(dir, "file", new byte[] {1, 2, 3});
+		
+		// Write a backup part containing paths with shared prefixes and all change types.
+		ZippedBackupPart writePart = new ZippedBackupPart(dir, "binary", 1000);
+		Map<String, ChangeType> expectedChanges = new HashMap<String, ChangeType>();
+		for(int i = 0; i < 20; i++) {
+			String dirPath = "dir" + (i % 3) + File.separator;
+			if(!expectedChanges.containsKey(dirPath)) {
+				writePart.addAddition(dirPath, null);
+				expectedChanges.put(dirPath, ChangeType.ADDITION);
+			}
+			writePart.addAddition(dirPath + "file\u00E9" + i, file);
+			expectedChanges.put(dirPath + "file\u00E9" + i, ChangeType.ADDITION);
+			writePart.addRemoval(dirPath + "removed" + i);
+			expectedChanges.put(dirPath + "removed" + i, ChangeType.REMOVAL);
+		}
+		writePart.close();
+		
+		// Assert that the changes and digests are read.
+		ZippedBackupPart readPart = new ZippedBackupPart(dir, "binary", 1000);
+		readPart.readChanges();
+		assertThat(readPart.getChanges()).isEqualTo(expectedChanges);
+		for(String relPath : expectedChanges.keySet()) {
+			assertThat(readPart.getDigest(relPath)).isEqualTo(writePart.getDigest(relPath));
+		}
+		assertThat(readAll(readPart.readFile("dir1" + File.separator + "file\u00E91", null)))
+				.isEqualTo(new byte[] {1, 2, 3});
+		
+		// Assert that a meta file with a flipped bit or a missing footer is rejected.
+		File metaFile = new File(dir, "binary.meta");
+		byte[] metaBytes = Files.toByteArray(metaFile);
+		byte[] corruptedBytes = metaBytes.clone();
+		corruptedBytes[metaBytes.length / 2] ^= 0x01;
+		Files.write(corruptedBytes, metaFile);
+		assertThrows(CorruptedBackupException.class, () -> new ZippedBackupPart(dir, "binary", 1000).readChanges());
+		Files.write(Arrays.copyOf(metaBytes, metaBytes.length - 4), metaFile);
+		assertThrows(CorruptedBackupException.class, () -> new ZippedBackupPart(dir, "binary", 1000).readChanges());
+	}
+	
+	/**
+	 * Tests that the codec is stored in the meta file, and that backup parts using different codecs can be merged.
+	 */
+	@Test
+	void testCodec() throws Exception {
+		CompressionCodec codec = new Lz4Codec();
+		assumeTrue(codec.isAvailable());
+		File dir = createDir(BASE_DIR, "testCodec");
+		byte[] bytes = new byte[100000];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (i % 13);
+		}
+		File file = createFile(dir, "file", bytes);
+		String relPath = fileToRelPath(dir, file);
+		
+		// Write a backup part using the codec.
+		ZippedBackupPart writePart = new ZippedBackupPart(dir, "lz4", 1000);
+		writePart.setCodec(codec);
+		writePart.addAddition(relPath, file);
+		writePart.close();
+		
+		// Read the backup part and merge it into a backup part using deflate.
+		ZippedBackupPart readPart = new ZippedBackupPart(dir, "lz4", 1000);
+		readPart.readChanges();
+		assertThat(readPart.getCodecName()).isEqualTo(Lz4Codec.NAME);
+		assertThat(readAll(readPart.readFile(relPath, null))).isEqualTo(bytes);
+		ZippedBackupPart mergePart = new ZippedBackupPart(dir, "deflate", 2000);
+		mergePart.merge(readPart);
+		mergePart.close();
+		ZippedBackupPart readMergePart = new ZippedBackupPart(dir, "deflate", 2000);
+		readMergePart.readChanges();
+		assertThat(readMergePart.getCodecName()).isEqualTo(DeflateCodec.NAME);
+		assertThat(readAll(readMergePart.readFile(relPath, null))).isEqualTo(bytes);
+		assertThat(readMergePart.contains(relPath, file, true)).isTrue();
+	}
+	
+	/**
+	 * Tests that merging copies the compressed entries of additions and modifications, keeping their hashes.
+	 */
+	@Test
+	void testMergeCopiesEntries() throws Exception {
+		File dir = createDir(BASE_DIR, "testMergeCopiesEntries");
+		byte[] bytes = new byte[200000];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (i % 13);
+		}
+		File file = createFile(dir, "file", bytes);
+		String relPath = fileToRelPath(dir, file);
+		
+		// Write a backup part containing an addition and a backup part containing its binary modification.
+		ZippedBackupPart part1 = new ZippedBackupPart(dir, "part1", 1000);
+		part1.addAddition(relPath, file);
+		part1.close();
+		bytes[1000] = 1;
+		Files.write(bytes, file);
+		ZippedBackupPart part2 = new ZippedBackupPart(dir, "part2", 2000);
+		part2.addModification(relPath, file, () -> part1.readFile(relPath, null));
+		part2.close();
+		assertThat(part2.getChanges()).containsEntry(relPath, ChangeType.MODIFICATION);
+		
+		// Merge the backup parts and assert that both entries were copied.
+		ZippedBackupPart mergePart1 = new ZippedBackupPart(dir, "merge1", 1000);
+		mergePart1.merge(part1);
+		mergePart1.close();
+		ZippedBackupPart mergePart2 = new ZippedBackupPart(dir, "merge2", 2000);
+		mergePart2.merge(part2);
+		mergePart2.close();
+		assertThat(mergePart2.getSummary()).contains("Copied 1 compressed entries");
+		ZippedBackupPart readPart1 = new ZippedBackupPart(dir, "merge1", 1000);
+		readPart1.readChanges();
+		ZippedBackupPart readPart2 = new ZippedBackupPart(dir, "merge2", 2000);
+		readPart2.readChanges();
+		assertThat(readPart2.getChanges()).containsEntry(relPath, ChangeType.MODIFICATION);
+		assertThat(readPart2.getDigest(relPath)).isEqualTo(part2.getDigest(relPath));
+		assertThat(readPart2.contains(relPath, file, true)).isTrue();
+		assertThat(readAll(readPart2.readFile(relPath, () -> readPart1.readFile(relPath, null)))).isEqualTo(bytes);
+	}
+	
 	static File createFile(File baseDir, String fileName, byte[] fileBytes) throws IOException {
 		File file = new File(baseDir, fileName);
 		assert !file.exists() : "File already exists.";
@@ -154,6 +445,17 @@ class ZippedBackupPartTest {
 		return file;
 	}
 	
+	static byte[] readAll(InputStream inStream) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[2048];
+		int count;
+		while((count = inStream.read(buffer)) != -1) {
+			outStream.write(buffer, 0, count);
+		}
+		inStream.close();
+		return outStream.toByteArray();
+	}
+	
 	static String fileToRelPath(File parent, File file) {
 		String prefix = parent.getAbsolutePath() + File.separator;
 		String absPath = file.getAbsolutePath();